@@ -0,0 +1,45 @@
+package com.v1ct04.benchstack.concurrent;
+
+import com.google.common.util.concurrent.Futures;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls items from a queue refilled by an operation that completes immediately, so
+ * that both the polls and the refills are measured without any I/O.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BottomlessQueueBenchmark {
+
+    @Param({"1", "100"})
+    public int fetchSize;
+
+    private BottomlessQueue<Integer> mQueue;
+
+    @Setup
+    public void setUp() {
+        List<Integer> items = Collections.nCopies(fetchSize, 42);
+        mQueue = new BottomlessQueue<>(() -> Futures.immediateFuture(items));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Integer poll() throws ExecutionException, InterruptedException {
+        return mQueue.poll().get();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Integer pollContended() throws ExecutionException, InterruptedException {
+        return mQueue.poll().get();
+    }
+}
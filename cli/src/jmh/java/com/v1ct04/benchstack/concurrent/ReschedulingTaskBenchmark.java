@@ -0,0 +1,66 @@
+package com.v1ct04.benchstack.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for the executions of a task rescheduled without delay, measuring the overhead
+ * of each reschedule. Every benchmark thread runs its own task on a shared executor, as
+ * the workers of a pool do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReschedulingTaskBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Executor {
+        ScheduledExecutorService executor;
+
+        @Setup
+        public void setUp() {
+            executor = Executors.newScheduledThreadPool(4);
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Task {
+        ReschedulingTask task;
+
+        @Setup
+        public void setUp(Executor executor) {
+            task = ReschedulingTask.builder(executor.executor)
+                    .setFixedDelay(0, TimeUnit.NANOSECONDS)
+                    .start(() -> {});
+        }
+
+        @TearDown
+        public void tearDown() {
+            task.cancel(false);
+            task.awaitTermination();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean reschedule(Task task) {
+        return task.task.awaitExecution();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean rescheduleContended(Task task) {
+        return task.task.awaitExecution();
+    }
+}
@@ -0,0 +1,58 @@
+package com.v1ct04.benchstack.concurrent;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls {@link SingleAsyncPerformer#perform()} both while an operation is ongoing, when
+ * it's returned without locking, and when the condition to perform doesn't hold, when
+ * it's checked under the lock.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SingleAsyncPerformerBenchmark {
+
+    private SingleAsyncPerformer<Void> mOngoing;
+    private SingleAsyncPerformer<Void> mSkipped;
+
+    @Setup
+    public void setUp() {
+        // never completes, so every call after the first one joins it
+        SettableFuture<Void> operation = SettableFuture.create();
+        mOngoing = SingleAsyncPerformer.doing(() -> operation).build();
+        mOngoing.perform();
+
+        mSkipped = SingleAsyncPerformer.doing(() -> operation).onlyWhen(() -> false).build();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ListenableFuture<Void> performOngoing() {
+        return mOngoing.perform();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ListenableFuture<Void> performOngoingContended() {
+        return mOngoing.perform();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ListenableFuture<Void> performSkipped() {
+        return mSkipped.perform();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ListenableFuture<Void> performSkippedContended() {
+        return mSkipped.perform();
+    }
+}
@@ -0,0 +1,59 @@
+package com.v1ct04.benchstack.driver;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends the latency of every execution to a calculator shared by all workers, while
+ * the benchmark polls the percentile, as in the compliance checks of the search steps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PercentileCalculatorBenchmark {
+
+    private PercentileCalculator mCalculator;
+
+    @Setup
+    public void setUp() {
+        mCalculator = new PercentileCalculator(100, 60);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void appendValue() {
+        mCalculator.appendValue(ThreadLocalRandom.current().nextInt(110));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void appendValueContended() {
+        mCalculator.appendValue(ThreadLocalRandom.current().nextInt(110));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public double getCurrentPercentile() {
+        return mCalculator.getCurrentPercentile();
+    }
+
+    @Benchmark
+    @Group("appendWhilePolling")
+    @GroupThreads(3)
+    public void appendWhilePollingAppend() {
+        mCalculator.appendValue(ThreadLocalRandom.current().nextInt(110));
+    }
+
+    @Benchmark
+    @Group("appendWhilePolling")
+    @GroupThreads(1)
+    public double appendWhilePollingPercentile() {
+        return mCalculator.getCurrentPercentile();
+    }
+}
@@ -0,0 +1,40 @@
+package com.v1ct04.benchstack.driver;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draws the think time of a worker, from a generator shared by all of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RandomDelayGeneratorBenchmark {
+
+    @Param({"2", "8"})
+    public int degreesOfFreedom;
+
+    private RandomDelayGenerator mGenerator;
+
+    @Setup
+    public void setUp() {
+        mGenerator = new RandomDelayGenerator(1000, degreesOfFreedom);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public double getAsDouble() {
+        return mGenerator.getAsDouble();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public double getAsDoubleContended() {
+        return mGenerator.getAsDouble();
+    }
+}
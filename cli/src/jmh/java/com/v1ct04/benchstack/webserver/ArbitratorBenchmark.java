@@ -0,0 +1,42 @@
+package com.v1ct04.benchstack.webserver;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks an operation of a mix weighted like the one of the Pokestack benchmark, once per
+ * execution of every worker.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArbitratorBenchmark {
+
+    private Arbitrator<Integer> mArbitrator;
+
+    @Setup
+    public void setUp() {
+        Arbitrator.Builder<Integer> builder = Arbitrator.builder();
+        int[] weights = {40, 20, 10, 10, 8, 5, 4, 2, 1};
+        for (int i = 0; i < weights.length; i++) {
+            builder.addFunction(weights[i], i);
+        }
+        mArbitrator = builder.build();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Integer arbitrate() {
+        return mArbitrator.arbitrate();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Integer arbitrateContended() {
+        return mArbitrator.arbitrate();
+    }
+}
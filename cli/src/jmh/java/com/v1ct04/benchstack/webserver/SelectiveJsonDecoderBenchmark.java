@@ -0,0 +1,78 @@
+package com.v1ct04.benchstack.webserver;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes a response shaped like the one of {@code /api/user/:id/pokemons}, fully as
+ * the HTTP clients used to and selectively as {@code PokeStackClient} does now.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectiveJsonDecoderBenchmark {
+
+    private static final JsonSelection RESULT = JsonSelection.of("success", "err");
+    private static final JsonSelection IDS = JsonSelection.of("success", "err", "data.pokemon[]._id");
+
+    @Param({"200"})
+    public int pokemons;
+
+    private byte[] mBody;
+
+    @Setup
+    public void setUp() {
+        JSONArray list = new JSONArray();
+        for (int i = 0; i < pokemons; i++) {
+            list.put(new JSONObject()
+                    .put("_id", String.format("57f4e5c3a8b1d2f0e4c3%04x", i))
+                    .put("number", i % 151 + 1)
+                    .put("name", "Pokemon #" + i)
+                    .put("level", i % 40 + 1)
+                    .put("hp", 100 + i)
+                    .put("trainer", "57f4e5c3a8b1d2f0e4c3b2a1")
+                    .put("location", new JSONObject()
+                            .put("type", "Point")
+                            .put("coordinates", new JSONArray().put(-46.6 - i * 1e-4).put(-23.5 + i * 1e-4)))
+                    .put("moves", new JSONArray().put("tackle").put("growl").put("quick attack")));
+        }
+        mBody = new JSONObject()
+                .put("success", 1)
+                .put("data", new JSONObject().put("pokemon", list))
+                .toString()
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public JSONObject decodeJSONObject() {
+        return new JSONObject(new String(mBody, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public JSONObject decodeAll() {
+        return decode(JsonSelection.ALL);
+    }
+
+    @Benchmark
+    public JSONObject decodeResult() {
+        return decode(RESULT);
+    }
+
+    @Benchmark
+    public JSONObject decodeIds() {
+        return decode(IDS);
+    }
+
+    private JSONObject decode(JsonSelection selection) {
+        SelectiveJsonDecoder decoder = selection.newDecoder();
+        decoder.feed(mBody, 0, mBody.length);
+        return decoder.finish();
+    }
+}
@@ -0,0 +1,112 @@
+package com.v1ct04.benchstack.webserver.impl;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.v1ct04.benchstack.webserver.JsonSelection;
+import com.v1ct04.benchstack.webserver.PreparedRequest;
+import com.v1ct04.benchstack.webserver.RequestTemplate;
+import org.apache.http.message.BasicNameValuePair;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the URI and body of each request, with a client that doesn't send them,
+ * either from scratch or from a {@link RequestTemplate} bound to the user.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AbstractRestfulHttpClientBenchmark {
+
+    private static final String USER_ID = "57f4e5c3a8b1d2f0e4c3b2a1";
+    private static final String NEARBY_PATH = "/api/nearby/" + USER_ID + "/pokestop/closest";
+    private static final BasicNameValuePair COUNT = new BasicNameValuePair("count", "10");
+
+    private AbstractRestfulHttpClient mClient;
+    private JSONObject mBody;
+    private RequestTemplate mNearby;
+    private RequestTemplate mLure;
+
+    @Setup
+    public void setUp() {
+        mClient = new AbstractRestfulHttpClient(URI.create("http://localhost:3000")) {
+            @Override
+            protected ListenableFuture<JSONObject> doGet(String uri, JsonSelection selection) {
+                return Futures.immediateFuture(new JSONObject().put("uri", uri));
+            }
+
+            @Override
+            protected ListenableFuture<JSONObject> doPost(String uri, String jsonContent, JsonSelection selection) {
+                return Futures.immediateFuture(new JSONObject().put("uri", uri));
+            }
+
+            @Override
+            protected ListenableFuture<JSONObject> doSend(PreparedRequest request, JsonSelection selection) {
+                return Futures.immediateFuture(new JSONObject().put("path", request.path));
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        mBody = new JSONObject().put("userId", USER_ID).put("count", 100);
+        mNearby = RequestTemplate.get("/api/nearby/{id}/pokestop/closest?count={count}")
+                .bind("id", USER_ID).bind("count", 10);
+        mLure = RequestTemplate.post("/api/pokestop/{id}/lure", "{\"userId\": \"{userId}\", \"count\": {count}}")
+                .bind("userId", USER_ID).bind("count", 100);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ListenableFuture<JSONObject> doGet() {
+        return mClient.doGet(NEARBY_PATH, COUNT);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ListenableFuture<JSONObject> doGetContended() {
+        return mClient.doGet(NEARBY_PATH, COUNT);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ListenableFuture<JSONObject> doPost() {
+        return mClient.doPost("/api/pokemon/levelUp", mBody);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ListenableFuture<JSONObject> doPostContended() {
+        return mClient.doPost("/api/pokemon/levelUp", mBody);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ListenableFuture<JSONObject> sendGet() {
+        return mClient.send(JsonSelection.ALL, mNearby.prepare());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ListenableFuture<JSONObject> sendGetContended() {
+        return mClient.send(JsonSelection.ALL, mNearby.prepare());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ListenableFuture<JSONObject> sendPost() {
+        return mClient.send(JsonSelection.ALL, mLure.prepare("id", USER_ID));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ListenableFuture<JSONObject> sendPostContended() {
+        return mClient.send(JsonSelection.ALL, mLure.prepare("id", USER_ID));
+    }
+}
@@ -1,8 +1,13 @@
 package com.v1ct04.benchstack;
 
+import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
 import com.google.protobuf.TextFormat;
 import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.ExecutionBackend;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.HttpClientConfig;
+import com.v1ct04.benchstack.driver.StandInServerConfigWrapper.StandInServerConfig;
+import com.v1ct04.benchstack.webserver.TraceReplayer;
 import jline.TerminalFactory;
 import org.apache.commons.cli.*;
 import org.apache.http.client.utils.URIBuilder;
@@ -10,6 +15,7 @@ import org.slf4j.event.Level;
 
 import java.io.FileReader;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Comparator;
@@ -38,6 +44,38 @@ public class CommandLineOptions {
     public final URI serverAddress;
     public final Level logLevel;
     public final String logFile;
+    /**
+     * Port to listen on for a coordinator when running as an agent, or null otherwise.
+     */
+    public final Integer agentPort;
+    /**
+     * Agents to drive the load from when running as a coordinator, or empty otherwise.
+     */
+    public final List<InetSocketAddress> agents;
+    /**
+     * File to record the requests of the benchmark to, or null for none.
+     */
+    public final String recordTrace;
+    /**
+     * Trace file to replay instead of running a benchmark, or null otherwise.
+     */
+    public final String replayTrace;
+    public final double replaySpeed;
+    /**
+     * Threads to decode the responses of the server on, or 0 to decode them on the
+     * I/O threads of the HTTP client.
+     */
+    public final int decodeThreads;
+    /**
+     * Whether to measure the ceiling of the driver against an embedded server instead
+     * of running a benchmark, with the client of the configuration if one was chosen or
+     * with each of them otherwise.
+     */
+    public final boolean calibrate;
+    /**
+     * Model of the stand-in server to benchmark instead of a real one, or null otherwise.
+     */
+    public final StandInServerConfig standInConfig;
 
     private static final Options OPTIONS = new Options()
             .addOption(Option.builder("c")
@@ -46,6 +84,88 @@ public class CommandLineOptions {
                     .argName("file")
                     .desc("File with configuration for benchmark in Protocol Buffers text format.")
                     .build())
+            .addOption(Option.builder("b")
+                    .longOpt("backend")
+                    .hasArg()
+                    .argName("backend")
+                    .desc("Execution backend, overriding the one in the configuration file. Must be one of: async, platform_threads or virtual_threads (requires Java 21).")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("workloadMix")
+                    .hasArg()
+                    .argName("name")
+                    .desc("Search for the maximum compliant load with the given workload mix of the configuration file.")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("requestLog")
+                    .hasArg()
+                    .argName("path")
+                    .desc("Record every execution to a binary log with the given path prefix, to be analyzed with benchstack-requestlog.")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("recordTrace")
+                    .hasArg()
+                    .argName("file")
+                    .desc("Record every request sent to the server to a trace file, which can be replayed with --replayTrace.")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("replayTrace")
+                    .hasArg()
+                    .argName("file")
+                    .desc("Replay the requests of a trace file against the server instead of running a benchmark.")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("replaySpeed")
+                    .hasArg()
+                    .argName("factor")
+                    .desc("Multiple of the recorded pace to replay a trace at, or max to replay it as fast as possible. Default is 1.")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("decodeThreads")
+                    .hasArg()
+                    .argName("count")
+                    .desc("Decode the responses of the server on a pool of the given number of threads instead of the I/O threads of the HTTP client. Default is 0, for the I/O threads. Not supported by the nio client, which always decodes them on its I/O thread.")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("client")
+                    .hasArg()
+                    .argName("client")
+                    .desc("HTTP client implementation, overriding the one in the configuration file. Must be one of: ning, apache or nio. Default is ning.")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("calibrate")
+                    .desc("Measure the maximum load and minimum latency of the driver itself instead of benchmarking a server, by running the benchmark against an embedded loopback server with canned responses, once for each HTTP client implementation or only for the one given with --client.")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("standIn")
+                    .hasArg()
+                    .argName("file")
+                    .desc("Benchmark an embedded stand-in of the PokeStack server instead, with the stations of known capacity of the given file in Protocol Buffers text format, and compare the maximum compliant load found with the one predicted by queueing theory. Requires the OPEN_LOOP load mode.")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("metricsFile")
+                    .hasArg()
+                    .argName("file")
+                    .desc("Append a JSON line with the load and latency metrics of the benchmark to the given file every metrics interval.")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("metricsPort")
+                    .hasArg()
+                    .argName("port")
+                    .desc("Serve the latest metrics of the benchmark in the Prometheus text format at /metrics on the given port.")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("agent")
+                    .hasArg()
+                    .argName("port")
+                    .desc("Run as a load agent, listening on the given port for a coordinator started with --agents. The benchmark configuration is received from the coordinator.")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("agents")
+                    .hasArg()
+                    .argName("host:port,...")
+                    .desc("Run as a coordinator, generating the load from the given agents instead of from this process.")
+                    .build())
             .addOption(Option.builder("H")
                     .longOpt("host")
                     .hasArg()
@@ -88,7 +208,31 @@ public class CommandLineOptions {
         logLevel = Level.valueOf(cmd.getOptionValue("logLevel", "trace").toUpperCase());
         logFile = cmd.getOptionValue("logFile", "benchstack.log");
 
-        benchmarkConfig = parseConfig(cmd.getOptionValue("configFile"));
+        benchmarkConfig = parseConfig(cmd);
+        agentPort = cmd.hasOption("agent") ? Integer.valueOf(cmd.getOptionValue("agent")) : null;
+        agents = parseAgents(cmd.getOptionValue("agents", ""));
+        if (agentPort != null && !agents.isEmpty()) {
+            throw new ParseException("Options --agent and --agents are mutually exclusive");
+        }
+        recordTrace = cmd.getOptionValue("recordTrace");
+        replayTrace = cmd.getOptionValue("replayTrace");
+        replaySpeed = parseReplaySpeed(cmd.getOptionValue("replaySpeed", "1"));
+        if (replayTrace != null && (agentPort != null || !agents.isEmpty() || recordTrace != null)) {
+            throw new ParseException("Option --replayTrace can't be used with --agent, --agents or --recordTrace");
+        }
+        decodeThreads = parseDecodeThreads(cmd.getOptionValue("decodeThreads", "0"));
+        calibrate = cmd.hasOption("calibrate");
+        if (calibrate && (agentPort != null || !agents.isEmpty() || recordTrace != null || replayTrace != null)) {
+            throw new ParseException("Option --calibrate can't be used with --agent, --agents, --recordTrace or --replayTrace");
+        }
+        standInConfig = parseStandInConfig(cmd.getOptionValue("standIn"));
+        if (standInConfig != null && (calibrate || agentPort != null || !agents.isEmpty() || replayTrace != null)) {
+            throw new ParseException("Option --standIn can't be used with --calibrate, --agent, --agents or --replayTrace");
+        }
+        if (standInConfig != null && benchmarkConfig.getLoadMode() != BenchmarkConfig.LoadMode.OPEN_LOOP) {
+            // the prediction assumes Poisson arrivals, which only the open loop issues
+            throw new ParseException("Option --standIn requires the OPEN_LOOP load mode");
+        }
         serverAddress = new URIBuilder()
                 .setScheme("http")
                 .setHost(cmd.getOptionValue("host", "localhost"))
@@ -113,14 +257,94 @@ public class CommandLineOptions {
                 true);
     }
 
-    private static BenchmarkConfig parseConfig(String filename) throws IOException {
+    private static BenchmarkConfig parseConfig(CommandLine cmd) throws IOException, ParseException {
         BenchmarkConfig.Builder config = BenchmarkConfig.newBuilder();
-        if (filename != null) {
-            TextFormat.merge(new FileReader(filename), config);
+        if (cmd.hasOption("configFile")) {
+            TextFormat.merge(new FileReader(cmd.getOptionValue("configFile")), config);
+        }
+        String backend = cmd.getOptionValue("backend");
+        if (backend != null) {
+            try {
+                config.setExecutionBackend(ExecutionBackend.valueOf(backend.toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                throw new ParseException("Unknown execution backend: " + backend);
+            }
+        }
+        String client = cmd.getOptionValue("client");
+        if (client != null) {
+            try {
+                config.getHttpClientConfigBuilder()
+                        .setImplementation(HttpClientConfig.Implementation.valueOf(client.toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                throw new ParseException("Unknown HTTP client: " + client);
+            }
+        }
+        if (cmd.hasOption("workloadMix")) {
+            config.setSearchWorkloadMix(cmd.getOptionValue("workloadMix"));
+        }
+        if (cmd.hasOption("requestLog")) {
+            config.getRequestLogConfigBuilder().setPath(cmd.getOptionValue("requestLog"));
+        }
+        if (cmd.hasOption("metricsFile")) {
+            config.getMetricsConfigBuilder().setNdjsonPath(cmd.getOptionValue("metricsFile"));
+        }
+        if (cmd.hasOption("metricsPort")) {
+            try {
+                config.getMetricsConfigBuilder().setPrometheusPort(Integer.parseInt(cmd.getOptionValue("metricsPort")));
+            } catch (NumberFormatException e) {
+                throw new ParseException("Invalid metrics port: " + cmd.getOptionValue("metricsPort"));
+            }
         }
         return config.build();
     }
 
+    private static StandInServerConfig parseStandInConfig(String file) throws IOException {
+        if (file == null) return null;
+        StandInServerConfig.Builder config = StandInServerConfig.newBuilder();
+        TextFormat.merge(new FileReader(file), config);
+        return config.build();
+    }
+
+    private static double parseReplaySpeed(String speed) throws ParseException {
+        if (speed.equalsIgnoreCase("max")) {
+            return TraceReplayer.MAX_SPEED;
+        }
+        try {
+            double factor = Double.parseDouble(speed);
+            if (factor > 0) return factor;
+        } catch (NumberFormatException e) {
+            // handled below
+        }
+        throw new ParseException("Invalid replay speed: " + speed);
+    }
+
+    private static int parseDecodeThreads(String threads) throws ParseException {
+        try {
+            int count = Integer.parseInt(threads);
+            if (count >= 0) return count;
+        } catch (NumberFormatException e) {
+            // handled below
+        }
+        throw new ParseException("Invalid number of decode threads: " + threads);
+    }
+
+    private static List<InetSocketAddress> parseAgents(String agents) throws ParseException {
+        List<InetSocketAddress> addresses = Lists.newArrayList();
+        for (String agent : Splitter.on(',').trimResults().omitEmptyStrings().split(agents)) {
+            int separator = agent.lastIndexOf(':');
+            if (separator < 0) {
+                throw new ParseException("Missing port of agent: " + agent);
+            }
+            try {
+                int port = Integer.parseInt(agent.substring(separator + 1));
+                addresses.add(new InetSocketAddress(agent.substring(0, separator), port));
+            } catch (IllegalArgumentException e) {
+                throw new ParseException("Invalid agent address: " + agent);
+            }
+        }
+        return addresses;
+    }
+
     private static class FixedOrderComparator<V, A> implements Comparator<V> {
 
         private final Function<V, A> mExtractor;
@@ -1,35 +1,268 @@
 package com.v1ct04.benchstack;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.v1ct04.benchstack.concurrent.MoreFutures;
 import com.v1ct04.benchstack.driver.Benchmark;
 import com.v1ct04.benchstack.driver.BenchmarkAction;
+import com.v1ct04.benchstack.driver.BenchmarkAgent;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.HttpClientConfig;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.WorkloadMix;
+import com.v1ct04.benchstack.driver.ConnectionPoolStats;
+import com.v1ct04.benchstack.driver.OperationTag;
+import com.v1ct04.benchstack.driver.Statistics;
+import com.v1ct04.benchstack.webserver.RecordingHttpClient;
+import com.v1ct04.benchstack.webserver.RequestTraceReader;
+import com.v1ct04.benchstack.webserver.RequestTraceWriter;
 import com.v1ct04.benchstack.webserver.RestfulHttpClient;
+import com.v1ct04.benchstack.webserver.TraceReplayer;
 import com.v1ct04.benchstack.webserver.WebServerBenchmarkAction;
+import com.v1ct04.benchstack.webserver.impl.ApacheHttpClient;
+import com.v1ct04.benchstack.webserver.impl.CannedPokeStackServer;
 import com.v1ct04.benchstack.webserver.impl.NingHttpClient;
+import com.v1ct04.benchstack.webserver.impl.NioHttpClient;
 import com.v1ct04.benchstack.webserver.impl.PokeStackClient;
+import com.v1ct04.benchstack.webserver.impl.StandInPokeStackServer;
 import org.slf4j.event.Level;
 
 import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Main {
 
+    private static final int REPLAY_MAX_IN_FLIGHT = 1000;
+    private static final int CALIBRATION_IDLE_REQUESTS = 1000;
+    // leave most of the processors to the driver, it's the one being measured
+    private static final int CALIBRATION_SERVER_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+
     public static void main(String[] args) throws Exception {
         CommandLineOptions options = CommandLineOptions.parse(args);
         configLogging(options.logLevel, options.logFile);
 
-        try (RestfulHttpClient client = new NingHttpClient(options.serverAddress)) {
-            BenchmarkAction action = new WebServerBenchmarkAction(
-                    client, PokeStackClient::asyncCreate);
-            Benchmark bench = new Benchmark(options.benchmarkConfig, action);
+        if (!options.agents.isEmpty()) {
+            runBenchmark(Benchmark.distributed(options.benchmarkConfig, options.agents));
+            return;
+        }
+
+        if (options.replayTrace != null) {
+            replayTrace(options);
+            return;
+        }
+
+        if (options.calibrate) {
+            calibrate(options);
+            return;
+        }
+
+        if (options.standInConfig != null) {
+            benchmarkStandIn(options);
+            return;
+        }
+
+        try (RestfulHttpClient client = createHttpClient(options);
+             RequestTraceWriter trace = options.recordTrace != null ? new RequestTraceWriter(options.recordTrace) : null) {
+            WebServerBenchmarkAction.ClientFactory clientFactory = PokeStackClient::asyncCreate;
+            if (trace != null) {
+                clientFactory = RecordingHttpClient.recording(clientFactory, trace);
+            }
+            BenchmarkAction action = new WebServerBenchmarkAction(client, clientFactory);
+            if (options.agentPort != null) {
+                System.out.println("Running as agent on port: " + options.agentPort);
+                runAgent(new BenchmarkAgent(options.agentPort, action));
+            } else {
+                runBenchmark(new Benchmark(options.benchmarkConfig, action));
+            }
+        }
+    }
+
+    /**
+     * Runs the agent until the JVM is asked to shut down, when its coordinator is
+     * disconnected and its driver shut down before exiting.
+     */
+    private static void runAgent(BenchmarkAgent agent) throws IOException {
+        Thread runner = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                agent.close();
+            } catch (IOException e) {
+                // nothing else to do
+            }
+            Uninterruptibles.joinUninterruptibly(runner);
+        }));
+        agent.run();
+    }
+
+    private static Statistics runBenchmark(Benchmark bench) throws Exception {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        System.out.println("Starting benchmark at: " + new Date());
+        Statistics stats = bench.start().get();
+        System.out.println("Benchmark finished at: " + new Date());
+        System.out.format("Elapsed time: %.2f minutes\n", stopwatch.elapsed(TimeUnit.SECONDS) / 60.0);
+        return stats;
+    }
+
+    /**
+     * Runs the benchmark against a server doing no work with each client, so that its
+     * results are the overhead of the driver and the client themselves. The server runs
+     * in this process, sharing the processors with the driver.
+     */
+    private static void calibrate(CommandLineOptions options) throws Exception {
+        HttpClientConfig clientConfig = options.benchmarkConfig.getHttpClientConfig();
+        List<HttpClientConfig.Implementation> implementations = clientConfig.hasImplementation()
+                ? Collections.singletonList(clientConfig.getImplementation())
+                : Arrays.asList(HttpClientConfig.Implementation.values());
+
+        Map<HttpClientConfig.Implementation, Statistics> loaded = new LinkedHashMap<>();
+        Map<HttpClientConfig.Implementation, Statistics> idle = new LinkedHashMap<>();
+        try (CannedPokeStackServer server = new CannedPokeStackServer(CALIBRATION_SERVER_THREADS)) {
+            for (HttpClientConfig.Implementation implementation : implementations) {
+                System.out.println("Calibrating client: " + implementation.name().toLowerCase());
+                HttpClientConfig config = clientConfig.toBuilder().setImplementation(implementation).build();
+                try (RestfulHttpClient client = createHttpClient(server.getBaseUri(), config, options.decodeThreads)) {
+                    BenchmarkAction action = new WebServerBenchmarkAction(client, PokeStackClient::asyncCreate);
+                    loaded.put(implementation, runBenchmark(new Benchmark(options.benchmarkConfig, action)));
+                    // after the benchmark, with connections open and the code warmed up
+                    idle.put(implementation, measureIdleLatency(client));
+                }
+            }
+        }
+
+        System.out.println("Driver ceiling against a zero-work loopback server, latencies in ms at the max load and idle:");
+        System.out.format("%-8s %12s %9s %9s %9s %9s\n", "client", "max ops/s", "p50", "p99", "idle min", "idle p50");
+        for (HttpClientConfig.Implementation implementation : loaded.keySet()) {
+            Statistics stats = loaded.get(implementation);
+            Statistics floor = idle.get(implementation);
+            System.out.format("%-8s %12.1f %9.3f %9.3f %9.3f %9.3f\n", implementation.name().toLowerCase(),
+                    stats.samplesPerSec, 1000 * stats.getPercentileValue(0.50), 1000 * stats.getPercentileValue(0.99),
+                    1000 * floor.min, 1000 * floor.getPercentileValue(0.50));
+        }
+    }
+
+    /**
+     * Runs the benchmark against a stand-in of the server with a known capacity, to
+     * compare the maximum compliant load found with the one predicted for it, and
+     * reports how long the search took to reach it. The prediction assumes the Poisson
+     * arrivals of the open loop load mode, and is in requests/s, converted to ops/s by
+     * the requests each operation sent on average. Operations sending more than one
+     * request, e.g. to refill the list of nearby items, take the sum of their visits to
+     * the stations instead of a single one, so the more of them, the rougher it gets.
+     */
+    private static void benchmarkStandIn(CommandLineOptions options) throws Exception {
+        BenchmarkConfig config = options.benchmarkConfig;
+        try (StandInPokeStackServer server = new StandInPokeStackServer(options.standInConfig);
+             RestfulHttpClient client = createHttpClient(server.getBaseUri(), config.getHttpClientConfig(), options.decodeThreads)) {
+            LongAdder operations = new LongAdder();
+            BenchmarkAction action = countingOperations(
+                    new WebServerBenchmarkAction(client, PokeStackClient::asyncCreate), operations);
+            Benchmark bench = new Benchmark(config, action);
+            Statistics stats = runBenchmark(bench);
+
+            double[] fractions = server.getStationLoadFractions();
+            for (int i = 0; i < fractions.length; i++) {
+                String name = options.standInConfig.getStation(i).getName();
+                System.out.format("Station %s: %.1f%% of the requests\n", name.isEmpty() ? "#" + i : name, 100 * fractions[i]);
+            }
+            double requestsPerOperation = server.getRequestCount() / (double) Math.max(operations.sum(), 1);
+            double predicted = server.predictMaxCompliantLoad(
+                    config.getDelayLimitMillis() / 1000.0, config.getPercentileThreshold()) / requestsPerOperation;
+            System.out.format("Requests per operation: %.3f\n", requestsPerOperation);
+            System.out.format("Max compliant load predicted: %.1f ops/s, found: %.1f ops/s (%+.1f%%)\n",
+                    predicted, stats.samplesPerSec, 100 * (stats.samplesPerSec / predicted - 1));
+            System.out.format("Search mode %s reached it in %.2f minutes\n", config.getSearchMode(),
+                    bench.getSearchTime(TimeUnit.SECONDS) / 60.0);
+        }
+    }
+
+    /**
+     * @return Action counting the executions of the given one as they complete.
+     */
+    private static BenchmarkAction countingOperations(BenchmarkAction action, LongAdder count) {
+        return new BenchmarkAction() {
+            @Override
+            public ListenableFuture<?> execute(int workerNum, OperationTag tag) throws Exception {
+                return MoreFutures.consume(action.execute(workerNum, tag), (r, t) -> count.increment());
+            }
+
+            @Override
+            public void setWorkloadMix(WorkloadMix mix) {
+                action.setWorkloadMix(mix);
+            }
+
+            @Override
+            public void checkWorkloadMix(WorkloadMix mix) {
+                action.checkWorkloadMix(mix);
+            }
+
+            @Override
+            public ConnectionPoolStats getConnectionPoolStats() {
+                return action.getConnectionPoolStats();
+            }
+        };
+    }
+
+    /**
+     * @return Latency of requests sent one at a time, the lowest the client can reach.
+     */
+    private static Statistics measureIdleLatency(RestfulHttpClient client) throws Exception {
+        Statistics.Calculator calculator = Statistics.calculator();
+        for (int i = 0; i < CALIBRATION_IDLE_REQUESTS; i++) {
+            long start = System.nanoTime();
+            client.doGet("/api/user/calibration").get();
+            calculator.appendValue(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        return calculator.calculate();
+    }
+
+    private static void replayTrace(CommandLineOptions options) throws Exception {
+        try (RestfulHttpClient client = createHttpClient(options);
+             RequestTraceReader trace = new RequestTraceReader(options.replayTrace)) {
+            TraceReplayer replayer = new TraceReplayer(client, options.replaySpeed, REPLAY_MAX_IN_FLIGHT);
+            System.out.println("Replaying trace recorded at: " + new Date(trace.getStartEpochMillis()));
+            Statistics stats = replayer.replay(trace);
+            if (stats.count == 0) {
+                System.out.println("No requests in the trace.");
+                return;
+            }
+            System.out.format("Replayed %d requests, %d failed, at %.1f requests/s\n",
+                    stats.count, replayer.getErrorCount(), stats.samplesPerSec);
+            System.out.format("Latency p50: %.3f p95: %.3f p99: %.3f max: %.3f\n", stats.getPercentileValue(0.50),
+                    stats.getPercentileValue(0.95), stats.getPercentileValue(0.99), stats.max);
+        }
+    }
+
+    private static RestfulHttpClient createHttpClient(CommandLineOptions options) {
+        return createHttpClient(options.serverAddress, options.benchmarkConfig.getHttpClientConfig(), options.decodeThreads);
+    }
 
-            Stopwatch stopwatch = Stopwatch.createStarted();
-            System.out.println("Starting benchmark at: " + new Date());
-            bench.start().get();
-            System.out.println("Benchmark finished at: " + new Date());
-            System.out.format("Elapsed time: %.2f minutes\n", stopwatch.elapsed(TimeUnit.SECONDS) / 60.0);
+    private static RestfulHttpClient createHttpClient(URI serverAddress, HttpClientConfig config, int decodeThreads) {
+        if (config.getImplementation() == HttpClientConfig.Implementation.NIO) {
+            // decodes the responses on its single I/O thread
+            return new NioHttpClient(serverAddress, config);
+        }
+        Executor decodeExecutor = null;
+        if (decodeThreads > 0) {
+            decodeExecutor = Executors.newFixedThreadPool(decodeThreads,
+                    new ThreadFactoryBuilder().setNameFormat("decode-%d").setDaemon(true).build());
+        }
+        if (config.getImplementation() == HttpClientConfig.Implementation.APACHE) {
+            return new ApacheHttpClient(serverAddress, config,
+                    decodeExecutor != null ? decodeExecutor : MoreExecutors.directExecutor());
         }
+        return new NingHttpClient(serverAddress, config, decodeExecutor);
     }
 
     private static void configLogging(Level l, String file) throws IOException {
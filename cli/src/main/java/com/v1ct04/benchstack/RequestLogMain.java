@@ -0,0 +1,135 @@
+package com.v1ct04.benchstack;
+
+import com.v1ct04.benchstack.driver.LogLinearHistogram;
+import com.v1ct04.benchstack.driver.RequestLogReader;
+import org.apache.commons.cli.*;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offline analysis of a request log written by a benchmark, printing the latency
+ * percentiles of the executions started in a time range, overall and broken down
+ * per operation class and route.
+ */
+public class RequestLogMain {
+
+    private static final Options OPTIONS = new Options()
+            .addOption(Option.builder("l")
+                    .longOpt("log")
+                    .hasArg()
+                    .argName("path")
+                    .required()
+                    .desc("Path of the request log, as set in the benchmark configuration.")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("from")
+                    .hasArg()
+                    .argName("time")
+                    .desc("Only executions started at or after this time, either in seconds since the start of the log or as an ISO-8601 instant.")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("to")
+                    .hasArg()
+                    .argName("time")
+                    .desc("Only executions started before this time, in the same format as --from.")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("raw")
+                    .desc("Use the latency from the actual start time, instead of from the intended one.")
+                    .build());
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    public static void main(String[] args) throws Exception {
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(OPTIONS, args);
+        } catch (ParseException e) {
+            System.err.println("Usage error: " + e.getMessage());
+            new HelpFormatter().printHelp("benchstack-requestlog", OPTIONS, true);
+            System.exit(1);
+            return;
+        }
+
+        RequestLogReader reader = RequestLogReader.open(cmd.getOptionValue("log"));
+        long fromMicros = parseTime(cmd.getOptionValue("from"), reader, Long.MIN_VALUE);
+        long toMicros = parseTime(cmd.getOptionValue("to"), reader, Long.MAX_VALUE);
+        boolean raw = cmd.hasOption("raw");
+
+        Breakdown total = new Breakdown();
+        reader.forEach(record -> {
+            if (record.getStartEpochMicros() < fromMicros || record.getStartEpochMicros() >= toMicros) return;
+            long latency = raw ? record.getRawMicros() : record.getCorrectedMicros();
+            total.record(record, latency);
+            Breakdown operationClass = total.child(reader.getLabel(record.getOperationClass()));
+            operationClass.record(record, latency);
+            if (record.getRoute() != 0) {
+                operationClass.child(reader.getLabel(record.getRoute())).record(record, latency);
+            }
+        });
+
+        if (total.histogram.getTotalCount() == 0) {
+            System.out.println("No executions in the given time range.");
+            return;
+        }
+        double elapsedSec = Math.max(total.lastStartMicros - total.firstStartMicros, 1) / 1e6;
+        System.out.format("%d executions over %.1f seconds, from %s to %s\n", total.histogram.getTotalCount(),
+                elapsedSec, toInstant(total.firstStartMicros), toInstant(total.lastStartMicros));
+        System.out.format("%-36s %10s %8s %10s %10s %10s %10s %10s\n",
+                "", "count", "errors", "ops/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        printLine("total", total, elapsedSec);
+        for (Map.Entry<String, Breakdown> operationClass : total.children.entrySet()) {
+            printLine(operationClass.getKey(), operationClass.getValue(), elapsedSec);
+            for (Map.Entry<String, Breakdown> route : operationClass.getValue().children.entrySet()) {
+                printLine("  " + route.getKey(), route.getValue(), elapsedSec);
+            }
+        }
+    }
+
+    private static long parseTime(String time, RequestLogReader reader, long defaultMicros) {
+        if (time == null) return defaultMicros;
+        if (time.contains("T")) {
+            Instant instant = Instant.parse(time);
+            return TimeUnit.SECONDS.toMicros(instant.getEpochSecond()) + instant.getNano() / 1000;
+        }
+        return reader.getStartEpochMicros() + (long) (Double.parseDouble(time) * 1e6);
+    }
+
+    private static Instant toInstant(long epochMicros) {
+        return Instant.ofEpochSecond(0, TimeUnit.MICROSECONDS.toNanos(epochMicros));
+    }
+
+    private static void printLine(String label, Breakdown breakdown, double elapsedSec) {
+        LogLinearHistogram histogram = breakdown.histogram;
+        System.out.format("%-36s %10d %8d %10.1f %10.3f %10.3f %10.3f %10.3f\n", label,
+                histogram.getTotalCount(), breakdown.errors, histogram.getTotalCount() / elapsedSec,
+                histogram.getValueAtPercentile(0.50) / 1e3, histogram.getValueAtPercentile(0.95) / 1e3,
+                histogram.getValueAtPercentile(0.99) / 1e3, histogram.getMax() / 1e3);
+    }
+
+    private static class Breakdown {
+        final LogLinearHistogram histogram = new LogLinearHistogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+        final Map<String, Breakdown> children = new TreeMap<>();
+        long errors = 0;
+        long firstStartMicros = Long.MAX_VALUE;
+        long lastStartMicros = Long.MIN_VALUE;
+
+        void record(RequestLogReader.Record record, long latencyMicros) {
+            histogram.recordValue(latencyMicros);
+            if (!record.isSuccess()) errors++;
+            firstStartMicros = Math.min(firstStartMicros, record.getStartEpochMicros());
+            lastStartMicros = Math.max(lastStartMicros, record.getStartEpochMicros());
+        }
+
+        /**
+         * Breakdown of the given label, where records without label are counted as "none".
+         */
+        Breakdown child(String label) {
+            return children.computeIfAbsent(label == null ? "none" : label, l -> new Breakdown());
+        }
+    }
+}
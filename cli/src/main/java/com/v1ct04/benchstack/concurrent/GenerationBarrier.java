@@ -0,0 +1,73 @@
+package com.v1ct04.benchstack.concurrent;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free barrier for awaiting a varying number of parties to leave, without keeping
+ * track of each one of them. Parties enter the current {@link Generation} and later
+ * leave it, and {@link #advance()} closes the current generation, returning a future
+ * that completes once every party in it has left.
+ *
+ * Entering and leaving are a single atomic update on the count of the generation,
+ * while advancing allocates only the new generation, no matter how many parties are
+ * in the closed one.
+ */
+public class GenerationBarrier {
+
+    private final AtomicReference<Generation> mCurrent = new AtomicReference<>(new Generation());
+
+    public Generation enter() {
+        while (true) {
+            Generation generation = mCurrent.get();
+            if (generation.tryEnter()) return generation;
+            // Closed and already completed, the current generation has been replaced.
+        }
+    }
+
+    /**
+     * Closes the current generation and starts a new one.
+     * @return Future that completes when the parties of the closed generation have left.
+     */
+    public ListenableFuture<?> advance() {
+        Generation closed = mCurrent.getAndSet(new Generation());
+        closed.leave();
+        return Futures.nonCancellationPropagating(closed.mCompletion);
+    }
+
+    /**
+     * Number of parties in the current generation.
+     */
+    public int count() {
+        return Math.max(mCurrent.get().mCount.get() - 1, 0);
+    }
+
+    public static final class Generation {
+        // Number of parties, plus one while this is the current generation.
+        private final AtomicInteger mCount = new AtomicInteger(1);
+        private final SettableFuture<Void> mCompletion = SettableFuture.create();
+
+        private Generation() {}
+
+        private boolean tryEnter() {
+            while (true) {
+                int count = mCount.get();
+                if (count == 0) return false;
+                if (mCount.compareAndSet(count, count + 1)) return true;
+            }
+        }
+
+        /**
+         * Leaves the generation, which must have been entered exactly once before.
+         */
+        public void leave() {
+            if (mCount.decrementAndGet() == 0) {
+                mCompletion.set(null);
+            }
+        }
+    }
+}
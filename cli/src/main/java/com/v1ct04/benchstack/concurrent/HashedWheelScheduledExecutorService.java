@@ -0,0 +1,516 @@
+package com.v1ct04.benchstack.concurrent;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Scheduled executor backed by a hashed timing wheel, for scheduling a large number
+ * of short delays (e.g. the executions of thousands of workers) with constant time
+ * schedule and cancel operations, instead of the heap of a {@link ScheduledThreadPoolExecutor}.
+ *
+ * A single ticker thread advances the wheel once every tick, handing the expired
+ * tasks to the delegated executor where they actually run, so each execution starts
+ * up to a tick later than its scheduled time. The actual lag of the executions,
+ * including any queueing in the delegated executor, is available through
+ * {@link #getSchedulingLag()}.
+ *
+ * Periodic tasks can use a {@link ReusableTimeout} instead of scheduling a new future
+ * on every execution, which doesn't allocate anything per execution.
+ *
+ * Delayed tasks still run after {@link #shutdown()}, and only then is the delegated
+ * executor shut down.
+ */
+public class HashedWheelScheduledExecutorService extends AbstractListeningExecutorService implements ListeningScheduledExecutorService {
+
+    public static final long DEFAULT_TICK_MICROS = 1000;
+    public static final int DEFAULT_TICKS_PER_WHEEL = 1024;
+
+    private static final int RUNNING = 0;
+    private static final int SHUTDOWN = 1;
+    private static final int STOPPED = 2;
+
+    private static final AtomicIntegerFieldUpdater<Entry> ENTRY_STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Entry.class, "mEntryState");
+
+    private final ListeningExecutorService mDelegatedExecutor;
+    private final long mTickNanos;
+    private final Bucket[] mWheel;
+    private final int mMask;
+
+    // Intrusive stacks of entries, linked through Entry#mNextPending and Entry#mNextCancelled.
+    private final AtomicReference<Entry> mPendingEntries = new AtomicReference<>();
+    private final AtomicReference<Entry> mCancelledEntries = new AtomicReference<>();
+    private final List<Runnable> mUnprocessedTimeouts = new ArrayList<>();
+    private final SchedulingLag.Recorder mLagRecorder = new SchedulingLag.Recorder();
+
+    private final Thread mTickerThread;
+    private final CountDownLatch mTickerTermination = new CountDownLatch(1);
+    private volatile int mState = RUNNING;
+    private volatile boolean mTickerDone = false;
+
+    // Constructors
+
+    public HashedWheelScheduledExecutorService(ExecutorService delegatedExecutor, ThreadFactory factory) {
+        this(delegatedExecutor, factory, DEFAULT_TICK_MICROS, TimeUnit.MICROSECONDS, DEFAULT_TICKS_PER_WHEEL);
+    }
+
+    /**
+     * @param tickDuration  Resolution of the scheduling.
+     * @param ticksPerWheel Number of buckets in the wheel, rounded up to a power of two.
+     *                      Delays longer than a full turn of the wheel are supported, but
+     *                      need to be checked once per turn.
+     */
+    public HashedWheelScheduledExecutorService(ExecutorService delegatedExecutor,
+                                               ThreadFactory factory,
+                                               long tickDuration,
+                                               TimeUnit unit,
+                                               int ticksPerWheel) {
+        Preconditions.checkArgument(tickDuration > 0, "Tick duration must be positive");
+        Preconditions.checkArgument(ticksPerWheel > 0 && ticksPerWheel <= (1 << 30),
+                "Ticks per wheel must be in (0, 2^30]");
+
+        mDelegatedExecutor = MoreExecutors.listeningDecorator(delegatedExecutor);
+        mTickNanos = unit.toNanos(tickDuration);
+
+        int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        if (size == 0) size = 1;
+        mWheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            mWheel[i] = new Bucket();
+        }
+        mMask = size - 1;
+
+        mTickerThread = factory.newThread(this::runTicker);
+        mTickerThread.start();
+    }
+
+    /**
+     * Lag of the executions started since the last {@link #resetSchedulingLag()}.
+     */
+    public SchedulingLag getSchedulingLag() {
+        return mLagRecorder.snapshot();
+    }
+
+    public void resetSchedulingLag() {
+        mLagRecorder.reset();
+    }
+
+    /**
+     * Creates an entry of the wheel that runs the given task in the delegated executor
+     * every time it's scheduled, so that a periodic task can reschedule itself without
+     * allocating a new future on each execution.
+     */
+    public ReusableTimeout newReusableTimeout(Runnable task) {
+        return new ReusableTimeout(task);
+    }
+
+    // AbstractListeningExecutorService
+
+    @Override
+    public synchronized void shutdown() {
+        if (mState == RUNNING) mState = SHUTDOWN;
+        // The ticker will shutdown the delegated executor once all the delayed
+        // tasks have been handed to it.
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        synchronized (this) {
+            mState = STOPPED;
+        }
+        LockSupport.unpark(mTickerThread);
+        Interruptibles.uninterruptibly(mTickerTermination::await);
+
+        List<Runnable> r = new ArrayList<>(mUnprocessedTimeouts);
+        r.addAll(mDelegatedExecutor.shutdownNow());
+        return r;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return mState != RUNNING;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return mTickerTermination.getCount() == 0 && mDelegatedExecutor.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        TimeCondition end = TimeCondition.untilAfter(timeout, unit);
+        return mTickerTermination.await(end.nanoTimeLeft(), TimeUnit.NANOSECONDS) &&
+                mDelegatedExecutor.awaitTermination(end.nanoTimeLeft(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        mDelegatedExecutor.execute(command);
+    }
+
+    // ListeningScheduledExecutorService
+
+    @Override
+    public ListenableScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return schedule(Executors.callable(command), delay, unit);
+    }
+
+    @Override
+    public <V> ListenableScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        Preconditions.checkNotNull(callable);
+        WheelTimeout<V> timeout = new WheelTimeout<>(callable);
+        timeout.schedule(unit.toNanos(delay));
+        return timeout;
+    }
+
+    @Override
+    public ListenableScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        return ReschedulingTask.builder(this)
+                .setInitialDelay(initialDelay, unit)
+                .setFixedRate(period, unit)
+                .start(command);
+    }
+
+    @Override
+    public ListenableScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        return ReschedulingTask.builder(this)
+                .setInitialDelay(initialDelay, unit)
+                .setFixedDelay(delay, unit)
+                .start(command);
+    }
+
+    private static RejectedExecutionException rejected() {
+        return new RejectedExecutionException("Executor has been shut down");
+    }
+
+    // Ticker
+
+    private void runTicker() {
+        long startTime = System.nanoTime();
+        long tick = 0;
+        int scheduledCount = 0;
+        try {
+            while (mState != STOPPED) {
+                long tickDeadline = startTime + (tick + 1) * mTickNanos;
+                long sleepNanos;
+                while ((sleepNanos = tickDeadline - System.nanoTime()) > 0 && mState != STOPPED) {
+                    LockSupport.parkNanos(this, sleepNanos);
+                }
+                if (mState == STOPPED) break;
+
+                scheduledCount -= removeCancelled();
+                scheduledCount += transferPending(startTime, tick);
+                scheduledCount -= expire(mWheel[(int) (tick & mMask)]);
+                tick++;
+
+                if (mState == SHUTDOWN && scheduledCount == 0 && mPendingEntries.get() == null) {
+                    // Pairs with the check in Entry#schedule, either the racing entry is seen
+                    // here or the scheduling thread sees the ticker done and rejects it.
+                    mTickerDone = true;
+                    if (mPendingEntries.get() == null) {
+                        mDelegatedExecutor.shutdown();
+                        break;
+                    }
+                    mTickerDone = false;
+                }
+            }
+            if (mState == STOPPED) collectUnprocessed();
+        } finally {
+            mTickerTermination.countDown();
+        }
+    }
+
+    private int removeCancelled() {
+        int removed = 0;
+        Entry e = mCancelledEntries.getAndSet(null);
+        while (e != null) {
+            Entry next = e.mNextCancelled;
+            e.mNextCancelled = null;
+            if (e.mBucket != null) {
+                e.mBucket.remove(e);
+                removed++;
+            }
+            e = next;
+        }
+        return removed;
+    }
+
+    private int transferPending(long startTime, long tick) {
+        int transferred = 0;
+        Entry e = mPendingEntries.getAndSet(null);
+        while (e != null) {
+            Entry next = e.mNextPending;
+            e.mNextPending = null;
+            if (e.mEntryState == Entry.SCHEDULED) {
+                // A deadline already in the past goes into the current bucket.
+                long ticks = Math.max((e.mDeadline - startTime) / mTickNanos, tick);
+                e.mRemainingRounds = (ticks - tick) / mWheel.length;
+                mWheel[(int) (ticks & mMask)].add(e);
+                transferred++;
+            }
+            e = next;
+        }
+        return transferred;
+    }
+
+    private int expire(Bucket bucket) {
+        int expired = 0;
+        Entry e = bucket.mHead;
+        while (e != null) {
+            Entry next = e.mNext;
+            if (e.mRemainingRounds <= 0 || e.mEntryState != Entry.SCHEDULED) {
+                bucket.remove(e);
+                expired++;
+                if (ENTRY_STATE.compareAndSet(e, Entry.SCHEDULED, Entry.IDLE)) dispatch(e);
+            } else {
+                e.mRemainingRounds--;
+            }
+            e = next;
+        }
+        return expired;
+    }
+
+    private void dispatch(Entry entry) {
+        try {
+            mDelegatedExecutor.execute(entry);
+        } catch (RejectedExecutionException e) {
+            entry.onRejected(e);
+        }
+    }
+
+    private void collectUnprocessed() {
+        for (Bucket bucket : mWheel) {
+            for (Entry e = bucket.mHead; e != null; e = e.mNext) {
+                if (e.mEntryState == Entry.SCHEDULED) mUnprocessedTimeouts.add(e);
+            }
+        }
+        for (Entry e = mPendingEntries.getAndSet(null); e != null; e = e.mNextPending) {
+            if (e.mEntryState == Entry.SCHEDULED) mUnprocessedTimeouts.add(e);
+        }
+    }
+
+    private static void push(AtomicReference<Entry> stack, Entry e, boolean cancelled) {
+        Entry head;
+        do {
+            head = stack.get();
+            if (cancelled) e.mNextCancelled = head;
+            else e.mNextPending = head;
+        } while (!stack.compareAndSet(head, e));
+    }
+
+    /**
+     * Doubly-linked list of the entries in a slot of the wheel, only accessed
+     * by the ticker thread.
+     */
+    private static class Bucket {
+        private Entry mHead;
+        private Entry mTail;
+
+        private void add(Entry e) {
+            e.mBucket = this;
+            e.mPrev = mTail;
+            if (mTail == null) mHead = e;
+            else mTail.mNext = e;
+            mTail = e;
+        }
+
+        private void remove(Entry e) {
+            if (e.mPrev == null) mHead = e.mNext;
+            else e.mPrev.mNext = e.mNext;
+            if (e.mNext == null) mTail = e.mPrev;
+            else e.mNext.mPrev = e.mPrev;
+            e.mPrev = e.mNext = null;
+            e.mBucket = null;
+        }
+    }
+
+    /**
+     * Schedulable entry of the wheel. An entry is either idle, scheduled or cancelled,
+     * and can only be scheduled again once its previous schedule has expired. Being
+     * cancelled is final.
+     */
+    abstract class Entry implements Runnable {
+        private static final int IDLE = 0;
+        private static final int SCHEDULED = 1;
+        private static final int CANCELLED = 2;
+
+        // Not private, so that the updater can be created by the outer class.
+        volatile int mEntryState = IDLE;
+        private volatile long mDeadline;
+
+        // Wheel state, only accessed by the ticker thread.
+        private long mRemainingRounds;
+        private Bucket mBucket;
+        private Entry mPrev;
+        private Entry mNext;
+
+        // Links of the pending and cancelled stacks, published by their CAS.
+        private Entry mNextPending;
+        private Entry mNextCancelled;
+
+        /**
+         * @return False if the entry has been cancelled.
+         */
+        boolean schedule(long delayNanos) {
+            if (mState != RUNNING) throw rejected();
+            if (!ENTRY_STATE.compareAndSet(this, IDLE, SCHEDULED)) {
+                if (mEntryState == CANCELLED) return false;
+                throw new IllegalStateException("Entry already scheduled");
+            }
+            mDeadline = System.nanoTime() + delayNanos;
+            push(mPendingEntries, this, false);
+
+            // If shutdown raced with the check above, the ticker might already be gone.
+            if (mState != RUNNING && mTickerDone && ENTRY_STATE.compareAndSet(this, SCHEDULED, IDLE)) {
+                throw rejected();
+            }
+            return true;
+        }
+
+        boolean cancelEntry() {
+            while (true) {
+                int state = mEntryState;
+                if (state == CANCELLED) return false;
+                if (ENTRY_STATE.compareAndSet(this, state, CANCELLED)) {
+                    // Only a scheduled entry might be sitting in a bucket.
+                    if (state == SCHEDULED) push(mCancelledEntries, this, true);
+                    return true;
+                }
+            }
+        }
+
+        boolean isScheduled() {
+            return mEntryState == SCHEDULED;
+        }
+
+        long getDeadline() {
+            return mDeadline;
+        }
+
+        @Override
+        public final void run() {
+            mLagRecorder.record(System.nanoTime() - mDeadline);
+            runEntry();
+        }
+
+        abstract void runEntry();
+
+        abstract void onRejected(RejectedExecutionException e);
+    }
+
+    /**
+     * Entry running the same task every time it's scheduled, see
+     * {@link #newReusableTimeout(Runnable)}.
+     */
+    public final class ReusableTimeout extends Entry {
+        private final Runnable mTask;
+
+        private ReusableTimeout(Runnable task) {
+            mTask = Preconditions.checkNotNull(task);
+        }
+
+        /**
+         * @return False if the timeout has been cancelled, in which case it's not scheduled.
+         * @throws IllegalStateException If still scheduled.
+         * @throws RejectedExecutionException If the executor has been shut down.
+         */
+        public boolean schedule(long delay, TimeUnit unit) {
+            return schedule(unit.toNanos(delay));
+        }
+
+        /**
+         * Cancels the pending schedule, if any, and prevents scheduling it again.
+         * @return False if it had already been cancelled.
+         */
+        public boolean cancel() {
+            return cancelEntry();
+        }
+
+        public boolean isPending() {
+            return isScheduled();
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(getDeadline() - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        void runEntry() {
+            mTask.run();
+        }
+
+        @Override
+        void onRejected(RejectedExecutionException e) {
+            // Nothing to fail, the task simply doesn't run.
+        }
+    }
+
+    private class WheelTimeout<V> extends AbstractFuture<V> implements ListenableScheduledFuture<V> {
+        private final Callable<V> mCallable;
+        private final Entry mEntry = new Entry() {
+            @Override
+            void runEntry() {
+                runTimeout();
+            }
+
+            @Override
+            void onRejected(RejectedExecutionException e) {
+                setException(e);
+            }
+        };
+
+        private volatile Thread mRunner;
+
+        private WheelTimeout(Callable<V> callable) {
+            mCallable = callable;
+        }
+
+        private void schedule(long delayNanos) {
+            mEntry.schedule(delayNanos);
+        }
+
+        private void runTimeout() {
+            if (isDone()) return;
+
+            mRunner = Thread.currentThread();
+            try {
+                set(mCallable.call());
+            } catch (Throwable t) {
+                setException(t);
+            } finally {
+                mRunner = null;
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!super.cancel(mayInterruptIfRunning)) return false;
+            mEntry.cancelEntry();
+            return true;
+        }
+
+        @Override
+        protected void interruptTask() {
+            Thread runner = mRunner;
+            if (runner != null) runner.interrupt();
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(mEntry.getDeadline() - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Longs.compare(getDelay(TimeUnit.NANOSECONDS), o.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+}
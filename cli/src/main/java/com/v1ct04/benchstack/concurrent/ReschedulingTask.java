@@ -1,84 +1,118 @@
 package com.v1ct04.benchstack.concurrent;
 
 import com.google.common.base.Throwables;
+import com.google.common.primitives.Longs;
 import com.google.common.util.concurrent.*;
 
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
 import java.util.function.LongSupplier;
 
 public final class ReschedulingTask
         extends AbstractFuture<Void>
         implements ListenableScheduledFuture<Void> {
 
+    /**
+     * @param executor Executor to schedule the executions in, used directly if it's
+     *                 already a {@link ListeningScheduledExecutorService}, e.g. a
+     *                 {@link HashedWheelScheduledExecutorService}.
+     */
     public static Builder builder(ScheduledExecutorService executor) {
         return new Builder(executor);
     }
 
-    private final ListeningScheduledExecutorService mExecutor;
-    private final Runnable mCommand;
+    // State word of the task. The lowest bits tell whether an execution is running and
+    // whether the task has terminated (cancelled or failed, with no execution running).
+    // The remaining bits count the finished executions, used as the phase by waiters.
+    private static final int RUNNING = 1;
+    private static final int TERMINATED = 2;
+    private static final int PHASE_UNIT = 4;
+    private static final int PHASE_MASK = ~(RUNNING | TERMINATED);
+
+    private static final AtomicIntegerFieldUpdater<ReschedulingTask> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(ReschedulingTask.class, "mState");
+
+    private final LongFunction<? extends ListenableFuture<?>> mCommand;
     private final LongSupplier mDelaySupplier;
     private final TimeUnit mUnit;
 
+    // Either a reusable timeout in a timing wheel, or a regular executor where each
+    // execution is scheduled as a new future.
+    private final HashedWheelScheduledExecutorService.ReusableTimeout mTimeout;
+    private final ListeningScheduledExecutorService mExecutor;
     private volatile ListenableScheduledFuture<?> mNextExecution;
-    private final Phaser mExecutionPhaser = new Phaser() {
-        @Override
-        protected boolean onAdvance(int phase, int registeredParties) {
-            // Terminate the Phaser only if this Task has been cancelled
-            // (or failed) and there are no registered parties (a running
-            // execution will be a registered party).
-            return isDone() && registeredParties == 0;
-        }
-    };
+
+    private final Runnable mRunAndReschedule = this::runAndReschedule;
+    private final Runnable mFinishRunningExecution = this::finishRunningExecution;
+    private volatile ListenableFuture<?> mRunningExecution;
+    // Only accessed by the execution that schedules the next one and by that next
+    // execution itself, which is ordered by the executor.
+    private long mIntendedNanoStartTime;
+
+    private volatile int mState = 0;
+    private final Object mWaitLock = new Object();
+    private volatile int mWaiters = 0;
+    private SettableFuture<Void> mExecutionListener;
 
     private ReschedulingTask(ScheduledExecutorService executor,
-                     Runnable command,
+                     LongFunction<? extends ListenableFuture<?>> command,
                      long initialDelay,
                      TimeUnit initialDelayUnit,
                      LongSupplier delaySupplier,
                      TimeUnit unit) {
-        mExecutor = MoreExecutors.listeningDecorator(executor);
+        if (executor instanceof HashedWheelScheduledExecutorService) {
+            mTimeout = ((HashedWheelScheduledExecutorService) executor).newReusableTimeout(mRunAndReschedule);
+            mExecutor = null;
+        } else {
+            mTimeout = null;
+            mExecutor = MoreExecutors.listeningDecorator(executor);
+        }
         mCommand = command;
         mDelaySupplier = delaySupplier;
         mUnit = unit;
 
         // initial schedule
-        mNextExecution = mExecutor.schedule(this::runAndReschedule, initialDelay, initialDelayUnit);
+        mIntendedNanoStartTime = System.nanoTime() + initialDelayUnit.toNanos(initialDelay);
         if (mDelaySupplier instanceof RateToNanoDelaySupplier) {
-            ((RateToNanoDelaySupplier) mDelaySupplier).mLastNanoStartTime =
-                    System.nanoTime() + mNextExecution.getDelay(TimeUnit.NANOSECONDS);
+            ((RateToNanoDelaySupplier) mDelaySupplier).mLastNanoStartTime = mIntendedNanoStartTime;
         }
+        scheduleNext(initialDelay, initialDelayUnit);
     }
 
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
         if (!super.cancel(mayInterruptIfRunning)) return false;
 
-        mExecutionPhaser.register();
-        mExecutionPhaser.arriveAndDeregister();
-        // At this point the Phaser is either in the terminated state or
-        // has one registered party and will terminate when it de-registers
-        // itself. This other party can only be an execution of this task,
-        // thus the Phaser will terminate when the last execution finishes.
+        tryTerminate();
+        // At this point the task is either terminated or has an execution running,
+        // which will terminate it when it finishes.
 
-        mNextExecution.cancel(mayInterruptIfRunning);
+        if (mTimeout != null) {
+            mTimeout.cancel();
+        } else {
+            mNextExecution.cancel(mayInterruptIfRunning);
+        }
+        completeExecutionListener(true);
         return true;
     }
 
     @Override
     public long getDelay(TimeUnit unit) {
-        return mNextExecution.getDelay(unit);
+        return mTimeout != null ? mTimeout.getDelay(unit) : mNextExecution.getDelay(unit);
     }
 
     @Override
     public int compareTo(Delayed o) {
-        return mNextExecution.compareTo(o);
+        return Longs.compare(getDelay(TimeUnit.NANOSECONDS), o.getDelay(TimeUnit.NANOSECONDS));
     }
 
     /**
      * Whether this task has been cancelled and the last execution has already finished.
      */
     public boolean isTerminated() {
-        return mExecutionPhaser.isTerminated();
+        return (mState & TERMINATED) != 0;
     }
 
     public void awaitTermination() {
@@ -95,51 +129,207 @@ public final class ReschedulingTask
      * @return False if this task has been terminated (cancelled) and won't run again.
      */
     public boolean awaitExecution() {
-        return mExecutionPhaser.awaitAdvance(mExecutionPhaser.getPhase()) >= 0;
+        try {
+            return awaitNextPhase(false, -1);
+        } catch (InterruptedException | TimeoutException e) {
+            throw new AssertionError(e);
+        }
     }
 
     public boolean awaitExecutionInterruptibly() throws InterruptedException {
-        return mExecutionPhaser.awaitAdvanceInterruptibly(mExecutionPhaser.getPhase()) >= 0;
+        try {
+            return awaitNextPhase(true, -1);
+        } catch (TimeoutException e) {
+            throw new AssertionError(e);
+        }
     }
 
     public boolean awaitExecutionInterruptibly(long time, TimeUnit unit) throws InterruptedException, TimeoutException {
-        return mExecutionPhaser.awaitAdvanceInterruptibly(mExecutionPhaser.getPhase(), time, unit) >= 0;
+        return awaitNextPhase(true, unit.toNanos(time));
     }
 
+    /**
+     * Future that completes when the currently running asynchronous execution finishes
+     * or, if none is running, when the next execution starts, i.e. once its command
+     * returns, which is only when it finishes for a synchronous command.
+     */
     public ListenableFuture<?> nextExecutionFuture() {
-        return Futures.nonCancellationPropagating(mNextExecution);
+        ListenableFuture<?> execution = mRunningExecution;
+        if (execution != null) return Futures.nonCancellationPropagating(execution);
+
+        synchronized (mWaitLock) {
+            if (isDone()) return Futures.immediateCancelledFuture();
+            // An execution that started since may have completed the listener already,
+            // which it can only do after setting itself as running.
+            execution = mRunningExecution;
+            if (execution != null) return Futures.nonCancellationPropagating(execution);
+            if (mExecutionListener == null) mExecutionListener = SettableFuture.create();
+            return Futures.nonCancellationPropagating(mExecutionListener);
+        }
     }
 
     private void runAndReschedule() {
-        if (mExecutionPhaser.register() < 0) return;
+        if (!beginExecution()) return;
 
+        ListenableFuture<?> execution;
         try {
-            mCommand.run();
+            execution = mCommand.apply(mIntendedNanoStartTime);
         } catch (Throwable t) {
             setException(t);
+            endExecution();
+            completeExecutionListener(false);
             throw Throwables.propagate(t);
+        }
+
+        if (execution.isDone()) {
+            finishExecution(execution);
+        } else {
+            // Asynchronous execution, keep it running until it completes and only then
+            // reschedule, without blocking the executor thread meanwhile.
+            mRunningExecution = execution;
+            execution.addListener(mFinishRunningExecution, MoreExecutors.directExecutor());
+        }
+        completeExecutionListener(false);
+    }
+
+    private void finishRunningExecution() {
+        ListenableFuture<?> execution = mRunningExecution;
+        mRunningExecution = null;
+        finishExecution(execution);
+    }
+
+    private void finishExecution(ListenableFuture<?> execution) {
+        try {
+            Uninterruptibles.getUninterruptibly(execution);
+        } catch (ExecutionException e) {
+            setException(e.getCause());
+        } catch (CancellationException e) {
+            // a cancelled execution doesn't stop the task
         } finally {
-            mExecutionPhaser.arriveAndDeregister();
+            endExecution();
         }
-        // We can't reschedule in the registered state otherwise it's possible
-        // that the Phaser never advances phase, when the next execution
-        // starts and registers itself before this one arrives and de-registers.
+        // We can't reschedule in the running state otherwise it's possible that
+        // the task never terminates, when the next execution starts and marks
+        // itself running before this one is marked finished.
         reschedule();
     }
 
     private void reschedule() {
         if (!isDone()) {
-            mNextExecution = mExecutor.schedule(this::runAndReschedule, mDelaySupplier.getAsLong(), mUnit);
+            long delay = mDelaySupplier.getAsLong();
+            if (mDelaySupplier instanceof RateToNanoDelaySupplier) {
+                mIntendedNanoStartTime = ((RateToNanoDelaySupplier) mDelaySupplier).mLastNanoStartTime;
+            } else {
+                mIntendedNanoStartTime = System.nanoTime() + mUnit.toNanos(delay);
+            }
+            scheduleNext(delay, mUnit);
 
             // In case #cancel() has been called after the if check and before the mNextExecution
             // update above, avoid keeping the scheduled task in the executor by rechecking if
-            // we are done and cancelling the next execution future if so.
-            if (isDone()) {
+            // we are done and cancelling the next execution future if so. A reusable timeout
+            // can't be scheduled once cancelled, so it doesn't need this.
+            if (mTimeout == null && isDone()) {
                 mNextExecution.cancel(false);
             }
         }
     }
 
+    private void scheduleNext(long delay, TimeUnit unit) {
+        if (mTimeout != null) {
+            mTimeout.schedule(delay, unit);
+        } else {
+            mNextExecution = mExecutor.schedule(mRunAndReschedule, delay, unit);
+        }
+    }
+
+    // State transitions
+
+    private boolean beginExecution() {
+        while (true) {
+            int state = mState;
+            if ((state & TERMINATED) != 0) return false;
+            if (STATE.compareAndSet(this, state, state | RUNNING)) return true;
+        }
+    }
+
+    private void endExecution() {
+        int state;
+        do {
+            state = mState;
+        } while (!STATE.compareAndSet(this, state, (state & ~RUNNING) + PHASE_UNIT));
+        signalWaiters();
+
+        if (isDone()) tryTerminate();
+    }
+
+    private void tryTerminate() {
+        while (true) {
+            int state = mState;
+            if ((state & (RUNNING | TERMINATED)) != 0) return;
+            if (STATE.compareAndSet(this, state, (state + PHASE_UNIT) | TERMINATED)) {
+                signalWaiters();
+                return;
+            }
+        }
+    }
+
+    private void signalWaiters() {
+        // Waiters register themselves before re-checking the state, so either they
+        // see the state updated by the caller or the caller sees them here.
+        if (mWaiters > 0) {
+            synchronized (mWaitLock) {
+                mWaitLock.notifyAll();
+            }
+        }
+    }
+
+    private void completeExecutionListener(boolean cancelled) {
+        synchronized (mWaitLock) {
+            if (mExecutionListener == null) return;
+            if (cancelled) mExecutionListener.cancel(false);
+            else mExecutionListener.set(null);
+            mExecutionListener = null;
+        }
+    }
+
+    /**
+     * @param timeoutNanos Negative to wait indefinitely.
+     * @return False if the task has terminated.
+     */
+    private boolean awaitNextPhase(boolean interruptible, long timeoutNanos) throws InterruptedException, TimeoutException {
+        int state = mState;
+        if ((state & TERMINATED) != 0) return false;
+        int phase = state & PHASE_MASK;
+
+        long deadline = System.nanoTime() + timeoutNanos;
+        boolean interrupted = false;
+        synchronized (mWaitLock) {
+            mWaiters++;
+            try {
+                while (((state = mState) & PHASE_MASK) == phase) {
+                    try {
+                        if (timeoutNanos < 0) {
+                            mWaitLock.wait();
+                        } else {
+                            long left = deadline - System.nanoTime();
+                            if (left <= 0) throw new TimeoutException();
+                            TimeUnit.NANOSECONDS.timedWait(mWaitLock, left);
+                        }
+                    } catch (InterruptedException e) {
+                        if (interruptible) throw e;
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                mWaiters--;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        return (state & TERMINATED) == 0;
+    }
+
+    private static final ListenableFuture<?> COMPLETED_EXECUTION = Futures.immediateFuture(null);
+
     public static class Builder {
 
         private final ScheduledExecutorService mExecutorService;
@@ -185,6 +375,28 @@ public final class ReschedulingTask
         }
 
         public ReschedulingTask start(Runnable command) {
+            return start(intendedNanoStartTime -> command.run());
+        }
+
+        /**
+         * Starts the task with a command that receives the {@link System#nanoTime()} at
+         * which each execution was intended to start, which can be earlier than the
+         * actual start time when the executor is lagging behind.
+         */
+        public ReschedulingTask start(LongConsumer command) {
+            return startAsync(intendedNanoStartTime -> {
+                command.accept(intendedNanoStartTime);
+                return COMPLETED_EXECUTION;
+            });
+        }
+
+        /**
+         * Starts the task with an asynchronous command, which receives the intended start
+         * time of each execution like {@link #start(LongConsumer)} and returns a future for
+         * its completion. The next execution is only scheduled after that future completes,
+         * and a failure of the future terminates the task like a synchronous exception.
+         */
+        public ReschedulingTask startAsync(LongFunction<? extends ListenableFuture<?>> command) {
             return new ReschedulingTask(
                     mExecutorService, command, mInitialDelay, mInitialDelayUnit, mDelaySupplier, mUnit);
         }
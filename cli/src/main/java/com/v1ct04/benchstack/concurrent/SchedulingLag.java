@@ -0,0 +1,85 @@
+package com.v1ct04.benchstack.concurrent;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Snapshot of how late scheduled executions started in relation to the time they
+ * were scheduled for.
+ */
+public class SchedulingLag {
+
+    public static final SchedulingLag NONE = new SchedulingLag(0, 0, 0);
+
+    public static SchedulingLag of(long count, double meanMillis, double maxMillis) {
+        return new SchedulingLag(count, meanMillis, maxMillis);
+    }
+
+    /**
+     * Combines the lags of independent schedulers, e.g. of multiple agents.
+     */
+    public static SchedulingLag merge(Collection<SchedulingLag> lags) {
+        long count = 0;
+        double sumMillis = 0, maxMillis = 0;
+        for (SchedulingLag lag : lags) {
+            count += lag.count;
+            sumMillis += lag.meanMillis * lag.count;
+            maxMillis = Math.max(maxMillis, lag.maxMillis);
+        }
+        return new SchedulingLag(count, count == 0 ? 0 : sumMillis / count, maxMillis);
+    }
+
+    public final long count;
+    public final double meanMillis;
+    public final double maxMillis;
+
+    private SchedulingLag(long count, double meanMillis, double maxMillis) {
+        this.count = count;
+        this.meanMillis = meanMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return "SchedulingLag{" +
+                "count=" + count +
+                ", meanMillis=" + meanMillis +
+                ", maxMillis=" + maxMillis +
+                '}';
+    }
+
+    /**
+     * Thread-safe accumulator of scheduling lags, cheap enough to be updated on
+     * every execution.
+     */
+    public static class Recorder {
+        private final LongAdder mCount = new LongAdder();
+        private final LongAdder mSumNanos = new LongAdder();
+        private final LongAccumulator mMaxNanos = new LongAccumulator(Math::max, 0);
+
+        public void record(long lagNanos) {
+            lagNanos = Math.max(lagNanos, 0);
+            mCount.increment();
+            mSumNanos.add(lagNanos);
+            mMaxNanos.accumulate(lagNanos);
+        }
+
+        public SchedulingLag snapshot() {
+            long count = mCount.sum();
+            double meanMillis = count == 0 ? 0 : toMillis(mSumNanos.sum()) / count;
+            return new SchedulingLag(count, meanMillis, toMillis(mMaxNanos.get()));
+        }
+
+        public void reset() {
+            mCount.reset();
+            mSumNanos.reset();
+            mMaxNanos.reset();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.v1ct04.benchstack.driver;
 
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Range;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -10,14 +12,23 @@ import com.v1ct04.benchstack.concurrent.MoreFutures;
 import com.v1ct04.benchstack.concurrent.TimeCondition;
 import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig;
 import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.BinarySearchStepConfig;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.ComplianceTest;
 import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.ExponentialStepConfig;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.FeedbackControlConfig;
 import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.FineTuneStepConfig;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.LatencyMeasurement;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.LoadPhase;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.LoadMode;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.SearchMode;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.SequentialTestConfig;
 import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.StableStatsStepConfig;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.WorkloadMix;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Date;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -26,43 +37,52 @@ public class Benchmark {
     private static final Logger LOGGER = LoggerFactory.getLogger(Benchmark.class);
 
     private final BenchmarkConfig mConfig;
-    private final BenchmarkAction mAction;
-    private final PercentileCalculator mPercentileCalculator;
+    private final DriverFactory mDriverFactory;
     private final AtomicBoolean mStarted = new AtomicBoolean(false);
 
-    private ConcurrentWorkersPool mWorkersPool;
-    private volatile Statistics.Calculator mStatsCalculator;
+    private LoadDriver mDriver;
+    private volatile String mPhase = "starting";
+    private volatile long mSearchNanos = -1;
 
     public Benchmark(BenchmarkConfig config, BenchmarkAction action) {
+        this(config, action, () -> new LocalLoadDriver(config, action));
+    }
+
+    /**
+     * Creates a benchmark that generates its load from the given {@link BenchmarkAgent}s,
+     * instead of from this process. The agents execute their own actions, and all of
+     * them receive the configuration of the coordinating benchmark.
+     */
+    public static Benchmark distributed(BenchmarkConfig config, List<InetSocketAddress> agents) {
+        List<InetSocketAddress> agentsCopy = ImmutableList.copyOf(agents);
+        return new Benchmark(config, null, () -> new RemoteLoadDriver(config, agentsCopy));
+    }
+
+    private Benchmark(BenchmarkConfig config, BenchmarkAction action, DriverFactory driverFactory) {
+        checkWorkloadMixes(config, action);
         mConfig = config;
-        mAction = action;
-        mPercentileCalculator = new PercentileCalculator(mConfig.getDelayLimitMillis());
+        mDriverFactory = driverFactory;
     }
 
-    private void workerFunction(int workerNum) {
-        mPercentileCalculator.startExecution();
-        try {
-            long nanoStartTime = System.nanoTime();
-            Throwable t = null;
-            try {
-                MoreFutures.onlyGet(mAction.execute(workerNum));
-            } catch (InterruptedException | CancellationException ex) {
-                return;
-            } catch (Exception e) {
-                t = e instanceof ExecutionException ? e.getCause() : e;
-                LOGGER.warn("Worker {}: Action threw exception: {}", workerNum, t.toString());
+    /**
+     * Checks the mixes of the config and their references, and the operations of each
+     * mix with the given action, if any, so that none fails only once it's switched to.
+     */
+    static void checkWorkloadMixes(BenchmarkConfig config, BenchmarkAction action) {
+        Set<String> names = new HashSet<>();
+        for (WorkloadMix mix : config.getWorkloadMixList()) {
+            if (!names.add(mix.getName())) {
+                throw new IllegalArgumentException("Duplicate workload mix: " + mix.getName());
             }
-            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanoStartTime);
-
-            if (t == null || elapsedMillis > mConfig.getDelayLimitMillis()) {
-                mPercentileCalculator.appendValue(elapsedMillis);
-                Statistics.Calculator calculator = mStatsCalculator;
-                if (calculator!= null) {
-                    calculator.appendValue(elapsedMillis / 1000.0);
-                }
+            if (action != null) action.checkWorkloadMix(mix);
+        }
+        if (config.hasSearchWorkloadMix() && !names.contains(config.getSearchWorkloadMix())) {
+            throw new IllegalArgumentException("Unknown workload mix: " + config.getSearchWorkloadMix());
+        }
+        for (LoadPhase phase : config.getLoadPhaseList()) {
+            if (phase.hasWorkloadMix() && !names.contains(phase.getWorkloadMix())) {
+                throw new IllegalArgumentException("Unknown workload mix: " + phase.getWorkloadMix());
             }
-        } finally {
-            mPercentileCalculator.finishExecution();
         }
     }
 
@@ -73,31 +93,38 @@ public class Benchmark {
         return MoreFutures.execAsync(this::executeBenchmark);
     }
 
-    private Statistics executeBenchmark() throws InterruptedException {
-        mWorkersPool = new ConcurrentWorkersPool(this::workerFunction);
+    /**
+     * @return Time the search for the maximum compliant load took, or -1 if it hasn't
+     * converged yet.
+     */
+    public long getSearchTime(TimeUnit unit) {
+        long nanos = mSearchNanos;
+        return nanos < 0 ? -1 : unit.convert(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Statistics executeBenchmark() throws InterruptedException, IOException {
+        mDriver = mDriverFactory.create();
+        MetricsReporter metrics = null;
         try {
+            if (MetricsReporter.isEnabled(mConfig.getMetricsConfig())) {
+                metrics = new MetricsReporter(mConfig.getMetricsConfig(), mDriver, () -> mPhase);
+            }
             logInfoAndStdOut("Starting Benchmark.");
 
-            Range<Integer> searchLimits = execExponentialLoadStep(mConfig.getExponentialStepConfig());
-
-            execBinarySearchStep(mConfig.getBinarySearchConfig(), searchLimits);
-
-            double score = execFineTuneStep(mConfig.getFineTuneConfig());
-
-            while (score < 0) {
-                if (-score > mConfig.getFineTuneConfig().getMaxInitialStep()) {
-                    logInfoAndStdOut("Unexpectedly bad result from fine tune, doing binary search again.");
-                    searchLimits = searchLimits.intersection(Range.atMost(mWorkersPool.getWorkerCount()));
-                    execBinarySearchStep(mConfig.getBinarySearchConfig(), searchLimits);
-                } else {
-                    logInfoAndStdOut("Fine tune result uncompliant, will try again.");
-                }
-
-                score = execFineTuneStep(mConfig.getFineTuneConfig(), score);
+            Stopwatch searchTime = Stopwatch.createStarted();
+            if (mConfig.getSearchMode() == SearchMode.FEEDBACK_CONTROL) {
+                execFeedbackControlSearch(mConfig.getFeedbackControlConfig());
+            } else {
+                execStepSearch();
             }
+            mSearchNanos = searchTime.elapsed(TimeUnit.NANOSECONDS);
+            logInfoAndStdOut("Search converged in %.2f minutes. Load: %d %s",
+                    searchTime.elapsed(TimeUnit.SECONDS) / 60.0, mDriver.getLoad(), mDriver.getLoadUnit());
 
             Statistics stats = execCalculateStatsStep(mConfig.getStableStatsConfig());
-            printFinalResults(stats);
+            if (mConfig.getLoadPhaseCount() > 0) {
+                execLoadProfileStep(mConfig.getLoadPhaseList(), mDriver.getLoad());
+            }
             return stats;
         } catch (InterruptedException e) {
             logInfoAndStdOut("Benchmark interrupted.");
@@ -106,51 +133,119 @@ public class Benchmark {
             LOGGER.error("Benchmark failed with exception: {}", t);
             throw t;
         } finally {
-            mWorkersPool.shutdown();
-            Interruptibles.uninterruptibly(mWorkersPool::awaitTermination);
-            mWorkersPool = null;
+            if (metrics != null) metrics.close();
+            mDriver.shutdown();
+            Interruptibles.uninterruptibly(mDriver::awaitTermination);
+            mDriver = null;
 
             logInfoAndStdOut("Finished Benchmark.");
         }
     }
 
+    private void execStepSearch() throws InterruptedException {
+        Range<Integer> searchLimits = execExponentialLoadStep(mConfig.getExponentialStepConfig());
+
+        execBinarySearchStep(mConfig.getBinarySearchConfig(), searchLimits);
+
+        double score = execFineTuneStep(mConfig.getFineTuneConfig());
+
+        while (score < 0) {
+            if (-score > mConfig.getFineTuneConfig().getMaxInitialStep()) {
+                logInfoAndStdOut("Unexpectedly bad result from fine tune, doing binary search again.");
+                searchLimits = searchLimits.intersection(Range.atMost(mDriver.getLoad()));
+                execBinarySearchStep(mConfig.getBinarySearchConfig(), searchLimits);
+            } else {
+                logInfoAndStdOut("Fine tune result uncompliant, will try again.");
+            }
+
+            score = execFineTuneStep(mConfig.getFineTuneConfig(), score);
+        }
+    }
+
+    /**
+     * Adjusts the load every control interval from the executions finished since the
+     * last adjustment, without waiting for multiple compliance samples at each load.
+     * If the controller doesn't converge in time, falls back to the step search fine
+     * tune from the current load.
+     */
+    private void execFeedbackControlSearch(FeedbackControlConfig config) throws InterruptedException {
+        logInfoAndStdOut("Starting feedback control search.");
+        mPhase = "feedback_control";
+        FeedbackLoadController controller = new FeedbackLoadController(config, mConfig.getPercentileThreshold());
+        TimeCondition deadline = TimeCondition.untilAfter(config.getMaxDurationMin(), TimeUnit.MINUTES);
+        Stopwatch sinceChange = Stopwatch.createUnstarted();
+
+        setLoad(config.getInitialLoad());
+        sinceChange.start();
+        while (!controller.hasConverged()) {
+            if (deadline.await(config.getControlIntervalSec(), TimeUnit.SECONDS)) {
+                logInfoAndStdOut("Feedback control didn't converge in %d minutes, fine tuning instead.",
+                        config.getMaxDurationMin());
+                double score = execFineTuneStep(mConfig.getFineTuneConfig());
+                while (score < 0) {
+                    score = execFineTuneStep(mConfig.getFineTuneConfig(), score);
+                }
+                return;
+            }
+
+            PercentileCalculator.Sample sample = mDriver.getSample(sinceChange.elapsed(TimeUnit.SECONDS), TimeUnit.SECONDS);
+            if (sample.count() < config.getMinSamples()) {
+                LOGGER.trace("Not enough samples to adjust the load: {}", sample);
+                continue;
+            }
+
+            int load = controller.update(mDriver.getLoad(), sample);
+            LOGGER.debug("Feedback control: {} Error: {} Next load: {}", sample, controller.error(sample), load);
+            setLoad(load);
+            sinceChange.reset().start();
+        }
+        setLoad(controller.getConvergedLoad());
+        logInfoAndStdOut("Finished feedback control search. Load: %d %s", mDriver.getLoad(), mDriver.getLoadUnit());
+    }
+
     private Range<Integer> execExponentialLoadStep(ExponentialStepConfig config) throws InterruptedException {
-        int lastWorkerCount = 1;
-        setWorkerCount(config.getInitialWorkers());
+        int lastLoad = 1;
+        mPhase = "exponential";
+        setLoad(config.getInitialWorkers());
 
         logInfoAndStdOut("Starting exponential step.");
         while (isComplying(config)) {
-            lastWorkerCount = mWorkersPool.getWorkerCount();
-            setWorkerCount(config.getMultiplier() * lastWorkerCount);
+            lastLoad = mDriver.getLoad();
+            setLoad(config.getMultiplier() * lastLoad);
         }
-        logInfoAndStdOut("Finished exponential step. Workers: %d", mWorkersPool.getWorkerCount());
+        logInfoAndStdOut("Finished exponential step. Load: %d %s", mDriver.getLoad(), mDriver.getLoadUnit());
 
-        return Range.closed(lastWorkerCount, mWorkersPool.getWorkerCount());
+        return Range.closed(lastLoad, mDriver.getLoad());
     }
 
     private void execBinarySearchStep(BinarySearchStepConfig config, Range<Integer> limits) throws InterruptedException {
         int min = limits.lowerEndpoint(), max = limits.upperEndpoint();
         logInfoAndStdOut("Starting binary search step between %d and %d", min, max);
+        mPhase = "binary_search";
 
         int threshold = config.getThreshold();
         while (max - min > threshold) {
-            double currentOpsPerSec = mWorkersPool.getCurrentOperationsPerSec();
-            if (currentOpsPerSec > min + threshold && currentOpsPerSec < max - threshold) {
-                setWorkerCount((int) currentOpsPerSec);
+            // Closed-loop workers execute about once per second, so the current throughput
+            // hints at how many of them the SUT can actually serve. In open-loop mode the
+            // throughput is the load itself, thus giving no hint.
+            double currentOpsPerSec = mDriver.getCurrentOperationsPerSec();
+            if (mConfig.getLoadMode() == LoadMode.CLOSED_LOOP &&
+                    currentOpsPerSec > min + threshold && currentOpsPerSec < max - threshold) {
+                setLoad((int) currentOpsPerSec);
             } else {
-                setWorkerCount((min + max) / 2);
+                setLoad((min + max) / 2);
             }
 
             if (isComplying(config)) {
                 LOGGER.trace("Adjusting minimum search bound.");
-                min = mWorkersPool.getWorkerCount();
+                min = mDriver.getLoad();
             } else {
                 LOGGER.trace("Adjusting maximum search bound.");
-                max = mWorkersPool.getWorkerCount();
+                max = mDriver.getLoad();
             }
         }
-        setWorkerCount(min);
-        logInfoAndStdOut("Finished binary search step. Final workers: %d", min);
+        setLoad(min);
+        logInfoAndStdOut("Finished binary search step. Final load: %d %s", min, mDriver.getLoadUnit());
     }
 
     private double execFineTuneStep(FineTuneStepConfig config) throws InterruptedException {
@@ -159,6 +254,7 @@ public class Benchmark {
 
     private double execFineTuneStep(FineTuneStepConfig config, double score) throws InterruptedException {
         logInfoAndStdOut("Starting fine tune step.");
+        mPhase = "fine_tune";
 
         if (Double.isNaN(score)) {
             score = complianceScore(config);
@@ -166,40 +262,81 @@ public class Benchmark {
         int tuneDownStep = 2 * (int) Math.min(Math.round(-score), config.getMaxInitialStep());
         while (score < 0) {
             LOGGER.debug("Fine tuning down with step: {}", tuneDownStep);
-            setWorkerCount(Math.max(mWorkersPool.getWorkerCount() - tuneDownStep, 0));
+            setLoad(Math.max(mDriver.getLoad() - tuneDownStep, 0));
             score = complianceScore(config);
         }
 
-        int complyingCount = mWorkersPool.getWorkerCount();
+        int complyingLoad = mDriver.getLoad();
         int initialStep = (int) Math.min(Math.round(2 * score), config.getMaxInitialStep());
         for (int step = initialStep; step >= 1; step /= 2) {
             while (true) {
                 LOGGER.debug("Fine tuning up with step: {}", step);
-                setWorkerCount(complyingCount + step);
+                setLoad(complyingLoad + step);
                 if (isComplying(config)) {
-                    complyingCount += step;
+                    complyingLoad += step;
                 } else {
                     break;
                 }
             }
         }
-        setWorkerCount(complyingCount);
-        logInfoAndStdOut("Finished fine tuning. Workers: %d", mWorkersPool.getWorkerCount());
+        setLoad(complyingLoad);
+        logInfoAndStdOut("Finished fine tuning. Load: %d %s", mDriver.getLoad(), mDriver.getLoadUnit());
         return complianceScore(config);
     }
 
     private Statistics execCalculateStatsStep(StableStatsStepConfig config) throws InterruptedException {
-        logInfoAndStdOut("Calculating stable statistics for worker count: %d", mWorkersPool.getWorkerCount());
+        logInfoAndStdOut("Calculating stable statistics for load: %d %s", mDriver.getLoad(), mDriver.getLoadUnit());
         logInfoAndStdOut("Wait time: %d minutes", config.getWaitTimeMin());
+        mPhase = "stable_stats";
+
+        mDriver.startStatistics(config.getHistogramSignificantDigits());
+        ConnectionPoolStats poolAtStart = mDriver.getConnectionPoolStats();
+        Stopwatch elapsed = Stopwatch.createStarted();
+        waitReportingStatus(config.getWaitTimeMin(), TimeUnit.MINUTES);
+
+        LoadDriver.LatencyStatistics stats = mDriver.stopStatistics();
+        logInfoAndStdOut("Raw statistics (from actual start time):");
+        printFinalResults(stats.raw);
+        logInfoAndStdOut("Corrected statistics (from intended start time):");
+        printFinalResults(stats.corrected);
+        printConnectionPoolResults(poolAtStart, elapsed);
+        return mConfig.getComplianceLatency() == LatencyMeasurement.RAW ? stats.raw : stats.corrected;
+    }
 
-        mPercentileCalculator.reset();
-        mStatsCalculator = Statistics.calculator();
-        try {
-            waitReportingStatus(config.getWaitTimeMin(), TimeUnit.MINUTES);
-            return mStatsCalculator.calculate();
-        } finally {
-            mStatsCalculator = null;
+    /**
+     * Runs each phase of the load profile in turn, ramping the load relative to the
+     * maximum compliant load, and reports the statistics of each phase on its own.
+     */
+    private void execLoadProfileStep(List<LoadPhase> phases, int maxLoad) throws InterruptedException {
+        logInfoAndStdOut("Starting load profile relative to load: %d %s", maxLoad, mDriver.getLoadUnit());
+        for (int i = 0; i < phases.size(); i++) {
+            LoadPhase phase = phases.get(i);
+            String name = phase.hasName() ? phase.getName() : "phase" + (i + 1);
+            mPhase = "profile_" + name;
+            if (phase.hasWorkloadMix()) {
+                mDriver.setWorkloadMix(phase.getWorkloadMix());
+            }
+            logInfoAndStdOut("Starting load phase %s for %d seconds, from %.2f to %.2f of the load.",
+                    name, phase.getDurationSec(), phase.getStartLoadRatio(), phase.getEndLoadRatio());
+
+            mDriver.startStatistics(mConfig.getStableStatsConfig().getHistogramSignificantDigits());
+            ConnectionPoolStats poolAtStart = mDriver.getConnectionPoolStats();
+            Stopwatch elapsed = Stopwatch.createStarted();
+            TimeCondition endCondition = TimeCondition.untilAfter(phase.getDurationSec(), TimeUnit.SECONDS);
+            do {
+                double progress = phase.getDurationSec() == 0 ? 1 :
+                        1 - (double) endCondition.timeLeft(TimeUnit.MILLISECONDS) / (phase.getDurationSec() * 1000);
+                double ratio = phase.getStartLoadRatio() +
+                        (phase.getEndLoadRatio() - phase.getStartLoadRatio()) * Math.min(Math.max(progress, 0), 1);
+                setLoad((int) Math.round(maxLoad * ratio));
+            } while (!endCondition.await(phase.getRampStepSec(), TimeUnit.SECONDS));
+
+            LoadDriver.LatencyStatistics stats = mDriver.stopStatistics();
+            logInfoAndStdOut("Finished load phase %s. Load: %d %s", name, mDriver.getLoad(), mDriver.getLoadUnit());
+            printFinalResults(mConfig.getComplianceLatency() == LatencyMeasurement.RAW ? stats.raw : stats.corrected);
+            printConnectionPoolResults(poolAtStart, elapsed);
         }
+        setLoad(maxLoad);
     }
 
     private void printFinalResults(Statistics stats) {
@@ -209,40 +346,87 @@ public class Benchmark {
         long delayMillis = mConfig.getDelayLimitMillis();
         logInfoAndStdOut("%dth percentile: %.3f", (int) (100 * percentile), stats.getPercentileValue(percentile));
         logInfoAndStdOut("%dms percentile rank: %.3f", delayMillis, stats.getPercentileRank(delayMillis / 1000.0));
+
+        logInfoAndStdOut("Breakdown per operation class and route:");
+        logInfoAndStdOut("%-36s %10s %10s %10s %10s", "", "ops/s", "p50", "p95", "p99");
+        for (Map.Entry<String, Statistics> opClass : stats.getBreakdown().entrySet()) {
+            logBreakdownLine(opClass.getKey(), opClass.getValue());
+            for (Map.Entry<String, Statistics> route : opClass.getValue().getBreakdown().entrySet()) {
+                logBreakdownLine("  " + route.getKey(), route.getValue());
+            }
+        }
+    }
+
+    private static void logBreakdownLine(String label, Statistics stats) {
+        logInfoAndStdOut("%-36s %10.1f %10.3f %10.3f %10.3f", label, stats.samplesPerSec,
+                stats.getPercentileValue(0.50), stats.getPercentileValue(0.95), stats.getPercentileValue(0.99));
     }
 
     private void waitReportingStatus(long timeout, TimeUnit unit) throws InterruptedException {
         TimeCondition endCondition = TimeCondition.untilAfter(timeout, unit);
+        ConnectionPoolStats lastPool = mDriver.getConnectionPoolStats();
+        Stopwatch sinceLastPool = Stopwatch.createStarted();
         do {
+            LoadDriver.Status status = mDriver.getStatus();
             System.out.format("Waiting: %.1f OPS\n" +
                               "         %.3f percentile\n" +
-                              "         %d workers\n" +
-                              "         %d threads\n",
-                    mWorkersPool.getCurrentOperationsPerSec(),
-                    mPercentileCalculator.getCurrentPercentile(),
-                    mWorkersPool.getWorkerCount(),
-                    mWorkersPool.getThreadCount());
+                              "         %d %s\n" +
+                              "         %d threads\n" +
+                              "         %.1f ms scheduling lag (max %.1f ms)\n",
+                    status.operationsPerSec,
+                    status.currentPercentile,
+                    mDriver.getLoad(),
+                    mDriver.getLoadUnit(),
+                    status.threadCount,
+                    status.schedulingLag.meanMillis,
+                    status.schedulingLag.maxMillis);
+            int lines = 5;
+
+            ConnectionPoolStats pool = status.connectionPool;
+            if (pool != null && lastPool != null) {
+                System.out.format("         %s\n", formatConnectionPool(lastPool, pool, sinceLastPool));
+                lines++;
+            }
+            lastPool = pool;
+            sinceLastPool.reset().start();
 
             if (endCondition.await(3, TimeUnit.SECONDS)) {
-                LOGGER.debug("Finished waiting. Final OPS: {} Percentile: {}",
-                        mWorkersPool.getCurrentOperationsPerSec(),
-                        mPercentileCalculator.getCurrentPercentile());
+                LOGGER.debug("Finished waiting. {}", mDriver.getStatus());
                 break;
             }
-            moveBackLines(4);
+            moveBackLines(lines);
         } while (true);
     }
 
-    private void setWorkerCount(int count) throws InterruptedException {
-        if (count == mWorkersPool.getWorkerCount()) return;
+    /**
+     * Formats the current state of the connection pool, with the rates of connections
+     * opened and closed since the previous state, given with the time elapsed since it.
+     */
+    private static String formatConnectionPool(ConnectionPoolStats previous, ConnectionPoolStats current,
+                                               Stopwatch elapsed) {
+        double seconds = Math.max(elapsed.elapsed(TimeUnit.MILLISECONDS), 1) / 1000.0;
+        return String.format("%d active, %d idle, %d pending connections (%.1f opened/s, %.1f closed/s)",
+                current.active, current.idle, current.pending,
+                (current.opened - previous.opened) / seconds,
+                (current.closed - previous.closed) / seconds);
+    }
+
+    private void printConnectionPoolResults(ConnectionPoolStats start, Stopwatch elapsed) {
+        ConnectionPoolStats end = mDriver.getConnectionPoolStats();
+        if (start == null || end == null) return;
+        logInfoAndStdOut("Connection pool: %s", formatConnectionPool(start, end, elapsed));
+    }
+
+    private void setLoad(int load) throws InterruptedException {
+        if (load == mDriver.getLoad()) return;
 
-        LOGGER.debug("Setting worker count to: {}", count);
-        int added = mWorkersPool.setWorkerCount(count);
-        Future<?> unblocked = mWorkersPool.workersUnblockedFuture();
+        LOGGER.debug("Setting load to: {} {}", load, mDriver.getLoadUnit());
+        int added = mDriver.setLoad(load);
+        Future<?> unblocked = mDriver.unblockedFuture();
 
         if (added < 0) {
-            LOGGER.debug("Awaiting termination of stopped workers...");
-            mWorkersPool.awaitStoppedWorkersTermination();
+            LOGGER.debug("Awaiting termination of stopped executions...");
+            mDriver.awaitStoppedTermination();
         }
         try {
             MoreFutures.awaitTermination(unblocked, 2, TimeUnit.SECONDS);
@@ -250,8 +434,6 @@ public class Benchmark {
             LOGGER.trace("Workers blocked! Waiting...");
             MoreFutures.awaitTermination(unblocked);
         }
-
-        mPercentileCalculator.reset();
     }
 
     private boolean isComplying(Message msg) throws InterruptedException {
@@ -268,6 +450,9 @@ public class Benchmark {
      * from the percentile threshold.
      */
     private double complianceScore(long baseWaitTime, TimeUnit unit) throws InterruptedException {
+        if (mConfig.getComplianceTest() == ComplianceTest.SEQUENTIAL) {
+            return sequentialComplianceScore(mConfig.getComplianceTestSamples() * baseWaitTime, unit);
+        }
         int samples = mConfig.getComplianceTestSamples();
         double percentileThreshold = mConfig.getPercentileThreshold();
         double confidenceWidth = mConfig.getComplianceTestConfidenceWidth();
@@ -275,15 +460,18 @@ public class Benchmark {
         LinkedList<Double> percentiles = Lists.newLinkedList();
         do {
             LOGGER.trace("Compliance check, waiting: {} {}", baseWaitTime, unit);
-            Future<?> unblocked = mWorkersPool.workersUnblockedFuture();
+            Future<?> unblocked = mDriver.unblockedFuture();
             unit.sleep(baseWaitTime);
             if (!unblocked.isDone()) {
                 LOGGER.trace("Workers blocked! Waiting...");
                 MoreFutures.awaitTermination(unblocked);
             }
 
-            double percentile = mPercentileCalculator.getCurrentPercentile();
-            LOGGER.trace("Current percentile: {} Execution count: {}", percentile, mPercentileCalculator.count());
+            // Each sample only considers the executions in its own wait window, so that the
+            // samples are independent and not polluted by the time before the last change.
+            PercentileCalculator.Sample sample = mDriver.getSample(baseWaitTime, unit);
+            double percentile = sample.getPercentile();
+            LOGGER.trace("Current percentile: {} Execution count: {}", percentile, sample.count());
             percentiles.addLast(percentile);
             if (percentiles.size() < samples) continue;
 
@@ -307,6 +495,57 @@ public class Benchmark {
         } while (true);
     }
 
+    /**
+     * Polls the executions finished since the start of the test until the sequential
+     * test decides, or until the maximum wait time, after which the side of the threshold
+     * the percentile is on decides. The score is calculated like in the confidence band
+     * test, from the percentile of the executions considered by the decision.
+     *
+     * Executions in progress for longer than the delay limit are outcomes over it already,
+     * so that requests hung by the server count against it before they time out.
+     */
+    private double sequentialComplianceScore(long maxWaitTime, TimeUnit unit) throws InterruptedException {
+        SequentialTestConfig config = mConfig.getSequentialTestConfig();
+        double percentileThreshold = mConfig.getPercentileThreshold();
+        SequentialComplianceTest test = new SequentialComplianceTest(config, percentileThreshold);
+
+        TimeCondition deadline = TimeCondition.untilAfter(maxWaitTime, unit);
+        Stopwatch elapsed = Stopwatch.createStarted();
+        while (true) {
+            boolean timedOut = deadline.await(config.getPollIntervalMillis(), TimeUnit.MILLISECONDS);
+
+            // Only whole seconds after the first one of the test, so that executions finished
+            // before it, or right after it but started under the previous load, aren't
+            // considered. Executions in progress within the limit aren't outcomes yet.
+            long elapsedSec = elapsed.elapsed(TimeUnit.SECONDS);
+            if (elapsedSec < 2) continue;
+            PercentileCalculator.Sample sample = mDriver.getSample(elapsedSec - 1, TimeUnit.SECONDS);
+            long overLimit = sample.higher + sample.overdue;
+            SequentialComplianceTest.Decision decision = test.decide(sample.lower, overLimit);
+            double percentile = new PercentileCalculator.Sample(sample.lower, overLimit, 0, 0).getPercentile();
+            LOGGER.trace("Sequential test: {} Decision: {} LLR: {}",
+                    sample, decision, test.logLikelihoodRatio(sample.lower, overLimit));
+
+            if (decision == SequentialComplianceTest.Decision.UNDECIDED) {
+                if (!timedOut) continue;
+                LOGGER.debug("Sequential test undecided after {} {}", maxWaitTime, unit);
+                decision = percentile >= percentileThreshold
+                        ? SequentialComplianceTest.Decision.COMPLIES
+                        : SequentialComplianceTest.Decision.VIOLATES;
+            }
+
+            if (decision == SequentialComplianceTest.Decision.COMPLIES) {
+                double score = Math.abs(Math.log(percentileThreshold) / Math.log(percentile));
+                LOGGER.debug("Complies after {}! Score: {}", elapsed, score);
+                return score;
+            } else {
+                double score = -Math.abs(Math.log(percentile) / Math.log(percentileThreshold));
+                LOGGER.debug("Doesn't comply after {}! Score: {}", elapsed, score);
+                return score;
+            }
+        }
+    }
+
     private static void logInfoAndStdOut(String format, Object... args) {
         String msg = String.format(format, args);
         System.out.format("[%s] %s\n", new Date(), msg);
@@ -323,4 +562,8 @@ public class Benchmark {
                 ESC + "0J");         // clear screen from cursor forward
         System.out.flush();
     }
+
+    private interface DriverFactory {
+        LoadDriver create() throws IOException;
+    }
 }
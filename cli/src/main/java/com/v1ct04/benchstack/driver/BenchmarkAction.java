@@ -1,7 +1,34 @@
 package com.v1ct04.benchstack.driver;
 
 import com.google.common.util.concurrent.ListenableFuture;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.WorkloadMix;
 
 public interface BenchmarkAction {
-    ListenableFuture<?> execute(int workerNum) throws Exception;
+    ListenableFuture<?> execute(int workerNum, OperationTag tag) throws Exception;
+
+    /**
+     * Switches the mix of operations of the executions started from now on, while
+     * workers keep executing. Actions without distinct operations ignore it.
+     *
+     * @throws IllegalArgumentException If the mix has operations unknown to this action.
+     */
+    default void setWorkloadMix(WorkloadMix mix) {
+    }
+
+    /**
+     * Checks a mix of the configuration before the benchmark starts, so that it can't
+     * fail only once it's switched to.
+     *
+     * @throws IllegalArgumentException If the mix has operations unknown to this action.
+     */
+    default void checkWorkloadMix(WorkloadMix mix) {
+    }
+
+    /**
+     * @return Current state of the pool of connections the action executes through,
+     *         or null if it doesn't have one.
+     */
+    default ConnectionPoolStats getConnectionPoolStats() {
+        return null;
+    }
 }
@@ -0,0 +1,287 @@
+package com.v1ct04.benchstack.driver;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.v1ct04.benchstack.concurrent.Interruptibles;
+import com.v1ct04.benchstack.concurrent.MoreFutures;
+import com.v1ct04.benchstack.driver.AgentProtocol.AgentRequest;
+import com.v1ct04.benchstack.driver.AgentProtocol.AgentResponse;
+import com.v1ct04.benchstack.driver.AgentProtocol.ComplianceSample;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.RequestLogConfig;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.WorkloadMix;
+import com.v1ct04.benchstack.driver.LoadDriver.LatencyStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates load on behalf of a coordinating {@link Benchmark} created with
+ * {@link Benchmark#distributed}, which connects to the agent over TCP and controls
+ * the load level of a {@link LocalLoadDriver} hosted by the agent.
+ *
+ * A single coordinator is served at a time, and the driver is shut down whenever it
+ * disconnects, so the agent can be reused for subsequent benchmarks.
+ */
+public class BenchmarkAgent implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BenchmarkAgent.class);
+
+    private final ServerSocket mServer;
+    private final BenchmarkAction mAction;
+    private volatile Socket mCoordinator;
+
+    public BenchmarkAgent(int port, BenchmarkAction action) throws IOException {
+        mServer = new ServerSocket(port);
+        mAction = action;
+    }
+
+    public int getPort() {
+        return mServer.getLocalPort();
+    }
+
+    /**
+     * Serves coordinators until the agent is closed or the socket fails.
+     */
+    public void run() throws IOException {
+        LOGGER.info("Agent listening on port {}", getPort());
+        try {
+            while (!mServer.isClosed()) {
+                Socket accepted;
+                try {
+                    accepted = mServer.accept();
+                } catch (SocketException e) {
+                    if (mServer.isClosed()) break;
+                    throw e;
+                }
+                try (Socket socket = accepted) {
+                    mCoordinator = socket;
+                    // closed concurrently, before it could see this coordinator
+                    if (mServer.isClosed()) break;
+                    socket.setTcpNoDelay(true);
+                    LOGGER.info("Coordinator connected from {}", socket.getRemoteSocketAddress());
+                    new Session(socket.getOutputStream()).serve(socket.getInputStream());
+                } catch (IOException e) {
+                    if (!mServer.isClosed()) LOGGER.error("Coordinator session failed: {}", e.toString());
+                } finally {
+                    mCoordinator = null;
+                }
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Stops serving, disconnecting the current coordinator, whose driver is then shut
+     * down by {@link #run()} before returning. Can be called from any thread.
+     */
+    @Override
+    public void close() throws IOException {
+        mServer.close();
+        Socket coordinator = mCoordinator;
+        if (coordinator != null) coordinator.close();
+    }
+
+    private class Session {
+        private final OutputStream mOutput;
+        private LoadDriver mDriver;
+
+        Session(OutputStream output) {
+            mOutput = output;
+        }
+
+        /**
+         * Handles the requests sequentially in the calling thread, except for the
+         * awaiting ones, which are answered asynchronously.
+         */
+        void serve(InputStream input) throws IOException {
+            try {
+                AgentRequest request;
+                while ((request = AgentRequest.parseDelimitedFrom(input)) != null) {
+                    AgentResponse.Builder response = AgentResponse.newBuilder().setId(request.getId());
+                    try {
+                        if (handle(request, response)) respond(response);
+                        if (request.getType() == AgentRequest.Type.SHUTDOWN) break;
+                    } catch (RuntimeException e) {
+                        LOGGER.warn("Request {} failed: {}", request.getType(), e.toString());
+                        respond(response.setError(e.toString()));
+                    }
+                }
+            } finally {
+                shutdownDriver();
+                LOGGER.info("Coordinator disconnected.");
+            }
+        }
+
+        /**
+         * @return Whether the response is ready, otherwise it is sent asynchronously.
+         */
+        private boolean handle(AgentRequest request, AgentResponse.Builder response) {
+            if (request.getType() == AgentRequest.Type.INIT) {
+                shutdownDriver();
+                mDriver = newDriver(request);
+                response.setLoadUnit(mDriver.getLoadUnit());
+                return true;
+            }
+            if (request.getType() == AgentRequest.Type.SHUTDOWN) {
+                shutdownDriver();
+                return true;
+            }
+            if (mDriver == null) {
+                throw new IllegalStateException("Session not initialized");
+            }
+
+            switch (request.getType()) {
+                case SET_LOAD:
+                    response.setLoadDelta(mDriver.setLoad(request.getLoad()));
+                    return true;
+                case AWAIT_UNBLOCKED:
+                    respondWhenDone(mDriver.unblockedFuture(), response);
+                    return false;
+                case AWAIT_STOPPED:
+                    LoadDriver driver = mDriver;
+                    respondWhenDone(MoreFutures.execAsync(
+                            () -> Interruptibles.uninterruptibly(driver::awaitStoppedTermination)), response);
+                    return false;
+                case GET_STATUS:
+                    LoadDriver.Status status = mDriver.getStatus();
+                    response.getStatusBuilder()
+                            .setOperationsPerSec(status.operationsPerSec)
+                            .setThreadCount(status.threadCount)
+                            .setCurrentSample(toProto(mDriver.getSample(Long.MAX_VALUE, TimeUnit.SECONDS)))
+                            .setLagCount(status.schedulingLag.count)
+                            .setLagMeanMillis(status.schedulingLag.meanMillis)
+                            .setLagMaxMillis(status.schedulingLag.maxMillis);
+                    ConnectionPoolStats pool = status.connectionPool;
+                    if (pool != null) {
+                        response.getStatusBuilder().getConnectionPoolBuilder()
+                                .setActive(pool.active)
+                                .setIdle(pool.idle)
+                                .setPending(pool.pending)
+                                .setOpened(pool.opened)
+                                .setClosed(pool.closed);
+                    }
+                    return true;
+                case GET_SAMPLE:
+                    response.setSample(toProto(mDriver.getSample(request.getWindowMillis(), TimeUnit.MILLISECONDS)));
+                    return true;
+                case START_STATISTICS:
+                    mDriver.startStatistics(request.getSignificantDigits());
+                    return true;
+                case STOP_STATISTICS:
+                    LatencyStatistics stats = mDriver.stopStatistics();
+                    response.setCorrected(stats.corrected.toSnapshot())
+                            .setRaw(stats.raw.toSnapshot());
+                    return true;
+                case TAKE_INTERVAL_STATISTICS:
+                    response.setInterval(mDriver.takeIntervalStatistics().toSnapshot());
+                    return true;
+                case SET_WORKLOAD_MIX:
+                    mDriver.setWorkloadMix(request.getWorkloadMix());
+                    return true;
+                default:
+                    throw new IllegalArgumentException("Unknown request type: " + request.getType());
+            }
+        }
+
+        private LoadDriver newDriver(AgentRequest init) {
+            BenchmarkConfig.Builder config = init.getConfig().toBuilder();
+            if (config.getRequestLogConfig().hasPath()) {
+                // Agents may share a file system, e.g. when running on the same machine.
+                RequestLogConfig.Builder requestLog = config.getRequestLogConfigBuilder();
+                requestLog.setPath(requestLog.getPath() + ".agent" + init.getAgentIndex());
+            }
+            // The coordinator can't check the operations of the mixes with the agent's action
+            Benchmark.checkWorkloadMixes(config.build(), mAction);
+            try {
+                return new LocalLoadDriver(config.build(), globalAction(init.getAgentIndex(), init.getAgentCount()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Worker numbers are interleaved among the agents, so that the actions of
+         * different agents never share the same worker state on the server.
+         */
+        private BenchmarkAction globalAction(int agentIndex, int agentCount) {
+            return new BenchmarkAction() {
+                @Override
+                public ListenableFuture<?> execute(int workerNum, OperationTag tag) throws Exception {
+                    return mAction.execute(workerNum * agentCount + agentIndex, tag);
+                }
+
+                @Override
+                public void setWorkloadMix(WorkloadMix mix) {
+                    mAction.setWorkloadMix(mix);
+                }
+
+                @Override
+                public void checkWorkloadMix(WorkloadMix mix) {
+                    mAction.checkWorkloadMix(mix);
+                }
+
+                @Override
+                public ConnectionPoolStats getConnectionPoolStats() {
+                    return mAction.getConnectionPoolStats();
+                }
+            };
+        }
+
+        private void respondWhenDone(ListenableFuture<?> future, AgentResponse.Builder response) {
+            Futures.addCallback(future, new FutureCallback<Object>() {
+                @Override
+                public void onSuccess(Object result) {
+                    trySend(response);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    trySend(response.setError(t.toString()));
+                }
+            });
+        }
+
+        private void trySend(AgentResponse.Builder response) {
+            try {
+                respond(response);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to send response: {}", e.toString());
+            }
+        }
+
+        private void respond(AgentResponse.Builder response) throws IOException {
+            synchronized (mOutput) {
+                response.build().writeDelimitedTo(mOutput);
+                mOutput.flush();
+            }
+        }
+
+        private void shutdownDriver() {
+            if (mDriver == null) return;
+            mDriver.shutdown();
+            Interruptibles.uninterruptibly(mDriver::awaitTermination);
+            mDriver = null;
+        }
+    }
+
+    private static ComplianceSample toProto(PercentileCalculator.Sample sample) {
+        return ComplianceSample.newBuilder()
+                .setLower(sample.lower)
+                .setHigher(sample.higher)
+                .setExecuting(sample.executing)
+                .setOverdue(sample.overdue)
+                .build();
+    }
+}
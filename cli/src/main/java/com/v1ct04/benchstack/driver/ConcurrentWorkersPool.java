@@ -1,83 +1,109 @@
 package com.v1ct04.benchstack.driver;
 
 import com.google.common.base.Stopwatch;
-import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
-import com.v1ct04.benchstack.concurrent.ForwardingScheduledExecutorService;
-import com.v1ct04.benchstack.concurrent.MoreFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.v1ct04.benchstack.concurrent.GenerationBarrier;
+import com.v1ct04.benchstack.concurrent.GenerationBarrier.Generation;
+import com.v1ct04.benchstack.concurrent.HashedWheelScheduledExecutorService;
 import com.v1ct04.benchstack.concurrent.ReschedulingTask;
+import com.v1ct04.benchstack.concurrent.SchedulingLag;
 import com.v1ct04.benchstack.concurrent.Signaler;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig;
 
+import java.util.Deque;
 import java.util.Queue;
-import java.util.Stack;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.IntConsumer;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.LongSupplier;
 
-class ConcurrentWorkersPool {
+class ConcurrentWorkersPool implements LoadGenerator {
 
     private static final AtomicInteger sPoolNumber = new AtomicInteger(0);
 
-    private final IntConsumer mWorkerFunction;
-    private final ThreadPoolExecutor mThreadPoolExecutor;
-    private final ScheduledExecutorService mExecutor;
+    private final WorkerFunction mWorkerFunction;
+    private final ExecutorService mWorkerExecutor;
+    private final HashedWheelScheduledExecutorService mExecutor;
 
-    private final Stack<ReschedulingTask> mWorkers = new Stack<>();
+    // Used as a stack, so that worker numbers are reused as the count changes.
+    private final Deque<Worker> mWorkers = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger mWorkerCount = new AtomicInteger(0);
     private final Queue<ReschedulingTask> mStoppedWorkers = new ConcurrentLinkedQueue<>();
+    private final GenerationBarrier mUnblockedBarrier = new GenerationBarrier();
 
     private final Stopwatch mSinceLastChange = Stopwatch.createUnstarted();
     private final AtomicInteger mOperationCount = new AtomicInteger(0);
     private final Signaler mTasksResetter = new Signaler();
 
-    public ConcurrentWorkersPool(IntConsumer workerFunction) {
-        String threadNameFormat = String.format(
-                "workers-pool-%d-thread-%%d", sPoolNumber.getAndIncrement());
-        ThreadFactory threadFactory = new ThreadFactoryBuilder()
-                .setNameFormat(threadNameFormat)
-                .setDaemon(true)
-                .build();
-
-        mThreadPoolExecutor = new ThreadPoolExecutor(5, Integer.MAX_VALUE,
-                                                     30, TimeUnit.SECONDS,
-                                                     new SynchronousQueue<>(),
-                                                     threadFactory);
-        mExecutor = new ForwardingScheduledExecutorService(mThreadPoolExecutor,
-                                                           threadFactory);
+    public ConcurrentWorkersPool(WorkerFunction workerFunction, BenchmarkConfig config) {
+        ThreadFactory threadFactory = WorkerExecutors.threadFactory(String.format(
+                "workers-pool-%d-thread-%%d", sPoolNumber.getAndIncrement()));
+
+        mWorkerExecutor = WorkerExecutors.newExecutor(config, threadFactory);
+        mExecutor = new HashedWheelScheduledExecutorService(mWorkerExecutor,
+                                                            threadFactory,
+                                                            config.getSchedulerTickMicros(),
+                                                            TimeUnit.MICROSECONDS,
+                                                            HashedWheelScheduledExecutorService.DEFAULT_TICKS_PER_WHEEL);
         mWorkerFunction = workerFunction;
     }
 
+    @Override
+    public String getLoadUnit() {
+        return "workers";
+    }
+
+    @Override
+    public int getLoad() {
+        return getWorkerCount();
+    }
+
+    @Override
+    public int setLoad(int load) {
+        return setWorkerCount(load);
+    }
+
+    @Override
     public double getCurrentOperationsPerSec() {
         long elapsedMillis = mSinceLastChange.elapsed(TimeUnit.MILLISECONDS);
         if (elapsedMillis == 0) return 0;
         return mOperationCount.get() / (elapsedMillis / 1000.0);
     }
 
+    @Override
     public int getThreadCount() {
-        return mThreadPoolExecutor.getPoolSize();
+        return WorkerExecutors.threadCount(mWorkerExecutor);
+    }
+
+    @Override
+    public SchedulingLag getSchedulingLag() {
+        return mExecutor.getSchedulingLag();
     }
 
+    @Override
     public void shutdown() {
         setWorkerCount(0);
         mExecutor.shutdownNow();
     }
 
+    @Override
     public void awaitTermination() throws InterruptedException {
-        awaitStoppedWorkersTermination();
+        awaitStoppedTermination();
         while (!mExecutor.awaitTermination(1, TimeUnit.DAYS));
     }
 
-    public synchronized int getWorkerCount() {
-        return mWorkers.size();
+    public int getWorkerCount() {
+        return mWorkerCount.get();
     }
 
     public synchronized int setWorkerCount(int count) {
-        int toAdd = (count - mWorkers.size());
+        int toAdd = (count - mWorkerCount.get());
         if (toAdd > 0) addWorkers(toAdd);
         else removeWorkers(-toAdd);
 
         mTasksResetter.signal();
+        mExecutor.resetSchedulingLag();
         mOperationCount.set(0);
         mSinceLastChange.reset().start();
         return toAdd;
@@ -85,21 +111,23 @@ class ConcurrentWorkersPool {
 
     private synchronized void addWorkers(int count) {
         while (count > 0) {
-            mWorkers.push(newWorker(mWorkers.size()));
+            mWorkers.push(new Worker(mWorkerCount.getAndIncrement()));
             count--;
         }
     }
 
     private synchronized void removeWorkers(int count) {
         while (count > 0) {
-            ReschedulingTask worker = mWorkers.pop();
-            worker.cancel(false);
-            mStoppedWorkers.offer(worker);
+            Worker worker = mWorkers.pop();
+            mWorkerCount.decrementAndGet();
+            worker.stop();
+            mStoppedWorkers.offer(worker.mTask);
             count--;
         }
     }
 
-    public void awaitStoppedWorkersTermination() throws InterruptedException {
+    @Override
+    public void awaitStoppedTermination() throws InterruptedException {
         ReschedulingTask stopped = mStoppedWorkers.poll();
         while (stopped != null) {
             stopped.awaitTermination();
@@ -107,27 +135,82 @@ class ConcurrentWorkersPool {
         }
     }
 
-    public synchronized ListenableFuture<?> workersUnblockedFuture() {
-        Iterable<ListenableFuture<Boolean>> futures = mWorkers.stream()
-                .map(ReschedulingTask::nextExecutionFuture)
-                .map(MoreFutures::toSuccessFuture)
-                ::iterator;
-        return Futures.allAsList(futures);
-    }
-
     /**
-     * Creates a new worker in the underlying executor service with a
-     * variable execution rate, so that we don't have bursts of requests
-     * to the SUT, distributing them over the testing period.
+     * Completes once every worker has finished its running execution, or its next one
+     * if it's not running, i.e. none of them is still blocked or overdue. Each worker is
+     * counted in the current generation of a barrier until its next execution finishes,
+     * so this doesn't depend on the number of workers.
      */
-    private ReschedulingTask newWorker(int id) {
-        LongSupplier delayGenerator = new RandomDelayGenerator(1000, 4);
-        return ReschedulingTask.builder(mExecutor)
-                .setInitialDelay(delayGenerator.getAsLong(), TimeUnit.MILLISECONDS)
-                .setVariableRate(delayGenerator, TimeUnit.MILLISECONDS, mTasksResetter)
-                .start(() -> {
-                    mOperationCount.incrementAndGet();
-                    mWorkerFunction.accept(id);
-                });
+    @Override
+    public ListenableFuture<?> unblockedFuture() {
+        return mUnblockedBarrier.advance();
+    }
+
+    private class Worker {
+        private final int mId;
+        private final ReschedulingTask mTask;
+        private final AtomicReference<Generation> mGeneration;
+        private final Runnable mNextGeneration = this::nextGeneration;
+        private volatile boolean mStopped = false;
+
+        /**
+         * Creates a new worker in the underlying executor service with a
+         * variable execution rate, so that we don't have bursts of requests
+         * to the SUT, distributing them over the testing period.
+         */
+        private Worker(int id) {
+            mId = id;
+            mGeneration = new AtomicReference<>(mUnblockedBarrier.enter());
+
+            LongSupplier delayGenerator = new RandomDelayGenerator(1000, 4);
+            mTask = ReschedulingTask.builder(mExecutor)
+                    .setInitialDelay(delayGenerator.getAsLong(), TimeUnit.MILLISECONDS)
+                    .setVariableRate(delayGenerator, TimeUnit.MILLISECONDS, mTasksResetter)
+                    .startAsync(this::execute);
+        }
+
+        private ListenableFuture<?> execute(long intendedNanoStartTime) {
+            mOperationCount.incrementAndGet();
+            ListenableFuture<?> execution = mWorkerFunction.execute(mId, intendedNanoStartTime);
+            if (execution.isDone()) {
+                nextGeneration();
+            } else {
+                execution.addListener(mNextGeneration, MoreExecutors.directExecutor());
+            }
+            return execution;
+        }
+
+        /**
+         * Leaves the generation that was waiting for the execution that just finished,
+         * entering the current one to be waited for until the next execution finishes.
+         */
+        private void nextGeneration() {
+            Generation previous = mGeneration.getAndSet(mStopped ? null : mUnblockedBarrier.enter());
+            if (previous != null) previous.leave();
+            // In case it's been stopped right after the check above.
+            if (mStopped) leaveGeneration();
+        }
+
+        private void stop() {
+            mStopped = true;
+            mTask.cancel(false);
+            leaveGeneration();
+        }
+
+        private void leaveGeneration() {
+            Generation generation = mGeneration.getAndSet(null);
+            if (generation != null) generation.leave();
+        }
+    }
+
+    public interface WorkerFunction {
+        /**
+         * @param intendedNanoStartTime The {@link System#nanoTime()} at which this
+         *                              execution should have started had the pool not
+         *                              lagged behind schedule.
+         * @return Future that completes, successfully, once the execution has finished
+         *         and been recorded. The worker is only rescheduled after that.
+         */
+        ListenableFuture<?> execute(int workerNum, long intendedNanoStartTime);
     }
 }
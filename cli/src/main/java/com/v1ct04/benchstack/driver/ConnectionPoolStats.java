@@ -0,0 +1,68 @@
+package com.v1ct04.benchstack.driver;
+
+import java.util.Collection;
+
+/**
+ * Snapshot of the connection pool of the client a benchmark action sends its requests
+ * through, telling the latency of the system under test apart from requests waiting
+ * for a connection inside the driver itself.
+ */
+public class ConnectionPoolStats {
+
+    public static ConnectionPoolStats of(int active, int idle, int pending, long opened, long closed) {
+        return new ConnectionPoolStats(active, idle, pending, opened, closed);
+    }
+
+    /**
+     * Combines the pools of independent clients, e.g. of multiple agents.
+     */
+    public static ConnectionPoolStats merge(Collection<ConnectionPoolStats> pools) {
+        int active = 0, idle = 0, pending = 0;
+        long opened = 0, closed = 0;
+        for (ConnectionPoolStats pool : pools) {
+            active += pool.active;
+            idle += pool.idle;
+            pending += pool.pending;
+            opened += pool.opened;
+            closed += pool.closed;
+        }
+        return new ConnectionPoolStats(active, idle, pending, opened, closed);
+    }
+
+    /**
+     * Connections in use by a request.
+     */
+    public final int active;
+    /**
+     * Connections kept open to be reused.
+     */
+    public final int idle;
+    /**
+     * Requests waiting for a connection to be opened or released.
+     */
+    public final int pending;
+    /**
+     * Connections opened and closed since the client was created.
+     */
+    public final long opened;
+    public final long closed;
+
+    private ConnectionPoolStats(int active, int idle, int pending, long opened, long closed) {
+        this.active = active;
+        this.idle = idle;
+        this.pending = pending;
+        this.opened = opened;
+        this.closed = closed;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPoolStats{" +
+                "active=" + active +
+                ", idle=" + idle +
+                ", pending=" + pending +
+                ", opened=" + opened +
+                ", closed=" + closed +
+                '}';
+    }
+}
@@ -0,0 +1,99 @@
+package com.v1ct04.benchstack.driver;
+
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.FeedbackControlConfig;
+
+/**
+ * PI controller of the load level, continuously steering it towards the load where
+ * the measured percentile meets the threshold, i.e. the maximum compliant load.
+ *
+ * The controller works over the logarithm of the load, so that each adjustment is
+ * relative to the current load, and its error is the log ratio between the allowed
+ * fraction of executions over the delay limit and the measured one. Like in stochastic
+ * approximation, the gains are halved whenever the error changes sign, damping the
+ * oscillation around the target as the measurements become noise dominated, and are
+ * restored while the error keeps the same sign, so that a premature decay doesn't
+ * stall the controller far from the target.
+ */
+class FeedbackLoadController {
+
+    private static final double MAX_ERROR = 2;
+    private static final int SAME_SIGN_INTERVALS_TO_RECOVER = 3;
+
+    private final FeedbackControlConfig mConfig;
+    private final double mAllowedTail;
+
+    private double mGainScale = 1;
+    private double mLastError = 0;
+    private int mSameSignCount = 0;
+
+    private int mSettledCount = 0;
+    private int mMinSettledCompliantLoad = Integer.MAX_VALUE;
+    private int mMinSettledLoad = Integer.MAX_VALUE;
+
+    public FeedbackLoadController(FeedbackControlConfig config, double percentileThreshold) {
+        mConfig = config;
+        mAllowedTail = 1 - percentileThreshold;
+    }
+
+    /**
+     * Positive while complying, negative otherwise.
+     */
+    double error(PercentileCalculator.Sample sample) {
+        // Smoothed so that an empty tail still yields a finite error.
+        double tail = (sample.higher + sample.executing + 0.5) / (sample.count() + sample.executing + 1.0);
+        double error = Math.log(mAllowedTail / tail);
+        return Math.max(-MAX_ERROR, Math.min(error, MAX_ERROR));
+    }
+
+    /**
+     * @return The next load, given the sample measured since the last adjustment.
+     */
+    public int update(int load, PercentileCalculator.Sample sample) {
+        double error = error(sample);
+        if (mLastError != 0 && Math.signum(error) != Math.signum(mLastError)) {
+            mGainScale /= 2;
+            mSameSignCount = 0;
+        } else if (++mSameSignCount >= SAME_SIGN_INTERVALS_TO_RECOVER) {
+            mGainScale = Math.min(1, 2 * mGainScale);
+        }
+
+        double logStep = mGainScale * (mConfig.getProportionalGain() * (error - mLastError) +
+                                       mConfig.getIntegralGain() * error);
+        double maxLogStep = Math.log(mConfig.getMaxStepRatio());
+        logStep = Math.max(-maxLogStep, Math.min(logStep, maxLogStep));
+        mLastError = error;
+
+        int next = (int) Math.max(1, Math.round(load * Math.exp(logStep)));
+        updateSettling(load, next, error > 0);
+        return next;
+    }
+
+    private void updateSettling(int load, int next, boolean complying) {
+        if (Math.abs(next - load) > Math.max(1, mConfig.getTolerance() * load)) {
+            mSettledCount = 0;
+            mMinSettledCompliantLoad = Integer.MAX_VALUE;
+            mMinSettledLoad = Integer.MAX_VALUE;
+            return;
+        }
+        mSettledCount++;
+        mMinSettledLoad = Math.min(mMinSettledLoad, load);
+        if (complying) {
+            mMinSettledCompliantLoad = Math.min(mMinSettledCompliantLoad, load);
+        }
+    }
+
+    public boolean hasConverged() {
+        return mSettledCount >= mConfig.getSettleIntervals();
+    }
+
+    /**
+     * Lowest load measured as compliant since the load settled, as the highest one is
+     * biased by the noise of the measurements, or a load just under the lowest settled
+     * one if none was compliant.
+     */
+    public int getConvergedLoad() {
+        if (mMinSettledCompliantLoad != Integer.MAX_VALUE) return mMinSettledCompliantLoad;
+        if (mMinSettledLoad == Integer.MAX_VALUE) return 1;
+        return (int) Math.max(1, Math.floor(mMinSettledLoad * (1 - mConfig.getTolerance())) - 1);
+    }
+}
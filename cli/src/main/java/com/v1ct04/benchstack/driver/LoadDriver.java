@@ -0,0 +1,103 @@
+package com.v1ct04.benchstack.driver;
+
+import com.v1ct04.benchstack.concurrent.SchedulingLag;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LoadGenerator} that also measures the executions it generates, which is all
+ * the {@link Benchmark} needs to search for the maximum compliant load. The load may
+ * be generated locally or by remote agents, with their measurements merged.
+ */
+interface LoadDriver extends LoadGenerator {
+
+    /**
+     * Compliance sample of the executions finished in the last {@code window} time.
+     */
+    PercentileCalculator.Sample getSample(long window, TimeUnit unit);
+
+    double getCurrentPercentile();
+
+    /**
+     * Starts recording the latency statistics. Compliance samples are windowed, so
+     * they're left as they are.
+     */
+    void startStatistics(int significantDigits);
+
+    /**
+     * Stops recording the latency statistics started by {@link #startStatistics(int)}.
+     */
+    LatencyStatistics stopStatistics();
+
+    /**
+     * Statistics of the latency used for compliance of the executions finished since the
+     * previous call, only recorded if metrics are enabled by the configuration.
+     */
+    Statistics takeIntervalStatistics();
+
+    /**
+     * Switches the benchmark action to one of the mixes in the configuration, by name.
+     */
+    void setWorkloadMix(String name);
+
+    /**
+     * Connection pool of the benchmark action, see {@link BenchmarkAction#getConnectionPoolStats()}.
+     */
+    ConnectionPoolStats getConnectionPoolStats();
+
+    /**
+     * Current state of the driver, all taken at once, which saves round trips to the
+     * agents of a remote driver.
+     */
+    default Status getStatus() {
+        return new Status(getCurrentOperationsPerSec(), getCurrentPercentile(), getThreadCount(),
+                          getSchedulingLag(), getConnectionPoolStats());
+    }
+
+    class Status {
+        public final double operationsPerSec;
+        public final double currentPercentile;
+        public final int threadCount;
+        public final SchedulingLag schedulingLag;
+        /**
+         * Null if the benchmark action doesn't report one.
+         */
+        public final ConnectionPoolStats connectionPool;
+
+        Status(double operationsPerSec, double currentPercentile, int threadCount,
+               SchedulingLag schedulingLag, ConnectionPoolStats connectionPool) {
+            this.operationsPerSec = operationsPerSec;
+            this.currentPercentile = currentPercentile;
+            this.threadCount = threadCount;
+            this.schedulingLag = schedulingLag;
+            this.connectionPool = connectionPool;
+        }
+
+        @Override
+        public String toString() {
+            return "Status{" +
+                    "operationsPerSec=" + operationsPerSec +
+                    ", currentPercentile=" + currentPercentile +
+                    ", threadCount=" + threadCount +
+                    ", schedulingLag=" + schedulingLag +
+                    ", connectionPool=" + connectionPool +
+                    '}';
+        }
+    }
+
+    class LatencyStatistics {
+        /**
+         * From the time each execution was intended to start.
+         */
+        public final Statistics corrected;
+        /**
+         * From the time each execution actually started.
+         */
+        public final Statistics raw;
+
+        LatencyStatistics(Statistics corrected, Statistics raw) {
+            this.corrected = corrected;
+            this.raw = raw;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.v1ct04.benchstack.driver;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.v1ct04.benchstack.concurrent.SchedulingLag;
+
+/**
+ * Source of load for the {@link Benchmark}, controlled by a single integer load level
+ * over which the benchmark searches for the maximum compliant load. The meaning of
+ * the load level is implementation specific, e.g. the number of closed-loop workers
+ * or the target rate of an open-loop arrival process.
+ */
+interface LoadGenerator {
+
+    /**
+     * Unit of the load level, for display purposes.
+     */
+    String getLoadUnit();
+
+    int getLoad();
+
+    /**
+     * @return The difference between the new and the previous load.
+     */
+    int setLoad(int load);
+
+    double getCurrentOperationsPerSec();
+
+    int getThreadCount();
+
+    /**
+     * Lag of the executions started since the last change of the load, in relation
+     * to the time they were scheduled for.
+     */
+    SchedulingLag getSchedulingLag();
+
+    /**
+     * Future that completes when the generator has caught up with its schedule after
+     * the moment of this call, i.e. it's not blocked by previous executions.
+     */
+    ListenableFuture<?> unblockedFuture();
+
+    /**
+     * Awaits the executions still running from a previous decrease of the load.
+     */
+    void awaitStoppedTermination() throws InterruptedException;
+
+    void shutdown();
+
+    void awaitTermination() throws InterruptedException;
+}
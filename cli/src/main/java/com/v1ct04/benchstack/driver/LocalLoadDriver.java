@@ -0,0 +1,333 @@
+package com.v1ct04.benchstack.driver;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.v1ct04.benchstack.concurrent.MoreFutures;
+import com.v1ct04.benchstack.concurrent.SchedulingLag;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.ComplianceTest;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.ExecutionBackend;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.LatencyMeasurement;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.WorkloadMix;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Drives the load from this process, executing the benchmark action on a local
+ * {@link LoadGenerator} and measuring each execution.
+ */
+class LocalLoadDriver implements LoadDriver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalLoadDriver.class);
+
+    // Longest wait for the executions in flight at shutdown, e.g. HTTP requests the
+    // ASYNC backend holds no thread for, before closing the request log anyway.
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+    private final BenchmarkConfig mConfig;
+    private final BenchmarkAction mAction;
+    private final PercentileCalculator mPercentileCalculator;
+    private final LoadGenerator mLoadGenerator;
+    private final RequestLogWriter mRequestLog;
+
+    private volatile Statistics.Calculator mStatsCalculator;
+    private volatile Statistics.Calculator mRawStatsCalculator;
+    private final AtomicReference<IntervalCalculator> mIntervalStatsCalculator = new AtomicReference<>();
+    // Executions not recorded yet, guarded by itself for waiting on them to drain.
+    private final AtomicInteger mUnrecorded = new AtomicInteger(0);
+
+    public LocalLoadDriver(BenchmarkConfig config, BenchmarkAction action) throws IOException {
+        mConfig = config;
+        mAction = action;
+        if (config.getWorkloadMixCount() > 0) {
+            setWorkloadMix(config.hasSearchWorkloadMix()
+                    ? config.getSearchWorkloadMix()
+                    : config.getWorkloadMix(0).getName());
+        }
+        mPercentileCalculator = new PercentileCalculator(mConfig.getDelayLimitMillis(), maxComplianceWindowSec(config));
+        mRequestLog = config.getRequestLogConfig().hasPath()
+                ? new RequestLogWriter(config.getRequestLogConfig())
+                : null;
+        mLoadGenerator = newLoadGenerator();
+        if (MetricsReporter.isEnabled(config.getMetricsConfig())) {
+            mIntervalStatsCalculator.set(newIntervalStatsCalculator());
+        }
+    }
+
+    private IntervalCalculator newIntervalStatsCalculator() {
+        return new IntervalCalculator(Statistics.calculator(mConfig.getMetricsConfig().getHistogramSignificantDigits()));
+    }
+
+    /**
+     * Longest window the benchmark samples compliance over, which for the sequential
+     * test is all of its outcomes since it started, up to its maximum wait time.
+     */
+    static int maxComplianceWindowSec(BenchmarkConfig config) {
+        long maxWaitTimeSec = Math.max(config.getExponentialStepConfig().getBaseWaitTimeSec(),
+                Math.max(config.getBinarySearchConfig().getBaseWaitTimeSec(),
+                         config.getFineTuneConfig().getBaseWaitTimeSec()));
+        if (config.getComplianceTest() == ComplianceTest.SEQUENTIAL) {
+            maxWaitTimeSec *= config.getComplianceTestSamples();
+        }
+        return (int) Math.max(maxWaitTimeSec, 60);
+    }
+
+    private LoadGenerator newLoadGenerator() {
+        switch (mConfig.getLoadMode()) {
+            case OPEN_LOOP:
+                return new OpenLoopLoadGenerator(this::workerFunction, mConfig);
+            case CLOSED_LOOP:
+            default:
+                return new ConcurrentWorkersPool(this::workerFunction, mConfig);
+        }
+    }
+
+    /**
+     * Executes the action, measuring its latency both from the time it actually started
+     * and from the time it was intended to start. The latter also charges the execution
+     * for the time it was delayed by previous executions of a stalled system, which would
+     * otherwise be omitted from the statistics (coordinated omission).
+     *
+     * The latency is recorded by a callback on the future returned by the action, thus
+     * with the {@link ExecutionBackend#ASYNC} backend no thread is held while the action
+     * is in flight. With the other backends the calling thread also blocks until the
+     * action completes.
+     *
+     * @return Future that always completes successfully, once the execution is recorded.
+     */
+    private ListenableFuture<?> workerFunction(int workerNum, long intendedNanoStartTime) {
+        mUnrecorded.incrementAndGet();
+        long startSecond = mPercentileCalculator.startExecution();
+        OperationTag tag = new OperationTag();
+        long nanoStartTime = System.nanoTime();
+        ListenableFuture<?> execution = MoreFutures.resultOf(() -> mAction.execute(workerNum, tag));
+
+        if (mConfig.getExecutionBackend() != ExecutionBackend.ASYNC) {
+            try {
+                MoreFutures.onlyGet(execution);
+            } catch (InterruptedException e) {
+                // execution has been cancelled, won't be recorded
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | CancellationException e) {
+                // recorded below
+            }
+        }
+
+        ListenableFuture<?> recorded = MoreFutures.consume(execution, (r, t) -> {
+            try {
+                recordExecution(workerNum, tag, t, intendedNanoStartTime, nanoStartTime);
+            } finally {
+                mPercentileCalculator.finishExecution(startSecond);
+                if (mUnrecorded.decrementAndGet() == 0) {
+                    synchronized (mUnrecorded) {
+                        mUnrecorded.notifyAll();
+                    }
+                }
+            }
+        });
+        return MoreFutures.toSuccessFuture(recorded);
+    }
+
+    private void recordExecution(int workerNum, OperationTag tag, Throwable t,
+                                 long intendedNanoStartTime, long nanoStartTime) {
+        if (t instanceof CancellationException) return;
+        if (t != null) {
+            LOGGER.warn("Worker {}: Action threw exception: {}", workerNum, t.toString());
+        }
+        long nanoEndTime = System.nanoTime();
+        long rawNanos = nanoEndTime - nanoStartTime;
+        long correctedNanos = nanoEndTime - Math.min(intendedNanoStartTime, nanoStartTime);
+        if (mRequestLog != null) {
+            mRequestLog.append(workerNum, tag, t == null, nanoStartTime, correctedNanos, rawNanos);
+        }
+
+        long complianceNanos = mConfig.getComplianceLatency() == LatencyMeasurement.RAW ? rawNanos : correctedNanos;
+        long complianceMillis = TimeUnit.NANOSECONDS.toMillis(complianceNanos);
+        if (t == null || complianceMillis > mConfig.getDelayLimitMillis()) {
+            mPercentileCalculator.appendValue(complianceMillis);
+            Statistics.Calculator calculator = mStatsCalculator;
+            if (calculator != null) {
+                calculator.appendValue(tag, correctedNanos, TimeUnit.NANOSECONDS);
+            }
+            Statistics.Calculator rawCalculator = mRawStatsCalculator;
+            if (rawCalculator != null) {
+                rawCalculator.appendValue(tag, rawNanos, TimeUnit.NANOSECONDS);
+            }
+            IntervalCalculator intervalCalculator = acquireIntervalCalculator();
+            if (intervalCalculator != null) {
+                try {
+                    intervalCalculator.calculator.appendValue(tag, complianceNanos, TimeUnit.NANOSECONDS);
+                } finally {
+                    intervalCalculator.writers.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Current interval calculator with a writer slot held, which the caller must
+     * release, or null if metrics aren't enabled.
+     */
+    private IntervalCalculator acquireIntervalCalculator() {
+        while (true) {
+            IntervalCalculator calculator = mIntervalStatsCalculator.get();
+            if (calculator == null) return null;
+            calculator.writers.incrementAndGet();
+            // a calculator swapped out meanwhile may be calculated already
+            if (mIntervalStatsCalculator.get() == calculator) return calculator;
+            calculator.writers.decrementAndGet();
+        }
+    }
+
+    @Override
+    public PercentileCalculator.Sample getSample(long window, TimeUnit unit) {
+        return mPercentileCalculator.getSample(window, unit);
+    }
+
+    @Override
+    public double getCurrentPercentile() {
+        return mPercentileCalculator.getCurrentPercentile();
+    }
+
+    @Override
+    public void startStatistics(int significantDigits) {
+        mStatsCalculator = Statistics.calculator(significantDigits);
+        mRawStatsCalculator = Statistics.calculator(significantDigits);
+    }
+
+    @Override
+    public LatencyStatistics stopStatistics() {
+        Statistics.Calculator calculator = mStatsCalculator;
+        Statistics.Calculator rawCalculator = mRawStatsCalculator;
+        if (calculator == null || rawCalculator == null) {
+            throw new IllegalStateException("Statistics not started");
+        }
+        mStatsCalculator = null;
+        mRawStatsCalculator = null;
+        return new LatencyStatistics(calculator.calculate(), rawCalculator.calculate());
+    }
+
+    @Override
+    public Statistics takeIntervalStatistics() {
+        if (mIntervalStatsCalculator.get() == null) {
+            throw new IllegalStateException("Metrics not enabled");
+        }
+        IntervalCalculator previous = mIntervalStatsCalculator.getAndSet(newIntervalStatsCalculator());
+        // values being appended to it when swapped still belong to its interval
+        while (previous.writers.get() > 0) {
+            Thread.yield();
+        }
+        return previous.calculator.calculate();
+    }
+
+    @Override
+    public void setWorkloadMix(String name) {
+        for (WorkloadMix mix : mConfig.getWorkloadMixList()) {
+            if (mix.getName().equals(name)) {
+                mAction.setWorkloadMix(mix);
+                LOGGER.debug("Switched to workload mix: {}", name);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Unknown workload mix: " + name);
+    }
+
+    @Override
+    public String getLoadUnit() {
+        return mLoadGenerator.getLoadUnit();
+    }
+
+    @Override
+    public int getLoad() {
+        return mLoadGenerator.getLoad();
+    }
+
+    @Override
+    public int setLoad(int load) {
+        return mLoadGenerator.setLoad(load);
+    }
+
+    @Override
+    public double getCurrentOperationsPerSec() {
+        return mLoadGenerator.getCurrentOperationsPerSec();
+    }
+
+    @Override
+    public int getThreadCount() {
+        return mLoadGenerator.getThreadCount();
+    }
+
+    @Override
+    public SchedulingLag getSchedulingLag() {
+        return mLoadGenerator.getSchedulingLag();
+    }
+
+    @Override
+    public ConnectionPoolStats getConnectionPoolStats() {
+        return mAction.getConnectionPoolStats();
+    }
+
+    @Override
+    public ListenableFuture<?> unblockedFuture() {
+        return mLoadGenerator.unblockedFuture();
+    }
+
+    @Override
+    public void awaitStoppedTermination() throws InterruptedException {
+        mLoadGenerator.awaitStoppedTermination();
+    }
+
+    @Override
+    public void shutdown() {
+        mLoadGenerator.shutdown();
+    }
+
+    @Override
+    public void awaitTermination() throws InterruptedException {
+        mLoadGenerator.awaitTermination();
+        if (mRequestLog != null) {
+            awaitExecutionsRecorded();
+            try {
+                mRequestLog.close();
+            } catch (IOException e) {
+                LOGGER.error("Failed to close request log: {}", e.toString());
+            }
+        }
+    }
+
+    /**
+     * Waits for the executions still in flight once the load generator terminated, as
+     * with the ASYNC backend it doesn't wait for the futures of the actions.
+     */
+    private void awaitExecutionsRecorded() throws InterruptedException {
+        long deadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS;
+        synchronized (mUnrecorded) {
+            long left;
+            while (mUnrecorded.get() > 0 && (left = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(mUnrecorded, left);
+            }
+        }
+        if (mUnrecorded.get() > 0) {
+            LOGGER.warn("Closing request log with {} executions still in flight", mUnrecorded.get());
+        }
+    }
+
+    /**
+     * Calculator of the interval statistics, counting the appends in progress so that
+     * it's only calculated once the ones that got it before it was swapped out finish.
+     */
+    private static class IntervalCalculator {
+        final Statistics.Calculator calculator;
+        final AtomicInteger writers = new AtomicInteger(0);
+
+        IntervalCalculator(Statistics.Calculator calculator) {
+            this.calculator = calculator;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.v1ct04.benchstack.driver;
+
+import com.v1ct04.benchstack.driver.AgentProtocol.HistogramSnapshot;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-memory histogram of non-negative long values, using a log-linear bucketing
+ * scheme similar to HdrHistogram's. Values are split in power-of-two ranges, each of
+ * which is divided in the same number of linear sub-buckets, so that the relative
+ * error of any value answered by the histogram is bounded by the configured number
+ * of significant decimal digits, no matter how many values are recorded.
+ *
+ * Besides the bucket counts, the exact count, minimum, maximum, mean and variance
+ * (through Welford's algorithm) of the recorded values are kept, so that those don't
+ * suffer from the bucketing precision loss.
+ *
+ * This class is NOT thread-safe, concurrent recording should either be synchronized
+ * externally or done in separate histograms that are {@link #add(LogLinearHistogram)
+ * merged} afterwards.
+ */
+public class LogLinearHistogram {
+
+    private final long mHighestTrackableValue;
+    private final int mSignificantDigits;
+
+    private final int mSubBucketBits;
+    private final int mSubBucketCount;
+    private final int mSubBucketHalfCount;
+    private final long[] mCounts;
+
+    private long mTotalCount = 0;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax = Long.MIN_VALUE;
+    private double mMean = 0;
+    private double mSquaredDeviationSum = 0;
+
+    /**
+     * @param highestTrackableValue Values higher than this are recorded as this value
+     *                              in the buckets (but not in the min, max, mean and
+     *                              variance, which are always exact).
+     * @param significantDigits Number of significant decimal digits to keep for each
+     *                          value, between 1 and 5.
+     */
+    public LogLinearHistogram(long highestTrackableValue, int significantDigits) {
+        if (significantDigits < 1 || significantDigits > 5) {
+            throw new IllegalArgumentException("Significant digits must be between 1 and 5");
+        }
+        if (highestTrackableValue < 1) {
+            throw new IllegalArgumentException("Highest trackable value must be positive");
+        }
+        mHighestTrackableValue = highestTrackableValue;
+        mSignificantDigits = significantDigits;
+
+        // Have at least 2 * 10^digits sub-buckets, so that the resolution in the upper half
+        // of each range (the only one used for ranges other than the first) is 10^-digits.
+        long minSubBuckets = 2 * (long) Math.pow(10, significantDigits);
+        mSubBucketBits = 64 - Long.numberOfLeadingZeros(minSubBuckets - 1);
+        mSubBucketCount = 1 << mSubBucketBits;
+        mSubBucketHalfCount = mSubBucketCount / 2;
+        mCounts = new long[indexOf(highestTrackableValue) + 1];
+    }
+
+    public LogLinearHistogram(LogLinearHistogram other) {
+        this(other.mHighestTrackableValue, other.mSignificantDigits);
+        add(other);
+    }
+
+    /**
+     * Recreates a histogram from a snapshot of another one, e.g. taken in a remote agent.
+     */
+    public static LogLinearHistogram fromSnapshot(HistogramSnapshot snapshot) {
+        LogLinearHistogram histogram = new LogLinearHistogram(
+                snapshot.getHighestTrackableValue(), snapshot.getSignificantDigits());
+        if (snapshot.getBucketIndexCount() != snapshot.getBucketCountCount()) {
+            throw new IllegalArgumentException("Mismatched bucket indexes and counts");
+        }
+        for (int i = 0; i < snapshot.getBucketIndexCount(); i++) {
+            histogram.mCounts[snapshot.getBucketIndex(i)] = snapshot.getBucketCount(i);
+        }
+        histogram.mTotalCount = snapshot.getTotalCount();
+        histogram.mMin = snapshot.getTotalCount() == 0 ? Long.MAX_VALUE : snapshot.getMin();
+        histogram.mMax = snapshot.getTotalCount() == 0 ? Long.MIN_VALUE : snapshot.getMax();
+        histogram.mMean = snapshot.getMean();
+        histogram.mSquaredDeviationSum = snapshot.getSquaredDeviationSum();
+        return histogram;
+    }
+
+    public HistogramSnapshot toSnapshot() {
+        HistogramSnapshot.Builder snapshot = HistogramSnapshot.newBuilder()
+                .setHighestTrackableValue(mHighestTrackableValue)
+                .setSignificantDigits(mSignificantDigits)
+                .setTotalCount(mTotalCount)
+                .setMin(getMin())
+                .setMax(getMax())
+                .setMean(mMean)
+                .setSquaredDeviationSum(mSquaredDeviationSum);
+        for (int i = 0; i < mCounts.length; i++) {
+            if (mCounts[i] == 0) continue;
+            snapshot.addBucketIndex(i).addBucketCount(mCounts[i]);
+        }
+        return snapshot.build();
+    }
+
+    public long getHighestTrackableValue() {
+        return mHighestTrackableValue;
+    }
+
+    public int getSignificantDigits() {
+        return mSignificantDigits;
+    }
+
+    public void recordValue(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Histogram values must be non-negative");
+        }
+        mCounts[indexOf(Math.min(value, mHighestTrackableValue))]++;
+
+        mTotalCount++;
+        if (value < mMin) mMin = value;
+        if (value > mMax) mMax = value;
+
+        double delta = value - mMean;
+        mMean += delta / mTotalCount;
+        mSquaredDeviationSum += delta * (value - mMean);
+    }
+
+    /**
+     * Adds all values recorded in the other histogram into this one. Both histograms
+     * must have been created with the same configuration.
+     */
+    public void add(LogLinearHistogram other) {
+        if (other.mHighestTrackableValue != mHighestTrackableValue ||
+                other.mSignificantDigits != mSignificantDigits) {
+            throw new IllegalArgumentException("Can only add histograms with the same configuration");
+        }
+        if (other.mTotalCount == 0) return;
+
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] += other.mCounts[i];
+        }
+
+        // Chan et al. parallel variance combination
+        long total = mTotalCount + other.mTotalCount;
+        double delta = other.mMean - mMean;
+        mSquaredDeviationSum += other.mSquaredDeviationSum +
+                delta * delta * ((double) mTotalCount * other.mTotalCount / total);
+        mMean += delta * other.mTotalCount / total;
+        mTotalCount = total;
+
+        mMin = Math.min(mMin, other.mMin);
+        mMax = Math.max(mMax, other.mMax);
+    }
+
+    public void reset() {
+        Arrays.fill(mCounts, 0);
+        mTotalCount = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = Long.MIN_VALUE;
+        mMean = 0;
+        mSquaredDeviationSum = 0;
+    }
+
+    public long getTotalCount() {
+        return mTotalCount;
+    }
+
+    public long getMin() {
+        return mTotalCount == 0 ? 0 : mMin;
+    }
+
+    public long getMax() {
+        return mTotalCount == 0 ? 0 : mMax;
+    }
+
+    public double getMean() {
+        return mMean;
+    }
+
+    public double getSum() {
+        return mMean * mTotalCount;
+    }
+
+    /**
+     * Population variance of the recorded values.
+     */
+    public double getVariance() {
+        return mTotalCount == 0 ? 0 : mSquaredDeviationSum / mTotalCount;
+    }
+
+    /**
+     * Value at the given percentile (between 0 and 1) of the recorded values, within
+     * the precision of the histogram. Alike a sorted list, this is the value at the
+     * {@code percentile * (count - 1)} position.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 1");
+        }
+        if (mTotalCount == 0) return 0;
+
+        long rank = (long) (percentile * (mTotalCount - 1));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen > rank) {
+                long middle = lowestValueAt(i) + (valueWidthAt(i) - 1) / 2;
+                return Math.max(mMin, Math.min(middle, mMax));
+            }
+        }
+        return mMax;
+    }
+
+    /**
+     * Fraction of the recorded values that are lower than or equal to the given one,
+     * interpolating linearly inside the bucket that contains the value.
+     */
+    public double getPercentileRank(long value) {
+        if (mTotalCount == 0) return 1;
+        if (value < getMin()) return 0;
+        if (value >= getMax()) return 1;
+
+        int valueIdx = indexOf(Math.min(value, mHighestTrackableValue));
+        long lower = 0;
+        for (int i = 0; i < valueIdx; i++) {
+            lower += mCounts[i];
+        }
+        double insideFraction = (value - lowestValueAt(valueIdx) + 1) / (double) valueWidthAt(valueIdx);
+        return (lower + mCounts[valueIdx] * Math.min(insideFraction, 1)) / mTotalCount;
+    }
+
+    int indexOf(long value) {
+        if (value < mSubBucketCount) return (int) value;
+
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (mSubBucketBits - 1);
+        int subBucket = (int) (value >>> shift) - mSubBucketHalfCount;
+        return mSubBucketCount + (shift - 1) * mSubBucketHalfCount + subBucket;
+    }
+
+    long lowestValueAt(int index) {
+        if (index < mSubBucketCount) return index;
+
+        int shifted = index - mSubBucketCount;
+        int shift = shifted / mSubBucketHalfCount + 1;
+        long subBucket = shifted % mSubBucketHalfCount + mSubBucketHalfCount;
+        return subBucket << shift;
+    }
+
+    long valueWidthAt(int index) {
+        if (index < mSubBucketCount) return 1;
+        return 1L << ((index - mSubBucketCount) / mSubBucketHalfCount + 1);
+    }
+}
@@ -0,0 +1,133 @@
+package com.v1ct04.benchstack.driver;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.MetricsConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Takes a {@link MetricsSnapshot} of a running benchmark at every interval, appending it
+ * to an NDJSON file and serving the latest one to Prometheus scrapes over HTTP, so that
+ * the load and latencies seen by the driver can be lined up with the ones of the SUT.
+ */
+class MetricsReporter implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsReporter.class);
+
+    static boolean isEnabled(MetricsConfig config) {
+        return config.hasNdjsonPath() || config.getPrometheusPort() > 0;
+    }
+
+    private final LoadDriver mDriver;
+    private final Supplier<String> mPhase;
+    private final ScheduledExecutorService mExecutor;
+    private final Stopwatch mSinceLastSnapshot = Stopwatch.createStarted();
+    private final Writer mNdjson;
+    private final HttpServer mServer;
+
+    private volatile MetricsSnapshot mLatest;
+    // Only accessed by the reporting thread, copied into each snapshot.
+    private final Map<String, MetricsSnapshot.LatencyTotal> mLatencyTotals = new LinkedHashMap<>();
+
+    public MetricsReporter(MetricsConfig config, LoadDriver driver, Supplier<String> phase) throws IOException {
+        mDriver = driver;
+        mPhase = phase;
+        mNdjson = config.hasNdjsonPath()
+                ? new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(config.getNdjsonPath(), true), StandardCharsets.UTF_8))
+                : null;
+
+        if (config.getPrometheusPort() > 0) {
+            try {
+                mServer = HttpServer.create(
+                        new InetSocketAddress(InetAddress.getLoopbackAddress(), config.getPrometheusPort()), 0);
+            } catch (IOException e) {
+                if (mNdjson != null) mNdjson.close();
+                throw e;
+            }
+            mServer.createContext("/metrics", this::serveMetrics);
+            mServer.start();
+            LOGGER.info("Serving metrics on {}", mServer.getAddress());
+        } else {
+            mServer = null;
+        }
+
+        mExecutor = Executors.newSingleThreadScheduledExecutor(WorkerExecutors.threadFactory("metrics-reporter-%d"));
+        mExecutor.scheduleAtFixedRate(this::report,
+                config.getIntervalMillis(), config.getIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public MetricsSnapshot getLatest() {
+        return mLatest;
+    }
+
+    private void report() {
+        try {
+            MetricsSnapshot snapshot = takeSnapshot();
+            mLatest = snapshot;
+            if (mNdjson != null) {
+                mNdjson.write(snapshot.toJson().toString());
+                mNdjson.write('\n');
+                mNdjson.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            // keep reporting, a periodic task that throws is not run again
+            LOGGER.warn("Failed to report metrics: {}", e.toString());
+        }
+    }
+
+    private MetricsSnapshot takeSnapshot() {
+        Statistics latency = mDriver.takeIntervalStatistics();
+        double intervalSec = mSinceLastSnapshot.elapsed(TimeUnit.NANOSECONDS) / 1e9;
+        mSinceLastSnapshot.reset().start();
+        MetricsSnapshot.accumulate(mLatencyTotals, latency);
+
+        LoadDriver.Status status = mDriver.getStatus();
+        return new MetricsSnapshot(System.currentTimeMillis(),
+                                   mPhase.get(),
+                                   mDriver.getLoad(),
+                                   mDriver.getLoadUnit(),
+                                   intervalSec > 0 ? latency.count / intervalSec : 0,
+                                   status.currentPercentile,
+                                   status.threadCount,
+                                   status.schedulingLag,
+                                   latency,
+                                   ImmutableMap.copyOf(mLatencyTotals));
+    }
+
+    private void serveMetrics(HttpExchange exchange) throws IOException {
+        MetricsSnapshot snapshot = mLatest;
+        byte[] body = (snapshot == null ? "" : snapshot.toPrometheusText()).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mExecutor.shutdownNow();
+        try {
+            mExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (mServer != null) mServer.stop(0);
+        if (mNdjson != null) mNdjson.close();
+    }
+}
@@ -0,0 +1,183 @@
+package com.v1ct04.benchstack.driver;
+
+import com.v1ct04.benchstack.concurrent.SchedulingLag;
+import org.json.JSONObject;
+
+import java.util.Map;
+
+/**
+ * Status of a benchmark over a single metrics interval, rendered either as a JSON
+ * object or in the Prometheus text exposition format. Latencies are in seconds.
+ *
+ * The latency summary has the quantiles of the interval, but the count and sum of all
+ * the executions finished since reporting started, as Prometheus expects them to be
+ * counters.
+ */
+class MetricsSnapshot {
+
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+    // Class of all the executions in the latency totals.
+    static final String TOTAL = "total";
+
+    public final long timestampMillis;
+    public final String phase;
+    public final int load;
+    public final String loadUnit;
+    /**
+     * Executions finished over the interval, per second.
+     */
+    public final double operationsPerSec;
+    public final double currentPercentile;
+    public final int threadCount;
+    public final SchedulingLag schedulingLag;
+    /**
+     * Latency of the executions finished over the interval.
+     */
+    public final Statistics latency;
+    /**
+     * Latency of all the executions finished since reporting started, per operation
+     * class and in total.
+     */
+    public final Map<String, LatencyTotal> latencyTotals;
+
+    MetricsSnapshot(long timestampMillis, String phase, int load, String loadUnit, double operationsPerSec,
+                    double currentPercentile, int threadCount, SchedulingLag schedulingLag, Statistics latency,
+                    Map<String, LatencyTotal> latencyTotals) {
+        this.timestampMillis = timestampMillis;
+        this.phase = phase;
+        this.load = load;
+        this.loadUnit = loadUnit;
+        this.operationsPerSec = operationsPerSec;
+        this.currentPercentile = currentPercentile;
+        this.threadCount = threadCount;
+        this.schedulingLag = schedulingLag;
+        this.latency = latency;
+        this.latencyTotals = latencyTotals;
+    }
+
+    public JSONObject toJson() {
+        JSONObject classes = new JSONObject();
+        for (Map.Entry<String, Statistics> operationClass : latency.getBreakdown().entrySet()) {
+            classes.put(operationClass.getKey(), latencyJson(operationClass.getValue()));
+        }
+        return new JSONObject()
+                .put("timestamp", timestampMillis)
+                .put("phase", phase)
+                .put("load", load)
+                .put("loadUnit", loadUnit)
+                .put("opsPerSec", operationsPerSec)
+                .put("percentile", currentPercentile)
+                .put("threads", threadCount)
+                .put("schedulingLagMeanMs", schedulingLag.meanMillis)
+                .put("schedulingLagMaxMs", schedulingLag.maxMillis)
+                .put("latency", latencyJson(latency))
+                .put("classes", classes);
+    }
+
+    private static JSONObject latencyJson(Statistics stats) {
+        JSONObject json = new JSONObject().put("count", stats.count);
+        if (stats.count == 0) return json;
+        for (double quantile : QUANTILES) {
+            json.put("p" + Math.round(quantile * 100), stats.getPercentileValue(quantile));
+        }
+        return json.put("max", stats.max);
+    }
+
+    public String toPrometheusText() {
+        StringBuilder text = new StringBuilder();
+        gauge(text, "benchstack_load", "Current load level.",
+                "unit=\"" + escape(loadUnit) + "\"", load);
+        gauge(text, "benchstack_phase_info", "Current phase of the benchmark.",
+                "phase=\"" + escape(phase) + "\"", 1);
+        gauge(text, "benchstack_operations_per_second", "Executions finished per second over the last interval.",
+                null, operationsPerSec);
+        gauge(text, "benchstack_compliance_percentile", "Fraction of executions under the delay limit.",
+                null, currentPercentile);
+        gauge(text, "benchstack_threads", "Threads running the executions.",
+                null, threadCount);
+        gauge(text, "benchstack_scheduling_lag_mean_seconds", "Mean lag of the executions from their schedule.",
+                null, schedulingLag.meanMillis / 1000);
+        gauge(text, "benchstack_scheduling_lag_max_seconds", "Maximum lag of the executions from their schedule.",
+                null, schedulingLag.maxMillis / 1000);
+
+        header(text, "benchstack_interval_executions", "Executions finished over the last interval.", "gauge");
+        sample(text, "benchstack_interval_executions", "class=\"total\"", latency.count);
+        for (Map.Entry<String, Statistics> operationClass : latency.getBreakdown().entrySet()) {
+            sample(text, "benchstack_interval_executions",
+                    "class=\"" + escape(operationClass.getKey()) + "\"", operationClass.getValue().count);
+        }
+
+        header(text, "benchstack_latency_seconds",
+                "Latency quantiles over the last interval, and totals since reporting started.", "summary");
+        for (Map.Entry<String, LatencyTotal> operationClass : latencyTotals.entrySet()) {
+            String name = operationClass.getKey();
+            latencySamples(text, name, name.equals(TOTAL) ? latency : latency.getBreakdown().get(name),
+                    operationClass.getValue());
+        }
+        return text.toString();
+    }
+
+    /**
+     * @param stats Latency over the interval, or null if the class had no executions in it.
+     */
+    private static void latencySamples(StringBuilder text, String operationClass, Statistics stats,
+                                       LatencyTotal total) {
+        String classLabel = "class=\"" + escape(operationClass) + "\"";
+        if (stats != null && stats.count > 0) {
+            for (double quantile : QUANTILES) {
+                sample(text, "benchstack_latency_seconds", classLabel + ",quantile=\"" + quantile + "\"",
+                        stats.getPercentileValue(quantile));
+            }
+        }
+        sample(text, "benchstack_latency_seconds_sum", classLabel, total.sumSec);
+        sample(text, "benchstack_latency_seconds_count", classLabel, total.count);
+    }
+
+    private static void gauge(StringBuilder text, String name, String help, String labels, double value) {
+        header(text, name, help, "gauge");
+        sample(text, name, labels, value);
+    }
+
+    private static void header(StringBuilder text, String name, String help, String type) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder text, String name, String labels, double value) {
+        text.append(name);
+        if (labels != null) text.append('{').append(labels).append('}');
+        text.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Accumulates the latency totals, in place, with the statistics of an interval.
+     */
+    static void accumulate(Map<String, LatencyTotal> totals, Statistics latency) {
+        totals.merge(TOTAL, LatencyTotal.of(latency), LatencyTotal::plus);
+        for (Map.Entry<String, Statistics> operationClass : latency.getBreakdown().entrySet()) {
+            totals.merge(operationClass.getKey(), LatencyTotal.of(operationClass.getValue()), LatencyTotal::plus);
+        }
+    }
+
+    static class LatencyTotal {
+        public final long count;
+        public final double sumSec;
+
+        LatencyTotal(long count, double sumSec) {
+            this.count = count;
+            this.sumSec = sumSec;
+        }
+
+        static LatencyTotal of(Statistics stats) {
+            return new LatencyTotal(stats.count, stats.count > 0 ? stats.average * stats.count : 0);
+        }
+
+        LatencyTotal plus(LatencyTotal other) {
+            return new LatencyTotal(count + other.count, sumSec + other.sumSec);
+        }
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
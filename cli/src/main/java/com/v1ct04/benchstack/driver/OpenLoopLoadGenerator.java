@@ -0,0 +1,170 @@
+package com.v1ct04.benchstack.driver;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.v1ct04.benchstack.concurrent.MoreFutures;
+import com.v1ct04.benchstack.concurrent.ReschedulingTask;
+import com.v1ct04.benchstack.concurrent.SchedulingLag;
+import com.v1ct04.benchstack.concurrent.Signaler;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.OpenLoopConfig;
+import com.v1ct04.benchstack.driver.ConcurrentWorkersPool.WorkerFunction;
+
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Open-loop load generator, where a single arrival process issues executions at a
+ * target aggregate rate (in operations per second), independently of how many
+ * executions are still in flight. Contrary to a closed system, a slow SUT doesn't
+ * slow down the arrivals, exposing queueing collapses that real traffic would cause.
+ *
+ * Executions are spread in a round-robin fashion over a fixed number of workers, so
+ * that actions can keep per-worker state (e.g. a logged in user) as they would with
+ * a {@link ConcurrentWorkersPool}.
+ */
+class OpenLoopLoadGenerator implements LoadGenerator {
+
+    private static final AtomicInteger sGeneratorNumber = new AtomicInteger(0);
+
+    private final WorkerFunction mWorkerFunction;
+    private final OpenLoopConfig mConfig;
+    private final ExecutorService mWorkerExecutor;
+    private final ScheduledExecutorService mArrivalsExecutor;
+
+    private final Stopwatch mSinceLastChange = Stopwatch.createUnstarted();
+    private final AtomicInteger mOperationCount = new AtomicInteger(0);
+    private final AtomicInteger mArrivalCount = new AtomicInteger(0);
+    private final Signaler mArrivalsResetter = new Signaler();
+    private final SchedulingLag.Recorder mLagRecorder = new SchedulingLag.Recorder();
+    private final Queue<ReschedulingTask> mStoppedArrivals = new ConcurrentLinkedQueue<>();
+
+    private volatile LongSupplier mInterArrivalNanos;
+    private volatile int mRate = 0;
+    private ReschedulingTask mArrivals;
+
+    public OpenLoopLoadGenerator(WorkerFunction workerFunction, BenchmarkConfig config) {
+        ThreadFactory threadFactory = WorkerExecutors.threadFactory(String.format(
+                "open-loop-%d-thread-%%d", sGeneratorNumber.getAndIncrement()));
+
+        mWorkerExecutor = WorkerExecutors.newExecutor(config, threadFactory);
+        // The arrivals are only dispatched to the pool, so a single thread can keep up
+        // with them without the extra hop of a forwarding executor.
+        mArrivalsExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        mWorkerFunction = workerFunction;
+        mConfig = config.getOpenLoopConfig();
+    }
+
+    @Override
+    public String getLoadUnit() {
+        return "ops/s";
+    }
+
+    @Override
+    public int getLoad() {
+        return mRate;
+    }
+
+    @Override
+    public synchronized int setLoad(int rate) {
+        int previous = mRate;
+        mRate = rate;
+        if (rate <= 0) {
+            stopArrivals();
+        } else {
+            mInterArrivalNanos = interArrivalSupplier(rate);
+            if (mArrivals == null) startArrivals();
+        }
+
+        mArrivalsResetter.signal();
+        mLagRecorder.reset();
+        mOperationCount.set(0);
+        mSinceLastChange.reset().start();
+        return rate - previous;
+    }
+
+    @Override
+    public double getCurrentOperationsPerSec() {
+        long elapsedMillis = mSinceLastChange.elapsed(TimeUnit.MILLISECONDS);
+        if (elapsedMillis == 0) return 0;
+        return mOperationCount.get() / (elapsedMillis / 1000.0);
+    }
+
+    @Override
+    public int getThreadCount() {
+        return WorkerExecutors.threadCount(mWorkerExecutor) + 1;
+    }
+
+    @Override
+    public SchedulingLag getSchedulingLag() {
+        return mLagRecorder.snapshot();
+    }
+
+    @Override
+    public synchronized ListenableFuture<?> unblockedFuture() {
+        if (mArrivals == null) return Futures.immediateFuture(null);
+        return MoreFutures.toSuccessFuture(mArrivals.nextExecutionFuture());
+    }
+
+    @Override
+    public void awaitStoppedTermination() throws InterruptedException {
+        ReschedulingTask stopped = mStoppedArrivals.poll();
+        while (stopped != null) {
+            stopped.awaitTerminationInterruptibly();
+            stopped = mStoppedArrivals.poll();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        setLoad(0);
+        mArrivalsExecutor.shutdownNow();
+        mWorkerExecutor.shutdownNow();
+    }
+
+    @Override
+    public void awaitTermination() throws InterruptedException {
+        awaitStoppedTermination();
+        while (!mArrivalsExecutor.awaitTermination(1, TimeUnit.DAYS));
+        while (!mWorkerExecutor.awaitTermination(1, TimeUnit.DAYS));
+    }
+
+    private void startArrivals() {
+        mArrivals = ReschedulingTask.builder(mArrivalsExecutor)
+                .setVariableRate(() -> mInterArrivalNanos.getAsLong(), TimeUnit.NANOSECONDS, mArrivalsResetter)
+                .start(this::dispatchArrival);
+    }
+
+    private void stopArrivals() {
+        if (mArrivals == null) return;
+        mArrivals.cancel(false);
+        mStoppedArrivals.offer(mArrivals);
+        mArrivals = null;
+    }
+
+    private void dispatchArrival(long intendedNanoStartTime) {
+        mOperationCount.incrementAndGet();
+        int workerNum = Math.floorMod(mArrivalCount.getAndIncrement(), mConfig.getWorkerCount());
+        mWorkerExecutor.execute(() -> {
+            mLagRecorder.record(System.nanoTime() - intendedNanoStartTime);
+            mWorkerFunction.execute(workerNum, intendedNanoStartTime);
+        });
+    }
+
+    private LongSupplier interArrivalSupplier(int rate) {
+        double meanNanos = TimeUnit.SECONDS.toNanos(1) / (double) rate;
+        switch (mConfig.getArrivalProcess()) {
+            case CONSTANT:
+                long nanos = Math.max(1, Math.round(meanNanos));
+                return () -> nanos;
+            case POISSON:
+            default:
+                // A chi-squared distribution with 2 degrees of freedom is the exponential
+                // distribution, i.e. the inter-arrival times of a Poisson process.
+                return new RandomDelayGenerator(meanNanos, 2);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.v1ct04.benchstack.driver;
+
+/**
+ * Labels of a single execution of a {@link BenchmarkAction}, used for breaking
+ * down the benchmark statistics per operation class and route. A new tag is given
+ * to each execution, and the action should fill it in before completing it.
+ */
+public class OperationTag {
+
+    private volatile String mOperationClass;
+    private volatile String mRoute;
+
+    public String getOperationClass() {
+        return mOperationClass;
+    }
+
+    public OperationTag setOperationClass(String operationClass) {
+        mOperationClass = operationClass;
+        return this;
+    }
+
+    /**
+     * Normalized route of the request that completed the operation, with variable
+     * parts replaced by placeholders, e.g. {@code /api/battle/stadium/:id}.
+     */
+    public String getRoute() {
+        return mRoute;
+    }
+
+    public OperationTag setRoute(String route) {
+        mRoute = route;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "OperationTag{" +
+                "operationClass=" + mOperationClass +
+                ", route=" + mRoute +
+                '}';
+    }
+}
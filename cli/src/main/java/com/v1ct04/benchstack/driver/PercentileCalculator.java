@@ -1,49 +1,211 @@
 package com.v1ct04.benchstack.driver;
 
+import com.google.common.base.Ticker;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Calculates the percentile rank of a bound value among the values appended during
+ * a sliding time window. Values are counted in a ring of per-second buckets, so the
+ * percentile of any window up to the ring size can be calculated at any moment,
+ * without the need of resetting the measurement when the load changes.
+ *
+ * The values are latencies in milliseconds, so that executions still in progress for
+ * longer than the bound can be told apart from the ones that may still be under it.
+ */
 public class PercentileCalculator {
 
     private final double mBound;
+    private final Ticker mTicker;
 
+    private final AtomicReferenceArray<Bucket> mBuckets;
     private final AtomicLong mCurrentExecuting = new AtomicLong(0);
-    private final AtomicLong mCurrentLower = new AtomicLong(0);
-    private final AtomicLong mCurrentHigher = new AtomicLong(0);
 
-    public PercentileCalculator(double bound) {
+    public PercentileCalculator(double bound, int maxWindowSec) {
+        this(bound, maxWindowSec, Ticker.systemTicker());
+    }
+
+    PercentileCalculator(double bound, int maxWindowSec, Ticker ticker) {
+        if (maxWindowSec < 1) {
+            throw new IllegalArgumentException("Window must be at least one second long");
+        }
         mBound = bound;
+        mTicker = ticker;
+        mBuckets = new AtomicReferenceArray<>(maxWindowSec);
+        for (int i = 0; i < maxWindowSec; i++) {
+            mBuckets.set(i, new Bucket(Long.MIN_VALUE));
+        }
     }
 
-    public void startExecution() {
+    /**
+     * @return Second the execution started at, to be given back when it finishes.
+     */
+    public long startExecution() {
         mCurrentExecuting.incrementAndGet();
+        Bucket bucket = currentBucket();
+        bucket.executing.increment();
+        return bucket.second;
     }
 
-    public void finishExecution() {
+    public void finishExecution(long startSecond) {
+        Bucket bucket = mBuckets.get(indexOf(startSecond));
+        // executions outliving their bucket are overdue anyway
+        if (bucket.second == startSecond) bucket.executing.decrement();
         mCurrentExecuting.decrementAndGet();
     }
 
     public void appendValue(double value) {
+        Bucket bucket = currentBucket();
         if (value <= mBound) {
-            mCurrentLower.incrementAndGet();
+            bucket.lower.increment();
         } else {
-            mCurrentHigher.incrementAndGet();
+            bucket.higher.increment();
         }
     }
 
+    /**
+     * Percentile over the whole window kept by this calculator.
+     */
     public double getCurrentPercentile() {
-        long lower = mCurrentLower.get(); // read lower first for a pessimistic approach
-        long total = lower + mCurrentHigher.get() + mCurrentExecuting.get();
+        return getSample(mBuckets.length(), TimeUnit.SECONDS).getPercentile();
+    }
+
+    /**
+     * Fraction of values under the bound appended in the last {@code window} time,
+     * rounded to seconds and limited to the maximum window of this calculator.
+     */
+    public double getPercentile(long window, TimeUnit unit) {
+        return getSample(window, unit).getPercentile();
+    }
+
+    public Sample getSample(long window, TimeUnit unit) {
+        long windowSec = Math.max(1, Math.min(unit.toSeconds(window), mBuckets.length()));
+        long currentSecond = currentSecond();
 
-        if (total == 0) return 1;
-        return lower / (double) total;
+        long lower = 0, higher = 0;
+        for (long second = currentSecond - windowSec + 1; second <= currentSecond; second++) {
+            Bucket bucket = mBuckets.get(indexOf(second));
+            if (bucket.second == second) {
+                lower += bucket.lower.sum();
+                higher += bucket.higher.sum();
+            }
+        }
+        // executions in progress are counted as over the bound, for a pessimistic approach
+        long executing = mCurrentExecuting.get();
+        return new Sample(lower, higher, executing, overdue(currentSecond, executing));
+    }
+
+    /**
+     * Executions that started before the most recent seconds that can still be within
+     * the bound, i.e. that are certainly over it.
+     */
+    private long overdue(long currentSecond, long executing) {
+        long boundSec = (long) Math.ceil(mBound / 1000);
+        if (boundSec >= mBuckets.length()) return 0;
+
+        long recent = 0;
+        for (long second = currentSecond - boundSec; second <= currentSecond; second++) {
+            Bucket bucket = mBuckets.get(indexOf(second));
+            if (bucket.second == second) {
+                recent += bucket.executing.sum();
+            }
+        }
+        return Math.max(0, executing - recent);
     }
 
     public long count() {
-        return mCurrentLower.get() + mCurrentHigher.get();
+        return getSample(mBuckets.length(), TimeUnit.SECONDS).count();
+    }
+
+    private Bucket currentBucket() {
+        long second = currentSecond();
+        int idx = indexOf(second);
+
+        Bucket bucket = mBuckets.get(idx);
+        // A bucket with a newer second can only be found by a thread that took too long
+        // between reading the time and getting here, so just count it in the newer one.
+        while (bucket.second < second) {
+            Bucket fresh = new Bucket(second);
+            if (mBuckets.compareAndSet(idx, bucket, fresh)) return fresh;
+            bucket = mBuckets.get(idx);
+        }
+        return bucket;
     }
 
-    public void reset() {
-        mCurrentHigher.set(0);
-        mCurrentLower.set(0);
+    private long currentSecond() {
+        return TimeUnit.NANOSECONDS.toSeconds(mTicker.read());
+    }
+
+    private int indexOf(long second) {
+        return (int) Math.floorMod(second, (long) mBuckets.length());
+    }
+
+    public static class Sample {
+        public final long lower;
+        public final long higher;
+        public final long executing;
+        // Executions in progress for longer than the bound, included in executing.
+        public final long overdue;
+
+        public Sample(long lower, long higher, long executing, long overdue) {
+            this.lower = lower;
+            this.higher = higher;
+            this.executing = executing;
+            this.overdue = overdue;
+        }
+
+        /**
+         * Executions still in progress are counted as over the bound, for a
+         * pessimistic approach.
+         */
+        public double getPercentile() {
+            long total = lower + higher + executing;
+            if (total == 0) return 1;
+            return lower / (double) total;
+        }
+
+        public long count() {
+            return lower + higher;
+        }
+
+        /**
+         * Combines samples taken in parallel, e.g. by multiple agents over the same window.
+         */
+        public static Sample merge(Collection<Sample> samples) {
+            long lower = 0, higher = 0, executing = 0, overdue = 0;
+            for (Sample sample : samples) {
+                lower += sample.lower;
+                higher += sample.higher;
+                executing += sample.executing;
+                overdue += sample.overdue;
+            }
+            return new Sample(lower, higher, executing, overdue);
+        }
+
+        @Override
+        public String toString() {
+            return "Sample{" +
+                    "lower=" + lower +
+                    ", higher=" + higher +
+                    ", executing=" + executing +
+                    ", overdue=" + overdue +
+                    '}';
+        }
+    }
+
+    private static class Bucket {
+        final long second;
+        final LongAdder lower = new LongAdder();
+        final LongAdder higher = new LongAdder();
+        // Executions started in this second still in progress
+        final LongAdder executing = new LongAdder();
+
+        Bucket(long second) {
+            this.second = second;
+        }
     }
 }
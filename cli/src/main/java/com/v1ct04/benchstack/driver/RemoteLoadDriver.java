@@ -0,0 +1,306 @@
+package com.v1ct04.benchstack.driver;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.v1ct04.benchstack.concurrent.SchedulingLag;
+import com.v1ct04.benchstack.driver.AgentProtocol.AgentRequest;
+import com.v1ct04.benchstack.driver.AgentProtocol.AgentResponse;
+import com.v1ct04.benchstack.driver.AgentProtocol.AgentStatus;
+import com.v1ct04.benchstack.driver.AgentProtocol.ComplianceSample;
+import com.v1ct04.benchstack.driver.AgentProtocol.ConnectionPool;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Drives the load from remote {@link BenchmarkAgent}s, splitting the load level evenly
+ * among them and merging their measurements as if they had been taken by a single
+ * local driver.
+ */
+class RemoteLoadDriver implements LoadDriver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RemoteLoadDriver.class);
+
+    private final List<AgentConnection> mAgents;
+    private final String mLoadUnit;
+    private volatile int mLoad = 0;
+
+    public RemoteLoadDriver(BenchmarkConfig config, List<InetSocketAddress> agents) throws IOException {
+        if (agents.isEmpty()) throw new IllegalArgumentException("No agents to drive");
+
+        mAgents = Lists.newArrayListWithCapacity(agents.size());
+        try {
+            for (InetSocketAddress address : agents) {
+                mAgents.add(new AgentConnection(address));
+            }
+        } catch (IOException e) {
+            mAgents.forEach(AgentConnection::close);
+            throw e;
+        }
+
+        try {
+            List<AgentResponse> responses = sendToAll(i -> request(AgentRequest.Type.INIT)
+                    .setConfig(config)
+                    .setAgentIndex(i)
+                    .setAgentCount(agents.size()));
+            mLoadUnit = responses.get(0).getLoadUnit();
+        } catch (RuntimeException e) {
+            mAgents.forEach(AgentConnection::close);
+            throw e;
+        }
+    }
+
+    @Override
+    public String getLoadUnit() {
+        return mLoadUnit;
+    }
+
+    @Override
+    public int getLoad() {
+        return mLoad;
+    }
+
+    /**
+     * Splits the load among the agents, the first ones taking the remainder.
+     */
+    @Override
+    public synchronized int setLoad(int load) {
+        int agentCount = mAgents.size();
+        List<AgentResponse> responses = sendToAll(i -> request(AgentRequest.Type.SET_LOAD)
+                .setLoad(load / agentCount + (i < load % agentCount ? 1 : 0)));
+        mLoad = load;
+        return responses.stream().mapToInt(AgentResponse::getLoadDelta).sum();
+    }
+
+    @Override
+    public double getCurrentOperationsPerSec() {
+        return getStatus().operationsPerSec;
+    }
+
+    @Override
+    public int getThreadCount() {
+        return getStatus().threadCount;
+    }
+
+    @Override
+    public SchedulingLag getSchedulingLag() {
+        return getStatus().schedulingLag;
+    }
+
+    @Override
+    public ConnectionPoolStats getConnectionPoolStats() {
+        return getStatus().connectionPool;
+    }
+
+    @Override
+    public double getCurrentPercentile() {
+        return getStatus().currentPercentile;
+    }
+
+    /**
+     * Merges the status of all agents, requested in a single round trip. Pools are
+     * merged among the agents reporting one, null if none does.
+     */
+    @Override
+    public Status getStatus() {
+        List<AgentStatus> statuses = Lists.transform(
+                sendToAll(i -> request(AgentRequest.Type.GET_STATUS)), AgentResponse::getStatus);
+        List<ConnectionPoolStats> pools = new ArrayList<>();
+        for (AgentStatus status : statuses) {
+            if (!status.hasConnectionPool()) continue;
+            ConnectionPool pool = status.getConnectionPool();
+            pools.add(ConnectionPoolStats.of(
+                    pool.getActive(), pool.getIdle(), pool.getPending(), pool.getOpened(), pool.getClosed()));
+        }
+        return new Status(
+                statuses.stream().mapToDouble(AgentStatus::getOperationsPerSec).sum(),
+                mergeSamples(Lists.transform(statuses, AgentStatus::getCurrentSample)).getPercentile(),
+                statuses.stream().mapToInt(AgentStatus::getThreadCount).sum(),
+                SchedulingLag.merge(Lists.transform(statuses, s ->
+                        SchedulingLag.of(s.getLagCount(), s.getLagMeanMillis(), s.getLagMaxMillis()))),
+                pools.isEmpty() ? null : ConnectionPoolStats.merge(pools));
+    }
+
+    @Override
+    public PercentileCalculator.Sample getSample(long window, TimeUnit unit) {
+        List<AgentResponse> responses = sendToAll(i -> request(AgentRequest.Type.GET_SAMPLE)
+                .setWindowMillis(unit.toMillis(window)));
+        return mergeSamples(Lists.transform(responses, AgentResponse::getSample));
+    }
+
+    private static PercentileCalculator.Sample mergeSamples(List<ComplianceSample> samples) {
+        return PercentileCalculator.Sample.merge(Lists.transform(samples, s ->
+                new PercentileCalculator.Sample(s.getLower(), s.getHigher(), s.getExecuting(), s.getOverdue())));
+    }
+
+    @Override
+    public void startStatistics(int significantDigits) {
+        sendToAll(i -> request(AgentRequest.Type.START_STATISTICS)
+                .setSignificantDigits(significantDigits));
+    }
+
+    @Override
+    public LatencyStatistics stopStatistics() {
+        List<AgentResponse> responses = sendToAll(i -> request(AgentRequest.Type.STOP_STATISTICS));
+        return new LatencyStatistics(
+                Statistics.merge(Lists.transform(responses, r -> Statistics.fromSnapshot(r.getCorrected()))),
+                Statistics.merge(Lists.transform(responses, r -> Statistics.fromSnapshot(r.getRaw()))));
+    }
+
+    @Override
+    public Statistics takeIntervalStatistics() {
+        List<AgentResponse> responses = sendToAll(i -> request(AgentRequest.Type.TAKE_INTERVAL_STATISTICS));
+        return Statistics.merge(Lists.transform(responses, r -> Statistics.fromSnapshot(r.getInterval())));
+    }
+
+    @Override
+    public void setWorkloadMix(String name) {
+        sendToAll(i -> request(AgentRequest.Type.SET_WORKLOAD_MIX).setWorkloadMix(name));
+    }
+
+    @Override
+    public ListenableFuture<?> unblockedFuture() {
+        return Futures.allAsList(Lists.transform(mAgents, a ->
+                a.send(request(AgentRequest.Type.AWAIT_UNBLOCKED))));
+    }
+
+    @Override
+    public void awaitStoppedTermination() throws InterruptedException {
+        sendToAll(i -> request(AgentRequest.Type.AWAIT_STOPPED));
+    }
+
+    @Override
+    public void shutdown() {
+        for (AgentConnection agent : mAgents) {
+            agent.send(request(AgentRequest.Type.SHUTDOWN));
+        }
+    }
+
+    @Override
+    public void awaitTermination() throws InterruptedException {
+        for (AgentConnection agent : mAgents) {
+            agent.awaitClosed();
+        }
+    }
+
+    private static AgentRequest.Builder request(AgentRequest.Type type) {
+        return AgentRequest.newBuilder().setType(type);
+    }
+
+    /**
+     * Sends a request to every agent, built from the index of the agent, and waits for
+     * all of them to respond.
+     */
+    private List<AgentResponse> sendToAll(Function<Integer, AgentRequest.Builder> requestBuilder) {
+        List<ListenableFuture<AgentResponse>> responses = Lists.newArrayListWithCapacity(mAgents.size());
+        for (int i = 0; i < mAgents.size(); i++) {
+            responses.add(mAgents.get(i).send(requestBuilder.apply(i)));
+        }
+        return Futures.getUnchecked(Futures.allAsList(responses));
+    }
+
+    /**
+     * Connection to a single agent, where requests are written by the caller thread and
+     * responses are read by a dedicated thread, completing the future of the request
+     * with the same id.
+     */
+    private static class AgentConnection {
+        private final InetSocketAddress mAddress;
+        private final Socket mSocket;
+        private final OutputStream mOutput;
+        private final Thread mReader;
+
+        private final AtomicLong mNextId = new AtomicLong(0);
+        private final Map<Long, SettableFuture<AgentResponse>> mPending = new ConcurrentHashMap<>();
+        private volatile boolean mClosed = false;
+
+        AgentConnection(InetSocketAddress address) throws IOException {
+            mAddress = address;
+            mSocket = new Socket();
+            mSocket.setTcpNoDelay(true);
+            mSocket.connect(address);
+            mOutput = mSocket.getOutputStream();
+
+            InputStream input = mSocket.getInputStream();
+            mReader = new Thread(() -> readResponses(input), "agent-" + address + "-reader");
+            mReader.setDaemon(true);
+            mReader.start();
+        }
+
+        ListenableFuture<AgentResponse> send(AgentRequest.Builder request) {
+            long id = mNextId.getAndIncrement();
+            SettableFuture<AgentResponse> response = SettableFuture.create();
+            mPending.put(id, response);
+            try {
+                synchronized (mOutput) {
+                    request.setId(id).build().writeDelimitedTo(mOutput);
+                    mOutput.flush();
+                }
+            } catch (IOException e) {
+                mPending.remove(id);
+                response.setException(e);
+            }
+            // closed concurrently, the reader may not have seen this request
+            if (mClosed) failPending();
+            return response;
+        }
+
+        private void readResponses(InputStream input) {
+            try {
+                AgentResponse response;
+                while ((response = AgentResponse.parseDelimitedFrom(input)) != null) {
+                    SettableFuture<AgentResponse> future = mPending.remove(response.getId());
+                    if (future == null) {
+                        LOGGER.warn("Agent {}: Unexpected response id: {}", mAddress, response.getId());
+                    } else if (response.hasError()) {
+                        future.setException(new IOException("Agent " + mAddress + ": " + response.getError()));
+                    } else {
+                        future.set(response);
+                    }
+                }
+            } catch (IOException e) {
+                if (!mClosed) LOGGER.error("Agent {}: Connection failed: {}", mAddress, e.toString());
+            } finally {
+                close();
+            }
+        }
+
+        private void failPending() {
+            for (Long id : mPending.keySet()) {
+                SettableFuture<AgentResponse> future = mPending.remove(id);
+                if (future != null) {
+                    future.setException(new IOException("Agent " + mAddress + " disconnected"));
+                }
+            }
+        }
+
+        void close() {
+            mClosed = true;
+            try {
+                mSocket.close();
+            } catch (IOException e) {
+                // nothing else to do
+            }
+            failPending();
+        }
+
+        void awaitClosed() throws InterruptedException {
+            mReader.join();
+        }
+    }
+}
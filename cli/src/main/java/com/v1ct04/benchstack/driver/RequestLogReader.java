@@ -0,0 +1,174 @@
+package com.v1ct04.benchstack.driver;
+
+import com.google.common.collect.Maps;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Streams the records of a log written by the request log of a benchmark, enabled by
+ * its {@link BenchmarkConfigWrapper.BenchmarkConfig.RequestLogConfig}. Segments are
+ * mapped one at a time and the records are handed out through a single reused
+ * {@link Record}, so logs of any size can be read in constant memory.
+ */
+public class RequestLogReader {
+
+    public static RequestLogReader open(String path) throws IOException {
+        long startEpochMicros = 0;
+        Map<Integer, String> labels = Maps.newHashMap();
+        try (BufferedReader index = Files.newBufferedReader(Paths.get(RequestLogWriter.indexFile(path)),
+                                                            StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = index.readLine()) != null) {
+                String[] fields = line.split("\t", 3);
+                if (fields[0].equals(RequestLogWriter.INDEX_START)) {
+                    startEpochMicros = Long.parseLong(fields[1]);
+                } else if (fields[0].equals(RequestLogWriter.INDEX_LABEL)) {
+                    labels.put(Integer.parseInt(fields[1]), fields[2]);
+                }
+            }
+        }
+        return new RequestLogReader(path, startEpochMicros, labels);
+    }
+
+    private final String mPath;
+    private final long mStartEpochMicros;
+    private final Map<Integer, String> mLabels;
+
+    private RequestLogReader(String path, long startEpochMicros, Map<Integer, String> labels) {
+        mPath = path;
+        mStartEpochMicros = startEpochMicros;
+        mLabels = labels;
+    }
+
+    /**
+     * Wall clock time the log was started at, in microseconds since the epoch.
+     */
+    public long getStartEpochMicros() {
+        return mStartEpochMicros;
+    }
+
+    /**
+     * @return The label with the given id, or null for id 0 (no label).
+     */
+    public String getLabel(int id) {
+        return mLabels.get(id);
+    }
+
+    /**
+     * Calls the consumer with each record of the log, in segment order. The record is
+     * only valid during the call.
+     */
+    public void forEach(RecordConsumer consumer) throws IOException {
+        Record record = new Record();
+        for (Path segmentFile : segmentFiles().values()) {
+            try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                int records = (int) (channel.size() / RequestLogWriter.RECORD_SIZE);
+                for (int i = 0; i < records; i++) {
+                    if (record.load(buffer, i * RequestLogWriter.RECORD_SIZE)) {
+                        consumer.accept(record);
+                    }
+                }
+            }
+        }
+    }
+
+    private TreeMap<Long, Path> segmentFiles() throws IOException {
+        Path path = Paths.get(mPath).toAbsolutePath();
+        Pattern segmentName = Pattern.compile(Pattern.quote(path.getFileName().toString()) + "\\.(\\d+)\\.log");
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (Stream<Path> files = Files.list(path.getParent())) {
+            files.forEach(file -> {
+                Matcher matcher = segmentName.matcher(file.getFileName().toString());
+                if (matcher.matches()) segments.put(Long.parseLong(matcher.group(1)), file);
+            });
+        }
+        return segments;
+    }
+
+    public interface RecordConsumer {
+        void accept(Record record) throws IOException;
+    }
+
+    public static class Record {
+        private long mStartEpochMicros;
+        private int mCorrectedMicros;
+        private int mRawMicros;
+        private int mWorkerNum;
+        private int mOperationClass;
+        private int mRoute;
+        private boolean mSuccess;
+
+        /**
+         * @return Whether the record at the offset was written.
+         */
+        private boolean load(MappedByteBuffer buffer, int offset) {
+            byte outcome = buffer.get(offset + RequestLogWriter.OUTCOME_OFFSET);
+            if (outcome == 0) return false;
+            mStartEpochMicros = buffer.getLong(offset + RequestLogWriter.START_MICROS_OFFSET);
+            mCorrectedMicros = buffer.getInt(offset + RequestLogWriter.CORRECTED_MICROS_OFFSET);
+            mRawMicros = buffer.getInt(offset + RequestLogWriter.RAW_MICROS_OFFSET);
+            mWorkerNum = buffer.getInt(offset + RequestLogWriter.WORKER_OFFSET);
+            mOperationClass = buffer.getChar(offset + RequestLogWriter.OPERATION_CLASS_OFFSET);
+            mRoute = buffer.getChar(offset + RequestLogWriter.ROUTE_OFFSET);
+            mSuccess = outcome == RequestLogWriter.OUTCOME_SUCCESS;
+            return true;
+        }
+
+        /**
+         * Wall clock time the execution actually started at, in microseconds since the epoch.
+         */
+        public long getStartEpochMicros() {
+            return mStartEpochMicros;
+        }
+
+        /**
+         * Latency from the time the execution was intended to start.
+         */
+        public int getCorrectedMicros() {
+            return mCorrectedMicros;
+        }
+
+        /**
+         * Latency from the time the execution actually started.
+         */
+        public int getRawMicros() {
+            return mRawMicros;
+        }
+
+        public int getWorkerNum() {
+            return mWorkerNum;
+        }
+
+        /**
+         * Id of the operation class label, or 0 if none, see {@link RequestLogReader#getLabel(int)}.
+         */
+        public int getOperationClass() {
+            return mOperationClass;
+        }
+
+        /**
+         * Id of the route label, or 0 if none, see {@link RequestLogReader#getLabel(int)}.
+         */
+        public int getRoute() {
+            return mRoute;
+        }
+
+        public boolean isSuccess() {
+            return mSuccess;
+        }
+    }
+}
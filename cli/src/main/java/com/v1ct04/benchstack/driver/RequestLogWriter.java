@@ -0,0 +1,279 @@
+package com.v1ct04.benchstack.driver;
+
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.RequestLogConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Appends a fixed-width record of every execution to a log of memory-mapped segment
+ * files, to be analyzed offline with a {@link RequestLogReader}.
+ *
+ * Appending only claims the next record index with an atomic increment and writes
+ * the record straight into the mapped segment holding it, so it neither locks nor
+ * allocates. A mapper thread keeps the next segment mapped before the writers reach
+ * it, and flushes the segments as they fill up. Labels are written to an index file
+ * the first time each of them is seen, and referenced by their id in the records.
+ */
+class RequestLogWriter implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestLogWriter.class);
+
+    static final int RECORD_SIZE = 32;
+    static final int START_MICROS_OFFSET = 0;
+    static final int CORRECTED_MICROS_OFFSET = 8;
+    static final int RAW_MICROS_OFFSET = 12;
+    static final int WORKER_OFFSET = 16;
+    static final int OPERATION_CLASS_OFFSET = 20;
+    static final int ROUTE_OFFSET = 22;
+    // Written last, so that unwritten records are left with no outcome.
+    static final int OUTCOME_OFFSET = 24;
+
+    static final byte OUTCOME_SUCCESS = 1;
+    static final byte OUTCOME_FAILURE = 2;
+
+    static final String INDEX_START = "start";
+    static final String INDEX_LABEL = "label";
+    static final int MAX_LABEL_ID = 0xFFFF;
+
+    // Segments mapped at the same time, the one being written and the ones around it.
+    private static final int SEGMENT_RING_SIZE = 4;
+    private static final long MAPPER_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    static String indexFile(String path) {
+        return path + ".index";
+    }
+
+    static String segmentFile(String path, long number) {
+        return String.format("%s.%06d.log", path, number);
+    }
+
+    private final String mPath;
+    private final int mRecordsPerSegment;
+    private final long mBaseEpochMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    private final long mBaseNanos = System.nanoTime();
+
+    private final AtomicLong mNextRecord = new AtomicLong(0);
+    // Appends in progress, waited for on close before the segments are unmapped.
+    private final AtomicInteger mWriters = new AtomicInteger(0);
+    private final AtomicReferenceArray<Segment> mSegments = new AtomicReferenceArray<>(SEGMENT_RING_SIZE);
+    private final Thread mMapper;
+    private volatile boolean mClosed = false;
+    private volatile IOException mFailure;
+
+    private final ConcurrentMap<String, Integer> mLabelIds = new ConcurrentHashMap<>();
+    private final Writer mIndex;
+
+    public RequestLogWriter(RequestLogConfig config) throws IOException {
+        mPath = config.getPath();
+        mRecordsPerSegment = config.getRecordsPerSegment();
+        if (mRecordsPerSegment < 1 || (long) mRecordsPerSegment * RECORD_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid records per segment: " + mRecordsPerSegment);
+        }
+
+        Path parent = Paths.get(mPath).toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        mIndex = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(indexFile(mPath)), StandardCharsets.UTF_8));
+        try {
+            mIndex.write(INDEX_START + "\t" + mBaseEpochMicros + "\n");
+            mIndex.flush();
+            mSegments.set(0, new Segment(0));
+        } catch (IOException e) {
+            mIndex.close();
+            throw e;
+        }
+
+        mMapper = new Thread(this::runMapper, "request-log-mapper");
+        mMapper.setDaemon(true);
+        mMapper.start();
+    }
+
+    /**
+     * Records an execution, or drops it if the log is already closed.
+     */
+    public void append(int workerNum, OperationTag tag, boolean success,
+                       long nanoStartTime, long correctedNanos, long rawNanos) {
+        mWriters.incrementAndGet();
+        try {
+            if (mClosed) return;
+            write(workerNum, tag, success, nanoStartTime, correctedNanos, rawNanos);
+        } finally {
+            mWriters.decrementAndGet();
+        }
+    }
+
+    private void write(int workerNum, OperationTag tag, boolean success,
+                       long nanoStartTime, long correctedNanos, long rawNanos) {
+        long index = mNextRecord.getAndIncrement();
+        long segmentNumber = index / mRecordsPerSegment;
+        Segment segment = mSegments.get((int) (segmentNumber % SEGMENT_RING_SIZE));
+        while (segment == null || segment.number != segmentNumber) {
+            // The mapper fell behind, which should only happen under extreme rates.
+            if (mClosed || mFailure != null) return;
+            LockSupport.unpark(mMapper);
+            Thread.yield();
+            segment = mSegments.get((int) (segmentNumber % SEGMENT_RING_SIZE));
+        }
+
+        int offset = (int) (index % mRecordsPerSegment) * RECORD_SIZE;
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.putLong(offset + START_MICROS_OFFSET, mBaseEpochMicros + (nanoStartTime - mBaseNanos) / 1000);
+        buffer.putInt(offset + CORRECTED_MICROS_OFFSET, toMicros(correctedNanos));
+        buffer.putInt(offset + RAW_MICROS_OFFSET, toMicros(rawNanos));
+        buffer.putInt(offset + WORKER_OFFSET, workerNum);
+        buffer.putChar(offset + OPERATION_CLASS_OFFSET, (char) labelId(tag.getOperationClass()));
+        buffer.putChar(offset + ROUTE_OFFSET, (char) labelId(tag.getRoute()));
+        buffer.put(offset + OUTCOME_OFFSET, success ? OUTCOME_SUCCESS : OUTCOME_FAILURE);
+        segment.written.incrementAndGet();
+    }
+
+    private static int toMicros(long nanos) {
+        return (int) Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return Id of the label, or 0 for no label.
+     */
+    private int labelId(String label) {
+        if (label == null) return 0;
+        Integer id = mLabelIds.get(label);
+        if (id != null) return id;
+        return addLabel(label);
+    }
+
+    private synchronized int addLabel(String label) {
+        Integer id = mLabelIds.get(label);
+        if (id != null) return id;
+        if (mLabelIds.size() >= MAX_LABEL_ID) {
+            LOGGER.warn("Too many labels, recording without label: {}", label);
+            return 0;
+        }
+
+        int newId = mLabelIds.size() + 1;
+        try {
+            mIndex.write(INDEX_LABEL + "\t" + newId + "\t" + label + "\n");
+            mIndex.flush();
+        } catch (IOException e) {
+            LOGGER.error("Failed to write label to request log index: {}", e.toString());
+        }
+        mLabelIds.put(label, newId);
+        return newId;
+    }
+
+    /**
+     * Keeps the segment after the one being written mapped, and flushes the full ones.
+     * A segment is only replaced in the ring once fully written, so that writers that
+     * got its indexes before being preempted can still finish writing to it.
+     */
+    private void runMapper() {
+        long nextToMap = 1;
+        try {
+            while (!mClosed) {
+                long current = mNextRecord.get() / mRecordsPerSegment;
+                while (nextToMap <= current + 1) {
+                    int slot = (int) (nextToMap % SEGMENT_RING_SIZE);
+                    Segment replaced = mSegments.get(slot);
+                    if (replaced != null && !replaced.isFull()) break;
+                    if (replaced != null) replaced.close();
+                    mSegments.set(slot, new Segment(nextToMap++));
+                }
+                for (int slot = 0; slot < SEGMENT_RING_SIZE; slot++) {
+                    Segment segment = mSegments.get(slot);
+                    if (segment != null && segment.isFull()) segment.flush();
+                }
+                LockSupport.parkNanos(this, MAPPER_POLL_NANOS);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Request log failed, no further records will be written: {}", e.toString());
+            mFailure = e;
+        }
+    }
+
+    /**
+     * Drops the records appended from then on, and waits for the appends in progress.
+     * Truncates the last segment to the records written and removes the ones mapped
+     * ahead of it.
+     */
+    @Override
+    public void close() throws IOException {
+        mClosed = true;
+        while (mWriters.get() > 0) {
+            // a writer waiting on the mapper gives up as it sees the log closed
+            Thread.yield();
+        }
+        LockSupport.unpark(mMapper);
+        try {
+            mMapper.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        long recordCount = mNextRecord.get();
+        long lastSegment = Math.max(recordCount - 1, 0) / mRecordsPerSegment;
+        for (int slot = 0; slot < SEGMENT_RING_SIZE; slot++) {
+            Segment segment = mSegments.getAndSet(slot, null);
+            if (segment == null) continue;
+            segment.close();
+            if (segment.number > lastSegment) {
+                Files.deleteIfExists(Paths.get(segmentFile(mPath, segment.number)));
+            } else if (segment.number == lastSegment) {
+                long records = recordCount - lastSegment * mRecordsPerSegment;
+                try (FileChannel channel = FileChannel.open(Paths.get(segmentFile(mPath, segment.number)),
+                                                            StandardOpenOption.WRITE)) {
+                    channel.truncate(records * RECORD_SIZE);
+                }
+            }
+        }
+        mIndex.close();
+        LOGGER.info("Request log closed with {} records.", recordCount);
+
+        if (mFailure != null) throw mFailure;
+    }
+
+    private class Segment {
+        final long number;
+        final MappedByteBuffer buffer;
+        final AtomicInteger written = new AtomicInteger(0);
+        private final FileChannel mChannel;
+        private boolean mFlushed = false;
+
+        Segment(long number) throws IOException {
+            this.number = number;
+            mChannel = FileChannel.open(Paths.get(segmentFile(mPath, number)),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long) mRecordsPerSegment * RECORD_SIZE);
+        }
+
+        boolean isFull() {
+            return written.get() >= mRecordsPerSegment;
+        }
+
+        void flush() {
+            if (mFlushed) return;
+            buffer.force();
+            mFlushed = true;
+        }
+
+        void close() throws IOException {
+            buffer.force();
+            mChannel.close();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.v1ct04.benchstack.driver;
+
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.SequentialTestConfig;
+
+/**
+ * Wald's sequential probability ratio test of whether the fraction of executions
+ * under the delay limit reaches the percentile threshold. Each execution is a
+ * Bernoulli outcome, and the test compares the hypothesis of the fraction over the
+ * limit being the allowed one shrunk by the indifference width against it being the
+ * allowed one grown by the same width, deciding as soon as the log-likelihood ratio
+ * of the outcomes so far crosses one of the bounds given by the error rates.
+ */
+class SequentialComplianceTest {
+
+    public enum Decision {
+        COMPLIES, VIOLATES, UNDECIDED
+    }
+
+    private final double mUnderLimitLlr;
+    private final double mOverLimitLlr;
+    private final double mCompliesBound;
+    private final double mViolatesBound;
+
+    public SequentialComplianceTest(SequentialTestConfig config, double percentileThreshold) {
+        double allowedTail = 1 - percentileThreshold;
+        double width = config.getIndifferenceWidth();
+        if (width <= 0 || width >= 1) {
+            throw new IllegalArgumentException("Indifference width must be between 0 and 1: " + width);
+        }
+        double compliantTail = allowedTail * (1 - width);
+        double violatingTail = Math.min(allowedTail * (1 + width), 1);
+
+        mUnderLimitLlr = Math.log((1 - compliantTail) / (1 - violatingTail));
+        mOverLimitLlr = Math.log(compliantTail / violatingTail);
+
+        double alpha = config.getFalseComplianceRate();
+        double beta = config.getFalseViolationRate();
+        mCompliesBound = Math.log((1 - beta) / alpha);
+        mViolatesBound = Math.log(beta / (1 - alpha));
+    }
+
+    /**
+     * Log-likelihood ratio of the load complying against it violating the threshold.
+     */
+    public double logLikelihoodRatio(long underLimit, long overLimit) {
+        return underLimit * mUnderLimitLlr + overLimit * mOverLimitLlr;
+    }
+
+    public Decision decide(long underLimit, long overLimit) {
+        double llr = logLikelihoodRatio(underLimit, overLimit);
+        if (llr >= mCompliesBound) return Decision.COMPLIES;
+        if (llr <= mViolatesBound) return Decision.VIOLATES;
+        return Decision.UNDECIDED;
+    }
+}
@@ -1,16 +1,68 @@
 package com.v1ct04.benchstack.driver;
 
 import com.google.common.base.Stopwatch;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableSortedMap;
+import com.v1ct04.benchstack.driver.AgentProtocol.StatisticsSnapshot;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.DoubleStream;
 
+/**
+ * Statistics of the latency of a benchmark, in seconds. All the values are answered
+ * from a {@link LogLinearHistogram}, thus within its precision.
+ */
 public class Statistics {
 
+    public static final int DEFAULT_SIGNIFICANT_DIGITS = 3;
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final double MICROS_PER_SECOND = TimeUnit.SECONDS.toMicros(1);
+
     public static Calculator calculator() {
-        return new Calculator();
+        return calculator(DEFAULT_SIGNIFICANT_DIGITS);
+    }
+
+    public static Calculator calculator(int significantDigits) {
+        int stripes = Integer.highestOneBit(2 * Runtime.getRuntime().availableProcessors() - 1) << 1;
+        return new Calculator(significantDigits, stripes, Stopwatch.createStarted());
+    }
+
+    /**
+     * Combines statistics measured in parallel, e.g. by multiple agents over the same
+     * period, as if all values had been recorded in the same statistics.
+     */
+    public static Statistics merge(Collection<Statistics> parts) {
+        if (parts.isEmpty()) throw new IllegalArgumentException("Nothing to merge");
+
+        LogLinearHistogram merged = null;
+        long elapsedTimeSec = 0;
+        Map<String, List<Statistics>> breakdownParts = new TreeMap<>();
+        for (Statistics part : parts) {
+            if (merged == null) merged = new LogLinearHistogram(part.mHistogram);
+            else merged.add(part.mHistogram);
+            elapsedTimeSec = Math.max(elapsedTimeSec, part.mElapsedTimeSec);
+            for (Map.Entry<String, Statistics> entry : part.mBreakdown.entrySet()) {
+                breakdownParts.computeIfAbsent(entry.getKey(), l -> new ArrayList<>()).add(entry.getValue());
+            }
+        }
+        ImmutableSortedMap.Builder<String, Statistics> breakdown = ImmutableSortedMap.naturalOrder();
+        for (Map.Entry<String, List<Statistics>> entry : breakdownParts.entrySet()) {
+            breakdown.put(entry.getKey(), merge(entry.getValue()));
+        }
+        return new Statistics(merged, elapsedTimeSec, breakdown.build());
+    }
+
+    public static Statistics fromSnapshot(StatisticsSnapshot snapshot) {
+        ImmutableSortedMap.Builder<String, Statistics> breakdown = ImmutableSortedMap.naturalOrder();
+        for (StatisticsSnapshot.Breakdown entry : snapshot.getBreakdownList()) {
+            breakdown.put(entry.getLabel(), fromSnapshot(entry.getStatistics()));
+        }
+        return new Statistics(LogLinearHistogram.fromSnapshot(snapshot.getHistogram()),
+                              snapshot.getElapsedTimeSec(),
+                              breakdown.build());
     }
 
     public static DoubleStream doubleStream(Collection<Double> convertible) {
@@ -29,64 +81,146 @@ public class Statistics {
         return Math.sqrt(variance(values, avg));
     }
 
-    public final DoubleSummaryStatistics summary;
+    public final long count;
+    public final double min;
+    public final double max;
+    public final double average;
     public final double variance;
     public final double stdDev;
     public final double samplesPerSec;
 
-    private final List<Double> mValues;
+    private final LogLinearHistogram mHistogram;
+    private final long mElapsedTimeSec;
+    private final SortedMap<String, Statistics> mBreakdown;
 
-    private Statistics(List<Double> values, long elapsedTimeSec) {
-        mValues = values;
-        Collections.sort(mValues);
+    private Statistics(LogLinearHistogram histogram, long elapsedTimeSec, SortedMap<String, Statistics> breakdown) {
+        mHistogram = histogram;
+        mElapsedTimeSec = elapsedTimeSec;
+        mBreakdown = breakdown;
 
-        summary = doubleStream(mValues).summaryStatistics();
+        count = mHistogram.getTotalCount();
+        min = mHistogram.getMin() / MICROS_PER_SECOND;
+        max = mHistogram.getMax() / MICROS_PER_SECOND;
+        average = mHistogram.getMean() / MICROS_PER_SECOND;
 
-        variance = variance(mValues, summary.getAverage());
+        variance = mHistogram.getVariance() / (MICROS_PER_SECOND * MICROS_PER_SECOND);
         stdDev = Math.sqrt(variance);
-        samplesPerSec = (summary.getCount() / (double) elapsedTimeSec);
+        samplesPerSec = (count / (double) elapsedTimeSec);
     }
 
     public double getPercentileValue(double percentile) {
-        if (percentile < 0 || percentile > 1) {
-            throw new IllegalArgumentException("Percentile must be between 0 and 1");
-        }
-        return mValues.get((int) (percentile * (mValues.size() - 1)));
+        return mHistogram.getValueAtPercentile(percentile) / MICROS_PER_SECOND;
     }
 
     public double getPercentileRank(double value) {
-        int idx = Collections.binarySearch(mValues, value);
-        if (idx < 0) idx = -idx;
-        while (idx < mValues.size() && mValues.get(idx) <= value) idx++;
-        return idx / (double) mValues.size();
+        return mHistogram.getPercentileRank((long) (value * MICROS_PER_SECOND));
+    }
+
+    /**
+     * Statistics of the values recorded with each label in this level, i.e. per
+     * operation class in the top-level statistics and per route in the statistics
+     * of each operation class.
+     */
+    public SortedMap<String, Statistics> getBreakdown() {
+        return mBreakdown;
+    }
+
+    public StatisticsSnapshot toSnapshot() {
+        StatisticsSnapshot.Builder snapshot = StatisticsSnapshot.newBuilder()
+                .setHistogram(mHistogram.toSnapshot())
+                .setElapsedTimeSec(mElapsedTimeSec);
+        for (Map.Entry<String, Statistics> entry : mBreakdown.entrySet()) {
+            snapshot.addBreakdownBuilder()
+                    .setLabel(entry.getKey())
+                    .setStatistics(entry.getValue().toSnapshot());
+        }
+        return snapshot.build();
     }
 
     @Override
     public String toString() {
         return "Statistics{" +
-                "summary=" + summary +
+                "count=" + count +
+                ", min=" + min +
+                ", average=" + average +
+                ", max=" + max +
                 ", variance=" + variance +
                 ", stdDev=" + stdDev +
                 ", samplesPerSec=" + samplesPerSec +
                 '}';
     }
 
+    /**
+     * Records values in a fixed number of striped histograms, merging them only when
+     * calculating the final statistics. Each recording thread is mapped to a single
+     * stripe, so that under a small thread pool each thread effectively has its own
+     * histogram, while still keeping the memory bounded when the worker pool grows to
+     * thousands of threads.
+     *
+     * Values recorded with an {@link OperationTag} are also recorded in a breakdown
+     * per operation class, and in each class per route. Those use fewer stripes as
+     * each of them only sees a fraction of the values.
+     */
     public static class Calculator {
-        private final Stopwatch mStopwatch = Stopwatch.createStarted();
-        private final List<Double> mValues = Lists.newLinkedList();
+        private static final int BREAKDOWN_STRIPES = 4;
+
+        private final Stopwatch mStopwatch;
+        private final int mSignificantDigits;
+        private final LogLinearHistogram[] mStripes;
+        private final int mStripeMask;
+
+        private final ConcurrentMap<String, Calculator> mBreakdown = new ConcurrentHashMap<>();
+
+        private Calculator(int significantDigits, int stripes, Stopwatch stopwatch) {
+            mStopwatch = stopwatch;
+            mSignificantDigits = significantDigits;
+            mStripes = new LogLinearHistogram[stripes];
+            for (int i = 0; i < stripes; i++) {
+                mStripes[i] = new LogLinearHistogram(HIGHEST_TRACKABLE_MICROS, significantDigits);
+            }
+            mStripeMask = stripes - 1;
+        }
 
-        public void appendValue(double value) {
-            synchronized (mValues) {
-                mValues.add(value);
+        public void appendValue(long value, TimeUnit unit) {
+            LogLinearHistogram stripe = mStripes[(int) Thread.currentThread().getId() & mStripeMask];
+            synchronized (stripe) {
+                stripe.recordValue(unit.toMicros(value));
             }
         }
 
+        public void appendValue(OperationTag tag, long value, TimeUnit unit) {
+            appendValue(value, unit);
+
+            String operationClass = tag.getOperationClass();
+            if (operationClass == null) return;
+            Calculator classCalculator = breakdown(operationClass);
+            classCalculator.appendValue(value, unit);
+
+            String route = tag.getRoute();
+            if (route == null) return;
+            classCalculator.breakdown(route).appendValue(value, unit);
+        }
+
+        private Calculator breakdown(String label) {
+            Calculator calculator = mBreakdown.get(label);
+            if (calculator != null) return calculator;
+            return mBreakdown.computeIfAbsent(label,
+                    l -> new Calculator(mSignificantDigits, BREAKDOWN_STRIPES, mStopwatch));
+        }
+
         public Statistics calculate() {
-            List<Double> values;
-            synchronized (mValues) {
-                values = new ArrayList<>(mValues);
+            LogLinearHistogram merged = null;
+            for (LogLinearHistogram stripe : mStripes) {
+                synchronized (stripe) {
+                    if (merged == null) merged = new LogLinearHistogram(stripe);
+                    else merged.add(stripe);
+                }
+            }
+            ImmutableSortedMap.Builder<String, Statistics> breakdown = ImmutableSortedMap.naturalOrder();
+            for (Map.Entry<String, Calculator> entry : mBreakdown.entrySet()) {
+                breakdown.put(entry.getKey(), entry.getValue().calculate());
             }
-            return new Statistics(values, mStopwatch.elapsed(TimeUnit.SECONDS));
+            return new Statistics(merged, mStopwatch.elapsed(TimeUnit.SECONDS), breakdown.build());
         }
     }
 }
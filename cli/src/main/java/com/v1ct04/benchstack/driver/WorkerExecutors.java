@@ -0,0 +1,119 @@
+package com.v1ct04.benchstack.driver;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors running the executions of the load generators, according to the
+ * configured {@link BenchmarkConfig.ExecutionBackend}.
+ */
+final class WorkerExecutors {
+
+    private WorkerExecutors() {}
+
+    static ThreadFactory threadFactory(String nameFormat) {
+        return new ThreadFactoryBuilder()
+                .setNameFormat(nameFormat)
+                .setDaemon(true)
+                .build();
+    }
+
+    static ExecutorService newExecutor(BenchmarkConfig config, ThreadFactory threadFactory) {
+        switch (config.getExecutionBackend()) {
+            case ASYNC:
+                int threads = config.getAsyncThreads() > 0
+                        ? config.getAsyncThreads()
+                        : 2 * Runtime.getRuntime().availableProcessors();
+                return new ThreadPoolExecutor(threads, threads,
+                                              0, TimeUnit.SECONDS,
+                                              new LinkedBlockingQueue<>(),
+                                              threadFactory);
+            case VIRTUAL_THREADS:
+                return new VirtualThreadExecutor();
+            case PLATFORM_THREADS:
+            default:
+                return new ThreadPoolExecutor(5, Integer.MAX_VALUE,
+                                              30, TimeUnit.SECONDS,
+                                              new SynchronousQueue<>(),
+                                              threadFactory);
+        }
+    }
+
+    /**
+     * Number of threads currently used by an executor created by {@link #newExecutor}.
+     * For virtual threads, only the ones running an execution are counted.
+     */
+    static int threadCount(ExecutorService executor) {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getPoolSize();
+        }
+        return ((VirtualThreadExecutor) executor).mRunning.get();
+    }
+
+    /**
+     * Executor starting a new virtual thread per task. The build targets Java 8,
+     * so the underlying executor is looked up at runtime and creating it fails on
+     * older runtimes.
+     */
+    private static class VirtualThreadExecutor extends AbstractExecutorService {
+
+        private final ExecutorService mDelegate = newVirtualThreadPerTaskExecutor();
+        private final AtomicInteger mRunning = new AtomicInteger(0);
+
+        private static ExecutorService newVirtualThreadPerTaskExecutor() {
+            try {
+                return (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+            } catch (NoSuchMethodException e) {
+                throw new UnsupportedOperationException(
+                        "Virtual threads require Java 21 or later, running on " +
+                                System.getProperty("java.version"));
+            } catch (ReflectiveOperationException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            mDelegate.execute(() -> {
+                mRunning.incrementAndGet();
+                try {
+                    command.run();
+                } finally {
+                    mRunning.decrementAndGet();
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            mDelegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return mDelegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return mDelegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return mDelegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return mDelegate.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -1,48 +1,111 @@
 package com.v1ct04.benchstack.webserver;
 
-import com.google.common.collect.LinkedListMultimap;
-import com.google.common.collect.ListMultimap;
+import com.google.common.collect.ImmutableList;
 
-import java.util.Map;
-import java.util.Random;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Picks one of a set of functions at random, proportionally to their weights. Picking
+ * takes constant time with an alias table built beforehand (Vose's method), where each
+ * function gets a column of equal probability, shared with the function that overflows
+ * into it. Columns are kept as integer thresholds over the weight sum, so the table is
+ * exact, and a single random number selects both the column and the function in it.
+ *
+ * Arbitrators are immutable and can be shared by any number of threads, each of them
+ * drawing from its own {@link ThreadLocalRandom}.
+ */
 public class Arbitrator<FunctionType> {
 
-    private final ListMultimap<Integer, FunctionType> mFunctions = LinkedListMultimap.create();
-    private final Random mRandom = new Random();
-    private int mWeightSum = 0;
+    public static <Type> Builder<Type> builder() {
+        return new Builder<>();
+    }
 
     @SafeVarargs
     public static <Type> Arbitrator<Type> uniform(Type... funcs) {
-        Arbitrator<Type> arbitrator = new Arbitrator<>();
+        Builder<Type> builder = builder();
         for (Type func : funcs) {
-            arbitrator.addFunction(1, func);
+            builder.addFunction(1, func);
         }
-        return arbitrator;
+        return builder.build();
     }
 
-    public Arbitrator<FunctionType> addFunction(int weight, FunctionType func) {
-        if (weight <= 0) {
-            throw new IllegalArgumentException("Weight must be a positive number");
+    private final List<FunctionType> mFunctions;
+    private final long mWeightSum;
+    // Column i picks function i when the draw within the column is under mThresholds[i],
+    // or function mAliases[i] otherwise.
+    private final long[] mThresholds;
+    private final int[] mAliases;
+
+    private Arbitrator(List<FunctionType> functions, List<Integer> weights) {
+        int n = functions.size();
+        mFunctions = functions;
+        mWeightSum = weights.stream().mapToLong(Integer::longValue).sum();
+        mThresholds = new long[n];
+        mAliases = new int[n];
+
+        // Weights scaled by the number of columns, so that a full column is worth the sum.
+        long[] scaled = new long[n];
+        int[] small = new int[n], large = new int[n];
+        int smallCount = 0, largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights.get(i) * (long) n;
+            if (scaled[i] < mWeightSum) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+
+        while (smallCount > 0 && largeCount > 0) {
+            int under = small[--smallCount], over = large[--largeCount];
+            mThresholds[under] = scaled[under];
+            mAliases[under] = over;
+
+            scaled[over] -= mWeightSum - scaled[under];
+            if (scaled[over] < mWeightSum) {
+                small[smallCount++] = over;
+            } else {
+                large[largeCount++] = over;
+            }
+        }
+        // With exact arithmetic only full columns are left at this point.
+        while (largeCount > 0) {
+            int full = large[--largeCount];
+            mThresholds[full] = mWeightSum;
+            mAliases[full] = full;
         }
-        mWeightSum += weight;
-        mFunctions.put(weight, func);
-        return this;
     }
 
     public FunctionType arbitrate() {
-        if (mFunctions.isEmpty()) {
-            throw new IllegalStateException("Must add function to arbitrator");
+        long draw = ThreadLocalRandom.current().nextLong(mWeightSum * mThresholds.length);
+        int column = (int) (draw / mWeightSum);
+        return mFunctions.get(draw % mWeightSum < mThresholds[column] ? column : mAliases[column]);
+    }
+
+    public static class Builder<FunctionType> {
+
+        private final ImmutableList.Builder<FunctionType> mFunctionsBuilder = ImmutableList.builder();
+        private final ImmutableList.Builder<Integer> mWeightsBuilder = ImmutableList.builder();
+
+        private Builder() {
         }
-        int sorted = mRandom.nextInt(mWeightSum);
 
-        for (Map.Entry<Integer, FunctionType> candidate : mFunctions.entries()) {
-            if (sorted < candidate.getKey()) {
-                return candidate.getValue();
+        public Builder<FunctionType> addFunction(int weight, FunctionType func) {
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Weight must be a positive number");
             }
-            sorted -= candidate.getKey();
+            mFunctionsBuilder.add(func);
+            mWeightsBuilder.add(weight);
+            return this;
         }
 
-        throw new RuntimeException("Arbitrator failed to pick candidate");
+        public Arbitrator<FunctionType> build() {
+            List<FunctionType> functions = mFunctionsBuilder.build();
+            if (functions.isEmpty()) {
+                throw new IllegalStateException("Must add function to arbitrator");
+            }
+            return new Arbitrator<>(functions, mWeightsBuilder.build());
+        }
     }
 }
@@ -0,0 +1,121 @@
+package com.v1ct04.benchstack.webserver;
+
+import com.google.common.base.Splitter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Fields of a JSON response that a caller actually uses, for the HTTP clients to
+ * decode only those and skip everything else. Each field is given by a path of
+ * member names separated by dots, with a {@code []} suffix on a name to select the
+ * elements of the array it holds, e.g. {@code data.pokemon[]._id}. Selecting an
+ * object or array decodes it whole.
+ *
+ * Selections are immutable and meant to be created once and shared, as a constant.
+ */
+public final class JsonSelection {
+
+    /**
+     * Selects the whole response, decoding it just like a {@link org.json.JSONObject}.
+     */
+    public static final JsonSelection ALL = new JsonSelection(Node.ALL);
+
+    public static JsonSelection of(String... paths) {
+        Node root = new Node();
+        for (String path : paths) {
+            Node node = root;
+            for (String name : Splitter.on('.').split(path)) {
+                boolean elements = name.endsWith("[]");
+                if (elements) name = name.substring(0, name.length() - 2);
+                if (name.isEmpty()) {
+                    throw new IllegalArgumentException("Invalid JSON selection path: " + path);
+                }
+                node = node.addMember(name);
+                if (elements) node = node.addElements();
+            }
+            node.selected = true;
+        }
+        return new JsonSelection(root);
+    }
+
+    final Node mRoot;
+
+    private JsonSelection(Node root) {
+        mRoot = root;
+    }
+
+    public boolean isAll() {
+        return mRoot == Node.ALL;
+    }
+
+    public SelectiveJsonDecoder newDecoder() {
+        return new SelectiveJsonDecoder(mRoot);
+    }
+
+    private static boolean sameBytes(byte[] expected, byte[] actual, int length) {
+        if (expected.length != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (expected[i] != actual[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * A value in the selection tree, with the member names it selects kept as encoded
+     * bytes to be matched against the keys of the response without decoding them.
+     */
+    static final class Node {
+        static final Node ALL = new Node();
+        static {
+            ALL.selected = true;
+        }
+
+        boolean selected = false;
+        byte[][] memberNames = new byte[0][];
+        String[] memberKeys = new String[0];
+        Node[] members = new Node[0];
+        Node elements = null;
+
+        /**
+         * @return Index of the member with the given encoded name, or -1 if it isn't
+         *         selected.
+         */
+        int memberIndex(byte[] name, int length) {
+            for (int i = 0; i < members.length; i++) {
+                if (sameBytes(memberNames[i], name, length)) return i;
+            }
+            return -1;
+        }
+
+        Node elements() {
+            return this == ALL ? ALL : elements;
+        }
+
+        /**
+         * Node to decode an object or array at, which is decoded whole if selected.
+         */
+        Node forContainer() {
+            return selected ? ALL : this;
+        }
+
+        private Node addMember(String name) {
+            for (int i = 0; i < members.length; i++) {
+                if (memberKeys[i].equals(name)) return members[i];
+            }
+            int n = members.length;
+            memberNames = Arrays.copyOf(memberNames, n + 1);
+            memberKeys = Arrays.copyOf(memberKeys, n + 1);
+            members = Arrays.copyOf(members, n + 1);
+            memberNames[n] = name.getBytes(StandardCharsets.UTF_8);
+            memberKeys[n] = name;
+            members[n] = new Node();
+            return members[n];
+        }
+
+        private Node addElements() {
+            if (elements == null) elements = new Node();
+            return elements;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.v1ct04.benchstack.webserver;
+
+import com.v1ct04.benchstack.webserver.RestfulHttpClient.Method;
+
+/**
+ * A request rendered from a {@link RequestTemplate}, or read from a request trace,
+ * ready to be sent by any {@link RestfulHttpClient} as it is. Requests may be shared, e.g. when rendered
+ * only once from a template with all of its slots bound, so none of their fields,
+ * including the bytes of the body, may be modified.
+ */
+public final class PreparedRequest {
+    public final Method method;
+    /**
+     * Route of the template the request was rendered from, e.g. to tag operations with,
+     * or null if it was read from a trace.
+     */
+    public final String route;
+    public final String path;
+    /**
+     * Encoded query of the request, or null for none.
+     */
+    public final String query;
+    /**
+     * UTF-8 encoded JSON body of the request, or null for a GET.
+     */
+    public final byte[] body;
+
+    PreparedRequest(Method method, String route, String path, String query, byte[] body) {
+        this.method = method;
+        this.route = route;
+        this.path = path;
+        this.query = query;
+        this.body = body;
+    }
+
+    public String getPathAndQuery() {
+        return query == null ? path : path + '?' + query;
+    }
+}
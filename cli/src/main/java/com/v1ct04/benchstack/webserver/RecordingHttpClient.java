@@ -0,0 +1,71 @@
+package com.v1ct04.benchstack.webserver;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.v1ct04.benchstack.driver.ConnectionPoolStats;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URIBuilder;
+import org.json.JSONObject;
+
+/**
+ * Decorates the HTTP client of a single worker, recording every request it sends to
+ * a {@link RequestTraceWriter} before sending it.
+ */
+public class RecordingHttpClient implements RestfulHttpClient {
+
+    /**
+     * Wraps the client given to each worker's {@link WebServerClient} in a recording
+     * one, tagged with the worker number.
+     */
+    public static WebServerBenchmarkAction.ClientFactory recording(
+            WebServerBenchmarkAction.ClientFactory factory, RequestTraceWriter trace) {
+        return (client, workerNum) -> factory.create(new RecordingHttpClient(client, trace, workerNum), workerNum);
+    }
+
+    private final RestfulHttpClient mClient;
+    private final RequestTraceWriter mTrace;
+    private final int mWorkerNum;
+
+    public RecordingHttpClient(RestfulHttpClient client, RequestTraceWriter trace, int workerNum) {
+        mClient = client;
+        mTrace = trace;
+        mWorkerNum = workerNum;
+    }
+
+    @Override
+    public ListenableFuture<JSONObject> doGet(JsonSelection selection, String path, NameValuePair... params) {
+        mTrace.append(mWorkerNum, Method.GET, new URIBuilder().setPath(path).setParameters(params).toString(), (byte[]) null);
+        return mClient.doGet(selection, path, params);
+    }
+
+    @Override
+    public ListenableFuture<JSONObject> doPost(JsonSelection selection, String path, JSONObject body) {
+        // serialized only once, for both the trace and the request
+        return doRequest(selection, Method.POST, path, body.toString());
+    }
+
+    @Override
+    public ListenableFuture<JSONObject> doRequest(
+            JsonSelection selection, Method method, String pathAndQuery, String jsonBody) {
+        mTrace.append(mWorkerNum, method, pathAndQuery, jsonBody);
+        return mClient.doRequest(selection, method, pathAndQuery, jsonBody);
+    }
+
+    @Override
+    public ListenableFuture<JSONObject> send(JsonSelection selection, PreparedRequest request) {
+        mTrace.append(mWorkerNum, request.method, request.getPathAndQuery(), request.body);
+        return mClient.send(selection, request);
+    }
+
+    @Override
+    public ConnectionPoolStats getConnectionPoolStats() {
+        return mClient.getConnectionPoolStats();
+    }
+
+    /**
+     * Does nothing, as the decorated client is shared by all workers and closed by
+     * its owner.
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,356 @@
+package com.v1ct04.benchstack.webserver;
+
+import com.v1ct04.benchstack.webserver.RestfulHttpClient.Method;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A request compiled once from a route and a JSON body with {@code {name}} slots, to
+ * be sent many times with only the values of its slots changing. Slots are bound to
+ * values either ahead of time, e.g. per worker with {@link #bind}, merging them into
+ * the compiled request, or when sending it, with {@link #prepare}. A template with
+ * all of its slots bound is rendered only once, so preparing it costs nothing.
+ *
+ * Values of slots are percent-encoded in the route and escaped as the content of a
+ * JSON string in the body, so string slots in the body must be within quotes.
+ * Templates are immutable and can be shared by any number of threads.
+ */
+public final class RequestTemplate {
+
+    public static RequestTemplate get(String pathAndQuery) {
+        return new RequestTemplate(Method.GET, pathAndQuery, null);
+    }
+
+    public static RequestTemplate post(String path, String jsonBody) {
+        return new RequestTemplate(Method.POST, path, jsonBody);
+    }
+
+    private final Method mMethod;
+    private final String mRoute;
+    private final Part mPath;
+    private final Part mQuery;
+    private final Part mBody;
+    private final String[] mSlots;
+    private final PreparedRequest mPrepared;
+
+    private RequestTemplate(Method method, String pathAndQuery, String jsonBody) {
+        int query = pathAndQuery.indexOf('?');
+        mMethod = method;
+        mPath = Part.parse(query < 0 ? pathAndQuery : pathAndQuery.substring(0, query), false);
+        mQuery = query < 0 ? null : Part.parse(pathAndQuery.substring(query + 1), false);
+        mBody = jsonBody == null ? null : Part.parse(jsonBody, true);
+        mRoute = mPath.route();
+        mSlots = slotsOf(mPath, mQuery, mBody);
+        mPrepared = mSlots.length == 0 ? render(new String[0]) : null;
+    }
+
+    private RequestTemplate(RequestTemplate template, Part path, Part query, Part body) {
+        mMethod = template.mMethod;
+        mRoute = template.mRoute;
+        mPath = path;
+        mQuery = query;
+        mBody = body;
+        mSlots = slotsOf(mPath, mQuery, mBody);
+        mPrepared = mSlots.length == 0 ? render(new String[0]) : null;
+    }
+
+    /**
+     * @return Path of the template with its slots as {@code :name} placeholders, e.g.
+     *         to tag operations with, kept when binding slots.
+     */
+    public String getRoute() {
+        return mRoute;
+    }
+
+    /**
+     * @return A copy of this template with the given slot replaced by the value.
+     */
+    public RequestTemplate bind(String slot, String value) {
+        checkSlot(slot);
+        return new RequestTemplate(this,
+                mPath.bind(slot, value),
+                mQuery == null ? null : mQuery.bind(slot, value),
+                mBody == null ? null : mBody.bind(slot, value));
+    }
+
+    public RequestTemplate bind(String slot, long value) {
+        return bind(slot, Long.toString(value));
+    }
+
+    /**
+     * @return The request of a template with all of its slots bound.
+     */
+    public PreparedRequest prepare() {
+        if (mPrepared == null) {
+            throw new IllegalStateException("Slots not bound: " + Arrays.toString(mSlots));
+        }
+        return mPrepared;
+    }
+
+    /**
+     * @return The request of a template with only the given slot not bound, with the
+     *         slot replaced by the value.
+     */
+    public PreparedRequest prepare(String slot, String value) {
+        if (mSlots.length != 1 || !mSlots[0].equals(slot)) {
+            throw new IllegalArgumentException(
+                    "Slot " + slot + " isn't the only one not bound: " + Arrays.toString(mSlots));
+        }
+        return render(new String[]{value});
+    }
+
+    /**
+     * @return Builder of a request of this template, for several slots not bound.
+     */
+    public Builder newRequest() {
+        return new Builder();
+    }
+
+    private void checkSlot(String slot) {
+        if (indexOf(slot) < 0) {
+            throw new IllegalArgumentException("Unknown slot of " + mRoute + ": " + slot);
+        }
+    }
+
+    private int indexOf(String slot) {
+        for (int i = 0; i < mSlots.length; i++) {
+            if (mSlots[i].equals(slot)) return i;
+        }
+        return -1;
+    }
+
+    private PreparedRequest render(String[] values) {
+        return new PreparedRequest(mMethod, mRoute,
+                mPath.renderString(mSlots, values),
+                mQuery == null ? null : mQuery.renderString(mSlots, values),
+                mBody == null ? null : mBody.renderBytes(mSlots, values));
+    }
+
+    private static String[] slotsOf(Part... parts) {
+        Set<String> slots = new LinkedHashSet<>();
+        for (Part part : parts) {
+            if (part != null) slots.addAll(Arrays.asList(part.slots));
+        }
+        return slots.toArray(new String[slots.size()]);
+    }
+
+    public class Builder {
+        private final String[] mValues = new String[mSlots.length];
+
+        private Builder() {
+        }
+
+        public Builder set(String slot, String value) {
+            int index = indexOf(slot);
+            if (index < 0) {
+                throw new IllegalArgumentException("Unknown slot of " + mRoute + ": " + slot);
+            }
+            mValues[index] = value;
+            return this;
+        }
+
+        public Builder set(String slot, long value) {
+            return set(slot, Long.toString(value));
+        }
+
+        public PreparedRequest build() {
+            for (int i = 0; i < mSlots.length; i++) {
+                if (mValues[i] == null) {
+                    throw new IllegalStateException("Slot not set: " + mSlots[i]);
+                }
+            }
+            return render(mValues);
+        }
+    }
+
+    /**
+     * A part of the request, as the literals between its slots. Literals of the body
+     * are kept encoded, to be copied as they are into the rendered bodies.
+     */
+    private static final class Part {
+        final String[] literals;
+        final String[] slots;
+        final byte[][] encodedLiterals;
+        final boolean json;
+
+        private Part(List<String> literals, List<String> slots, boolean json) {
+            this.literals = literals.toArray(new String[literals.size()]);
+            this.slots = slots.toArray(new String[slots.size()]);
+            this.json = json;
+            if (json) {
+                encodedLiterals = new byte[this.literals.length][];
+                for (int i = 0; i < this.literals.length; i++) {
+                    encodedLiterals[i] = this.literals[i].getBytes(StandardCharsets.UTF_8);
+                }
+            } else {
+                encodedLiterals = null;
+            }
+        }
+
+        static Part parse(String template, boolean json) {
+            List<String> literals = new ArrayList<>();
+            List<String> slots = new ArrayList<>();
+            int start = 0;
+            int open;
+            while ((open = nextSlot(template, start)) >= 0) {
+                int close = template.indexOf('}', open);
+                literals.add(template.substring(start, open));
+                slots.add(template.substring(open + 1, close));
+                start = close + 1;
+            }
+            literals.add(template.substring(start));
+            return new Part(literals, slots, json);
+        }
+
+        /**
+         * @return Index of the next '{' opening a slot, rather than e.g. a JSON object,
+         *         i.e. followed by a name and '}'.
+         */
+        private static int nextSlot(String template, int from) {
+            for (int open = template.indexOf('{', from); open >= 0; open = template.indexOf('{', open + 1)) {
+                int end = open + 1;
+                while (end < template.length() && Character.isJavaIdentifierPart(template.charAt(end))) end++;
+                if (end > open + 1 && end < template.length() && template.charAt(end) == '}') {
+                    return open;
+                }
+            }
+            return -1;
+        }
+
+        Part bind(String slot, String value) {
+            List<String> literals = new ArrayList<>();
+            List<String> slots = new ArrayList<>();
+            StringBuilder literal = new StringBuilder(this.literals[0]);
+            for (int i = 0; i < this.slots.length; i++) {
+                if (this.slots[i].equals(slot)) {
+                    encode(value, json, literal);
+                } else {
+                    literals.add(literal.toString());
+                    slots.add(this.slots[i]);
+                    literal.setLength(0);
+                }
+                literal.append(this.literals[i + 1]);
+            }
+            literals.add(literal.toString());
+            return new Part(literals, slots, json);
+        }
+
+        String route() {
+            StringBuilder route = new StringBuilder(literals[0]);
+            for (int i = 0; i < slots.length; i++) {
+                route.append(':').append(slots[i]).append(literals[i + 1]);
+            }
+            return route.toString();
+        }
+
+        String renderString(String[] names, String[] values) {
+            if (slots.length == 0) return literals[0];
+            StringBuilder rendered = new StringBuilder(64);
+            rendered.append(literals[0]);
+            for (int i = 0; i < slots.length; i++) {
+                String value = valueOf(slots[i], names, values);
+                if (needsEncoding(value, json)) {
+                    encode(value, json, rendered);
+                } else {
+                    rendered.append(value);
+                }
+                rendered.append(literals[i + 1]);
+            }
+            return rendered.toString();
+        }
+
+        byte[] renderBytes(String[] names, String[] values) {
+            if (slots.length == 0) return encodedLiterals[0];
+            String[] encodedValues = new String[slots.length];
+            int length = encodedLiterals[0].length;
+            for (int i = 0; i < slots.length; i++) {
+                String value = valueOf(slots[i], names, values);
+                encodedValues[i] = needsEncoding(value, json)
+                        ? encode(value, json, new StringBuilder()).toString() : value;
+                length += utf8Length(encodedValues[i]) + encodedLiterals[i + 1].length;
+            }
+            byte[] rendered = new byte[length];
+            int offset = copy(encodedLiterals[0], rendered, 0);
+            for (int i = 0; i < slots.length; i++) {
+                offset = copyUtf8(encodedValues[i], rendered, offset);
+                offset = copy(encodedLiterals[i + 1], rendered, offset);
+            }
+            return rendered;
+        }
+
+        private static int utf8Length(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) >= 0x80) return value.getBytes(StandardCharsets.UTF_8).length;
+            }
+            return value.length();
+        }
+
+        private static int copyUtf8(String value, byte[] target, int offset) {
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) >= 0x80) return copy(value.getBytes(StandardCharsets.UTF_8), target, offset);
+            }
+            for (int i = 0; i < value.length(); i++) {
+                target[offset + i] = (byte) value.charAt(i);
+            }
+            return offset + value.length();
+        }
+
+        private static int copy(byte[] source, byte[] target, int offset) {
+            System.arraycopy(source, 0, target, offset, source.length);
+            return offset + source.length;
+        }
+
+        private static String valueOf(String slot, String[] names, String[] values) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(slot)) return values[i];
+            }
+            throw new AssertionError("Unknown slot: " + slot);
+        }
+    }
+
+    private static boolean needsEncoding(String value, boolean json) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (json ? c == '"' || c == '\\' || c < 0x20 : !isUnreserved(c)) return true;
+        }
+        return false;
+    }
+
+    private static boolean isUnreserved(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+
+    /**
+     * Appends the value escaped as the content of a JSON string, or percent-encoded.
+     */
+    private static StringBuilder encode(String value, boolean json, StringBuilder out) {
+        for (int i = 0; i < value.length(); ) {
+            int c = value.codePointAt(i);
+            i += Character.charCount(c);
+            if (json) {
+                if (c == '"' || c == '\\') {
+                    out.append('\\').append((char) c);
+                } else if (c < 0x20) {
+                    out.append(String.format("\\u%04x", c));
+                } else {
+                    out.appendCodePoint(c);
+                }
+            } else if (isUnreserved(c)) {
+                out.append((char) c);
+            } else {
+                for (byte b : new String(Character.toChars(c)).getBytes(StandardCharsets.UTF_8)) {
+                    out.append('%')
+                            .append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xf, 16)))
+                            .append(Character.toUpperCase(Character.forDigit(b & 0xf, 16)));
+                }
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,88 @@
+package com.v1ct04.benchstack.webserver;
+
+import com.v1ct04.benchstack.webserver.RestfulHttpClient.Method;
+
+import java.io.*;
+
+/**
+ * Streams the requests of a trace written by a {@link RequestTraceWriter}, one at a
+ * time, so that traces of any length can be replayed in constant memory.
+ */
+public class RequestTraceReader implements Closeable {
+
+    private static final Method[] METHODS = Method.values();
+
+    private final DataInputStream mInput;
+    private final long mStartEpochMillis;
+
+    public RequestTraceReader(String path) throws IOException {
+        mInput = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16));
+        try {
+            if (mInput.readInt() != RequestTraceWriter.MAGIC) {
+                throw new IOException("Not a request trace: " + path);
+            }
+            int version = mInput.readInt();
+            if (version != RequestTraceWriter.VERSION) {
+                throw new IOException("Unsupported request trace version: " + version);
+            }
+            mStartEpochMillis = mInput.readLong();
+        } catch (IOException e) {
+            mInput.close();
+            throw e;
+        }
+    }
+
+    public long getStartEpochMillis() {
+        return mStartEpochMillis;
+    }
+
+    /**
+     * @return The next request of the trace, or null at its end. A record cut short,
+     *         e.g. by the recording process being killed, also ends the trace.
+     */
+    public Request next() throws IOException {
+        long offsetMicros;
+        try {
+            offsetMicros = mInput.readLong();
+        } catch (EOFException e) {
+            return null;
+        }
+        try {
+            int worker = mInput.readInt();
+            Method method = METHODS[mInput.readUnsignedByte()];
+            String pathAndQuery = mInput.readUTF();
+            byte[] body = new byte[mInput.readInt()];
+            mInput.readFully(body);
+            int query = pathAndQuery.indexOf('?');
+            return new Request(offsetMicros, worker, new PreparedRequest(method, null,
+                    query < 0 ? pathAndQuery : pathAndQuery.substring(0, query),
+                    query < 0 ? null : pathAndQuery.substring(query + 1),
+                    method == Method.GET ? null : body));
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+
+    public static class Request {
+        /**
+         * Time the request was sent, since the start of the trace.
+         */
+        public final long offsetMicros;
+        public final int worker;
+        /**
+         * The request as recorded, its body still encoded, to be sent again as it is.
+         */
+        public final PreparedRequest request;
+
+        Request(long offsetMicros, int worker, PreparedRequest request) {
+            this.offsetMicros = offsetMicros;
+            this.worker = worker;
+            this.request = request;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.v1ct04.benchstack.webserver;
+
+import com.v1ct04.benchstack.webserver.RestfulHttpClient.Method;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends every request sent by the benchmark to a trace file, to be replayed later
+ * by a {@link TraceReplayer}. Each record holds the time the request was sent since
+ * the start of the trace, the worker that sent it, its method, its path with the
+ * query and its serialized body, so that replaying it needs no serialization.
+ *
+ * The trace starts with a header of {@link #MAGIC}, {@link #VERSION} and the start
+ * time in milliseconds since the epoch. Records are appended under a lock in the
+ * order the requests are sent, thus their times never decrease.
+ */
+public class RequestTraceWriter implements Closeable {
+
+    static final int MAGIC = 0x42535452; // "BSTR"
+    static final int VERSION = 1;
+
+    private final DataOutputStream mOutput;
+    private final long mStartNanos;
+
+    public RequestTraceWriter(String path) throws IOException {
+        mOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+        mStartNanos = System.nanoTime();
+        mOutput.writeInt(MAGIC);
+        mOutput.writeInt(VERSION);
+        mOutput.writeLong(System.currentTimeMillis());
+    }
+
+    public void append(int worker, Method method, String pathAndQuery, String jsonBody) {
+        append(worker, method, pathAndQuery, jsonBody == null ? null : jsonBody.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param body UTF-8 encoded JSON body, or null for none.
+     */
+    public void append(int worker, Method method, String pathAndQuery, byte[] body) {
+        synchronized (mOutput) {
+            try {
+                mOutput.writeLong(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - mStartNanos));
+                mOutput.writeInt(worker);
+                mOutput.writeByte(method.ordinal());
+                mOutput.writeUTF(pathAndQuery);
+                if (body == null) {
+                    mOutput.writeInt(0);
+                } else {
+                    mOutput.writeInt(body.length);
+                    mOutput.write(body);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to record request: " + pathAndQuery, e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (mOutput) {
+            mOutput.close();
+        }
+    }
+}
@@ -1,13 +1,58 @@
 package com.v1ct04.benchstack.webserver;
 
 import com.google.common.util.concurrent.ListenableFuture;
+import com.v1ct04.benchstack.driver.ConnectionPoolStats;
 import org.apache.http.NameValuePair;
 import org.json.JSONObject;
 
 import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
 
 public interface RestfulHttpClient extends Closeable {
-    ListenableFuture<JSONObject> doGet(String path, NameValuePair... params);
+    default ListenableFuture<JSONObject> doGet(String path, NameValuePair... params) {
+        return doGet(JsonSelection.ALL, path, params);
+    }
 
-    ListenableFuture<JSONObject> doPost(String path, JSONObject body);
+    default ListenableFuture<JSONObject> doPost(String path, JSONObject body) {
+        return doPost(JsonSelection.ALL, path, body);
+    }
+
+    /**
+     * Sends a request with its query already in the path and its body already
+     * serialized, e.g. as recorded in a request trace. The body is ignored for GETs.
+     */
+    default ListenableFuture<JSONObject> doRequest(Method method, String pathAndQuery, String jsonBody) {
+        return doRequest(JsonSelection.ALL, method, pathAndQuery, jsonBody);
+    }
+
+    /**
+     * Variants of the requests above decoding only the given selection of the
+     * response, skipping the fields the caller doesn't use.
+     */
+    ListenableFuture<JSONObject> doGet(JsonSelection selection, String path, NameValuePair... params);
+
+    ListenableFuture<JSONObject> doPost(JsonSelection selection, String path, JSONObject body);
+
+    ListenableFuture<JSONObject> doRequest(JsonSelection selection, Method method, String pathAndQuery, String jsonBody);
+
+    /**
+     * Sends a request rendered from a {@link RequestTemplate}. Clients should send its
+     * path and body as they are, rather than serializing them again.
+     */
+    default ListenableFuture<JSONObject> send(JsonSelection selection, PreparedRequest request) {
+        String body = request.body == null ? null : new String(request.body, StandardCharsets.UTF_8);
+        return doRequest(selection, request.method, request.getPathAndQuery(), body);
+    }
+
+    /**
+     * @return Current state of the client's connection pool, or null if it doesn't
+     *         keep track of one.
+     */
+    default ConnectionPoolStats getConnectionPoolStats() {
+        return null;
+    }
+
+    enum Method {
+        GET, POST
+    }
 }
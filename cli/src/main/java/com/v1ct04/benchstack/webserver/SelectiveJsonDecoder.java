@@ -0,0 +1,387 @@
+package com.v1ct04.benchstack.webserver;
+
+import com.v1ct04.benchstack.webserver.JsonSelection.Node;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Decodes the fields of a {@link JsonSelection} from a UTF-8 encoded JSON object,
+ * fed to it in chunks as they arrive, e.g. straight from the buffers of an HTTP
+ * response. Only the selected values are decoded into the resulting
+ * {@link JSONObject}, along with the objects and arrays enclosing them; everything
+ * else is skipped over byte by byte, without being decoded or copied.
+ *
+ * Values that are skipped are only checked for their nesting, so a malformed one
+ * may go unnoticed. A decoder is used for a single response and isn't thread-safe.
+ */
+public class SelectiveJsonDecoder {
+
+    // What the next byte besides whitespace is expected to start.
+    private static final int VALUE = 0;
+    private static final int FIRST_KEY = 1; // or the end of the object, after '{'
+    private static final int KEY = 2;
+    private static final int COLON = 3;
+    private static final int FIRST_ELEMENT = 4; // or the end of the array, after '['
+    private static final int NEXT = 5; // ',' or the end of the enclosing object or array
+    private static final int END = 6; // nothing, after the root object
+    // Inside a token, every byte up to its end belonging to it.
+    private static final int STRING = 7;
+    private static final int LITERAL = 8; // number, boolean or null
+    private static final int SKIP = 9; // object or array not selected
+
+    private int mState = VALUE;
+    // Offset in the object of the next chunk fed, and of the byte being accepted.
+    private long mOffset = 0;
+    private long mPosition = 0;
+
+    // Objects and arrays being decoded, innermost last, with the nodes they're decoded at.
+    private Object[] mTargets = new Object[8];
+    private Node[] mNodes = new Node[8];
+    private int mDepth = 0;
+    private JSONObject mResult;
+
+    // Node of the value about to be decoded, null to skip it, and its key in an object.
+    private Node mValueNode;
+    private String mValueKey;
+
+    private boolean mInKey;
+    private boolean mCapture;
+    private boolean mEscaped;
+    private boolean mHasEscapes;
+    private byte[] mToken = new byte[64];
+    private int mTokenLength;
+
+    private int mSkipDepth;
+    private boolean mSkipInString;
+
+    SelectiveJsonDecoder(Node root) {
+        mValueNode = root;
+    }
+
+    public void feed(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            feed(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } else {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            feed(bytes, 0, bytes.length);
+        }
+    }
+
+    public void feed(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            // skipped values are scanned in tight loops, the rest byte by byte
+            if (mState == SKIP) {
+                i = skipContainer(bytes, i, end);
+            } else if (mState == STRING && !mCapture) {
+                i = skipString(bytes, i, end);
+            } else {
+                mPosition = mOffset + i - offset;
+                accept(bytes[i++]);
+            }
+        }
+        mOffset += length;
+    }
+
+    /**
+     * @return The selected fields of the object fed to the decoder.
+     * @throws JSONException If the object was malformed or cut short.
+     */
+    public JSONObject finish() {
+        if (mState != END) {
+            throw new JSONException("Unexpected end of JSON at offset " + mOffset);
+        }
+        return mResult;
+    }
+
+    /**
+     * Feeds the whole stream to the decoder, returning the result of {@link #finish()}.
+     */
+    public JSONObject decode(InputStream input) throws IOException {
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) >= 0) {
+            feed(buffer, 0, read);
+        }
+        return finish();
+    }
+
+    private void accept(byte c) {
+        switch (mState) {
+            case STRING:
+                acceptInString(c);
+                return;
+            case LITERAL:
+                if (!isLiteralEnd(c)) {
+                    append(c);
+                    return;
+                }
+                endLiteral();
+                break;
+        }
+        if (c == ' ' || c == '\n' || c == '\r' || c == '\t') return;
+
+        switch (mState) {
+            case VALUE:
+                startValue(c);
+                return;
+            case FIRST_KEY:
+            case KEY:
+                if (c == '}' && mState == FIRST_KEY) {
+                    endContainer();
+                } else if (c == '"') {
+                    startToken(STRING, true, true);
+                } else {
+                    throw unexpected(c);
+                }
+                return;
+            case COLON:
+                if (c != ':') throw unexpected(c);
+                mState = VALUE;
+                return;
+            case FIRST_ELEMENT:
+                if (c == ']') {
+                    endContainer();
+                    return;
+                }
+                mValueNode = mNodes[mDepth - 1].elements();
+                startValue(c);
+                return;
+            case NEXT:
+                boolean inObject = mTargets[mDepth - 1] instanceof JSONObject;
+                if (c == ',') {
+                    if (inObject) {
+                        mState = KEY;
+                    } else {
+                        mValueNode = mNodes[mDepth - 1].elements();
+                        mState = VALUE;
+                    }
+                } else if (c == (inObject ? '}' : ']')) {
+                    endContainer();
+                } else {
+                    throw unexpected(c);
+                }
+                return;
+            default:
+                throw unexpected(c);
+        }
+    }
+
+    private void startValue(byte c) {
+        Node node = mValueNode;
+        if (mDepth == 0 && c != '{') {
+            throw unexpected(c);
+        }
+        switch (c) {
+            case '{':
+                if (node == null) {
+                    startSkipping();
+                } else {
+                    push(new JSONObject(), node.forContainer());
+                    mState = FIRST_KEY;
+                }
+                return;
+            case '[':
+                if (node == null || node.forContainer().elements() == null) {
+                    startSkipping();
+                } else {
+                    push(new JSONArray(), node.forContainer());
+                    mState = FIRST_ELEMENT;
+                }
+                return;
+            case '"':
+                startToken(STRING, false, node != null && node.selected);
+                return;
+            default:
+                if (c != '-' && (c < '0' || c > '9') && c != 't' && c != 'f' && c != 'n') {
+                    throw unexpected(c);
+                }
+                startToken(LITERAL, false, node != null && node.selected);
+                append(c);
+        }
+    }
+
+    private void push(Object target, Node node) {
+        if (mDepth == 0) {
+            mResult = (JSONObject) target;
+        } else {
+            attach(target);
+        }
+        if (mDepth == mTargets.length) {
+            mTargets = Arrays.copyOf(mTargets, mDepth * 2);
+            mNodes = Arrays.copyOf(mNodes, mDepth * 2);
+        }
+        mTargets[mDepth] = target;
+        mNodes[mDepth] = node;
+        mDepth++;
+    }
+
+    private void endContainer() {
+        mDepth--;
+        mTargets[mDepth] = null;
+        mNodes[mDepth] = null;
+        mState = mDepth == 0 ? END : NEXT;
+    }
+
+    private void attach(Object value) {
+        Object parent = mTargets[mDepth - 1];
+        if (parent instanceof JSONObject) {
+            ((JSONObject) parent).put(mValueKey, value);
+        } else {
+            ((JSONArray) parent).put(value);
+        }
+    }
+
+    private void startToken(int state, boolean inKey, boolean capture) {
+        mState = state;
+        mInKey = inKey;
+        mCapture = capture || inKey;
+        mEscaped = false;
+        mHasEscapes = false;
+        mTokenLength = 0;
+    }
+
+    private void append(byte c) {
+        if (!mCapture) return;
+        if (mTokenLength == mToken.length) {
+            mToken = Arrays.copyOf(mToken, mTokenLength * 2);
+        }
+        mToken[mTokenLength++] = c;
+    }
+
+    private void acceptInString(byte c) {
+        if (mEscaped) {
+            mEscaped = false;
+        } else if (c == '\\') {
+            mEscaped = true;
+            mHasEscapes = true;
+        } else if (c == '"') {
+            if (mInKey) {
+                endKey();
+            } else {
+                if (mCapture) attach(tokenString());
+                mState = NEXT;
+            }
+            return;
+        }
+        append(c);
+    }
+
+    private void endKey() {
+        Node node = mNodes[mDepth - 1];
+        if (node == Node.ALL) {
+            mValueNode = Node.ALL;
+            mValueKey = tokenString();
+        } else {
+            int index;
+            if (mHasEscapes) {
+                byte[] name = tokenString().getBytes(StandardCharsets.UTF_8);
+                index = node.memberIndex(name, name.length);
+            } else {
+                index = node.memberIndex(mToken, mTokenLength);
+            }
+            mValueNode = index < 0 ? null : node.members[index];
+            mValueKey = index < 0 ? null : node.memberKeys[index];
+        }
+        mState = COLON;
+    }
+
+    private String tokenString() {
+        String raw = new String(mToken, 0, mTokenLength, StandardCharsets.UTF_8);
+        return mHasEscapes ? new JSONTokener(raw + '"').nextString('"') : raw;
+    }
+
+    private static boolean isLiteralEnd(byte c) {
+        return c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private void endLiteral() {
+        if (mCapture) {
+            String literal = tokenString();
+            Object value = JSONObject.stringToValue(literal);
+            if (value instanceof String) {
+                throw new JSONException("Invalid value '" + literal + "' at offset " + mPosition);
+            }
+            attach(value);
+        }
+        mState = NEXT;
+    }
+
+    private void startSkipping() {
+        mState = SKIP;
+        mSkipDepth = 1;
+        mSkipInString = false;
+        mEscaped = false;
+    }
+
+    /**
+     * @return Index of the first byte after the end of the skipped object or array, or
+     *         {@code end} if it doesn't end in the given bytes.
+     */
+    private int skipContainer(byte[] bytes, int i, int end) {
+        int depth = mSkipDepth;
+        boolean inString = mSkipInString;
+        boolean escaped = mEscaped;
+        for (; i < end; i++) {
+            byte c = bytes[i];
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if ((c == '}' || c == ']') && --depth == 0) {
+                mState = NEXT;
+                i++;
+                break;
+            }
+        }
+        mSkipDepth = depth;
+        mSkipInString = inString;
+        mEscaped = escaped;
+        return i;
+    }
+
+    /**
+     * @return Index of the first byte after the end of the skipped string, or
+     *         {@code end} if it doesn't end in the given bytes.
+     */
+    private int skipString(byte[] bytes, int i, int end) {
+        boolean escaped = mEscaped;
+        for (; i < end; i++) {
+            byte c = bytes[i];
+            if (escaped) {
+                escaped = false;
+            } else if (c == '\\') {
+                escaped = true;
+            } else if (c == '"') {
+                mState = NEXT;
+                i++;
+                break;
+            }
+        }
+        mEscaped = escaped;
+        return i;
+    }
+
+    private JSONException unexpected(byte c) {
+        return new JSONException("Unexpected character '" + (char) (c & 0xff) + "' at offset " + mPosition);
+    }
+}
@@ -0,0 +1,127 @@
+package com.v1ct04.benchstack.webserver;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.v1ct04.benchstack.driver.Statistics;
+import com.v1ct04.benchstack.webserver.RequestTraceReader.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays the requests of a trace against a server, at the pace they were recorded,
+ * at a multiple of it, or as fast as possible. The requests of each worker are still
+ * sent one after the other, each only after the previous one completes, so that the
+ * server sees them in the same order as when they were recorded.
+ *
+ * The trace is streamed from disk while replaying, with at most a limited number of
+ * requests in flight, which also bounds the memory used at the maximum speed.
+ */
+public class TraceReplayer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TraceReplayer.class);
+
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+    // The content of the responses isn't used, so all of it is skipped when decoding.
+    private static final JsonSelection NOTHING = JsonSelection.of();
+
+    private final RestfulHttpClient mClient;
+    private final double mSpeed;
+    private final int mMaxInFlight;
+
+    private final AtomicLong mErrors = new AtomicLong(0);
+
+    /**
+     * @param speed Multiple of the recorded pace to replay at, or {@link #MAX_SPEED}.
+     */
+    public TraceReplayer(RestfulHttpClient client, double speed, int maxInFlight) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("Speed must be a positive number");
+        }
+        mClient = client;
+        mSpeed = speed;
+        mMaxInFlight = maxInFlight;
+    }
+
+    /**
+     * Replays the whole trace, returning once all of its requests have completed.
+     *
+     * @return Latency statistics of the requests, from the time each one was sent.
+     */
+    public Statistics replay(RequestTraceReader trace) throws IOException, InterruptedException {
+        Statistics.Calculator calculator = Statistics.calculator();
+        Semaphore inFlight = new Semaphore(mMaxInFlight);
+        // Completion of the last request of each worker, only accessed by this thread.
+        Map<Integer, ListenableFuture<?>> lastRequests = new HashMap<>();
+
+        long startNanos = System.nanoTime();
+        Request request;
+        while ((request = trace.next()) != null) {
+            if (mSpeed != MAX_SPEED) {
+                long dueNanos = startNanos + (long) (TimeUnit.MICROSECONDS.toNanos(request.offsetMicros) / mSpeed);
+                long waitNanos = dueNanos - System.nanoTime();
+                if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+            inFlight.acquire();
+
+            Request send = request;
+            SettableFuture<Void> completed = SettableFuture.create();
+            Runnable sendRequest = () -> send(send, calculator, () -> {
+                inFlight.release();
+                completed.set(null);
+            });
+            ListenableFuture<?> previous = lastRequests.put(request.worker, completed);
+            if (previous == null) {
+                sendRequest.run();
+            } else {
+                previous.addListener(sendRequest, MoreExecutors.directExecutor());
+            }
+        }
+
+        inFlight.acquire(mMaxInFlight);
+        return calculator.calculate();
+    }
+
+    private void send(Request request, Statistics.Calculator calculator, Runnable onCompleted) {
+        long sentNanos = System.nanoTime();
+        ListenableFuture<?> response;
+        try {
+            response = mClient.send(NOTHING, request.request);
+        } catch (RuntimeException e) {
+            recordError(request, e);
+            onCompleted.run();
+            return;
+        }
+        response.addListener(() -> {
+            calculator.appendValue(System.nanoTime() - sentNanos, TimeUnit.NANOSECONDS);
+            try {
+                response.get();
+            } catch (ExecutionException e) {
+                recordError(request, e.getCause());
+            } catch (InterruptedException e) {
+                throw new AssertionError("Completed future interrupted", e);
+            } finally {
+                onCompleted.run();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void recordError(Request request, Throwable error) {
+        mErrors.incrementAndGet();
+        LOGGER.debug("Replayed request failed: {} {}: {}",
+                request.request.method, request.request.getPathAndQuery(), error.toString());
+    }
+
+    public long getErrorCount() {
+        return mErrors.get();
+    }
+}
@@ -1,41 +1,49 @@
 package com.v1ct04.benchstack.webserver;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.v1ct04.benchstack.concurrent.MoreFutures;
+import com.google.common.util.concurrent.SettableFuture;
 import com.v1ct04.benchstack.driver.BenchmarkAction;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.WorkloadMix;
+import com.v1ct04.benchstack.driver.ConnectionPoolStats;
+import com.v1ct04.benchstack.driver.OperationTag;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
 
 public class WebServerBenchmarkAction implements BenchmarkAction {
 
     private final RestfulHttpClient mHttpClient;
     private final ClientFactory mClientFactory;
 
-    private final Map<Integer, WebServerClient> mClients = new ConcurrentHashMap<>();
+    private static final String CREATE_CLIENT = "createClient";
 
-    // TODO: Make this configurable
-    private Arbitrator<Function<WebServerClient, ListenableFuture<?>>> mArbitrator = new Arbitrator<>();
-    {
-        mArbitrator
-                .addFunction(35, WebServerClient::doReadLite)
-                .addFunction(20, WebServerClient::doReadMedium)
-                .addFunction(5, WebServerClient::doReadHeavy)
+    // Creation of the client of each worker, shared by all of its executions.
+    private final Map<Integer, ListenableFuture<? extends WebServerClient>> mClients = new ConcurrentHashMap<>();
 
-                .addFunction(12, WebServerClient::doUpdateLite)
-                .addFunction(5, WebServerClient::doUpdateMedium)
-                .addFunction(3, WebServerClient::doUpdateHeavy)
+    private static final Arbitrator<WebServerOperation> DEFAULT_MIX = Arbitrator.<WebServerOperation>builder()
+            .addFunction(35, WebServerOperation.READ_LITE)
+            .addFunction(20, WebServerOperation.READ_MEDIUM)
+            .addFunction(5, WebServerOperation.READ_HEAVY)
 
-                .addFunction(3, WebServerClient::doInsertLite)
-                .addFunction(2, WebServerClient::doInsertHeavy)
+            .addFunction(12, WebServerOperation.UPDATE_LITE)
+            .addFunction(5, WebServerOperation.UPDATE_MEDIUM)
+            .addFunction(3, WebServerOperation.UPDATE_HEAVY)
 
-                .addFunction(3, WebServerClient::doDeleteLite)
-                .addFunction(2, WebServerClient::doDeleteHeavy)
+            .addFunction(3, WebServerOperation.INSERT_LITE)
+            .addFunction(2, WebServerOperation.INSERT_HEAVY)
 
-                .addFunction(6, WebServerClient::doCPULite)
-                .addFunction(4, WebServerClient::doCPUHeavy);
-    }
+            .addFunction(3, WebServerOperation.DELETE_LITE)
+            .addFunction(2, WebServerOperation.DELETE_HEAVY)
+
+            .addFunction(6, WebServerOperation.CPU_LITE)
+            .addFunction(4, WebServerOperation.CPU_HEAVY)
+            .build();
+
+    // Replaced as a whole when switching mixes, each execution picking from either one.
+    private volatile Arbitrator<WebServerOperation> mArbitrator = DEFAULT_MIX;
 
     public WebServerBenchmarkAction(RestfulHttpClient httpClient,
                                     ClientFactory clientFactory) {
@@ -44,17 +52,82 @@ public class WebServerBenchmarkAction implements BenchmarkAction {
     }
 
     @Override
-    public ListenableFuture<?> execute(int workerNum) throws Exception {
-        if (!mClients.containsKey(workerNum)) {
-            return createClient(workerNum);
+    public ListenableFuture<?> execute(int workerNum, OperationTag tag) throws Exception {
+        ListenableFuture<? extends WebServerClient> client = mClients.get(workerNum);
+        if (client == null) {
+            SettableFuture<WebServerClient> created = SettableFuture.create();
+            client = mClients.putIfAbsent(workerNum, created);
+            if (client == null) {
+                // Only the execution that started the creation is tagged with it
+                tag.setOperationClass(CREATE_CLIENT);
+                createClient(workerNum, created);
+                return created;
+            }
         }
-        return mArbitrator.arbitrate().apply(mClients.get(workerNum));
+        if (client.isDone()) {
+            return mArbitrator.arbitrate().execute(Futures.getUnchecked(client), tag);
+        }
+        // Executions racing the creation, as the open loop can run a worker concurrently
+        return Futures.dereference(Futures.transform(client,
+                (Function<WebServerClient, ListenableFuture<?>>) c -> mArbitrator.arbitrate().execute(c, tag)));
+    }
+
+    @Override
+    public void setWorkloadMix(WorkloadMix mix) {
+        mArbitrator = arbitrator(mix);
+    }
+
+    @Override
+    public void checkWorkloadMix(WorkloadMix mix) {
+        arbitrator(mix);
     }
 
-    private ListenableFuture<?> createClient(int workerNum) {
-        return MoreFutures.consume(
-                mClientFactory.create(mHttpClient, workerNum),
-                client -> mClients.put(workerNum, client));
+    private static Arbitrator<WebServerOperation> arbitrator(WorkloadMix mix) {
+        Arbitrator.Builder<WebServerOperation> arbitrator = Arbitrator.builder();
+        for (WorkloadMix.Weight weight : mix.getWeightList()) {
+            try {
+                arbitrator.addFunction(weight.getWeight(), WebServerOperation.valueOf(weight.getOperation()));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(
+                        "Invalid weight in workload mix " + mix.getName() + ": " + weight.getOperation(), e);
+            }
+        }
+        try {
+            return arbitrator.build();
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException("Empty workload mix: " + mix.getName(), e);
+        }
+    }
+
+    @Override
+    public ConnectionPoolStats getConnectionPoolStats() {
+        return mHttpClient.getConnectionPoolStats();
+    }
+
+    /**
+     * Completes the future already installed for the worker with the client created by
+     * the factory, so that the map is never updated from within a factory callback.
+     */
+    private void createClient(int workerNum, SettableFuture<WebServerClient> created) {
+        ListenableFuture<? extends WebServerClient> client;
+        try {
+            client = mClientFactory.create(mHttpClient, workerNum);
+        } catch (RuntimeException e) {
+            client = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(client, new FutureCallback<WebServerClient>() {
+            @Override
+            public void onSuccess(WebServerClient result) {
+                created.set(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // Retried by the next execution of the worker
+                mClients.remove(workerNum, created);
+                created.setException(t);
+            }
+        });
     }
 
     public interface ClientFactory {
@@ -1,29 +1,34 @@
 package com.v1ct04.benchstack.webserver;
 
 import com.google.common.util.concurrent.ListenableFuture;
+import com.v1ct04.benchstack.driver.OperationTag;
 
+/**
+ * Operations of a client of the benchmarked web server. Each operation should set
+ * the route of the request it makes in the given {@link OperationTag}.
+ */
 public interface WebServerClient {
-    ListenableFuture<?> doReadLite();
+    ListenableFuture<?> doReadLite(OperationTag tag);
 
-    ListenableFuture<?> doReadMedium();
+    ListenableFuture<?> doReadMedium(OperationTag tag);
 
-    ListenableFuture<?> doReadHeavy();
+    ListenableFuture<?> doReadHeavy(OperationTag tag);
 
-    ListenableFuture<?> doUpdateLite();
+    ListenableFuture<?> doUpdateLite(OperationTag tag);
 
-    ListenableFuture<?> doUpdateMedium();
+    ListenableFuture<?> doUpdateMedium(OperationTag tag);
 
-    ListenableFuture<?> doUpdateHeavy();
+    ListenableFuture<?> doUpdateHeavy(OperationTag tag);
 
-    ListenableFuture<?> doInsertLite();
+    ListenableFuture<?> doInsertLite(OperationTag tag);
 
-    ListenableFuture<?> doInsertHeavy();
+    ListenableFuture<?> doInsertHeavy(OperationTag tag);
 
-    ListenableFuture<?> doDeleteLite();
+    ListenableFuture<?> doDeleteLite(OperationTag tag);
 
-    ListenableFuture<?> doDeleteHeavy();
+    ListenableFuture<?> doDeleteHeavy(OperationTag tag);
 
-    ListenableFuture<?> doCPULite();
+    ListenableFuture<?> doCPULite(OperationTag tag);
 
-    ListenableFuture<?> doCPUHeavy();
+    ListenableFuture<?> doCPUHeavy(OperationTag tag);
 }
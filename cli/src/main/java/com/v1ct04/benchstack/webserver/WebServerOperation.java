@@ -0,0 +1,45 @@
+package com.v1ct04.benchstack.webserver;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.v1ct04.benchstack.driver.OperationTag;
+
+import java.util.function.BiFunction;
+
+/**
+ * Operation classes of a {@link WebServerClient}, labeled after their methods.
+ */
+public enum WebServerOperation {
+    READ_LITE("doReadLite", WebServerClient::doReadLite),
+    READ_MEDIUM("doReadMedium", WebServerClient::doReadMedium),
+    READ_HEAVY("doReadHeavy", WebServerClient::doReadHeavy),
+
+    UPDATE_LITE("doUpdateLite", WebServerClient::doUpdateLite),
+    UPDATE_MEDIUM("doUpdateMedium", WebServerClient::doUpdateMedium),
+    UPDATE_HEAVY("doUpdateHeavy", WebServerClient::doUpdateHeavy),
+
+    INSERT_LITE("doInsertLite", WebServerClient::doInsertLite),
+    INSERT_HEAVY("doInsertHeavy", WebServerClient::doInsertHeavy),
+
+    DELETE_LITE("doDeleteLite", WebServerClient::doDeleteLite),
+    DELETE_HEAVY("doDeleteHeavy", WebServerClient::doDeleteHeavy),
+
+    CPU_LITE("doCPULite", WebServerClient::doCPULite),
+    CPU_HEAVY("doCPUHeavy", WebServerClient::doCPUHeavy);
+
+    private final String mLabel;
+    private final BiFunction<WebServerClient, OperationTag, ListenableFuture<?>> mFunction;
+
+    WebServerOperation(String label, BiFunction<WebServerClient, OperationTag, ListenableFuture<?>> function) {
+        mLabel = label;
+        mFunction = function;
+    }
+
+    public String getLabel() {
+        return mLabel;
+    }
+
+    public ListenableFuture<?> execute(WebServerClient client, OperationTag tag) {
+        tag.setOperationClass(mLabel);
+        return mFunction.apply(client, tag);
+    }
+}
@@ -1,6 +1,8 @@
 package com.v1ct04.benchstack.webserver.impl;
 
 import com.google.common.util.concurrent.ListenableFuture;
+import com.v1ct04.benchstack.webserver.JsonSelection;
+import com.v1ct04.benchstack.webserver.PreparedRequest;
 import com.v1ct04.benchstack.webserver.RestfulHttpClient;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URIBuilder;
@@ -17,15 +19,32 @@ public abstract class AbstractRestfulHttpClient implements RestfulHttpClient {
     }
 
     @Override
-    public final ListenableFuture<JSONObject> doGet(String path, NameValuePair... params) {
-        return doGet(new URIBuilder(mBaseUri).setPath(path).setParameters(params).toString());
+    public final ListenableFuture<JSONObject> doGet(JsonSelection selection, String path, NameValuePair... params) {
+        return doGet(new URIBuilder(mBaseUri).setPath(path).setParameters(params).toString(), selection);
     }
 
     @Override
-    public final ListenableFuture<JSONObject> doPost(String path, JSONObject body) {
-        return doPost(new URIBuilder(mBaseUri).setPath(path).toString(), body.toString());
+    public final ListenableFuture<JSONObject> doPost(JsonSelection selection, String path, JSONObject body) {
+        return doPost(new URIBuilder(mBaseUri).setPath(path).toString(), body.toString(), selection);
     }
 
-    protected abstract ListenableFuture<JSONObject> doGet(String uri);
-    protected abstract ListenableFuture<JSONObject> doPost(String uri, String jsonContent);
+    @Override
+    public final ListenableFuture<JSONObject> doRequest(
+            JsonSelection selection, Method method, String pathAndQuery, String jsonBody) {
+        String uri = mBaseUri.resolve(pathAndQuery).toString();
+        return method == Method.POST ? doPost(uri, jsonBody, selection) : doGet(uri, selection);
+    }
+
+    @Override
+    public final ListenableFuture<JSONObject> send(JsonSelection selection, PreparedRequest request) {
+        return doSend(request, selection);
+    }
+
+    protected URI getBaseUri() {
+        return mBaseUri;
+    }
+
+    protected abstract ListenableFuture<JSONObject> doGet(String uri, JsonSelection selection);
+    protected abstract ListenableFuture<JSONObject> doPost(String uri, String jsonContent, JsonSelection selection);
+    protected abstract ListenableFuture<JSONObject> doSend(PreparedRequest request, JsonSelection selection);
 }
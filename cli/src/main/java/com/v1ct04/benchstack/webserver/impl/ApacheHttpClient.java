@@ -3,31 +3,114 @@ package com.v1ct04.benchstack.webserver.impl;
 import com.google.common.util.concurrent.AbstractFuture;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.HttpClientConfig;
+import com.v1ct04.benchstack.driver.ConnectionPoolStats;
+import com.v1ct04.benchstack.webserver.JsonSelection;
+import com.v1ct04.benchstack.webserver.PreparedRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.NoConnectionReuseStrategy;
 import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
 import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.nio.reactor.IOEventDispatch;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.nio.reactor.IOSession;
+import org.apache.http.pool.PoolStats;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 
 public class ApacheHttpClient extends AbstractRestfulHttpClient {
 
     private final CloseableHttpAsyncClient mClient;
+    private final PoolingNHttpClientConnectionManager mConnectionManager;
+    private final LongAdder mOpened = new LongAdder();
+    private final LongAdder mClosed = new LongAdder();
+
+    private final Executor mDecodeExecutor;
+    private final HttpHost mTarget;
 
     public ApacheHttpClient(URI baseUri) {
+        this(baseUri, MoreExecutors.directExecutor());
+    }
+
+    public ApacheHttpClient(URI baseUri, Executor decodeExecutor) {
+        this(baseUri, HttpClientConfig.getDefaultInstance(), decodeExecutor);
+    }
+
+    /**
+     * @param decodeExecutor Executor to decode responses on, instead of the I/O threads.
+     */
+    public ApacheHttpClient(URI baseUri, HttpClientConfig config, Executor decodeExecutor) {
         super(baseUri);
-        mClient = HttpAsyncClients.createDefault();
+        try {
+            mConnectionManager = new PoolingNHttpClientConnectionManager(new CountingIOReactor(
+                    IOReactorConfig.custom().setConnectTimeout(config.getConnectTimeoutMillis()).build()));
+        } catch (IOReactorException e) {
+            throw new UncheckedIOException(e);
+        }
+        mConnectionManager.setMaxTotal(limit(config.getMaxConnections()));
+        mConnectionManager.setDefaultMaxPerRoute(limit(config.getMaxConnectionsPerHost()));
+
+        HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
+                .setConnectionManager(mConnectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(config.getConnectTimeoutMillis())
+                        .setConnectionRequestTimeout(config.getRequestTimeoutMillis())
+                        .setSocketTimeout(config.getRequestTimeoutMillis())
+                        .build());
+        if (config.getKeepAlive()) {
+            // connections past the idle timeout are closed when next leased
+            long idleTimeoutMillis = config.getPooledConnectionIdleTimeoutMillis();
+            builder.setKeepAliveStrategy((response, context) -> idleTimeoutMillis);
+        } else {
+            builder.setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE);
+        }
+        mClient = builder.build();
         mClient.start();
+        mDecodeExecutor = decodeExecutor;
+        mTarget = URIUtils.extractHost(baseUri);
+    }
+
+    private static int limit(int maxConnections) {
+        return maxConnections == 0 ? Integer.MAX_VALUE : maxConnections;
+    }
+
+    /**
+     * Opened and closed connections are counted by the reactor, as the pool doesn't
+     * count them itself.
+     */
+    @Override
+    public ConnectionPoolStats getConnectionPoolStats() {
+        long closed = mClosed.sum();
+        long opened = mOpened.sum();
+        PoolStats stats = mConnectionManager.getTotalStats();
+        return ConnectionPoolStats.of(stats.getLeased(), stats.getAvailable(), stats.getPending(), opened, closed);
     }
 
     @Override
@@ -36,25 +119,47 @@ public class ApacheHttpClient extends AbstractRestfulHttpClient {
     }
 
     @Override
-    public ListenableFuture<JSONObject> doGet(String uri) {
-        return executeJsonRequest(new HttpGet(uri));
+    public ListenableFuture<JSONObject> doGet(String uri, JsonSelection selection) {
+        return executeJsonRequest(new HttpGet(uri), selection);
     }
 
     @Override
-    protected ListenableFuture<JSONObject> doPost(String uri, String jsonContent) {
+    protected ListenableFuture<JSONObject> doPost(String uri, String jsonContent, JsonSelection selection) {
         HttpPost post = new HttpPost(uri);
         post.setEntity(new StringEntity(jsonContent, ContentType.APPLICATION_JSON));
-        return executeJsonRequest(post);
+        return executeJsonRequest(post, selection);
+    }
+
+    @Override
+    protected ListenableFuture<JSONObject> doSend(PreparedRequest request, JsonSelection selection) {
+        HttpRequest httpRequest;
+        if (request.body == null) {
+            httpRequest = new BasicHttpRequest(request.method.name(), request.getPathAndQuery());
+        } else {
+            BasicHttpEntityEnclosingRequest post =
+                    new BasicHttpEntityEnclosingRequest(request.method.name(), request.getPathAndQuery());
+            post.setEntity(new ByteArrayEntity(request.body, ContentType.APPLICATION_JSON));
+            httpRequest = post;
+        }
+        ApacheFutureAdapter<HttpResponse> future = new ApacheFutureAdapter<>();
+        future.delegate = mClient.execute(mTarget, httpRequest, future.makeCallback());
+        return decode(future, selection);
     }
 
-    private ListenableFuture<JSONObject> executeJsonRequest(HttpUriRequest request) {
+    private ListenableFuture<JSONObject> executeJsonRequest(HttpUriRequest request, JsonSelection selection) {
         ApacheFutureAdapter<HttpResponse> future = new ApacheFutureAdapter<>();
         future.delegate = mClient.execute(request, future.makeCallback());
+        return decode(future, selection);
+    }
+
+    private ListenableFuture<JSONObject> decode(ListenableFuture<HttpResponse> future, JsonSelection selection) {
         return Futures.transform(future, (HttpResponse result) -> {
             InputStream content = result.getEntity().getContent();
-            JSONTokener tokener = new JSONTokener(content);
-            return Futures.immediateFuture(new JSONObject(tokener));
-        });
+            if (selection.isAll()) {
+                return Futures.immediateFuture(new JSONObject(new JSONTokener(content)));
+            }
+            return Futures.immediateFuture(selection.newDecoder().decode(content));
+        }, mDecodeExecutor);
     }
 
     private class ApacheFutureAdapter<Type> extends AbstractFuture<Type> {
@@ -84,4 +189,46 @@ public class ApacheHttpClient extends AbstractRestfulHttpClient {
             };
         }
     }
+
+    /**
+     * Reactor counting the connections as their sessions are opened and closed, by the
+     * client, by the server or by a failure alike.
+     */
+    private class CountingIOReactor extends DefaultConnectingIOReactor {
+        CountingIOReactor(IOReactorConfig config) throws IOReactorException {
+            super(config);
+        }
+
+        @Override
+        public void execute(IOEventDispatch dispatch) throws InterruptedIOException, IOReactorException {
+            super.execute(new IOEventDispatch() {
+                @Override
+                public void connected(IOSession session) {
+                    mOpened.increment();
+                    dispatch.connected(session);
+                }
+
+                @Override
+                public void inputReady(IOSession session) {
+                    dispatch.inputReady(session);
+                }
+
+                @Override
+                public void outputReady(IOSession session) {
+                    dispatch.outputReady(session);
+                }
+
+                @Override
+                public void timeout(IOSession session) {
+                    dispatch.timeout(session);
+                }
+
+                @Override
+                public void disconnected(IOSession session) {
+                    mClosed.increment();
+                    dispatch.disconnected(session);
+                }
+            });
+        }
+    }
 }
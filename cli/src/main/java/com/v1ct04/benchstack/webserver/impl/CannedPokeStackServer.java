@@ -0,0 +1,106 @@
+package com.v1ct04.benchstack.webserver.impl;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Embedded HTTP server answering the routes used by {@link PokeStackClient} with
+ * canned responses shaped like the ones of the real server, doing no work besides
+ * parsing the requests. Benchmarking it gives the ceiling of the driver itself, i.e.
+ * the highest load and the lowest latency the driver and its HTTP client can reach.
+ *
+ * Responses are rendered once per shape and then served as they are.
+ */
+public class CannedPokeStackServer extends EmbeddedHttpServer {
+
+    private static final int LIST_LENGTH = 20;
+
+    private final Map<String, byte[]> mResponses = new ConcurrentHashMap<>();
+
+    public CannedPokeStackServer(int threads) throws IOException {
+        super(threads, "canned-server");
+    }
+
+    @Override
+    protected void handle(Exchange exchange) {
+        String path = exchange.getPath();
+        String[] segments = path.split("/");
+        String key;
+        if (path.equals("/api/user/findOrCreate")) {
+            key = "user";
+        } else if (path.startsWith("/api/nearby/") && segments.length >= 5) {
+            // /api/nearby/:id/:itemType[/closest?count=:count]
+            String count = exchange.getQueryParameter("count");
+            key = "nearby:" + segments[4] + ":" + (count == null ? LIST_LENGTH : count);
+        } else if (path.endsWith("/pokemons")) {
+            key = "pokemons";
+        } else {
+            key = "result";
+        }
+        exchange.respond(mResponses.computeIfAbsent(key, k -> render(cannedBody(k))));
+    }
+
+    private static JSONObject cannedBody(String key) {
+        JSONObject data;
+        if (key.equals("user")) {
+            data = user();
+        } else if (key.startsWith("nearby:")) {
+            String[] parts = key.split(":");
+            int count;
+            try {
+                count = Math.min(Math.max(Integer.parseInt(parts[2]), 0), 1000);
+            } catch (NumberFormatException e) {
+                count = LIST_LENGTH;
+            }
+            data = new JSONObject().put(parts[1], items(parts[1], count));
+        } else if (key.equals("pokemons")) {
+            data = new JSONObject().put("pokemon", items("pokemon", LIST_LENGTH));
+        } else {
+            data = new JSONObject().put("user", user());
+        }
+        return new JSONObject().put("success", 1).put("data", data);
+    }
+
+    private static JSONObject user() {
+        return new JSONObject()
+                .put("id", objectId(0))
+                .put("name", "Trainer")
+                .put("level", 12)
+                .put("xp", 4200)
+                .put("location", location(0))
+                .put("bag", new JSONObject()
+                        .put("pokeball", 10)
+                        .put("greatball", 4)
+                        .put("revive", 5)
+                        .put("lure", 5));
+    }
+
+    private static JSONArray items(String itemType, int count) {
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            items.put(new JSONObject()
+                    .put("_id", objectId(i + 1))
+                    .put("type", itemType)
+                    .put("number", i % 151 + 1)
+                    .put("name", itemType + " #" + i)
+                    .put("level", i % 40 + 1)
+                    .put("hp", 100 + i)
+                    .put("location", location(i)));
+        }
+        return items;
+    }
+
+    private static JSONObject location(int i) {
+        return new JSONObject()
+                .put("type", "Point")
+                .put("coordinates", new JSONArray().put(-46.6 - i * 1e-4).put(-23.5 + i * 1e-4));
+    }
+
+    private static String objectId(int i) {
+        return String.format("57f4e5c3a8b1d2f0e4c3%04x", i);
+    }
+}
@@ -0,0 +1,391 @@
+package com.v1ct04.benchstack.webserver.impl;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Minimal HTTP/1.1 server on loopback, for the embedded stand-ins of the web server.
+ * Each of the server threads runs its own selector, all of them accepting connections
+ * from the same socket. Connections are persistent and may pipeline requests.
+ *
+ * Requests are handed to {@link #handle} on the thread of their connection, and may be
+ * answered from any thread, then or later. Responses are sent in the order of the
+ * requests of each connection.
+ */
+public abstract class EmbeddedHttpServer implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddedHttpServer.class);
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_HEADERS_LENGTH = 8 * 1024;
+    private static final int MAX_BODY_LENGTH = 1024 * 1024;
+    private static final byte[] NO_BODY = new byte[0];
+
+    private final ServerSocketChannel mServerChannel;
+    private final List<Worker> mWorkers = new ArrayList<>();
+    private final URI mBaseUri;
+    private volatile boolean mClosed = false;
+
+    private final LongAdder mRequests = new LongAdder();
+
+    protected EmbeddedHttpServer(int threads, String threadName) throws IOException {
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        mServerChannel.configureBlocking(false);
+        InetSocketAddress address = (InetSocketAddress) mServerChannel.getLocalAddress();
+        mBaseUri = URI.create("http://" + address.getHostString() + ":" + address.getPort());
+
+        for (int i = 0; i < threads; i++) {
+            mWorkers.add(new Worker(threadName + "-" + i));
+        }
+        mWorkers.forEach(w -> w.mThread.start());
+    }
+
+    public URI getBaseUri() {
+        return mBaseUri;
+    }
+
+    /**
+     * @return Requests received since the server was started.
+     */
+    public long getRequestCount() {
+        return mRequests.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mClosed = true;
+        mWorkers.forEach(w -> w.mSelector.wakeup());
+        for (Worker worker : mWorkers) {
+            try {
+                worker.mThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        mServerChannel.close();
+    }
+
+    /**
+     * Handles a request, answering it with {@link Exchange#respond} now or later from
+     * any thread. Called on the thread of the connection, so shouldn't block.
+     */
+    protected abstract void handle(Exchange exchange);
+
+    /**
+     * @return The whole response, headers included, with the given JSON body.
+     */
+    protected static byte[] render(JSONObject body) {
+        byte[] content = body.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] headers = ("HTTP/1.1 200 OK\r\n" +
+                "Content-Type: application/json; charset=utf-8\r\n" +
+                "Content-Length: " + content.length + "\r\n" +
+                "\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] response = new byte[headers.length + content.length];
+        System.arraycopy(headers, 0, response, 0, headers.length);
+        System.arraycopy(content, 0, response, headers.length, content.length);
+        return response;
+    }
+
+    /**
+     * A request received by the server, and its response once there is one.
+     */
+    protected static class Exchange {
+        public final String method;
+        /**
+         * Path and query of the request, as sent.
+         */
+        public final String target;
+        public final byte[] body;
+
+        private final Connection mConnection;
+        private final boolean mClose;
+        private volatile byte[] mResponse;
+
+        private Exchange(Connection connection, String method, String target, byte[] body, boolean close) {
+            mConnection = connection;
+            this.method = method;
+            this.target = target;
+            this.body = body;
+            mClose = close;
+        }
+
+        public String getPath() {
+            int queryStart = target.indexOf('?');
+            return queryStart < 0 ? target : target.substring(0, queryStart);
+        }
+
+        /**
+         * @return Value of the given parameter of the query, not decoded, or null if none.
+         */
+        public String getQueryParameter(String name) {
+            int queryStart = target.indexOf('?');
+            if (queryStart < 0) return null;
+            for (String parameter : target.substring(queryStart + 1).split("&")) {
+                if (parameter.startsWith(name + "=")) return parameter.substring(name.length() + 1);
+            }
+            return null;
+        }
+
+        /**
+         * @param response The whole response, headers included, e.g. from {@link #render}.
+         */
+        public void respond(byte[] response) {
+            mResponse = response;
+            Worker worker = mConnection.mWorker;
+            if (Thread.currentThread() != worker.mThread) {
+                worker.mReady.add(mConnection);
+                worker.mSelector.wakeup();
+            }
+            // else written once the requests read are handled
+        }
+    }
+
+    private class Worker {
+        private final Selector mSelector;
+        private final Thread mThread;
+        private final Queue<Connection> mReady = new ConcurrentLinkedQueue<>();
+
+        private final ByteBuffer mReadBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private final byte[] mReadBytes = new byte[READ_BUFFER_SIZE];
+
+        Worker(String name) throws IOException {
+            mSelector = Selector.open();
+            mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+            mThread = new Thread(this::run, name);
+            mThread.setDaemon(true);
+        }
+
+        private void run() {
+            try {
+                while (!mClosed) {
+                    mSelector.select();
+                    for (SelectionKey key : mSelector.selectedKeys()) {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) connection.read(mReadBuffer, mReadBytes);
+                            if (key.isValid() && key.isWritable()) connection.flush();
+                        } catch (IOException e) {
+                            LOGGER.trace("Closing connection after failure", e);
+                            connection.close();
+                        }
+                    }
+                    mSelector.selectedKeys().clear();
+
+                    Connection ready;
+                    while ((ready = mReady.poll()) != null) {
+                        try {
+                            ready.writeResponses();
+                        } catch (IOException e) {
+                            LOGGER.trace("Closing connection after failure", e);
+                            ready.close();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.error("Embedded server failed", e);
+            } finally {
+                for (SelectionKey key : mSelector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+                try {
+                    mSelector.close();
+                } catch (IOException e) {
+                    LOGGER.warn("Failed closing selector", e);
+                }
+            }
+        }
+
+        private void accept() throws IOException {
+            // every thread is woken up by each connection, but only one accepts it
+            SocketChannel channel = mServerChannel.accept();
+            if (channel == null) return;
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(this, channel);
+            connection.mKey = channel.register(mSelector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    /**
+     * A persistent connection, reading the headers of each request into a buffer and
+     * then its body, if any.
+     */
+    private class Connection {
+        private final Worker mWorker;
+        private final SocketChannel mChannel;
+        private SelectionKey mKey;
+
+        private byte[] mHeaders = new byte[1024];
+        private int mHeadersLength = 0;
+        private String mMethod;
+        private String mTarget;
+        private boolean mClose;
+        private byte[] mBody;
+        private int mBodyLength = -1;
+
+        private final ArrayDeque<Exchange> mExchanges = new ArrayDeque<>();
+        private boolean mCloseAfterWrite = false;
+        private ByteBuffer mOut = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        Connection(Worker worker, SocketChannel channel) {
+            mWorker = worker;
+            mChannel = channel;
+        }
+
+        void read(ByteBuffer buffer, byte[] bytes) throws IOException {
+            buffer.clear();
+            int read = mChannel.read(buffer);
+            if (read < 0) {
+                close();
+                return;
+            }
+            buffer.flip();
+            buffer.get(bytes, 0, read);
+
+            int i = 0;
+            while (i < read) {
+                if (mBody != null) {
+                    int copied = Math.min(mBody.length - mBodyLength, read - i);
+                    System.arraycopy(bytes, i, mBody, mBodyLength, copied);
+                    i += copied;
+                    mBodyLength += copied;
+                    if (mBodyLength == mBody.length) acceptRequest();
+                    continue;
+                }
+                byte b = bytes[i++];
+                if (mHeadersLength == mHeaders.length) {
+                    if (mHeadersLength == MAX_HEADERS_LENGTH) {
+                        throw new IOException("Request headers too long");
+                    }
+                    mHeaders = Arrays.copyOf(mHeaders, Math.min(mHeadersLength * 2, MAX_HEADERS_LENGTH));
+                }
+                mHeaders[mHeadersLength++] = b;
+                if (b == '\n' && endsWithBlankLine()) {
+                    parseHeaders();
+                    mHeadersLength = 0;
+                    if (mBody == null) acceptRequest();
+                }
+            }
+            writeResponses();
+        }
+
+        private boolean endsWithBlankLine() {
+            int n = mHeadersLength;
+            return (n >= 2 && mHeaders[n - 2] == '\n')
+                    || (n >= 4 && mHeaders[n - 2] == '\r' && mHeaders[n - 3] == '\n');
+        }
+
+        private void parseHeaders() throws IOException {
+            String headers = new String(mHeaders, 0, mHeadersLength, StandardCharsets.ISO_8859_1);
+            int lineEnd = headers.indexOf('\n');
+            String[] requestLine = headers.substring(0, lineEnd).trim().split(" ");
+            if (requestLine.length != 3) {
+                throw new IOException("Invalid request line: " + headers.substring(0, lineEnd));
+            }
+            mMethod = requestLine[0];
+            mTarget = requestLine[1];
+            mClose = requestLine[2].equals("HTTP/1.0");
+            long contentLength = 0;
+            for (String header : headers.substring(lineEnd + 1).split("\r?\n")) {
+                int colon = header.indexOf(':');
+                if (colon < 0) continue;
+                String name = header.substring(0, colon).trim();
+                String value = header.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    contentLength = Long.parseLong(value);
+                } else if (name.equalsIgnoreCase("Connection") && value.equalsIgnoreCase("close")) {
+                    mClose = true;
+                }
+            }
+            if (contentLength > MAX_BODY_LENGTH) {
+                throw new IOException("Request body too long: " + contentLength);
+            }
+            if (contentLength > 0) {
+                mBody = new byte[(int) contentLength];
+                mBodyLength = 0;
+            }
+        }
+
+        private void acceptRequest() {
+            Exchange exchange = new Exchange(this, mMethod, mTarget, mBody != null ? mBody : NO_BODY, mClose);
+            mBody = null;
+            mExchanges.add(exchange);
+            mRequests.increment();
+            handle(exchange);
+        }
+
+        /**
+         * Writes the responses available in the order of the requests.
+         */
+        void writeResponses() throws IOException {
+            if (!mChannel.isOpen()) return;
+            Exchange exchange;
+            while ((exchange = mExchanges.peek()) != null && exchange.mResponse != null) {
+                mExchanges.poll();
+                byte[] response = exchange.mResponse;
+                if (mOut.remaining() < response.length) {
+                    ByteBuffer out = ByteBuffer.allocate(Math.max(mOut.capacity() * 2, mOut.position() + response.length));
+                    mOut.flip();
+                    out.put(mOut);
+                    mOut = out;
+                }
+                mOut.put(response);
+                if (exchange.mClose) {
+                    mCloseAfterWrite = true;
+                    break;
+                }
+            }
+            flush();
+        }
+
+        void flush() throws IOException {
+            mOut.flip();
+            mChannel.write(mOut);
+            mOut.compact();
+            if (mOut.position() > 0) {
+                mKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } else {
+                mKey.interestOps(SelectionKey.OP_READ);
+                if (mCloseAfterWrite) close();
+            }
+        }
+
+        void close() {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                LOGGER.trace("Failed closing connection", e);
+            }
+        }
+    }
+}
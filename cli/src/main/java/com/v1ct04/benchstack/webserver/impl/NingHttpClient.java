@@ -2,48 +2,173 @@ package com.v1ct04.benchstack.webserver.impl;
 
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.HttpClientConfig;
+import com.v1ct04.benchstack.driver.ConnectionPoolStats;
+import com.v1ct04.benchstack.webserver.JsonSelection;
+import com.v1ct04.benchstack.webserver.PreparedRequest;
+import com.v1ct04.benchstack.webserver.SelectiveJsonDecoder;
 import com.v1ct04.benchstack.webserver.WebServerResponseException;
+import io.netty.channel.Channel;
 import io.netty.handler.codec.http.HttpHeaders;
-import org.asynchttpclient.AsyncHttpClient;
-import org.asynchttpclient.DefaultAsyncHttpClient;
-import org.asynchttpclient.Response;
+import io.netty.util.HashedWheelTimer;
+import org.asynchttpclient.*;
+import org.asynchttpclient.channel.ChannelPool;
+import org.asynchttpclient.channel.ChannelPoolPartitionSelector;
+import org.asynchttpclient.netty.channel.DefaultChannelPool;
+import org.asynchttpclient.uri.Uri;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import static org.asynchttpclient.extras.guava.ListenableFutureAdapter.asGuavaFuture;
 
 public class NingHttpClient extends AbstractRestfulHttpClient {
 
+    private static final int POOL_CLEANER_PERIOD_MILLIS = 1000;
+
     private final AsyncHttpClient mClient;
+    private final Executor mDecodeExecutor;
+    private final HashedWheelTimer mTimer;
+
+    // Every channel opened by the client while still open, and the ones of them kept
+    // in the pool for reuse.
+    private final Set<Channel> mOpen = ConcurrentHashMap.newKeySet();
+    private final Set<Channel> mIdle = ConcurrentHashMap.newKeySet();
+    private final LongAdder mOpened = new LongAdder();
+    private final LongAdder mClosed = new LongAdder();
+    // Requests sent and not yet completed, with or without a connection.
+    private final AtomicInteger mInFlight = new AtomicInteger();
 
     public NingHttpClient(URI baseUri) {
+        this(baseUri, null);
+    }
+
+    public NingHttpClient(URI baseUri, Executor decodeExecutor) {
+        this(baseUri, HttpClientConfig.getDefaultInstance(), decodeExecutor);
+    }
+
+    /**
+     * @param decodeExecutor Executor to decode responses on, or null to decode them on
+     *                       the I/O threads. Selective responses are then decoded as
+     *                       their bytes arrive, instead of once they're complete.
+     */
+    public NingHttpClient(URI baseUri, HttpClientConfig config, Executor decodeExecutor) {
         super(baseUri);
-        mClient = new DefaultAsyncHttpClient();
+        mTimer = new HashedWheelTimer(
+                new ThreadFactoryBuilder().setNameFormat("ning-timer-%d").setDaemon(true).build());
+        DefaultAsyncHttpClientConfig.Builder builder = new DefaultAsyncHttpClientConfig.Builder()
+                .setMaxConnections(limit(config.getMaxConnections()))
+                .setMaxConnectionsPerHost(limit(config.getMaxConnectionsPerHost()))
+                .setKeepAlive(config.getKeepAlive())
+                .setPooledConnectionIdleTimeout(config.getPooledConnectionIdleTimeoutMillis())
+                .setConnectTimeout(config.getConnectTimeoutMillis())
+                .setRequestTimeout(config.getRequestTimeoutMillis())
+                .setNettyTimer(mTimer)
+                .setHttpAdditionalChannelInitializer(this::track);
+        if (config.getKeepAlive()) {
+            builder.setChannelPool(new TrackingChannelPool(new DefaultChannelPool(
+                    config.getPooledConnectionIdleTimeoutMillis(), -1, mTimer, POOL_CLEANER_PERIOD_MILLIS)));
+        }
+        mClient = new DefaultAsyncHttpClient(builder.build());
+        mDecodeExecutor = decodeExecutor;
+    }
+
+    private static int limit(int maxConnections) {
+        return maxConnections == 0 ? -1 : maxConnections;
+    }
+
+    private void track(Channel channel) {
+        mOpen.add(channel);
+        mOpened.increment();
+        channel.closeFuture().addListener(f -> {
+            mOpen.remove(channel);
+            mIdle.remove(channel);
+            mClosed.increment();
+        });
+    }
+
+    /**
+     * The client doesn't queue requests for connections, failing the ones over the
+     * limits instead, so the pending requests are the ones waiting for their
+     * connection to be established.
+     */
+    @Override
+    public ConnectionPoolStats getConnectionPoolStats() {
+        long closed = mClosed.sum();
+        long opened = mOpened.sum();
+        int active = 0;
+        for (Channel channel : mOpen) {
+            if (channel.isActive() && !mIdle.contains(channel)) active++;
+        }
+        int pending = Math.max(mInFlight.get() - active, 0);
+        return ConnectionPoolStats.of(active, mIdle.size(), pending, opened, closed);
     }
 
     @Override
     public void close() throws IOException {
         mClient.close();
+        mTimer.stop();
     }
 
     @Override
-    protected ListenableFuture<JSONObject> doGet(String uri) {
-        return toJsonFuture(mClient.prepareGet(uri).execute());
+    protected ListenableFuture<JSONObject> doGet(String uri, JsonSelection selection) {
+        return execute(mClient.prepareGet(uri).build(), selection);
     }
 
     @Override
-    protected ListenableFuture<JSONObject> doPost(String uri, String jsonContent) {
-        return toJsonFuture(mClient.preparePost(uri)
+    protected ListenableFuture<JSONObject> doPost(String uri, String jsonContent, JsonSelection selection) {
+        return execute(mClient.preparePost(uri)
                 .setHeader(HttpHeaders.Names.CONTENT_TYPE, "application/json")
                 .setBody(jsonContent)
-                .execute());
+                .build(), selection);
     }
 
-    private static ListenableFuture<JSONObject> toJsonFuture(
-            org.asynchttpclient.ListenableFuture<Response> future) {
+    @Override
+    protected ListenableFuture<JSONObject> doSend(PreparedRequest request, JsonSelection selection) {
+        URI base = getBaseUri();
+        RequestBuilder builder = new RequestBuilder(request.method.name()).setUri(
+                new Uri(base.getScheme(), null, base.getHost(), base.getPort(), request.path, request.query));
+        if (request.body != null) {
+            builder.setHeader(HttpHeaders.Names.CONTENT_TYPE, "application/json").setBody(request.body);
+        }
+        return execute(builder.build(), selection);
+    }
+
+    private ListenableFuture<JSONObject> execute(Request request, JsonSelection selection) {
+        mInFlight.incrementAndGet();
+        ListenableFuture<JSONObject> future = executeDecoding(request, selection);
+        future.addListener(mInFlight::decrementAndGet, MoreExecutors.directExecutor());
+        return future;
+    }
+
+    private ListenableFuture<JSONObject> executeDecoding(Request request, JsonSelection selection) {
+        if (selection.isAll()) {
+            return toJsonFuture(mClient.executeRequest(request));
+        }
+        if (mDecodeExecutor == null) {
+            return asGuavaFuture(mClient.executeRequest(request, new StreamingHandler(selection.newDecoder())));
+        }
+        return Futures.transform(
+                asGuavaFuture(mClient.executeRequest(request, new BufferingHandler())),
+                (BufferedBody body) -> {
+                    assert body != null;
+                    return body.decode(selection.newDecoder());
+                },
+                mDecodeExecutor);
+    }
+
+    private ListenableFuture<JSONObject> toJsonFuture(org.asynchttpclient.ListenableFuture<Response> future) {
         return Futures.transform(asGuavaFuture(future),
                 (Response r) -> {
                     assert r != null;
@@ -53,6 +178,154 @@ public class NingHttpClient extends AbstractRestfulHttpClient {
                         throw new WebServerResponseException(r.getUri().getPath(),
                                 "Invalid JSON: " + r.getResponseBody(), ex);
                     }
-                });
+                },
+                mDecodeExecutor != null ? mDecodeExecutor : MoreExecutors.directExecutor());
+    }
+
+    private static WebServerResponseException invalidJson(String path, JSONException ex) {
+        return new WebServerResponseException(path, "Invalid JSON: " + ex.getMessage(), ex);
+    }
+
+    /**
+     * Keeps track of the channels in the pool, as the pool itself doesn't expose them.
+     */
+    private class TrackingChannelPool implements ChannelPool {
+        private final ChannelPool mDelegate;
+
+        TrackingChannelPool(ChannelPool delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public boolean offer(Channel channel, Object partitionKey) {
+            // added before the channel can be polled by another request
+            mIdle.add(channel);
+            if (mDelegate.offer(channel, partitionKey)) return true;
+            mIdle.remove(channel);
+            return false;
+        }
+
+        @Override
+        public Channel poll(Object partitionKey) {
+            Channel channel = mDelegate.poll(partitionKey);
+            if (channel != null) mIdle.remove(channel);
+            return channel;
+        }
+
+        @Override
+        public boolean removeAll(Channel channel) {
+            mIdle.remove(channel);
+            return mDelegate.removeAll(channel);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return mDelegate.isOpen();
+        }
+
+        @Override
+        public void destroy() {
+            mDelegate.destroy();
+            mIdle.clear();
+        }
+
+        @Override
+        public void flushPartition(Object partitionKey) {
+            mDelegate.flushPartition(partitionKey);
+        }
+
+        @Override
+        public void flushPartitions(ChannelPoolPartitionSelector selector) {
+            mDelegate.flushPartitions(selector);
+        }
+    }
+
+    private static abstract class BodyHandler<T> implements AsyncHandler<T> {
+        String mPath;
+
+        @Override
+        public void onThrowable(Throwable t) {
+            // the future fails with it
+        }
+
+        @Override
+        public State onStatusReceived(HttpResponseStatus status) {
+            mPath = status.getUri().getPath();
+            return State.CONTINUE;
+        }
+
+        @Override
+        public State onHeadersReceived(HttpResponseHeaders headers) {
+            return State.CONTINUE;
+        }
+    }
+
+    /**
+     * Decodes the body as each of its parts is received.
+     */
+    private static class StreamingHandler extends BodyHandler<JSONObject> {
+        private final SelectiveJsonDecoder mDecoder;
+
+        StreamingHandler(SelectiveJsonDecoder decoder) {
+            mDecoder = decoder;
+        }
+
+        @Override
+        public State onBodyPartReceived(HttpResponseBodyPart part) {
+            try {
+                mDecoder.feed(part.getBodyByteBuffer());
+            } catch (JSONException ex) {
+                throw invalidJson(mPath, ex);
+            }
+            return State.CONTINUE;
+        }
+
+        @Override
+        public JSONObject onCompleted() {
+            try {
+                return mDecoder.finish();
+            } catch (JSONException ex) {
+                throw invalidJson(mPath, ex);
+            }
+        }
+    }
+
+    /**
+     * Keeps the parts of the body as received, to be decoded on the decode executor.
+     */
+    private static class BufferingHandler extends BodyHandler<BufferedBody> {
+        private final List<byte[]> mParts = new ArrayList<>();
+
+        @Override
+        public State onBodyPartReceived(HttpResponseBodyPart part) {
+            mParts.add(part.getBodyPartBytes());
+            return State.CONTINUE;
+        }
+
+        @Override
+        public BufferedBody onCompleted() {
+            return new BufferedBody(mPath, mParts);
+        }
+    }
+
+    private static class BufferedBody {
+        private final String mPath;
+        private final List<byte[]> mParts;
+
+        BufferedBody(String path, List<byte[]> parts) {
+            mPath = path;
+            mParts = parts;
+        }
+
+        JSONObject decode(SelectiveJsonDecoder decoder) {
+            try {
+                for (byte[] part : mParts) {
+                    decoder.feed(part, 0, part.length);
+                }
+                return decoder.finish();
+            } catch (JSONException ex) {
+                throw invalidJson(mPath, ex);
+            }
+        }
     }
 }
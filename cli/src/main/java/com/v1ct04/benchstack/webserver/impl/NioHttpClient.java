@@ -0,0 +1,922 @@
+package com.v1ct04.benchstack.webserver.impl;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.v1ct04.benchstack.concurrent.Interruptibles;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.HttpClientConfig;
+import com.v1ct04.benchstack.driver.ConnectionPoolStats;
+import com.v1ct04.benchstack.webserver.JsonSelection;
+import com.v1ct04.benchstack.webserver.PreparedRequest;
+import com.v1ct04.benchstack.webserver.RestfulHttpClient.Method;
+import com.v1ct04.benchstack.webserver.SelectiveJsonDecoder;
+import com.v1ct04.benchstack.webserver.WebServerResponseException;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTP/1.1 client built directly on a NIO selector, made for generating load rather
+ * than for general use. A single I/O thread keeps a fixed set of persistent
+ * connections to the server, writes requests straight from their paths and bodies
+ * into pooled direct buffers, and decodes the selected fields of the responses as
+ * their bytes arrive, so a request costs little more than the bytes it sends and the
+ * objects its response is decoded into.
+ *
+ * Each connection may send several requests before reading their responses (HTTP/1.1
+ * pipelining), and requests over the capacity of the connections wait for one in
+ * order. Only what a server under test needs is supported, i.e. no TLS, redirects or
+ * proxies. Futures complete on the I/O thread, so their listeners must not block it.
+ *
+ * Connections aren't closed for being idle, so the server may close them first. The
+ * requests it can't have answered then are sent again on another connection, see
+ * {@link Connection#closedByServer}.
+ */
+public class NioHttpClient extends AbstractRestfulHttpClient {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioHttpClient.class);
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+    // Longest the I/O thread blocks in the selector, bounding how late timeouts fire.
+    private static final long SELECT_TIMEOUT_MILLIS = 100;
+
+    private static final byte[][] METHODS = new byte[Method.values().length][];
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] JSON_CONTENT_LENGTH = ascii("Content-Type: application/json\r\nContent-Length: ");
+    private static final byte[] CONNECTION_CLOSE = ascii("Connection: close\r\n");
+
+    static {
+        for (Method method : Method.values()) {
+            METHODS[method.ordinal()] = ascii(method.name());
+        }
+    }
+
+    // States of the response parser of a connection, the ones up to TRAILERS reading lines.
+    private static final int STATUS_LINE = 0;
+    private static final int HEADERS = 1;
+    private static final int CHUNK_SIZE = 2;
+    private static final int CHUNK_END = 3; // CRLF after the data of a chunk
+    private static final int TRAILERS = 4;
+    private static final int BODY = 5; // of a known length, or up to the end of a chunk
+    private static final int BODY_UNTIL_CLOSE = 6;
+
+    // States of a connection.
+    private static final int CLOSED = 0;
+    private static final int CONNECTING = 1;
+    private static final int OPEN = 2;
+
+    private final InetSocketAddress mAddress;
+    // Constant part of the request headers: " HTTP/1.1\r\nHost: <host>\r\n"
+    private final byte[] mVersionAndHost;
+    private final boolean mKeepAlive;
+    private final int mPipelineDepth;
+    private final long mConnectTimeoutNanos;
+    private final long mRequestTimeoutNanos;
+
+    private final Selector mSelector;
+    private final Thread mIoThread;
+    private final Connection[] mConnections;
+
+    // Requests submitted from any thread, until moved by the I/O thread to mPending.
+    private final Queue<Exchange> mSubmitted = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mWakeupPending = new AtomicBoolean();
+    private volatile boolean mShutdown = false;
+
+    // Confined to the I/O thread: requests waiting for a connection, oldest first.
+    private final ArrayDeque<Exchange> mPending = new ArrayDeque<>();
+    private final BufferPool mBuffers = new BufferPool();
+    private final byte[] mReadBytes = new byte[BUFFER_SIZE];
+    private int mNextConnection = 0;
+
+    // Requests either submitted or pending, and connections opened and closed since
+    // the client was created.
+    private final AtomicInteger mWaiting = new AtomicInteger();
+    private final LongAdder mOpened = new LongAdder();
+    private final LongAdder mClosed = new LongAdder();
+
+    public NioHttpClient(URI baseUri) {
+        this(baseUri, HttpClientConfig.getDefaultInstance());
+    }
+
+    public NioHttpClient(URI baseUri, HttpClientConfig config) {
+        super(baseUri);
+        if (!"http".equals(baseUri.getScheme())) {
+            throw new IllegalArgumentException("Only plain HTTP is supported: " + baseUri);
+        }
+        int port = baseUri.getPort() == -1 ? 80 : baseUri.getPort();
+        mAddress = new InetSocketAddress(baseUri.getHost(), port);
+        mVersionAndHost = ascii(" HTTP/1.1\r\nHost: " + baseUri.getHost() + ":" + port + "\r\n");
+        mKeepAlive = config.getKeepAlive();
+        mPipelineDepth = mKeepAlive ? Math.max(config.getPipelineDepth(), 1) : 1;
+        mConnectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getConnectTimeoutMillis());
+        mRequestTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getRequestTimeoutMillis());
+
+        mConnections = new Connection[Math.max(config.getNioConnections(), 1)];
+        for (int i = 0; i < mConnections.length; i++) {
+            mConnections[i] = new Connection();
+        }
+        try {
+            mSelector = Selector.open();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        mIoThread = new Thread(this::run, "nio-http");
+        mIoThread.setDaemon(true);
+        mIoThread.start();
+    }
+
+    /**
+     * Fails the requests not yet completed and closes every connection. Called from the
+     * I/O thread, e.g. by a listener, it returns before they're failed.
+     */
+    @Override
+    public void close() throws IOException {
+        mShutdown = true;
+        if (Thread.currentThread() == mIoThread) return;
+        mSelector.wakeup();
+        Interruptibles.uninterruptibly(mIoThread::join);
+    }
+
+    @Override
+    public ConnectionPoolStats getConnectionPoolStats() {
+        long closed = mClosed.sum();
+        long opened = mOpened.sum();
+        int active = 0, idle = 0;
+        for (Connection connection : mConnections) {
+            if (connection.mState != OPEN) continue;
+            if (connection.mInFlightCount > 0) {
+                active++;
+            } else {
+                idle++;
+            }
+        }
+        return ConnectionPoolStats.of(active, idle, mWaiting.get(), opened, closed);
+    }
+
+    @Override
+    protected ListenableFuture<JSONObject> doGet(String uri, JsonSelection selection) {
+        URI parsed = URI.create(uri);
+        return submit(Method.GET, parsed.getRawPath(), parsed.getRawQuery(), null, selection);
+    }
+
+    @Override
+    protected ListenableFuture<JSONObject> doPost(String uri, String jsonContent, JsonSelection selection) {
+        URI parsed = URI.create(uri);
+        return submit(Method.POST, parsed.getRawPath(), parsed.getRawQuery(),
+                jsonContent.getBytes(StandardCharsets.UTF_8), selection);
+    }
+
+    @Override
+    protected ListenableFuture<JSONObject> doSend(PreparedRequest request, JsonSelection selection) {
+        return submit(request.method, request.path, request.query, request.body, selection);
+    }
+
+    private ListenableFuture<JSONObject> submit(
+            Method method, String path, String query, byte[] body, JsonSelection selection) {
+        if (path == null || path.isEmpty()) path = "/";
+        Exchange exchange;
+        try {
+            exchange = new Exchange(method, path, query, body, selection.newDecoder());
+        } catch (IllegalArgumentException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        if (mShutdown) {
+            return Futures.immediateFailedFuture(new IOException("Client closed"));
+        }
+        mWaiting.incrementAndGet();
+        mSubmitted.add(exchange);
+        if (mShutdown) {
+            // closed concurrently, the I/O thread may have failed the pending requests already
+            failSubmitted(new IOException("Client closed"));
+        } else if (Thread.currentThread() != mIoThread && !mWakeupPending.getAndSet(true)) {
+            mSelector.wakeup();
+        }
+        return exchange.mFuture;
+    }
+
+    /**
+     * Fails the requests submitted but not yet moved to mPending, from any thread.
+     */
+    private void failSubmitted(Throwable cause) {
+        Exchange exchange;
+        while ((exchange = mSubmitted.poll()) != null) {
+            mWaiting.decrementAndGet();
+            exchange.fail(cause);
+        }
+    }
+
+    private void run() {
+        try {
+            while (!mShutdown) {
+                if (mSubmitted.isEmpty()) {
+                    mSelector.select(SELECT_TIMEOUT_MILLIS);
+                } else {
+                    mSelector.selectNow();
+                }
+                mWakeupPending.set(false);
+
+                Set<SelectionKey> keys = mSelector.selectedKeys();
+                for (SelectionKey key : keys) {
+                    ((Connection) key.attachment()).handle(key);
+                }
+                keys.clear();
+
+                Exchange exchange;
+                while ((exchange = mSubmitted.poll()) != null) {
+                    mPending.add(exchange);
+                }
+                dispatch();
+                expire(System.nanoTime());
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("NIO HTTP client failed", e);
+        } finally {
+            mShutdown = true;
+            IOException closed = new IOException("Client closed");
+            for (Connection connection : mConnections) {
+                connection.close(closed);
+            }
+            failPending(closed);
+            try {
+                mSelector.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed closing selector", e);
+            }
+        }
+    }
+
+    /**
+     * Assigns the pending requests to the least loaded connections with room for them,
+     * opening closed ones for the requests left, and writes the requests assigned.
+     */
+    private void dispatch() {
+        while (!mPending.isEmpty()) {
+            Connection connection = leastLoadedConnection();
+            if (connection == null) {
+                openConnections();
+                break;
+            }
+            mWaiting.decrementAndGet();
+            connection.assign(mPending.poll());
+        }
+        for (Connection connection : mConnections) {
+            connection.flushAssigned();
+        }
+    }
+
+    private Connection leastLoadedConnection() {
+        Connection leastLoaded = null;
+        for (int i = 0; i < mConnections.length; i++) {
+            Connection connection = mConnections[(mNextConnection + i) % mConnections.length];
+            if (connection.mState != OPEN || connection.mInFlightCount >= mPipelineDepth) continue;
+            if (leastLoaded == null || connection.mInFlightCount < leastLoaded.mInFlightCount) {
+                leastLoaded = connection;
+            }
+        }
+        mNextConnection = (mNextConnection + 1) % mConnections.length;
+        return leastLoaded;
+    }
+
+    private void openConnections() {
+        int needed = (mPending.size() + mPipelineDepth - 1) / mPipelineDepth;
+        for (Connection connection : mConnections) {
+            if (connection.mState == CONNECTING) needed--;
+        }
+        for (Connection connection : mConnections) {
+            if (needed <= 0) break;
+            if (connection.mState == CLOSED) {
+                connection.open();
+                needed--;
+            }
+        }
+    }
+
+    private void expire(long now) {
+        while (!mPending.isEmpty() && mPending.peek().mDeadline - now < 0) {
+            mWaiting.decrementAndGet();
+            mPending.poll().fail(new TimeoutException("Request timed out waiting for a connection"));
+        }
+        for (Connection connection : mConnections) {
+            connection.expire(now);
+        }
+    }
+
+    private void failPending(Throwable cause) {
+        Exchange exchange;
+        while ((exchange = mPending.poll()) != null) {
+            mWaiting.decrementAndGet();
+            exchange.fail(cause);
+        }
+        failSubmitted(cause);
+    }
+
+    private boolean hasConnectionOpenOrConnecting() {
+        for (Connection connection : mConnections) {
+            if (connection.mState != CLOSED) return true;
+        }
+        return false;
+    }
+
+    private void writeHeaders(Exchange exchange, ByteBuffer buffer) {
+        buffer.put(METHODS[exchange.mMethod.ordinal()]).put((byte) ' ');
+        putAscii(buffer, exchange.mPath);
+        if (exchange.mQuery != null) {
+            buffer.put((byte) '?');
+            putAscii(buffer, exchange.mQuery);
+        }
+        buffer.put(mVersionAndHost);
+        if (!mKeepAlive) buffer.put(CONNECTION_CLOSE);
+        if (exchange.mBody != null) {
+            buffer.put(JSON_CONTENT_LENGTH);
+            putDecimal(buffer, exchange.mBody.length);
+            buffer.put(CRLF);
+        }
+        buffer.put(CRLF);
+    }
+
+    private int headersLength(Method method, String path, String query, byte[] body) {
+        int length = METHODS[method.ordinal()].length + 1 + asciiLength(path) + mVersionAndHost.length + 2;
+        if (query != null) length += 1 + asciiLength(query);
+        if (!mKeepAlive) length += CONNECTION_CLOSE.length;
+        if (body != null) length += JSON_CONTENT_LENGTH.length + decimalLength(body.length) + 2;
+        return length;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static int asciiLength(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80 || c <= ' ') {
+                throw new IllegalArgumentException("Not an encoded path or query: " + s);
+            }
+        }
+        return s.length();
+    }
+
+    private static void putAscii(ByteBuffer buffer, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buffer.put((byte) s.charAt(i));
+        }
+    }
+
+    private static int decimalLength(int value) {
+        int length = 1;
+        while (value >= 10) {
+            value /= 10;
+            length++;
+        }
+        return length;
+    }
+
+    private static void putDecimal(ByteBuffer buffer, int value) {
+        int end = buffer.position() + decimalLength(value);
+        for (int i = end - 1; i >= buffer.position(); i--) {
+            buffer.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(end);
+    }
+
+    /**
+     * A request with the decoder of its response, from the moment it's submitted until
+     * its future completes.
+     */
+    private class Exchange {
+        final Method mMethod;
+        final String mPath;
+        final String mQuery;
+        final byte[] mBody;
+        final int mHeadersLength;
+        final long mDeadline;
+        final SettableFuture<JSONObject> mFuture = SettableFuture.create();
+
+        private final SelectiveJsonDecoder mDecoder;
+        private JSONException mDecodeError;
+
+        // Progress of the request being written, in its connection's write buffer.
+        boolean mHeadersWritten = false;
+        int mBodyWritten = 0;
+        boolean mRetried = false;
+
+        Exchange(Method method, String path, String query, byte[] body, SelectiveJsonDecoder decoder) {
+            mMethod = method;
+            mPath = path;
+            mQuery = query;
+            mBody = body;
+            mHeadersLength = headersLength(method, path, query, body);
+            if (mHeadersLength > BUFFER_SIZE) {
+                throw new IllegalArgumentException("Request line too long: " + path);
+            }
+            mDeadline = System.nanoTime() + mRequestTimeoutNanos;
+            mDecoder = decoder;
+        }
+
+        void feed(byte[] bytes, int offset, int length) {
+            if (mDecodeError != null) return;
+            try {
+                mDecoder.feed(bytes, offset, length);
+            } catch (JSONException ex) {
+                // the rest of the body is still read, to keep the connection usable
+                mDecodeError = ex;
+            }
+        }
+
+        void complete() {
+            if (mDecodeError == null) {
+                try {
+                    mFuture.set(mDecoder.finish());
+                    return;
+                } catch (JSONException ex) {
+                    mDecodeError = ex;
+                }
+            }
+            mFuture.setException(new WebServerResponseException(mPath,
+                    "Invalid JSON: " + mDecodeError.getMessage(), mDecodeError));
+        }
+
+        void fail(Throwable cause) {
+            mFuture.setException(cause);
+        }
+
+        /**
+         * Whether the request can be sent again after its connection was closed without
+         * its response, i.e. if the server can't have processed it, as it wasn't
+         * completely written, or if it's idempotent. Requests are only sent twice.
+         */
+        boolean canRetry(boolean completelyWritten) {
+            return !mRetried && (!completelyWritten || mMethod == Method.GET);
+        }
+
+        void prepareRetry() {
+            mRetried = true;
+            mHeadersWritten = false;
+            mBodyWritten = 0;
+        }
+    }
+
+    /**
+     * A slot of the fixed set of connections, reopened after being closed while there
+     * are requests pending. Only its state and in-flight count are read outside of the
+     * I/O thread.
+     */
+    private class Connection {
+        volatile int mState = CLOSED;
+        volatile int mInFlightCount = 0;
+
+        private SocketChannel mChannel;
+        private SelectionKey mKey;
+        private long mConnectDeadline;
+        private ByteBuffer mReadBuffer;
+        private ByteBuffer mWriteBuffer;
+        private boolean mWriteInterest;
+
+        // Requests sent or being sent whose responses haven't been read, oldest first,
+        // and the ones of them not completely written yet.
+        private final ArrayDeque<Exchange> mInFlight = new ArrayDeque<>();
+        private final ArrayDeque<Exchange> mUnwritten = new ArrayDeque<>();
+
+        private int mParseState = STATUS_LINE;
+        private byte[] mLine = new byte[256];
+        private int mLineLength;
+        private int mStatus;
+        private long mContentLength;
+        private boolean mChunked;
+        private boolean mCloseAfterResponse;
+        private long mBodyLeft;
+
+        void open() {
+            try {
+                mChannel = SocketChannel.open();
+                mState = CONNECTING;
+                mChannel.configureBlocking(false);
+                mChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                mReadBuffer = mBuffers.acquire();
+                mWriteBuffer = mBuffers.acquire();
+                mConnectDeadline = System.nanoTime() + mConnectTimeoutNanos;
+                if (mChannel.connect(mAddress)) {
+                    mKey = mChannel.register(mSelector, SelectionKey.OP_READ, this);
+                    connected();
+                } else {
+                    mKey = mChannel.register(mSelector, SelectionKey.OP_CONNECT, this);
+                }
+            } catch (IOException e) {
+                connectFailed(e);
+            }
+        }
+
+        private void connected() {
+            mState = OPEN;
+            mOpened.increment();
+        }
+
+        /**
+         * Closes the connection, failing the requests pending if no other connection
+         * can take them, e.g. as the server is down.
+         */
+        private void connectFailed(IOException cause) {
+            close(cause);
+            if (!hasConnectionOpenOrConnecting()) {
+                failPending(cause);
+            }
+        }
+
+        void handle(SelectionKey key) {
+            if (!key.isValid()) return;
+            try {
+                if (key.isConnectable()) {
+                    try {
+                        mChannel.finishConnect();
+                    } catch (IOException e) {
+                        connectFailed(e);
+                        return;
+                    }
+                    key.interestOps(SelectionKey.OP_READ);
+                    connected();
+                }
+                if (key.isValid() && key.isReadable()) read();
+                if (key.isValid() && key.isWritable()) flush();
+            } catch (IOException e) {
+                close(e);
+            }
+        }
+
+        void assign(Exchange exchange) {
+            mInFlight.add(exchange);
+            mUnwritten.add(exchange);
+            mInFlightCount = mInFlight.size();
+        }
+
+        /**
+         * Writes the requests assigned since the last flush, unless already waiting for
+         * the socket to accept more.
+         */
+        void flushAssigned() {
+            if (mState != OPEN || mUnwritten.isEmpty() || mWriteInterest) return;
+            try {
+                flush();
+            } catch (IOException e) {
+                close(e);
+            }
+        }
+
+        private void flush() throws IOException {
+            while (true) {
+                fillWriteBuffer();
+                mWriteBuffer.flip();
+                try {
+                    mChannel.write(mWriteBuffer);
+                } catch (IOException e) {
+                    closedByServer(e);
+                    return;
+                }
+                mWriteBuffer.compact();
+                if (mWriteBuffer.position() > 0 || mUnwritten.isEmpty()) break;
+            }
+            boolean writeInterest = mWriteBuffer.position() > 0;
+            if (writeInterest != mWriteInterest) {
+                mKey.interestOps(writeInterest ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                mWriteInterest = writeInterest;
+            }
+        }
+
+        private void fillWriteBuffer() {
+            Exchange exchange;
+            while ((exchange = mUnwritten.peek()) != null) {
+                if (!exchange.mHeadersWritten) {
+                    if (mWriteBuffer.remaining() < exchange.mHeadersLength) return;
+                    writeHeaders(exchange, mWriteBuffer);
+                    exchange.mHeadersWritten = true;
+                }
+                if (exchange.mBody != null) {
+                    int length = Math.min(mWriteBuffer.remaining(), exchange.mBody.length - exchange.mBodyWritten);
+                    mWriteBuffer.put(exchange.mBody, exchange.mBodyWritten, length);
+                    exchange.mBodyWritten += length;
+                    if (exchange.mBodyWritten < exchange.mBody.length) return;
+                }
+                mUnwritten.poll();
+            }
+        }
+
+        private void read() throws IOException {
+            int read;
+            do {
+                try {
+                    read = mChannel.read(mReadBuffer);
+                } catch (IOException e) {
+                    closedByServer(e);
+                    return;
+                }
+                if (read > 0) {
+                    mReadBuffer.flip();
+                    mReadBuffer.get(mReadBytes, 0, read);
+                    mReadBuffer.clear();
+                    parse(mReadBytes, read);
+                    if (mState != OPEN) return;
+                }
+            } while (read == mReadBuffer.capacity());
+
+            if (read < 0) {
+                if (mParseState == BODY_UNTIL_CLOSE) {
+                    completeResponse();
+                }
+                closedByServer(new IOException("Connection closed by the server"));
+            }
+        }
+
+        private void parse(byte[] bytes, int length) throws IOException {
+            int i = 0;
+            while (i < length && mState == OPEN) {
+                if (mParseState == BODY || mParseState == BODY_UNTIL_CLOSE) {
+                    int bodyLength = mParseState == BODY ? (int) Math.min(mBodyLeft, length - i) : length - i;
+                    mInFlight.peek().feed(bytes, i, bodyLength);
+                    i += bodyLength;
+                    if (mParseState == BODY && (mBodyLeft -= bodyLength) == 0) {
+                        if (mChunked) {
+                            mParseState = CHUNK_END;
+                        } else {
+                            completeResponse();
+                        }
+                    }
+                    continue;
+                }
+                int lineEnd = i;
+                while (lineEnd < length && bytes[lineEnd] != '\n') lineEnd++;
+                appendToLine(bytes, i, lineEnd - i);
+                if (lineEnd == length) return;
+                i = lineEnd + 1;
+                if (mLineLength > 0 && mLine[mLineLength - 1] == '\r') mLineLength--;
+                acceptLine();
+                mLineLength = 0;
+            }
+        }
+
+        private void appendToLine(byte[] bytes, int offset, int length) throws IOException {
+            if (mLineLength + length > mLine.length) {
+                if (mLineLength + length > MAX_LINE_LENGTH) {
+                    throw new IOException("Response line too long");
+                }
+                mLine = Arrays.copyOf(mLine, Math.min(Math.max(mLine.length * 2, mLineLength + length),
+                        MAX_LINE_LENGTH));
+            }
+            System.arraycopy(bytes, offset, mLine, mLineLength, length);
+            mLineLength += length;
+        }
+
+        private void acceptLine() throws IOException {
+            switch (mParseState) {
+                case STATUS_LINE:
+                    if (mLineLength == 0) return;
+                    if (mInFlight.isEmpty()) {
+                        throw new IOException("Response without a request");
+                    }
+                    if (mLineLength < 12 || !lineStartsWith("HTTP/1.")) {
+                        throw new IOException("Invalid status line: " + lineString());
+                    }
+                    mStatus = (int) parseLong(9, 12, 10);
+                    mContentLength = -1;
+                    mChunked = false;
+                    mCloseAfterResponse = mLine[7] == '0';
+                    mParseState = HEADERS;
+                    return;
+                case HEADERS:
+                    if (mLineLength > 0) {
+                        acceptHeader();
+                    } else if (mStatus / 100 == 1) {
+                        mParseState = STATUS_LINE;
+                    } else if (mStatus == 204 || mStatus == 304) {
+                        // never have a body, whatever their headers say
+                        completeResponse();
+                    } else if (mChunked) {
+                        mParseState = CHUNK_SIZE;
+                    } else if (mContentLength >= 0) {
+                        startBody(mContentLength);
+                    } else {
+                        mParseState = BODY_UNTIL_CLOSE;
+                    }
+                    return;
+                case CHUNK_SIZE:
+                    int end = 0;
+                    while (end < mLineLength && mLine[end] != ';' && mLine[end] != ' ') end++;
+                    long size = parseLong(0, end, 16);
+                    if (size == 0) {
+                        mParseState = TRAILERS;
+                    } else {
+                        startBody(size);
+                    }
+                    return;
+                case CHUNK_END:
+                    if (mLineLength != 0) {
+                        throw new IOException("Invalid end of chunk: " + lineString());
+                    }
+                    mParseState = CHUNK_SIZE;
+                    return;
+                case TRAILERS:
+                    if (mLineLength == 0) completeResponse();
+                    return;
+                default:
+                    throw new AssertionError("Not a line state: " + mParseState);
+            }
+        }
+
+        private void acceptHeader() throws IOException {
+            int colon = 0;
+            while (colon < mLineLength && mLine[colon] != ':') colon++;
+            if (colon == mLineLength) {
+                throw new IOException("Invalid header: " + lineString());
+            }
+            int value = colon + 1;
+            while (value < mLineLength && (mLine[value] == ' ' || mLine[value] == '\t')) value++;
+            int valueEnd = mLineLength;
+            while (valueEnd > value && (mLine[valueEnd - 1] == ' ' || mLine[valueEnd - 1] == '\t')) valueEnd--;
+
+            if (headerNameIs(colon, "content-length")) {
+                mContentLength = parseLong(value, valueEnd, 10);
+            } else if (headerNameIs(colon, "transfer-encoding")) {
+                mChunked = valueContains(value, valueEnd, "chunked");
+            } else if (headerNameIs(colon, "connection")) {
+                if (valueContains(value, valueEnd, "close")) {
+                    mCloseAfterResponse = true;
+                } else if (valueContains(value, valueEnd, "keep-alive")) {
+                    mCloseAfterResponse = false;
+                }
+            }
+        }
+
+        private void startBody(long length) {
+            if (length == 0) {
+                completeResponse();
+            } else {
+                mBodyLeft = length;
+                mParseState = BODY;
+            }
+        }
+
+        private void completeResponse() {
+            Exchange exchange = mInFlight.poll();
+            mInFlightCount = mInFlight.size();
+            mParseState = STATUS_LINE;
+            exchange.complete();
+            if (mCloseAfterResponse || !mKeepAlive) {
+                closedByServer(new IOException("Connection closed after the response"));
+            }
+        }
+
+        void expire(long now) {
+            if (mState == CONNECTING && mConnectDeadline - now < 0) {
+                connectFailed(new ConnectException("Connection timed out: " + mAddress));
+            } else if (mState == OPEN && !mInFlight.isEmpty() && mInFlight.peek().mDeadline - now < 0) {
+                // the responses of the requests behind it would be read out of order
+                close(new TimeoutException("Request timed out"));
+            }
+        }
+
+        /**
+         * Closes the connection after the server closed it or announced it would, sending
+         * again the requests behind the one whose response was being read, if any, that
+         * {@link Exchange#canRetry can be retried}. The others fail.
+         */
+        private void closedByServer(IOException cause) {
+            List<Exchange> retries = new ArrayList<>();
+            Iterator<Exchange> inFlight = mInFlight.iterator();
+            if ((mParseState != STATUS_LINE || mLineLength > 0) && inFlight.hasNext()) {
+                inFlight.next();
+            }
+            while (inFlight.hasNext()) {
+                Exchange exchange = inFlight.next();
+                if (exchange.canRetry(!mUnwritten.contains(exchange))) {
+                    inFlight.remove();
+                    retries.add(exchange);
+                }
+            }
+            close(cause);
+            // ahead of the pending requests, as they were submitted earlier
+            for (int i = retries.size() - 1; i >= 0; i--) {
+                Exchange exchange = retries.get(i);
+                exchange.prepareRetry();
+                mWaiting.incrementAndGet();
+                mPending.addFirst(exchange);
+            }
+        }
+
+        /**
+         * Closes the connection, failing the requests whose responses weren't read.
+         */
+        void close(Throwable cause) {
+            if (mState == CLOSED) return;
+            if (mState == OPEN) mClosed.increment();
+            mState = CLOSED;
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                LOGGER.debug("Failed closing connection", e);
+            }
+            mBuffers.release(mReadBuffer);
+            mBuffers.release(mWriteBuffer);
+            mReadBuffer = mWriteBuffer = null;
+            mChannel = null;
+            mKey = null;
+            mWriteInterest = false;
+            mParseState = STATUS_LINE;
+            mLineLength = 0;
+
+            mUnwritten.clear();
+            Exchange exchange;
+            while ((exchange = mInFlight.poll()) != null) {
+                exchange.fail(cause);
+            }
+            mInFlightCount = 0;
+        }
+
+        private boolean lineStartsWith(String prefix) {
+            for (int i = 0; i < prefix.length(); i++) {
+                if (mLine[i] != prefix.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        private boolean headerNameIs(int nameLength, String lowerCaseName) {
+            if (nameLength != lowerCaseName.length()) return false;
+            for (int i = 0; i < nameLength; i++) {
+                if ((mLine[i] | 0x20) != lowerCaseName.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        private boolean valueContains(int start, int end, String lowerCaseToken) {
+            for (int i = start; i + lowerCaseToken.length() <= end; i++) {
+                int j = 0;
+                while (j < lowerCaseToken.length() && (mLine[i + j] | 0x20) == lowerCaseToken.charAt(j)) j++;
+                if (j == lowerCaseToken.length()) return true;
+            }
+            return false;
+        }
+
+        private long parseLong(int start, int end, int radix) throws IOException {
+            if (start >= end) {
+                throw new IOException("Invalid number in response: " + lineString());
+            }
+            long value = 0;
+            for (int i = start; i < end; i++) {
+                int digit = Character.digit(mLine[i], radix);
+                if (digit < 0 || value > (Long.MAX_VALUE - digit) / radix) {
+                    throw new IOException("Invalid number in response: " + lineString());
+                }
+                value = value * radix + digit;
+            }
+            return value;
+        }
+
+        private String lineString() {
+            return new String(mLine, 0, mLineLength, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * Direct buffers released by closed connections, to be reused by the ones opened
+     * later instead of allocating new ones. Confined to the I/O thread.
+     */
+    private static class BufferPool {
+        private final ArrayDeque<ByteBuffer> mFree = new ArrayDeque<>();
+
+        ByteBuffer acquire() {
+            ByteBuffer buffer = mFree.poll();
+            return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        void release(ByteBuffer buffer) {
+            if (buffer == null) return;
+            buffer.clear();
+            mFree.push(buffer);
+        }
+    }
+}
@@ -4,11 +4,13 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.v1ct04.benchstack.concurrent.BottomlessQueue;
 import com.v1ct04.benchstack.concurrent.MoreFutures;
+import com.v1ct04.benchstack.driver.OperationTag;
+import com.v1ct04.benchstack.webserver.JsonSelection;
+import com.v1ct04.benchstack.webserver.PreparedRequest;
+import com.v1ct04.benchstack.webserver.RequestTemplate;
 import com.v1ct04.benchstack.webserver.RestfulHttpClient;
 import com.v1ct04.benchstack.webserver.WebServerClient;
 import com.v1ct04.benchstack.webserver.WebServerResponseException;
-import org.apache.http.NameValuePair;
-import org.apache.http.message.BasicNameValuePair;
 import org.json.JSONObject;
 
 import java.util.Collections;
@@ -20,11 +22,42 @@ import java.util.stream.StreamSupport;
 
 public class PokeStackClient implements WebServerClient {
 
+    // Fields of the responses actually used, the rest of them being skipped when decoding.
+    private static final JsonSelection RESULT = JsonSelection.of("success", "err");
+    private static final JsonSelection USER_ID = JsonSelection.of("success", "err", "data.id");
+
+    // Routes of the benchmark, compiled once and bound to the user of each client.
+    private static final String USER_ID_BODY = "{\"userId\": \"{userId}\"}";
+    private static final String USER_ID_COUNT_BODY = "{\"userId\": \"{userId}\", \"count\": {count}}";
+
+    private static final RequestTemplate USER = RequestTemplate.get("/api/user/{id}");
+    private static final RequestTemplate USER_POKEMONS = RequestTemplate.get("/api/user/{id}/pokemons");
+    private static final RequestTemplate USER_MOVE = RequestTemplate.post("/api/user/{id}/move", "{}");
+    private static final RequestTemplate USER_BAG_DROP = RequestTemplate.post("/api/user/{id}/bag/drop",
+            "{\"items\": {\"pokeball\": {pokeball}, \"greatball\": {greatball}, \"revive\": {revive}, \"lure\": {lure}}}");
+    private static final RequestTemplate STADIUM = RequestTemplate.get("/api/stadium/{id}");
+    private static final RequestTemplate STADIUM_POKEMONS = RequestTemplate.get("/api/stadium/{id}/pokemons");
+    private static final RequestTemplate TRAINER = RequestTemplate.get("/api/trainer/{id}");
+    private static final RequestTemplate TRAINER_POKEMONS = RequestTemplate.get("/api/trainer/{id}/pokemons");
+    private static final RequestTemplate NEARBY = RequestTemplate.get("/api/nearby/{id}/{itemType}");
+    private static final RequestTemplate NEARBY_CLOSEST =
+            RequestTemplate.get("/api/nearby/{id}/{itemType}/closest?count={count}");
+    private static final RequestTemplate POKESTOP_COLLECT =
+            RequestTemplate.post("/api/pokestop/{id}/collect", USER_ID_BODY);
+    private static final RequestTemplate POKESTOP_LURE = RequestTemplate.post("/api/pokestop/{id}/lure", USER_ID_COUNT_BODY);
+    private static final RequestTemplate POKESTOP_IMPROVE = RequestTemplate.post("/api/pokestop/improve", USER_ID_COUNT_BODY);
+    private static final RequestTemplate POKEMON_LEVEL_UP = RequestTemplate.post("/api/pokemon/levelUp", USER_ID_COUNT_BODY);
+    private static final RequestTemplate POKEMON_NUKE = RequestTemplate.post("/api/pokemon/nuke", USER_ID_COUNT_BODY);
+    private static final RequestTemplate POKEMON_CAPTURE = RequestTemplate.post("/api/pokemon/{id}/capture", USER_ID_BODY);
+    private static final RequestTemplate BATTLE_POKEMON = RequestTemplate.post("/api/battle/pokemon/{id}", USER_ID_BODY);
+    private static final RequestTemplate BATTLE_STADIUM = RequestTemplate.post("/api/battle/stadium/{id}", USER_ID_BODY);
+    private static final RequestTemplate BATTLE_TRAINER = RequestTemplate.post("/api/battle/trainer/{id}", USER_ID_BODY);
+
     public static ListenableFuture<PokeStackClient> asyncCreate(RestfulHttpClient client, int workerNum) {
         JSONObject args = new JSONObject().put("workerNum", workerNum);
         String path = "/api/user/findOrCreate";
         return Futures.transform(
-                data(path, client.doPost(path, args)),
+                data(path, client.doPost(USER_ID, path, args)),
                 (JSONObject data) -> {
                     assert data != null;
                     return new PokeStackClient(client, data.getString("id"));
@@ -34,173 +67,204 @@ public class PokeStackClient implements WebServerClient {
     private final Random mRandom = new Random();
 
     private final RestfulHttpClient mClient;
-    private final String mUserId;
-    private final JSONObject mUserIdBody;
     private final NearbyElements mNearby;
 
+    private final PreparedRequest mUser;
+    private final PreparedRequest mUserPokemons;
+    private final PreparedRequest mUserMove;
+    private final RequestTemplate mUserBagDrop;
+    private final PreparedRequest mNearbyPokestops;
+    private final PreparedRequest mNearbyPokestopsClosest;
+    private final PreparedRequest mNearbyStadiumsClosest;
+    private final RequestTemplate mPokestopCollect;
+    private final RequestTemplate mPokestopLureLite;
+    private final RequestTemplate mPokestopLureHeavy;
+    private final PreparedRequest mPokestopImprove;
+    private final PreparedRequest mPokemonLevelUp;
+    private final PreparedRequest mPokemonNukeLite;
+    private final PreparedRequest mPokemonNukeHeavy;
+    private final RequestTemplate mPokemonCapture;
+    private final RequestTemplate mBattlePokemon;
+    private final RequestTemplate mBattleStadium;
+    private final RequestTemplate mBattleTrainer;
+
     private PokeStackClient(RestfulHttpClient client, String userId) {
         mClient = client;
-
-        mUserId = userId;
-        mUserIdBody = new JSONObject().put("userId", userId);
         mNearby = new NearbyElements(userId);
+
+        mUser = USER.bind("id", userId).prepare();
+        mUserPokemons = USER_POKEMONS.bind("id", userId).prepare();
+        mUserMove = USER_MOVE.bind("id", userId).prepare();
+        mUserBagDrop = USER_BAG_DROP.bind("id", userId);
+        mNearbyPokestops = NEARBY.bind("id", userId).bind("itemType", "pokestop").prepare();
+        mNearbyPokestopsClosest = nearbyClosest(userId, "pokestop", 10).prepare();
+        mNearbyStadiumsClosest = nearbyClosest(userId, "stadium", 200).prepare();
+        mPokestopCollect = POKESTOP_COLLECT.bind("userId", userId);
+        mPokestopLureLite = POKESTOP_LURE.bind("userId", userId).bind("count", 10);
+        mPokestopLureHeavy = POKESTOP_LURE.bind("userId", userId).bind("count", 200);
+        mPokestopImprove = POKESTOP_IMPROVE.bind("userId", userId).bind("count", 20).prepare();
+        mPokemonLevelUp = POKEMON_LEVEL_UP.bind("userId", userId).bind("count", 100).prepare();
+        mPokemonNukeLite = POKEMON_NUKE.bind("userId", userId).bind("count", 10).prepare();
+        mPokemonNukeHeavy = POKEMON_NUKE.bind("userId", userId).bind("count", 200).prepare();
+        mPokemonCapture = POKEMON_CAPTURE.bind("userId", userId);
+        mBattlePokemon = BATTLE_POKEMON.bind("userId", userId);
+        mBattleStadium = BATTLE_STADIUM.bind("userId", userId);
+        mBattleTrainer = BATTLE_TRAINER.bind("userId", userId);
     }
 
     // Benchmark Actions
 
     @Override
-    public ListenableFuture<?> doReadLite() {
+    public ListenableFuture<?> doReadLite(OperationTag tag) {
         switch (mRandom.nextInt(2)) {
             case 0:
-                return doGet("/api/user/" + mUserId);
+                return send(tag, mUser);
             case 1:
                 // for Read Lite do a cheaper peek instead of polling the objects queue
-                return mNearby.stadiums.peekTransform(id -> doGet("/api/stadium/" + id));
+                return mNearby.stadiums.peekTransform(id -> send(tag, STADIUM.prepare("id", id)));
             case 2:
-                return mNearby.trainers.peekTransform(id -> doGet("/api/trainer/" + id));
+                return mNearby.trainers.peekTransform(id -> send(tag, TRAINER.prepare("id", id)));
         }
         throw new RuntimeException();
     }
 
     @Override
-    public ListenableFuture<?> doReadMedium() {
+    public ListenableFuture<?> doReadMedium(OperationTag tag) {
         switch (mRandom.nextInt(3)) {
             case 0:
-                return doGet("/api/nearby/" + mUserId + "/pokestop/closest", makeParam("count", 10));
+                return send(tag, mNearbyPokestopsClosest);
             case 1:
-                return doGet("/api/nearby/" + mUserId + "/pokestop");
+                return send(tag, mNearbyPokestops);
             case 2:
-                return doGet("/api/nearby/" + mUserId + "/stadium/closest", makeParam("count", 200));
+                return send(tag, mNearbyStadiumsClosest);
         }
         throw new RuntimeException();
     }
 
     @Override
-    public ListenableFuture<?> doReadHeavy() {
+    public ListenableFuture<?> doReadHeavy(OperationTag tag) {
         switch (mRandom.nextInt(4)) {
             case 0:
+                tag.setRoute("/api/nearby/:id/pokemon/closest");
                 return mNearby.pokemons.clear().peek();
             case 1:
-                return doGet("/api/user/" + mUserId + "/pokemons");
+                return send(tag, mUserPokemons);
             case 2:
-                return mNearby.stadiums.pollTransform(id -> doGet("/api/stadium/" + id + "/pokemons"));
+                return mNearby.stadiums.pollTransform(id -> send(tag, STADIUM_POKEMONS.prepare("id", id)));
             case 3:
-                return mNearby.trainers.pollTransform(id -> doGet("/api/trainer/" + id + "/pokemons"));
+                return mNearby.trainers.pollTransform(id -> send(tag, TRAINER_POKEMONS.prepare("id", id)));
         }
         throw new RuntimeException();
     }
 
     @Override
-    public ListenableFuture<?> doUpdateLite() {
+    public ListenableFuture<?> doUpdateLite(OperationTag tag) {
         switch (mRandom.nextInt(2)) {
             case 0:
                 return mNearby.pokestops.pollTransform(
-                        id -> doPost("/api/pokestop/" + id + "/collect", mUserIdBody));
+                        id -> send(tag, mPokestopCollect.prepare("id", id)));
             case 1:
-                return doPost("/api/user/" + mUserId + "/bag/drop", randomBagDropBody());
+                return send(tag, randomBagDrop());
         }
         throw new RuntimeException();
     }
 
     @Override
-    public ListenableFuture<?> doUpdateMedium() {
+    public ListenableFuture<?> doUpdateMedium(OperationTag tag) {
         if (mRandom.nextDouble() < 0.1) {
-            return doReset();
+            return doReset(tag);
         } else {
-            return doPost("/api/pokestop/improve", userIdCountBody(20));
+            return send(tag, mPokestopImprove);
         }
     }
 
     @Override
-    public ListenableFuture<?> doUpdateHeavy() {
-        return doPost("/api/pokemon/levelUp", userIdCountBody(100));
+    public ListenableFuture<?> doUpdateHeavy(OperationTag tag) {
+        return send(tag, mPokemonLevelUp);
     }
 
     @Override
-    public ListenableFuture<?> doInsertLite() {
-        return mNearby.pokestops.pollTransform(id -> doPost("/api/pokestop/" + id + "/lure", userIdCountBody(10)));
+    public ListenableFuture<?> doInsertLite(OperationTag tag) {
+        return mNearby.pokestops.pollTransform(id -> send(tag, mPokestopLureLite.prepare("id", id)));
     }
 
     @Override
-    public ListenableFuture<?> doInsertHeavy() {
-        return mNearby.pokestops.pollTransform(id -> doPost("/api/pokestop/" + id + "/lure", userIdCountBody(200)));
+    public ListenableFuture<?> doInsertHeavy(OperationTag tag) {
+        return mNearby.pokestops.pollTransform(id -> send(tag, mPokestopLureHeavy.prepare("id", id)));
     }
 
     @Override
-    public ListenableFuture<?> doDeleteLite() {
-        return doPost("/api/pokemon/nuke", userIdCountBody(10));
+    public ListenableFuture<?> doDeleteLite(OperationTag tag) {
+        return send(tag, mPokemonNukeLite);
     }
 
     @Override
-    public ListenableFuture<?> doDeleteHeavy() {
-        return doPost("/api/pokemon/nuke", userIdCountBody(200));
+    public ListenableFuture<?> doDeleteHeavy(OperationTag tag) {
+        return send(tag, mPokemonNukeHeavy);
     }
 
     @Override
-    public ListenableFuture<?> doCPULite() {
-        return mNearby.pokemons.pollTransform(id -> doPost("/api/pokemon/" + id + "/capture", mUserIdBody));
+    public ListenableFuture<?> doCPULite(OperationTag tag) {
+        return mNearby.pokemons.pollTransform(id -> send(tag, mPokemonCapture.prepare("id", id)));
     }
 
     @Override
-    public ListenableFuture<?> doCPUHeavy() {
+    public ListenableFuture<?> doCPUHeavy(OperationTag tag) {
         switch (mRandom.nextInt(3)) {
             case 0:
-                return mNearby.pokemons.pollTransform(id -> doPost("/api/battle/pokemon/" + id, mUserIdBody));
+                return mNearby.pokemons.pollTransform(id -> send(tag, mBattlePokemon.prepare("id", id)));
             case 1:
-                return mNearby.stadiums.pollTransform(id -> doPost("/api/battle/stadium/" + id, mUserIdBody));
+                return mNearby.stadiums.pollTransform(id -> send(tag, mBattleStadium.prepare("id", id)));
             case 2:
-                return mNearby.trainers.pollTransform(id -> doPost("/api/battle/trainer/" + id, mUserIdBody));
+                return mNearby.trainers.pollTransform(id -> send(tag, mBattleTrainer.prepare("id", id)));
         }
         throw new RuntimeException();
     }
 
     // Internal Requests
 
-    private ListenableFuture<?> doReset() {
+    private ListenableFuture<?> doReset(OperationTag tag) {
         return MoreFutures.consume(
-                doPost("/api/user/" + mUserId + "/move", new JSONObject()),
+                send(tag, mUserMove),
                 r -> mNearby.clear());
     }
 
     // Helpers
 
-    private ListenableFuture<JSONObject> doPost(String path, JSONObject body) {
-        return data(path, mClient.doPost(path, body));
+    /**
+     * Sends the request, tagging the operation with its route.
+     */
+    private ListenableFuture<JSONObject> send(OperationTag tag, PreparedRequest request) {
+        tag.setRoute(request.route);
+        return data(request.path, mClient.send(RESULT, request));
     }
 
-    private ListenableFuture<JSONObject> doGet(String path, NameValuePair... params) {
-        return data(path, mClient.doGet(path, params));
+    private PreparedRequest randomBagDrop() {
+        return mUserBagDrop.newRequest()
+                .set("pokeball", mRandom.nextInt(10))
+                .set("greatball", mRandom.nextInt(4))
+                .set("revive", mRandom.nextInt(5))
+                .set("lure", mRandom.nextInt(5))
+                .build();
     }
 
-    private JSONObject randomBagDropBody() {
-        return new JSONObject()
-                .put("items", new JSONObject()
-                        .put("pokeball", mRandom.nextInt(10))
-                        .put("greatball", mRandom.nextInt(4))
-                        .put("revive", mRandom.nextInt(5))
-                        .put("lure", mRandom.nextInt(5)));
-    }
-
-    private JSONObject userIdCountBody(int count) {
-        return new JSONObject()
-                .put("userId", mUserId)
-                .put("count", count);
+    private static RequestTemplate nearbyClosest(String userId, String itemType, int count) {
+        return NEARBY_CLOSEST.bind("id", userId).bind("itemType", itemType).bind("count", count);
     }
 
+    /**
+     * @return Future of the data of the response, or null if none of it was selected.
+     */
     private static ListenableFuture<JSONObject> data(String path, ListenableFuture<JSONObject> future) {
         return Futures.transform(future, (JSONObject o) -> {
             assert o != null;
             if (o.getInt("success") == 0) {
                 throw new WebServerResponseException(path, o.getString("err"));
             }
-            return o.getJSONObject("data");
+            return o.optJSONObject("data");
         });
     }
 
-    private static NameValuePair makeParam(String name, Object value) {
-        return new BasicNameValuePair(name, value.toString());
-    }
-
     private class NearbyElements {
         final BottomlessQueue<String> pokemons;
         final BottomlessQueue<String> pokestops;
@@ -222,11 +286,11 @@ public class PokeStackClient implements WebServerClient {
         }
 
         private BottomlessQueue<String> nearbyItemsQueue(String userId, String itemType, int refillCount) {
-            String path = String.format("/api/nearby/%s/%s/closest", userId, itemType);
-            NameValuePair countParam = makeParam("count", refillCount);
+            PreparedRequest request = nearbyClosest(userId, itemType, refillCount).prepare();
+            JsonSelection ids = JsonSelection.of("success", "err", "data." + itemType + "[]._id");
 
             Callable<ListenableFuture<List<String>>> fetcher = () -> {
-                return Futures.transform(doGet(path, countParam), (JSONObject data) -> {
+                return Futures.transform(data(request.path, mClient.send(ids, request)), (JSONObject data) -> {
                     if (data == null) return Collections.emptyList();
                     return StreamSupport.stream(data.getJSONArray(itemType).spliterator(), false)
                             .map(o -> (JSONObject) o)
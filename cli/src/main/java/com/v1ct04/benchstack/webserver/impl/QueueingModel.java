@@ -0,0 +1,178 @@
+package com.v1ct04.benchstack.webserver.impl;
+
+import com.v1ct04.benchstack.driver.StandInServerConfigWrapper.StandInServerConfig;
+import com.v1ct04.benchstack.driver.StandInServerConfigWrapper.StandInServerConfig.ServiceTime;
+
+/**
+ * Analytical model of the stations of a {@link StandInPokeStackServer}, predicting the
+ * maximum load it complies at with Poisson arrivals split among its stations.
+ *
+ * Each station is an M/G/c queue. Its probability of waiting is given by the Erlang C
+ * formula, and the wait by an exponential with the mean of the Allen-Cunneen
+ * approximation, exact for exponential service times (M/M/c).
+ */
+public final class QueueingModel {
+
+    private static final int INTEGRATION_STEPS = 1000;
+    private static final int SEARCH_ITERATIONS = 100;
+
+    private QueueingModel() {}
+
+    /**
+     * @return Highest arrival rate, in requests/s, at which the given percentile of the
+     * response times is within the delay limit, or infinity if there's no such limit.
+     * @param fractions Fraction of the requests arriving at each station of the config,
+     *                  the remaining ones being served immediately.
+     */
+    public static double maxCompliantLoad(StandInServerConfig config, double[] fractions,
+                                          double delayLimitSec, double percentile) {
+        double allowedTail = 1 - percentile;
+        double saturation = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < fractions.length; i++) {
+            if (fractions[i] <= 0) continue;
+            StandInServerConfig.Station station = config.getStation(i);
+            double capacity = station.getServers() / meanSeconds(station.getServiceTime());
+            saturation = Math.min(saturation, capacity / fractions[i]);
+        }
+        if (Double.isInfinite(saturation)) return saturation;
+        if (responseTimeTail(config, fractions, 0, delayLimitSec) > allowedTail) return 0;
+
+        double low = 0, high = saturation;
+        for (int i = 0; i < SEARCH_ITERATIONS; i++) {
+            double load = (low + high) / 2;
+            if (responseTimeTail(config, fractions, load, delayLimitSec) <= allowedTail) {
+                low = load;
+            } else {
+                high = load;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return Probability of a request taking longer than the given time, at the given
+     * arrival rate in requests/s.
+     */
+    public static double responseTimeTail(StandInServerConfig config, double[] fractions,
+                                          double arrivalRate, double timeSec) {
+        double tail = 0;
+        for (int i = 0; i < fractions.length; i++) {
+            if (fractions[i] <= 0) continue;
+            tail += fractions[i] * stationTail(config.getStation(i), fractions[i] * arrivalRate, timeSec);
+        }
+        return tail;
+    }
+
+    /**
+     * @return Probability of a request taking longer than the given time at a station
+     * with the given arrival rate, 1 if it's saturated.
+     */
+    public static double stationTail(StandInServerConfig.Station station, double arrivalRate, double timeSec) {
+        ServiceTime serviceTime = station.getServiceTime();
+        double mean = meanSeconds(serviceTime);
+        int servers = station.getServers();
+        double offered = arrivalRate * mean;
+        if (offered >= servers) return 1;
+
+        double waitProbability = erlangC(servers, offered);
+        if (waitProbability == 0) return serviceTail(serviceTime, timeSec);
+        double cv = coefficientOfVariation(serviceTime);
+        double waitRate = (servers / mean - arrivalRate) * 2 / (1 + cv * cv);
+        return (1 - waitProbability) * serviceTail(serviceTime, timeSec)
+                + waitProbability * serviceWithWaitTail(serviceTime, waitRate, timeSec);
+    }
+
+    /**
+     * @return Probability of a request waiting at a station with the given servers and
+     * offered load (arrival rate times mean service time), from the Erlang B recursion.
+     */
+    public static double erlangC(int servers, double offered) {
+        if (offered <= 0) return 0;
+        if (offered >= servers) return 1;
+        double erlangB = 1;
+        for (int k = 1; k <= servers; k++) {
+            erlangB = offered * erlangB / (k + offered * erlangB);
+        }
+        return servers * erlangB / (servers - offered * (1 - erlangB));
+    }
+
+    static double meanSeconds(ServiceTime serviceTime) {
+        return serviceTime.getMeanMillis() / 1000;
+    }
+
+    static double coefficientOfVariation(ServiceTime serviceTime) {
+        switch (serviceTime.getDistribution()) {
+            case DETERMINISTIC:
+                return 0;
+            case LOG_NORMAL:
+                return serviceTime.getCoefficientOfVariation();
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * @return Probability of a service time longer than the given time.
+     */
+    private static double serviceTail(ServiceTime serviceTime, double t) {
+        double mean = meanSeconds(serviceTime);
+        switch (serviceTime.getDistribution()) {
+            case DETERMINISTIC:
+                return t < mean ? 1 : 0;
+            case LOG_NORMAL:
+                return 1 - logNormalCdf(serviceTime, t);
+            default:
+                return Math.exp(-t / mean);
+        }
+    }
+
+    /**
+     * @return Probability of a service time plus an exponential wait of the given rate
+     * being longer than the given time.
+     */
+    private static double serviceWithWaitTail(ServiceTime serviceTime, double waitRate, double t) {
+        double mean = meanSeconds(serviceTime);
+        switch (serviceTime.getDistribution()) {
+            case DETERMINISTIC:
+                return t < mean ? 1 : Math.exp(-waitRate * (t - mean));
+            case LOG_NORMAL:
+                // P(S + W <= t) = integral over the wait w of P(S <= t - w) f_W(w)
+                double h = t / INTEGRATION_STEPS;
+                double sum = 0;
+                for (int i = 0; i <= INTEGRATION_STEPS; i++) {
+                    double w = i * h;
+                    double weight = i == 0 || i == INTEGRATION_STEPS ? 1 : (i % 2 == 1 ? 4 : 2);
+                    sum += weight * logNormalCdf(serviceTime, t - w) * waitRate * Math.exp(-waitRate * w);
+                }
+                return Math.max(0, 1 - sum * h / 3);
+            default:
+                double serviceRate = 1 / mean;
+                if (Math.abs(waitRate - serviceRate) < 1e-9 * serviceRate) {
+                    return (1 + serviceRate * t) * Math.exp(-serviceRate * t);
+                }
+                return (waitRate * Math.exp(-serviceRate * t) - serviceRate * Math.exp(-waitRate * t))
+                        / (waitRate - serviceRate);
+        }
+    }
+
+    private static double logNormalCdf(ServiceTime serviceTime, double t) {
+        if (t <= 0) return 0;
+        double cv = serviceTime.getCoefficientOfVariation();
+        if (cv <= 0) return t < meanSeconds(serviceTime) ? 0 : 1;
+        double sigma = Math.sqrt(Math.log(1 + cv * cv));
+        double mu = Math.log(meanSeconds(serviceTime)) - sigma * sigma / 2;
+        return normalCdf((Math.log(t) - mu) / sigma);
+    }
+
+    /**
+     * Standard normal distribution, from the approximation of the error function by
+     * Abramowitz and Stegun (7.1.26), within 1.5e-7.
+     */
+    private static double normalCdf(double x) {
+        double z = Math.abs(x) / Math.sqrt(2);
+        double t = 1 / (1 + 0.3275911 * z);
+        double erf = 1 - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741
+                + t * (-1.453152027 + t * 1.061405429)))) * Math.exp(-z * z);
+        return x >= 0 ? (1 + erf) / 2 : (1 - erf) / 2;
+    }
+}
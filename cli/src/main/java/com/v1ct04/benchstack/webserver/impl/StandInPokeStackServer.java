@@ -0,0 +1,395 @@
+package com.v1ct04.benchstack.webserver.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.v1ct04.benchstack.driver.StandInServerConfigWrapper.StandInServerConfig;
+import com.v1ct04.benchstack.driver.StandInServerConfigWrapper.StandInServerConfig.ServiceTime;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Embedded stand-in of the PokeStack server, implementing the routes used by
+ * {@link PokeStackClient} on in-memory state, with a known capacity: each route is
+ * served at one of the stations of its {@link StandInServerConfig}, which delays its
+ * response by a sampled service time on one of its parallel servers. The maximum load
+ * it complies at can then be predicted with the {@link QueueingModel}, to check the
+ * one found by a benchmark.
+ *
+ * Requests are executed as soon as they're received, only their responses waiting at
+ * the stations, so that the threads of the server take no part in their latency.
+ */
+public class StandInPokeStackServer extends EmbeddedHttpServer {
+
+    /**
+     * Routes of {@link PokeStackClient}, matched in order.
+     */
+    private static final List<String> ROUTES = Arrays.asList(
+            "/api/user/findOrCreate",
+            "/api/user/:id",
+            "/api/user/:id/pokemons",
+            "/api/user/:id/move",
+            "/api/user/:id/bag/drop",
+            "/api/stadium/:id",
+            "/api/stadium/:id/pokemons",
+            "/api/trainer/:id",
+            "/api/trainer/:id/pokemons",
+            "/api/nearby/:id/:itemType",
+            "/api/nearby/:id/:itemType/closest",
+            "/api/pokestop/improve",
+            "/api/pokestop/:id/collect",
+            "/api/pokestop/:id/lure",
+            "/api/pokemon/levelUp",
+            "/api/pokemon/nuke",
+            "/api/pokemon/:id/capture",
+            "/api/battle/pokemon/:id",
+            "/api/battle/stadium/:id",
+            "/api/battle/trainer/:id");
+    private static final List<String[]> ROUTE_SEGMENTS = new ArrayList<>();
+    static {
+        ROUTES.forEach(r -> ROUTE_SEGMENTS.add(r.split("/")));
+    }
+
+    private static final List<String> BAG_ITEMS = Arrays.asList("pokeball", "greatball", "revive", "lure");
+    private static final int MAX_USER_POKEMONS = 1000;
+    private static final int ITEM_POKEMONS = 6;
+
+    private final StandInServerConfig mConfig;
+    private final List<Station> mStations = new ArrayList<>();
+    private final Map<String, Station> mStationByRoute = new HashMap<>();
+    private final Station mDefaultStation;
+    private final ScheduledExecutorService mTimer;
+
+    private final ConcurrentMap<String, User> mUsers = new ConcurrentHashMap<>();
+
+    public StandInPokeStackServer(StandInServerConfig config) throws IOException {
+        super(validate(config).getIoThreads(), "stand-in-server");
+        mConfig = config;
+        Station defaultStation = null;
+        for (StandInServerConfig.Station stationConfig : config.getStationList()) {
+            Station station = new Station(stationConfig);
+            mStations.add(station);
+            if (stationConfig.getRouteCount() == 0 && defaultStation == null) {
+                defaultStation = station;
+            }
+            for (String route : stationConfig.getRouteList()) {
+                mStationByRoute.putIfAbsent(route, station);
+            }
+        }
+        mDefaultStation = defaultStation;
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("stand-in-timer").setDaemon(true).build());
+        timer.setRemoveOnCancelPolicy(true);
+        mTimer = timer;
+    }
+
+    private static StandInServerConfig validate(StandInServerConfig config) {
+        for (StandInServerConfig.Station station : config.getStationList()) {
+            for (String route : station.getRouteList()) {
+                if (!ROUTES.contains(route)) {
+                    throw new IllegalArgumentException("Unknown route of station " + station.getName() + ": " + route);
+                }
+            }
+        }
+        return config;
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        mTimer.shutdownNow();
+    }
+
+    /**
+     * @return Fraction of the requests received so far that arrived at each station, in
+     * the order of the config.
+     */
+    public double[] getStationLoadFractions() {
+        double total = getRequestCount();
+        double[] fractions = new double[mStations.size()];
+        for (int i = 0; i < fractions.length && total > 0; i++) {
+            fractions[i] = mStations.get(i).mRequests.sum() / total;
+        }
+        return fractions;
+    }
+
+    /**
+     * @return Predicted maximum compliant load in requests/s, from the stations each
+     * route was given to and the fraction of the requests so far for each of them.
+     */
+    public double predictMaxCompliantLoad(double delayLimitSec, double percentile) {
+        return QueueingModel.maxCompliantLoad(mConfig, getStationLoadFractions(), delayLimitSec, percentile);
+    }
+
+    @Override
+    protected void handle(Exchange exchange) {
+        String route = route(exchange.getPath());
+        if (route == null) {
+            exchange.respond(error("Not found: " + exchange.getPath()));
+            return;
+        }
+        byte[] response;
+        try {
+            response = execute(route, exchange);
+        } catch (JSONException | NumberFormatException e) {
+            response = error("Invalid request: " + e.getMessage());
+        }
+        Station station = mStationByRoute.getOrDefault(route, mDefaultStation);
+        if (station == null) {
+            exchange.respond(response);
+        } else {
+            byte[] finalResponse = response;
+            station.arrive(() -> exchange.respond(finalResponse));
+        }
+    }
+
+    private static String route(String path) {
+        String[] segments = path.split("/");
+        for (int r = 0; r < ROUTES.size(); r++) {
+            String[] route = ROUTE_SEGMENTS.get(r);
+            if (route.length != segments.length) continue;
+            boolean matches = true;
+            for (int i = 0; i < route.length && matches; i++) {
+                matches = route[i].startsWith(":") ? !segments[i].isEmpty() : route[i].equals(segments[i]);
+            }
+            if (matches) return ROUTES.get(r);
+        }
+        return null;
+    }
+
+    // Routes
+
+    private byte[] execute(String route, Exchange exchange) {
+        String[] segments = exchange.getPath().split("/");
+        JSONObject body = exchange.body.length == 0
+                ? new JSONObject()
+                : new JSONObject(new String(exchange.body, StandardCharsets.UTF_8));
+        if (route.equals("/api/user/findOrCreate")) {
+            String id = "user" + body.optInt("workerNum");
+            User user = mUsers.computeIfAbsent(id, User::new);
+            synchronized (user) {
+                return success(user.toJson());
+            }
+        }
+
+        String userId = route.startsWith("/api/user/") || route.startsWith("/api/nearby/")
+                ? segments[3]
+                : body.optString("userId", null);
+        User user = userId == null ? null : mUsers.get(userId);
+        if (user == null && !route.startsWith("/api/stadium/") && !route.startsWith("/api/trainer/")) {
+            return error("User not found: " + userId);
+        }
+        String id = segments.length > 3 ? segments[3] : null;
+        int count = body.optInt("count");
+
+        switch (route) {
+            case "/api/stadium/:id":
+            case "/api/trainer/:id":
+                return success(item(segments[2], id));
+            case "/api/stadium/:id/pokemons":
+            case "/api/trainer/:id/pokemons":
+                JSONArray pokemons = new JSONArray();
+                for (int i = 0; i < ITEM_POKEMONS; i++) {
+                    pokemons.put(item("pokemon", id + "-" + i));
+                }
+                return success(new JSONObject().put("pokemon", pokemons));
+        }
+        synchronized (user) {
+            switch (route) {
+                case "/api/user/:id":
+                    return success(user.toJson());
+                case "/api/user/:id/pokemons":
+                    JSONArray pokemons = new JSONArray();
+                    user.pokemons.forEach(p -> pokemons.put(item("pokemon", p)));
+                    return success(new JSONObject().put("pokemon", pokemons));
+                case "/api/user/:id/move":
+                    user.location++;
+                    return success(user.toJson());
+                case "/api/user/:id/bag/drop":
+                    JSONObject items = body.getJSONObject("items");
+                    for (String item : BAG_ITEMS) {
+                        user.bag.put(item, Math.max(0, user.bag.get(item) - items.optInt(item)));
+                    }
+                    return success(new JSONObject().put("bag", user.bag));
+                case "/api/nearby/:id/:itemType":
+                    return success(new JSONObject().put(segments[4], nearby(user, segments[4], mConfig.getNearbyItems())));
+                case "/api/nearby/:id/:itemType/closest":
+                    String closest = exchange.getQueryParameter("count");
+                    int closestCount = closest == null ? mConfig.getNearbyItems() : Integer.parseInt(closest);
+                    return success(new JSONObject().put(segments[4], nearby(user, segments[4], closestCount)));
+                case "/api/pokestop/improve":
+                    user.xp += count;
+                    return success(user.toJson());
+                case "/api/pokestop/:id/collect":
+                    user.bag.merge("pokeball", 3, Integer::sum);
+                    user.bag.merge("greatball", 1, Integer::sum);
+                    return success(new JSONObject().put("bag", user.bag));
+                case "/api/pokestop/:id/lure":
+                    user.bag.put("lure", Math.max(0, user.bag.get("lure") - 1));
+                    return success(new JSONObject().put("pokestop", id).put("lured", count));
+                case "/api/pokemon/levelUp":
+                    int leveledUp = Math.min(count, user.pokemons.size());
+                    user.xp += leveledUp;
+                    return success(new JSONObject().put("leveledUp", leveledUp));
+                case "/api/pokemon/nuke":
+                    int nuked = Math.min(count, user.pokemons.size());
+                    for (int i = 0; i < nuked; i++) {
+                        user.pokemons.poll();
+                    }
+                    return success(new JSONObject().put("nuked", nuked));
+                case "/api/pokemon/:id/capture":
+                    if (user.pokemons.size() == MAX_USER_POKEMONS) user.pokemons.poll();
+                    user.pokemons.add(id);
+                    return success(item("pokemon", id));
+                default:
+                    // battles
+                    user.xp += 10;
+                    return success(new JSONObject().put("won", ThreadLocalRandom.current().nextBoolean()).put("xp", user.xp));
+            }
+        }
+    }
+
+    private static JSONArray nearby(User user, String itemType, int count) {
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            items.put(item(itemType, itemType + "-" + user.location + "-" + i));
+        }
+        return items;
+    }
+
+    private static JSONObject item(String itemType, String id) {
+        return new JSONObject()
+                .put("_id", id)
+                .put("type", itemType)
+                .put("level", Math.floorMod(id.hashCode(), 40) + 1);
+    }
+
+    private static byte[] success(JSONObject data) {
+        return render(new JSONObject().put("success", 1).put("data", data));
+    }
+
+    private static byte[] error(String message) {
+        return render(new JSONObject().put("success", 0).put("err", message));
+    }
+
+    private static class User {
+        final String id;
+        int xp = 0;
+        int location = 0;
+        final Map<String, Integer> bag = new LinkedHashMap<>();
+        final Queue<String> pokemons = new ArrayDeque<>();
+
+        User(String id) {
+            this.id = id;
+            BAG_ITEMS.forEach(item -> bag.put(item, 10));
+        }
+
+        JSONObject toJson() {
+            return new JSONObject()
+                    .put("id", id)
+                    .put("xp", xp)
+                    .put("location", location)
+                    .put("bag", bag);
+        }
+    }
+
+    /**
+     * Parallel servers delaying the responses of requests by a sampled service time, the
+     * requests finding all of them busy waiting in FIFO order.
+     *
+     * A request waiting is served from the time the previous one was due, rather than
+     * from when its response was actually sent, so that the lateness of the timer delays
+     * the responses without taking any capacity from the station.
+     */
+    private class Station {
+        private final StandInServerConfig.Station mStationConfig;
+        private final Queue<Waiting> mQueue = new ArrayDeque<>();
+        private int mBusy = 0;
+
+        final LongAdder mRequests = new LongAdder();
+
+        Station(StandInServerConfig.Station config) {
+            mStationConfig = config;
+        }
+
+        void arrive(Runnable respond) {
+            long arrivalNanos = System.nanoTime();
+            mRequests.increment();
+            synchronized (this) {
+                if (mBusy == mStationConfig.getServers()) {
+                    mQueue.add(new Waiting(respond, arrivalNanos));
+                    return;
+                }
+                mBusy++;
+            }
+            serve(respond, arrivalNanos);
+        }
+
+        private void serve(Runnable respond, long startNanos) {
+            long dueNanos = startNanos + sampleServiceNanos();
+            mTimer.schedule(() -> {
+                respond.run();
+                serveNext(dueNanos);
+            }, dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        private void serveNext(long freeNanos) {
+            Waiting next;
+            synchronized (this) {
+                next = mQueue.poll();
+                if (next == null) {
+                    mBusy--;
+                    return;
+                }
+            }
+            serve(next.respond, Math.max(next.arrivalNanos, freeNanos));
+        }
+
+        private long sampleServiceNanos() {
+            ServiceTime serviceTime = mStationConfig.getServiceTime();
+            double mean = QueueingModel.meanSeconds(serviceTime);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            double seconds;
+            switch (serviceTime.getDistribution()) {
+                case DETERMINISTIC:
+                    seconds = mean;
+                    break;
+                case LOG_NORMAL:
+                    double cv = serviceTime.getCoefficientOfVariation();
+                    double sigma = Math.sqrt(Math.log(1 + cv * cv));
+                    seconds = Math.exp(Math.log(mean) - sigma * sigma / 2 + sigma * random.nextGaussian());
+                    break;
+                default:
+                    seconds = -mean * Math.log(1 - random.nextDouble());
+            }
+            return (long) (seconds * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    private static class Waiting {
+        final Runnable respond;
+        final long arrivalNanos;
+
+        Waiting(Runnable respond, long arrivalNanos) {
+            this.respond = respond;
+            this.arrivalNanos = arrivalNanos;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.v1ct04.benchstack.concurrent;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GenerationBarrierTest {
+
+    @Test
+    public void testAdvanceAwaitsOnlyClosedGeneration() throws Exception {
+        GenerationBarrier barrier = new GenerationBarrier();
+        GenerationBarrier.Generation first = barrier.enter();
+        GenerationBarrier.Generation second = barrier.enter();
+
+        ListenableFuture<?> closed = barrier.advance();
+        GenerationBarrier.Generation next = barrier.enter();
+        Assert.assertNotSame(first, next);
+
+        first.leave();
+        Assert.assertFalse(closed.isDone());
+        second.leave();
+        Assert.assertTrue(closed.isDone());
+
+        Assert.assertFalse(barrier.advance().isDone());
+        next.leave();
+        Assert.assertTrue(barrier.advance().isDone());
+    }
+}
@@ -0,0 +1,58 @@
+package com.v1ct04.benchstack.concurrent;
+
+import com.google.common.util.concurrent.ListenableScheduledFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.*;
+
+public class HashedWheelScheduledExecutorServiceTest {
+
+    private static HashedWheelScheduledExecutorService newWheel() {
+        // A small wheel, so that delays span multiple turns
+        return new HashedWheelScheduledExecutorService(
+                MoreExecutors.sameThreadExecutor(), Executors.defaultThreadFactory(),
+                1, TimeUnit.MILLISECONDS, 8);
+    }
+
+    @Test
+    public void testRunsAfterDelay() throws Exception {
+        HashedWheelScheduledExecutorService wheel = newWheel();
+        long start = System.nanoTime();
+        ListenableScheduledFuture<Long> future = wheel.schedule(System::nanoTime, 50, TimeUnit.MILLISECONDS);
+
+        long elapsed = future.get(5, TimeUnit.SECONDS) - start;
+        Assert.assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertEquals(1, wheel.getSchedulingLag().count);
+        wheel.shutdownNow();
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        HashedWheelScheduledExecutorService wheel = newWheel();
+        ListenableScheduledFuture<?> cancelled = wheel.schedule(() -> Assert.fail(), 20, TimeUnit.MILLISECONDS);
+        ListenableScheduledFuture<?> other = wheel.schedule(() -> {}, 40, TimeUnit.MILLISECONDS);
+
+        Assert.assertTrue(cancelled.cancel(false));
+        other.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(1, wheel.getSchedulingLag().count);
+        wheel.shutdownNow();
+    }
+
+    @Test
+    public void testShutdownRunsDelayedTasks() throws Exception {
+        HashedWheelScheduledExecutorService wheel = newWheel();
+        ListenableScheduledFuture<?> future = wheel.schedule(() -> {}, 30, TimeUnit.MILLISECONDS);
+        wheel.shutdown();
+
+        try {
+            wheel.schedule(() -> {}, 0, TimeUnit.MILLISECONDS);
+            Assert.fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        Assert.assertTrue(wheel.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertTrue(future.isDone() && !future.isCancelled());
+    }
+}
@@ -0,0 +1,119 @@
+package com.v1ct04.benchstack.concurrent;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ReschedulingTaskTest {
+
+    @Test
+    public void testCancelAwaitsRunningExecution() throws Exception {
+        ScheduledExecutorService wheel = new HashedWheelScheduledExecutorService(
+                Executors.newCachedThreadPool(), Executors.defaultThreadFactory());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ReschedulingTask task = ReschedulingTask.builder(wheel)
+                .setFixedDelay(1, TimeUnit.MILLISECONDS)
+                .start(() -> {
+                    started.countDown();
+                    Interruptibles.uninterruptibly(release::await);
+                });
+
+        started.await();
+        task.cancel(false);
+        Assert.assertFalse(task.isTerminated());
+
+        release.countDown();
+        task.awaitTermination();
+        Assert.assertTrue(task.isTerminated());
+        Assert.assertFalse(task.awaitExecution());
+        wheel.shutdownNow();
+    }
+
+    @Test
+    public void testAsyncExecutionDelaysReschedule() throws Exception {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        AtomicInteger executions = new AtomicInteger(0);
+        SettableFuture<Void> execution = SettableFuture.create();
+        ReschedulingTask task = ReschedulingTask.builder(executor)
+                .setFixedDelay(1, TimeUnit.MILLISECONDS)
+                .startAsync(intendedNanoStartTime -> {
+                    executions.incrementAndGet();
+                    return execution;
+                });
+
+        try {
+            task.awaitExecutionInterruptibly(50, TimeUnit.MILLISECONDS);
+            Assert.fail();
+        } catch (TimeoutException e) {
+            // expected, the execution is still in flight
+        }
+        Assert.assertEquals(1, executions.get());
+
+        execution.set(null);
+        Assert.assertTrue(task.awaitExecutionInterruptibly(5, TimeUnit.SECONDS));
+        task.cancel(false);
+        task.awaitTermination();
+        executor.shutdownNow();
+    }
+
+    /**
+     * An asynchronous execution starting while the future is requested, holding the wait
+     * lock of the task to interleave them, must still be the one the future waits for.
+     */
+    @Test
+    public void testNextExecutionFutureRacingExecutionStart() throws Exception {
+        AtomicReference<Thread> executorThread = new AtomicReference<>();
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r);
+            executorThread.set(thread);
+            return thread;
+        });
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SettableFuture<Void> execution = SettableFuture.create();
+        AtomicInteger executions = new AtomicInteger(0);
+        ReschedulingTask task = ReschedulingTask.builder(executor)
+                .setFixedDelay(1, TimeUnit.HOURS)
+                .startAsync(intendedNanoStartTime -> {
+                    if (executions.getAndIncrement() > 0) return Futures.immediateFuture(null);
+                    started.countDown();
+                    Interruptibles.uninterruptibly(release::await);
+                    return execution;
+                });
+        started.await();
+
+        Field waitLock = ReschedulingTask.class.getDeclaredField("mWaitLock");
+        waitLock.setAccessible(true);
+        AtomicReference<ListenableFuture<?>> future = new AtomicReference<>();
+        Thread caller = new Thread(() -> future.set(task.nextExecutionFuture()));
+        synchronized (waitLock.get(task)) {
+            // the caller sees no execution running, then the execution sets itself running
+            caller.start();
+            awaitBlocked(caller);
+            release.countDown();
+            awaitBlocked(executorThread.get());
+        }
+        caller.join();
+
+        Assert.assertFalse(future.get().isDone());
+        execution.set(null);
+        future.get().get(5, TimeUnit.SECONDS);
+        task.cancel(false);
+        task.awaitTermination();
+        executor.shutdownNow();
+    }
+
+    private static void awaitBlocked(Thread thread) throws InterruptedException {
+        while (thread.getState() != Thread.State.BLOCKED) {
+            Thread.sleep(1);
+        }
+    }
+}
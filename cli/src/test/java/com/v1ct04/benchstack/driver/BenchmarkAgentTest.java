@@ -0,0 +1,122 @@
+package com.v1ct04.benchstack.driver;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public class BenchmarkAgentTest {
+
+    private static final int AGENTS = 2;
+
+    private final Set<Integer> mWorkers = ConcurrentHashMap.newKeySet();
+    private final List<BenchmarkAgent> mAgents = new ArrayList<>();
+    private final List<Thread> mRunners = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < AGENTS; i++) {
+            BenchmarkAgent agent = new BenchmarkAgent(0, new BenchmarkAction() {
+                @Override
+                public ListenableFuture<?> execute(int workerNum, OperationTag tag) {
+                    mWorkers.add(workerNum);
+                    return Futures.immediateFuture(null);
+                }
+
+                @Override
+                public ConnectionPoolStats getConnectionPoolStats() {
+                    return ConnectionPoolStats.of(1, 2, 0, 3, 1);
+                }
+            });
+            Thread runner = new Thread(() -> {
+                try {
+                    agent.run();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            runner.start();
+            mAgents.add(agent);
+            mRunners.add(runner);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (BenchmarkAgent agent : mAgents) {
+            agent.close();
+        }
+        assertRunnersFinish();
+    }
+
+    @Test
+    public void testDrivesLoadFromAgents() throws Exception {
+        RemoteLoadDriver driver = new RemoteLoadDriver(BenchmarkConfig.getDefaultInstance(), addresses());
+        try {
+            Assert.assertEquals("workers", driver.getLoadUnit());
+            Assert.assertEquals(5, driver.setLoad(5));
+            driver.unblockedFuture().get(5, TimeUnit.SECONDS);
+
+            // the agents take 3 and 2 workers, interleaved into unique worker numbers
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (mWorkers.size() < 5 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(ImmutableSet.of(0, 1, 2, 3, 4), mWorkers);
+
+            LoadDriver.Status status = driver.getStatus();
+            Assert.assertTrue(status.toString(), status.threadCount > 0);
+            Assert.assertEquals(status.toString(), 2, status.connectionPool.active);
+            Assert.assertEquals(status.toString(), 4, status.connectionPool.idle);
+            Assert.assertEquals(status.toString(), 6, status.connectionPool.opened);
+            Assert.assertEquals(status.toString(), 2, status.connectionPool.closed);
+
+            driver.startStatistics(2);
+            Thread.sleep(1500);
+            Assert.assertTrue(driver.stopStatistics().corrected.count > 0);
+        } finally {
+            driver.shutdown();
+            driver.awaitTermination();
+        }
+    }
+
+    @Test
+    public void testCloseDisconnectsCoordinator() throws Exception {
+        RemoteLoadDriver driver = new RemoteLoadDriver(BenchmarkConfig.getDefaultInstance(), addresses());
+        driver.setLoad(2);
+        for (BenchmarkAgent agent : mAgents) {
+            agent.close();
+        }
+        assertRunnersFinish();
+        // the agents hang up, so no shutdown is needed for the connections to close
+        driver.awaitTermination();
+    }
+
+    private List<InetSocketAddress> addresses() {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (BenchmarkAgent agent : mAgents) {
+            addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), agent.getPort()));
+        }
+        return addresses;
+    }
+
+    private void assertRunnersFinish() throws InterruptedException {
+        for (Thread runner : mRunners) {
+            runner.join(TimeUnit.SECONDS.toMillis(10));
+            Assert.assertFalse(runner.isAlive());
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.v1ct04.benchstack.driver;
+
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.FeedbackControlConfig;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class FeedbackLoadControllerTest {
+
+    private static final double THRESHOLD = 0.95;
+    private static final int MAX_COMPLIANT_LOAD = 1000;
+
+    @Test
+    public void testConvergesToMaxCompliantLoad() throws Exception {
+        FeedbackLoadController controller = new FeedbackLoadController(
+                FeedbackControlConfig.getDefaultInstance(), THRESHOLD);
+        Random random = new Random(42);
+
+        int load = 10, adjustments = 0;
+        while (!controller.hasConverged()) {
+            Assert.assertTrue("Didn't converge, load: " + load, ++adjustments < 100);
+            load = controller.update(load, sample(load, random));
+        }
+
+        int converged = controller.getConvergedLoad();
+        Assert.assertTrue("Converged to: " + converged, converged <= MAX_COMPLIANT_LOAD);
+        Assert.assertTrue("Converged to: " + converged, converged >= 0.9 * MAX_COMPLIANT_LOAD);
+    }
+
+    /**
+     * Sample of a system where the fraction over the delay limit grows steeply with
+     * the load, reaching the allowed fraction at the maximum compliant load.
+     */
+    private static PercentileCalculator.Sample sample(int load, Random random) {
+        double tail = Math.min(1, (1 - THRESHOLD) * Math.pow(load / (double) MAX_COMPLIANT_LOAD, 4));
+        long count = 10000, higher = 0;
+        for (int i = 0; i < count; i++) {
+            if (random.nextDouble() < tail) higher++;
+        }
+        return new PercentileCalculator.Sample(count - higher, higher, 0, 0);
+    }
+}
@@ -0,0 +1,85 @@
+package com.v1ct04.benchstack.driver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class LogLinearHistogramTest {
+
+    @Test
+    public void testIndexesAreContiguous() throws Exception {
+        LogLinearHistogram histogram = new LogLinearHistogram(1L << 40, 2);
+        for (int idx = 0; idx < histogram.indexOf(1L << 40); idx++) {
+            long next = histogram.lowestValueAt(idx) + histogram.valueWidthAt(idx);
+            Assert.assertEquals(idx, histogram.indexOf(next - 1));
+            Assert.assertEquals(idx + 1, histogram.indexOf(next));
+        }
+    }
+
+    @Test
+    public void testPercentilePrecision() throws Exception {
+        LogLinearHistogram histogram = new LogLinearHistogram(1000000000L, 3);
+        for (long value = 1; value <= 1000000; value++) {
+            histogram.recordValue(value);
+        }
+        Assert.assertEquals(1000000, histogram.getTotalCount());
+        Assert.assertEquals(1, histogram.getMin());
+        Assert.assertEquals(1000000, histogram.getMax());
+        for (double percentile : new double[] {0.1, 0.5, 0.95, 0.99}) {
+            double expected = percentile * 999999 + 1;
+            Assert.assertEquals(expected, histogram.getValueAtPercentile(percentile), expected * 0.001);
+            Assert.assertEquals(percentile, histogram.getPercentileRank((long) expected), 0.001);
+        }
+    }
+
+    @Test
+    public void testMergedMomentsMatchSingleHistogram() throws Exception {
+        Random random = new Random(42);
+        LogLinearHistogram single = new LogLinearHistogram(1000000L, 2);
+        LogLinearHistogram first = new LogLinearHistogram(1000000L, 2);
+        LogLinearHistogram second = new LogLinearHistogram(1000000L, 2);
+        for (int i = 0; i < 10000; i++) {
+            long value = random.nextInt(1000000);
+            single.recordValue(value);
+            (i % 3 == 0 ? first : second).recordValue(value);
+        }
+        first.add(second);
+
+        Assert.assertEquals(single.getTotalCount(), first.getTotalCount());
+        Assert.assertEquals(single.getMean(), first.getMean(), 1e-6);
+        Assert.assertEquals(single.getVariance(), first.getVariance(), single.getVariance() * 1e-9);
+        Assert.assertEquals(single.getValueAtPercentile(0.95), first.getValueAtPercentile(0.95));
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws Exception {
+        Random random = new Random(42);
+        LogLinearHistogram histogram = new LogLinearHistogram(1000000L, 2);
+        for (int i = 0; i < 1000; i++) {
+            histogram.recordValue(random.nextInt(1000000));
+        }
+        LogLinearHistogram copy = LogLinearHistogram.fromSnapshot(histogram.toSnapshot());
+
+        Assert.assertEquals(histogram.getTotalCount(), copy.getTotalCount());
+        Assert.assertEquals(histogram.getMin(), copy.getMin());
+        Assert.assertEquals(histogram.getMax(), copy.getMax());
+        Assert.assertEquals(histogram.getVariance(), copy.getVariance(), 0);
+        Assert.assertEquals(histogram.getValueAtPercentile(0.95), copy.getValueAtPercentile(0.95));
+
+        LogLinearHistogram empty = LogLinearHistogram.fromSnapshot(new LogLinearHistogram(1000, 2).toSnapshot());
+        empty.recordValue(10);
+        Assert.assertEquals(10, empty.getMin());
+        Assert.assertEquals(10, empty.getMax());
+    }
+
+    @Test
+    public void testValuesAboveHighestTrackable() throws Exception {
+        LogLinearHistogram histogram = new LogLinearHistogram(1000, 2);
+        histogram.recordValue(10);
+        histogram.recordValue(5000);
+        Assert.assertEquals(5000, histogram.getMax());
+        Assert.assertEquals(2505, histogram.getMean(), 1e-9);
+        Assert.assertEquals(1, histogram.getPercentileRank(5000), 0);
+    }
+}
@@ -0,0 +1,106 @@
+package com.v1ct04.benchstack.driver;
+
+import com.google.common.util.concurrent.Futures;
+import com.v1ct04.benchstack.concurrent.SchedulingLag;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.MetricsConfig;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+public class MetricsReporterTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testPrometheusText() throws Exception {
+        Statistics.Calculator calculator = Statistics.calculator();
+        OperationTag tag = new OperationTag().setOperationClass("doReadLite");
+        for (int i = 1; i <= 4; i++) {
+            calculator.appendValue(tag, 10 * i, TimeUnit.MILLISECONDS);
+        }
+        Statistics latency = calculator.calculate();
+        // the totals are counters, accumulated over this interval and a previous one
+        Map<String, MetricsSnapshot.LatencyTotal> totals = new LinkedHashMap<>();
+        MetricsSnapshot.accumulate(totals, latency);
+        MetricsSnapshot.accumulate(totals, latency);
+        MetricsSnapshot snapshot = new MetricsSnapshot(0, "search", 20, "workers", 4, 0.95, 8,
+                SchedulingLag.of(4, 2, 5), latency, totals);
+        String text = snapshot.toPrometheusText();
+
+        Assert.assertTrue(text, text.contains("# TYPE benchstack_load gauge\nbenchstack_load{unit=\"workers\"} 20.0\n"));
+        Assert.assertTrue(text, text.contains("benchstack_phase_info{phase=\"search\"} 1.0\n"));
+        Assert.assertTrue(text, text.contains("benchstack_scheduling_lag_max_seconds 0.005\n"));
+
+        Assert.assertTrue(text, text.contains("# TYPE benchstack_latency_seconds summary\n"));
+        for (String operationClass : new String[]{"total", "doReadLite"}) {
+            String labels = "{class=\"" + operationClass + "\"";
+            Assert.assertTrue(text, text.contains("benchstack_latency_seconds" + labels + ",quantile=\"0.5\"} 0.02"));
+            Assert.assertTrue(text, text.contains("benchstack_latency_seconds" + labels + ",quantile=\"0.99\"} 0.03"));
+            Assert.assertTrue(text, text.contains("benchstack_latency_seconds_sum" + labels + "} 0.2"));
+            Assert.assertTrue(text, text.contains("benchstack_latency_seconds_count" + labels + "} 8.0\n"));
+        }
+    }
+
+    @Test
+    public void testReportsToNdjsonAndLoopbackScrapes() throws Exception {
+        File ndjson = mFolder.newFile("metrics.ndjson");
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        BenchmarkConfig config = BenchmarkConfig.newBuilder()
+                .setMetricsConfig(MetricsConfig.newBuilder()
+                        .setNdjsonPath(ndjson.getPath())
+                        .setPrometheusPort(port)
+                        .setIntervalMillis(50))
+                .build();
+        LocalLoadDriver driver = new LocalLoadDriver(config, (workerNum, tag) -> Futures.immediateFuture(null));
+        try {
+            driver.setLoad(5);
+            MetricsReporter reporter = new MetricsReporter(config.getMetricsConfig(), driver, () -> "search");
+            try {
+                while (reporter.getLatest() == null) {
+                    Thread.sleep(10);
+                }
+                HttpURLConnection connection = (HttpURLConnection)
+                        new URL("http://127.0.0.1:" + port + "/metrics").openConnection();
+                try (Scanner scanner = new Scanner(connection.getInputStream(), "UTF-8")) {
+                    String text = scanner.useDelimiter("\\A").next();
+                    Assert.assertTrue(text, text.contains("benchstack_load{unit=\"workers\"} 5.0\n"));
+                }
+                Thread.sleep(200);
+            } finally {
+                reporter.close();
+            }
+        } finally {
+            driver.shutdown();
+            driver.awaitTermination();
+        }
+
+        List<String> lines = Files.readAllLines(ndjson.toPath(), StandardCharsets.UTF_8);
+        Assert.assertTrue(lines.toString(), lines.size() >= 3);
+        for (String line : lines) {
+            JSONObject snapshot = new JSONObject(line);
+            Assert.assertEquals("search", snapshot.getString("phase"));
+            Assert.assertEquals(5, snapshot.getInt("load"));
+            Assert.assertEquals("workers", snapshot.getString("loadUnit"));
+            Assert.assertTrue(snapshot.getJSONObject("latency").getLong("count") >= 0);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.v1ct04.benchstack.driver;
+
+import com.google.common.base.Ticker;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.ComplianceTest;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.FineTuneStepConfig;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class PercentileCalculatorTest {
+
+    private static class ManualTicker extends Ticker {
+        long nanos = TimeUnit.DAYS.toNanos(1);
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long time, TimeUnit unit) {
+            nanos += unit.toNanos(time);
+        }
+    }
+
+    @Test
+    public void testWindowOnlyCountsRecentValues() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        PercentileCalculator calculator = new PercentileCalculator(100, 10, ticker);
+
+        for (int i = 0; i < 5; i++) {
+            calculator.appendValue(200);
+            ticker.advance(1, TimeUnit.SECONDS);
+        }
+        for (int i = 0; i < 5; i++) {
+            calculator.appendValue(50);
+            calculator.appendValue(50);
+            calculator.appendValue(200);
+            ticker.advance(1, TimeUnit.SECONDS);
+        }
+        calculator.appendValue(50);
+
+        Assert.assertEquals(1, calculator.getPercentile(1, TimeUnit.SECONDS), 0);
+        Assert.assertEquals(9 / 13.0, calculator.getPercentile(5, TimeUnit.SECONDS), 1e-9);
+        Assert.assertEquals(11 / 20.0, calculator.getPercentile(10, TimeUnit.SECONDS), 1e-9);
+    }
+
+    @Test
+    public void testOldBucketsAreRecycled() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        PercentileCalculator calculator = new PercentileCalculator(100, 3, ticker);
+
+        calculator.appendValue(200);
+        ticker.advance(3, TimeUnit.SECONDS);
+        calculator.appendValue(50);
+
+        Assert.assertEquals(1, calculator.count());
+        Assert.assertEquals(1, calculator.getCurrentPercentile(), 0);
+    }
+
+    @Test
+    public void testExecutingCountedAsHigher() throws Exception {
+        PercentileCalculator calculator = new PercentileCalculator(100, 5, new ManualTicker());
+
+        long startSecond = calculator.startExecution();
+        calculator.appendValue(50);
+        Assert.assertEquals(0.5, calculator.getCurrentPercentile(), 0);
+
+        calculator.finishExecution(startSecond);
+        Assert.assertEquals(1, calculator.getCurrentPercentile(), 0);
+    }
+
+    @Test
+    public void testOverdueExecutions() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        PercentileCalculator calculator = new PercentileCalculator(1500, 10, ticker);
+
+        long hung = calculator.startExecution();
+        ticker.advance(1, TimeUnit.SECONDS);
+        long finished = calculator.startExecution();
+        ticker.advance(1, TimeUnit.SECONDS);
+        calculator.startExecution();
+        Assert.assertEquals(0, calculator.getSample(10, TimeUnit.SECONDS).overdue);
+
+        // only the first one can't be within the bound anymore
+        ticker.advance(1, TimeUnit.SECONDS);
+        PercentileCalculator.Sample sample = calculator.getSample(10, TimeUnit.SECONDS);
+        Assert.assertEquals(3, sample.executing);
+        Assert.assertEquals(1, sample.overdue);
+
+        calculator.finishExecution(finished);
+        ticker.advance(1, TimeUnit.SECONDS);
+        sample = calculator.getSample(10, TimeUnit.SECONDS);
+        Assert.assertEquals(2, sample.executing);
+        Assert.assertEquals(1, sample.overdue);
+
+        calculator.finishExecution(hung);
+        Assert.assertEquals(0, calculator.getSample(10, TimeUnit.SECONDS).overdue);
+    }
+
+    @Test
+    public void testWindowCoversSequentialTest() throws Exception {
+        // 5 samples of 30s, longer than the 60s a single wait time would be given
+        BenchmarkConfig config = BenchmarkConfig.newBuilder()
+                .setComplianceTest(ComplianceTest.SEQUENTIAL)
+                .setComplianceTestSamples(5)
+                .setFineTuneConfig(FineTuneStepConfig.newBuilder().setBaseWaitTimeSec(30))
+                .build();
+        int windowSec = LocalLoadDriver.maxComplianceWindowSec(config);
+        Assert.assertEquals(150, windowSec);
+        Assert.assertEquals(60, LocalLoadDriver.maxComplianceWindowSec(
+                config.toBuilder().setComplianceTest(ComplianceTest.CONFIDENCE_BAND).build()));
+
+        // the outcomes since the start of the test are all still counted at its end
+        ManualTicker ticker = new ManualTicker();
+        PercentileCalculator calculator = new PercentileCalculator(100, windowSec, ticker);
+        calculator.appendValue(200);
+        for (int i = 0; i < 149; i++) {
+            ticker.advance(1, TimeUnit.SECONDS);
+            calculator.appendValue(50);
+        }
+        PercentileCalculator.Sample sample = calculator.getSample(150, TimeUnit.SECONDS);
+        Assert.assertEquals(1, sample.higher);
+        Assert.assertEquals(149, sample.lower);
+    }
+}
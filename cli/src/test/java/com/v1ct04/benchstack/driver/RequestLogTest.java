@@ -0,0 +1,97 @@
+package com.v1ct04.benchstack.driver;
+
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.RequestLogConfig;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RequestLogTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testConcurrentWritesAcrossSegments() throws Exception {
+        String path = new File(mFolder.getRoot(), "requests").getPath();
+        RequestLogWriter writer = new RequestLogWriter(RequestLogConfig.newBuilder()
+                .setPath(path)
+                .setRecordsPerSegment(100)
+                .build());
+
+        int threads = 4, recordsPerThread = 1234;
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int workerNum = t;
+            Thread thread = new Thread(() -> {
+                OperationTag tag = new OperationTag().setOperationClass("class" + workerNum % 2).setRoute("/route");
+                for (int i = 0; i < recordsPerThread; i++) {
+                    writer.append(workerNum, tag, i % 10 != 0, System.nanoTime(),
+                                  TimeUnit.MILLISECONDS.toNanos(i), TimeUnit.MICROSECONDS.toNanos(i));
+                }
+            });
+            writers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : writers) thread.join();
+        writer.close();
+
+        RequestLogReader reader = RequestLogReader.open(path);
+        AtomicLong count = new AtomicLong(), failures = new AtomicLong(), rawSum = new AtomicLong();
+        reader.forEach(record -> {
+            count.incrementAndGet();
+            if (!record.isSuccess()) failures.incrementAndGet();
+            rawSum.addAndGet(record.getRawMicros());
+            Assert.assertEquals(1000L * record.getRawMicros(), record.getCorrectedMicros());
+            Assert.assertEquals("class" + record.getWorkerNum() % 2, reader.getLabel(record.getOperationClass()));
+            Assert.assertEquals("/route", reader.getLabel(record.getRoute()));
+            Assert.assertTrue(record.getStartEpochMicros() >= reader.getStartEpochMicros());
+        });
+
+        Assert.assertEquals(threads * recordsPerThread, count.get());
+        Assert.assertEquals(threads * ((recordsPerThread + 9) / 10), failures.get());
+        Assert.assertEquals(threads * (long) recordsPerThread * (recordsPerThread - 1) / 2, rawSum.get());
+        // The last segment is truncated and the one mapped ahead of it removed.
+        File[] segments = mFolder.getRoot().listFiles((dir, name) -> name.endsWith(".log"));
+        Assert.assertEquals((threads * recordsPerThread + 99) / 100, segments.length);
+    }
+
+    @Test
+    public void testAppendsRacingClose() throws Exception {
+        String path = new File(mFolder.getRoot(), "requests").getPath();
+        RequestLogWriter writer = new RequestLogWriter(RequestLogConfig.newBuilder()
+                .setPath(path)
+                .setRecordsPerSegment(10)
+                .build());
+
+        AtomicLong appended = new AtomicLong();
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int workerNum = t;
+            Thread thread = new Thread(() -> {
+                OperationTag tag = new OperationTag().setRoute("/route");
+                // keeps appending after the close, which should just drop the records
+                for (int i = 0; i < 20000; i++) {
+                    writer.append(workerNum, tag, true, System.nanoTime(), 1000, 1000);
+                    appended.incrementAndGet();
+                }
+            });
+            writers.add(thread);
+            thread.start();
+        }
+        while (appended.get() < 1000) Thread.yield();
+        writer.close();
+        for (Thread thread : writers) thread.join();
+
+        AtomicLong count = new AtomicLong();
+        RequestLogReader.open(path).forEach(record -> count.incrementAndGet());
+        Assert.assertTrue(count.get() >= 1000);
+        Assert.assertTrue(count.get() < appended.get());
+    }
+}
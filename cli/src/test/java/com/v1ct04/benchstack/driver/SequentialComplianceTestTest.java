@@ -0,0 +1,46 @@
+package com.v1ct04.benchstack.driver;
+
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.SequentialTestConfig;
+import com.v1ct04.benchstack.driver.SequentialComplianceTest.Decision;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class SequentialComplianceTestTest {
+
+    @Test
+    public void testDecidesEarlyFarFromThreshold() throws Exception {
+        SequentialComplianceTest test = new SequentialComplianceTest(SequentialTestConfig.getDefaultInstance(), 0.95);
+
+        Assert.assertEquals(Decision.UNDECIDED, test.decide(0, 0));
+        Assert.assertEquals(Decision.UNDECIDED, test.decide(10, 0));
+        Assert.assertEquals(Decision.VIOLATES, test.decide(10, 10));
+        Assert.assertEquals(Decision.COMPLIES, test.decide(1000, 0));
+    }
+
+    @Test
+    public void testErrorRates() throws Exception {
+        SequentialComplianceTest test = new SequentialComplianceTest(SequentialTestConfig.getDefaultInstance(), 0.95);
+        Random random = new Random(42);
+
+        int trials = 1000, falseDecisions = 0;
+        for (int i = 0; i < trials; i++) {
+            // Fractions over the limit at both edges of the indifference zone.
+            if (run(test, 0.06, random) == Decision.COMPLIES) falseDecisions++;
+            if (run(test, 0.04, random) == Decision.VIOLATES) falseDecisions++;
+        }
+        Assert.assertTrue("False decisions: " + falseDecisions, falseDecisions < 2 * trials * 0.05 * 1.2);
+    }
+
+    private static Decision run(SequentialComplianceTest test, double tail, Random random) {
+        long under = 0, over = 0;
+        Decision decision;
+        do {
+            if (random.nextDouble() < tail) over++;
+            else under++;
+            decision = test.decide(under, over);
+        } while (decision == Decision.UNDECIDED);
+        return decision;
+    }
+}
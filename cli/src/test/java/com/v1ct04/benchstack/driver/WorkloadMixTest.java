@@ -0,0 +1,71 @@
+package com.v1ct04.benchstack.driver;
+
+import com.google.common.util.concurrent.Futures;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.LoadPhase;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.WorkloadMix;
+import com.v1ct04.benchstack.webserver.WebServerBenchmarkAction;
+import com.v1ct04.benchstack.webserver.WebServerClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+
+public class WorkloadMixTest {
+
+    private static final WebServerClient CLIENT = (WebServerClient) Proxy.newProxyInstance(
+            WebServerClient.class.getClassLoader(), new Class<?>[]{WebServerClient.class},
+            (proxy, method, args) -> Futures.immediateFuture(null));
+
+    @Test
+    public void testSwitchesMixesOfPhases() throws Exception {
+        BenchmarkConfig config = BenchmarkConfig.newBuilder()
+                .addWorkloadMix(mix("reads", "READ_LITE"))
+                .addWorkloadMix(mix("writes", "INSERT_HEAVY"))
+                .setSearchWorkloadMix("reads")
+                .addLoadPhase(LoadPhase.newBuilder().setName("burst").setWorkloadMix("writes"))
+                .build();
+        WebServerBenchmarkAction action = newAction();
+        LocalLoadDriver driver = new LocalLoadDriver(config, action);
+        try {
+            Assert.assertEquals("createClient", execute(action));
+            Assert.assertEquals("doReadLite", execute(action));
+
+            driver.setWorkloadMix(config.getLoadPhase(0).getWorkloadMix());
+            Assert.assertEquals("doInsertHeavy", execute(action));
+
+            driver.setWorkloadMix("reads");
+            Assert.assertEquals("doReadLite", execute(action));
+        } finally {
+            driver.shutdown();
+            driver.awaitTermination();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownOperationOfPhaseMix() throws Exception {
+        BenchmarkConfig config = BenchmarkConfig.newBuilder()
+                .addWorkloadMix(mix("reads", "READ_LITE"))
+                .addWorkloadMix(mix("writes", "INSERT_HEAVYY"))
+                .addLoadPhase(LoadPhase.newBuilder().setWorkloadMix("writes"))
+                .build();
+        new Benchmark(config, newAction());
+    }
+
+    private static WebServerBenchmarkAction newAction() {
+        return new WebServerBenchmarkAction(null, (client, workerNum) -> Futures.immediateFuture(CLIENT));
+    }
+
+    private static String execute(WebServerBenchmarkAction action) throws Exception {
+        OperationTag tag = new OperationTag();
+        action.execute(0, tag).get();
+        return tag.getOperationClass();
+    }
+
+    private static WorkloadMix mix(String name, String operation) {
+        return WorkloadMix.newBuilder()
+                .setName(name)
+                .addWeight(WorkloadMix.Weight.newBuilder().setOperation(operation).setWeight(1))
+                .build();
+    }
+}
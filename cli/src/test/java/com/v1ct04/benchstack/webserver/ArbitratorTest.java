@@ -0,0 +1,43 @@
+package com.v1ct04.benchstack.webserver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ArbitratorTest {
+
+    @Test
+    public void testWeightedFrequencies() throws Exception {
+        int[] weights = {35, 20, 5, 12, 5, 3, 3, 2, 3, 2, 6, 4, 1};
+        Arbitrator.Builder<Integer> builder = Arbitrator.builder();
+        int weightSum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            builder.addFunction(weights[i], i);
+            weightSum += weights[i];
+        }
+        Arbitrator<Integer> arbitrator = builder.build();
+
+        int draws = 1000000;
+        int[] counts = new int[weights.length];
+        for (int i = 0; i < draws; i++) {
+            counts[arbitrator.arbitrate()]++;
+        }
+        for (int i = 0; i < weights.length; i++) {
+            double expected = (double) draws * weights[i] / weightSum;
+            // about 5 standard deviations of a binomial count
+            Assert.assertEquals("Function " + i, expected, counts[i], 5 * Math.sqrt(expected) + 1);
+        }
+    }
+
+    @Test
+    public void testSingleFunction() throws Exception {
+        Arbitrator<String> arbitrator = Arbitrator.uniform("only");
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("only", arbitrator.arbitrate());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEmpty() throws Exception {
+        Arbitrator.builder().build();
+    }
+}
@@ -0,0 +1,58 @@
+package com.v1ct04.benchstack.webserver;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class RequestTemplateTest {
+
+    private static final RequestTemplate LURE = RequestTemplate.post(
+            "/api/pokestop/{id}/lure", "{\"userId\": \"{userId}\", \"count\": {count}, \"items\": {}}");
+
+    @Test
+    public void testBindAndPrepare() throws Exception {
+        RequestTemplate bound = LURE.bind("userId", "u\"1").bind("count", 10);
+        PreparedRequest request = bound.prepare("id", "p 1/\u00e9");
+
+        Assert.assertEquals(RestfulHttpClient.Method.POST, request.method);
+        Assert.assertEquals("/api/pokestop/:id/lure", request.route);
+        Assert.assertEquals("/api/pokestop/p%201%2F%C3%A9/lure", request.path);
+        Assert.assertNull(request.query);
+        JSONObject body = new JSONObject(new String(request.body, StandardCharsets.UTF_8));
+        Assert.assertEquals("u\"1", body.getString("userId"));
+        Assert.assertEquals(10, body.getInt("count"));
+        Assert.assertEquals(0, body.getJSONObject("items").length());
+    }
+
+    @Test
+    public void testQueryAndBuilder() throws Exception {
+        RequestTemplate nearby = RequestTemplate.get("/api/nearby/{id}/{itemType}/closest?count={count}");
+        PreparedRequest request = nearby.newRequest()
+                .set("id", "u1")
+                .set("itemType", "pokemon")
+                .set("count", 30)
+                .build();
+
+        Assert.assertEquals("/api/nearby/:id/:itemType/closest", request.route);
+        Assert.assertEquals("/api/nearby/u1/pokemon/closest?count=30", request.getPathAndQuery());
+        Assert.assertNull(request.body);
+    }
+
+    @Test
+    public void testFullyBoundIsRenderedOnce() throws Exception {
+        RequestTemplate bound = LURE.bind("id", "p1").bind("userId", "u1").bind("count", 200);
+        Assert.assertSame(bound.prepare(), bound.prepare());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownSlot() throws Exception {
+        LURE.bind("user", "u1");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSlotNotBound() throws Exception {
+        LURE.bind("id", "p1").prepare();
+    }
+}
@@ -0,0 +1,132 @@
+package com.v1ct04.benchstack.webserver;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.v1ct04.benchstack.driver.Statistics;
+import com.v1ct04.benchstack.webserver.RestfulHttpClient.Method;
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class RequestTraceTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        String path = new File(mFolder.getRoot(), "trace").getPath();
+        try (RequestTraceWriter writer = new RequestTraceWriter(path)) {
+            RestfulHttpClient recorded = new FakeClient(null);
+            for (int i = 0; i < 100; i++) {
+                RestfulHttpClient client = new RecordingHttpClient(recorded, writer, i % 4);
+                client.doGet("/api/user/" + i, new BasicNameValuePair("count", "10"));
+                client.doPost("/api/user/" + i + "/move", new JSONObject().put("step", i));
+            }
+        }
+
+        try (RequestTraceReader reader = new RequestTraceReader(path)) {
+            RequestTraceReader.Request get = reader.next();
+            Assert.assertEquals(0, get.worker);
+            Assert.assertEquals(Method.GET, get.request.method);
+            Assert.assertEquals("/api/user/0", get.request.path);
+            Assert.assertEquals("count=10", get.request.query);
+            Assert.assertNull(get.request.body);
+            RequestTraceReader.Request post = reader.next();
+            Assert.assertEquals(Method.POST, post.request.method);
+            Assert.assertEquals("/api/user/0/move", post.request.getPathAndQuery());
+            Assert.assertNull(post.request.query);
+            Assert.assertEquals(0, new JSONObject(new String(post.request.body, StandardCharsets.UTF_8)).getInt("step"));
+            Assert.assertTrue(post.offsetMicros >= get.offsetMicros);
+        }
+
+        // Responses complete out of order, but each worker's requests must still be
+        // replayed in the recorded order.
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+        List<String> replayed = Collections.synchronizedList(new ArrayList<>());
+        try (RequestTraceReader reader = new RequestTraceReader(path)) {
+            TraceReplayer replayer = new TraceReplayer(new FakeClient((pathAndQuery, response) -> {
+                replayed.add(pathAndQuery);
+                executor.schedule(() -> response.set(new JSONObject()),
+                        pathAndQuery.hashCode() & 3, TimeUnit.MILLISECONDS);
+            }), TraceReplayer.MAX_SPEED, 8);
+            Statistics stats = replayer.replay(reader);
+            Assert.assertEquals(200, stats.count);
+            Assert.assertEquals(0, replayer.getErrorCount());
+        } finally {
+            executor.shutdown();
+        }
+        for (int worker = 0; worker < 4; worker++) {
+            List<String> expected = new ArrayList<>(), actual = new ArrayList<>();
+            for (int i = worker; i < 100; i += 4) {
+                expected.add("/api/user/" + i + "?count=10");
+                expected.add("/api/user/" + i + "/move");
+            }
+            for (String pathAndQuery : replayed) {
+                int id = Integer.parseInt(pathAndQuery.split("[/?]")[3]);
+                if (id % 4 == worker) actual.add(pathAndQuery);
+            }
+            Assert.assertEquals(expected, actual);
+        }
+    }
+
+    private interface Responder {
+        void respond(String pathAndQuery, SettableFuture<JSONObject> response);
+    }
+
+    private static class FakeClient implements RestfulHttpClient {
+        private final Responder mResponder;
+
+        FakeClient(Responder responder) {
+            mResponder = responder;
+        }
+
+        @Override
+        public ListenableFuture<JSONObject> doGet(JsonSelection selection, String path, NameValuePair... params) {
+            return Futures.immediateFuture(new JSONObject());
+        }
+
+        @Override
+        public ListenableFuture<JSONObject> doPost(JsonSelection selection, String path, JSONObject body) {
+            return Futures.immediateFuture(new JSONObject());
+        }
+
+        @Override
+        public ListenableFuture<JSONObject> doRequest(
+                JsonSelection selection, Method method, String pathAndQuery, String jsonBody) {
+            return Futures.immediateFuture(new JSONObject());
+        }
+
+        /**
+         * Replayed requests are sent as prepared, with their recorded bodies.
+         */
+        @Override
+        public ListenableFuture<JSONObject> send(JsonSelection selection, PreparedRequest request) {
+            SettableFuture<JSONObject> response = SettableFuture.create();
+            if (mResponder == null) {
+                response.set(new JSONObject());
+            } else {
+                mResponder.respond(request.getPathAndQuery(), response);
+            }
+            return response;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.v1ct04.benchstack.webserver;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class SelectiveJsonDecoderTest {
+
+    private static final String RESPONSE = "{\"success\": 1, \"err\": null, \"data\": {"
+            + "\"pokemon\": [{\"_id\": \"a1\", \"name\": \"Pik\\\"a}\", \"moves\": [[1, 2], {\"x\": [3]}]},"
+            + " {\"level\": 12.5, \"_id\": \"b\\u00e92\"}],"
+            + " \"user\": {\"id\": \"u1\", \"bag\": {\"pokeball\": 3}}, \"ok\": true}}";
+
+    @Test
+    public void testSelectedFields() throws Exception {
+        JSONObject result = decodeInChunks(
+                JsonSelection.of("success", "data.pokemon[]._id", "data.user.bag"), RESPONSE, 1);
+
+        JSONObject expected = new JSONObject("{\"success\": 1, \"data\": {"
+                + "\"pokemon\": [{\"_id\": \"a1\"}, {\"_id\": \"b\u00e92\"}],"
+                + " \"user\": {\"bag\": {\"pokeball\": 3}}}}");
+        Assert.assertEquals(expected.toString(), result.toString());
+    }
+
+    @Test
+    public void testAll() throws Exception {
+        for (int chunkSize : new int[]{1, 7, RESPONSE.length()}) {
+            JSONObject result = decodeInChunks(JsonSelection.ALL, RESPONSE, chunkSize);
+            Assert.assertEquals(new JSONObject(RESPONSE).toString(), result.toString());
+        }
+    }
+
+    @Test
+    public void testNothing() throws Exception {
+        JSONObject result = decodeInChunks(JsonSelection.of(), RESPONSE, 3);
+        Assert.assertEquals(0, result.length());
+    }
+
+    @Test(expected = JSONException.class)
+    public void testTruncated() throws Exception {
+        decodeInChunks(JsonSelection.of("success"), RESPONSE.substring(0, RESPONSE.length() - 1), 5);
+    }
+
+    @Test(expected = JSONException.class)
+    public void testNotAnObject() throws Exception {
+        decodeInChunks(JsonSelection.of("success"), "[1, 2]", 5);
+    }
+
+    private static JSONObject decodeInChunks(JsonSelection selection, String json, int chunkSize) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        SelectiveJsonDecoder decoder = selection.newDecoder();
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            decoder.feed(bytes, i, Math.min(chunkSize, bytes.length - i));
+        }
+        return decoder.finish();
+    }
+}
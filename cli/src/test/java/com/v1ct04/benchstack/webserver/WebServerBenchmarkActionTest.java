@@ -0,0 +1,46 @@
+package com.v1ct04.benchstack.webserver;
+
+import com.google.common.util.concurrent.Futures;
+import com.v1ct04.benchstack.driver.OperationTag;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WebServerBenchmarkActionTest {
+
+    private static final WebServerClient CLIENT = (WebServerClient) Proxy.newProxyInstance(
+            WebServerClient.class.getClassLoader(), new Class<?>[]{WebServerClient.class},
+            (proxy, method, args) -> Futures.immediateFuture(null));
+
+    @Test
+    public void testRetriesFailedClientCreation() throws Exception {
+        AtomicInteger creations = new AtomicInteger();
+        WebServerBenchmarkAction action = new WebServerBenchmarkAction(null, (client, workerNum) ->
+                creations.incrementAndGet() == 1
+                        ? Futures.immediateFailedFuture(new IOException("Server unavailable"))
+                        : Futures.immediateFuture(CLIENT));
+
+        OperationTag failed = new OperationTag();
+        try {
+            action.execute(0, failed).get();
+            Assert.fail("Creation should have failed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Assert.assertEquals("createClient", failed.getOperationClass());
+
+        OperationTag retried = new OperationTag();
+        action.execute(0, retried).get();
+        Assert.assertEquals("createClient", retried.getOperationClass());
+        Assert.assertEquals(2, creations.get());
+
+        OperationTag operation = new OperationTag();
+        action.execute(0, operation).get();
+        Assert.assertNotEquals("createClient", operation.getOperationClass());
+        Assert.assertEquals(2, creations.get());
+    }
+}
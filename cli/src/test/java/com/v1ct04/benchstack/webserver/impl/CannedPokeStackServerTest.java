@@ -0,0 +1,59 @@
+package com.v1ct04.benchstack.webserver.impl;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.HttpClientConfig;
+import com.v1ct04.benchstack.webserver.RestfulHttpClient.Method;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class CannedPokeStackServerTest {
+
+    @Test
+    public void testPokeStackRoutes() throws Exception {
+        try (CannedPokeStackServer server = new CannedPokeStackServer(1);
+             NingHttpClient client = new NingHttpClient(server.getBaseUri())) {
+            JSONObject user = client.doPost("/api/user/findOrCreate", new JSONObject().put("id", "u1"))
+                    .get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(1, user.getInt("success"));
+            String userId = user.getJSONObject("data").getString("id");
+
+            JSONArray closest = client.doRequest(Method.GET, "/api/nearby/" + userId + "/pokestop/closest?count=7", null)
+                    .get(5, TimeUnit.SECONDS)
+                    .getJSONObject("data")
+                    .getJSONArray("pokestop");
+            Assert.assertEquals(7, closest.length());
+            Assert.assertTrue(closest.getJSONObject(0).has("_id"));
+
+            JSONObject result = client.doPost("/api/pokestop/p1/lure", new JSONObject().put("userId", userId))
+                    .get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(1, result.getInt("success"));
+            Assert.assertEquals(3, server.getRequestCount());
+        }
+    }
+
+    @Test
+    public void testPipelinedRequests() throws Exception {
+        HttpClientConfig config = HttpClientConfig.newBuilder()
+                .setNioConnections(1)
+                .setPipelineDepth(8)
+                .build();
+        try (CannedPokeStackServer server = new CannedPokeStackServer(2);
+             NioHttpClient client = new NioHttpClient(server.getBaseUri(), config)) {
+            List<ListenableFuture<JSONObject>> responses = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                responses.add(client.doRequest(Method.GET, "/api/nearby/u1/trainer/closest?count=" + i % 5, null));
+            }
+            List<JSONObject> results = Futures.allAsList(responses).get(10, TimeUnit.SECONDS);
+            for (int i = 0; i < results.size(); i++) {
+                Assert.assertEquals(i % 5, results.get(i).getJSONObject("data").getJSONArray("trainer").length());
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.v1ct04.benchstack.webserver.impl;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.HttpClientConfig;
+import com.v1ct04.benchstack.driver.ConnectionPoolStats;
+import com.v1ct04.benchstack.webserver.RestfulHttpClient;
+import com.v1ct04.benchstack.webserver.RestfulHttpClient.Method;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+
+public class ConnectionPoolStatsTest {
+
+    private static final int REQUESTS = 5;
+
+    @Test
+    public void testNingKeepAlive() throws Exception {
+        assertKeptAlive((uri, config) -> new NingHttpClient(uri, config, null));
+    }
+
+    @Test
+    public void testNingWithoutKeepAlive() throws Exception {
+        assertClosedEach((uri, config) -> new NingHttpClient(uri, config, null));
+    }
+
+    @Test
+    public void testApacheKeepAlive() throws Exception {
+        assertKeptAlive((uri, config) -> new ApacheHttpClient(uri, config, MoreExecutors.directExecutor()));
+    }
+
+    @Test
+    public void testApacheWithoutKeepAlive() throws Exception {
+        assertClosedEach((uri, config) -> new ApacheHttpClient(uri, config, MoreExecutors.directExecutor()));
+    }
+
+    @Test
+    public void testNioKeepAlive() throws Exception {
+        assertKeptAlive(NioHttpClient::new);
+    }
+
+    /**
+     * Sequential requests reuse a single connection, left idle in the pool.
+     */
+    private static void assertKeptAlive(BiFunction<URI, HttpClientConfig, RestfulHttpClient> factory)
+            throws Exception {
+        HttpClientConfig config = HttpClientConfig.newBuilder().setNioConnections(1).build();
+        try (CannedPokeStackServer server = new CannedPokeStackServer(1);
+             RestfulHttpClient client = factory.apply(server.getBaseUri(), config)) {
+            sendRequests(client);
+            ConnectionPoolStats stats = awaitStats(client, s -> s.idle == 1 && s.active == 0 && s.pending == 0);
+            Assert.assertEquals(stats.toString(), 1, stats.idle);
+            Assert.assertEquals(stats.toString(), 0, stats.active);
+            Assert.assertEquals(stats.toString(), 0, stats.pending);
+            Assert.assertEquals(stats.toString(), 1, stats.opened);
+            Assert.assertEquals(stats.toString(), 0, stats.closed);
+        }
+    }
+
+    /**
+     * Each request opens its own connection, closed once it's answered.
+     */
+    private static void assertClosedEach(BiFunction<URI, HttpClientConfig, RestfulHttpClient> factory)
+            throws Exception {
+        HttpClientConfig config = HttpClientConfig.newBuilder().setKeepAlive(false).build();
+        try (CannedPokeStackServer server = new CannedPokeStackServer(1);
+             RestfulHttpClient client = factory.apply(server.getBaseUri(), config)) {
+            sendRequests(client);
+            ConnectionPoolStats stats = awaitStats(client, s -> s.closed == REQUESTS && s.pending == 0);
+            Assert.assertEquals(stats.toString(), REQUESTS, stats.closed);
+            Assert.assertEquals(stats.toString(), 0, stats.pending);
+            Assert.assertEquals(stats.toString(), 0, stats.active);
+            Assert.assertEquals(stats.toString(), 0, stats.idle);
+            Assert.assertEquals(stats.toString(), REQUESTS, stats.opened);
+        }
+    }
+
+    private static void sendRequests(RestfulHttpClient client) throws Exception {
+        for (int i = 0; i < REQUESTS; i++) {
+            client.doRequest(Method.GET, "/api/user/u" + i, null).get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Connections are released and closed right after the responses complete, so the
+     * stats are polled until they settle.
+     */
+    private static ConnectionPoolStats awaitStats(RestfulHttpClient client,
+                                                  Predicate<ConnectionPoolStats> settled)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        ConnectionPoolStats stats = client.getConnectionPoolStats();
+        while (!settled.test(stats) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            stats = client.getConnectionPoolStats();
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,272 @@
+package com.v1ct04.benchstack.webserver.impl;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.v1ct04.benchstack.driver.BenchmarkConfigWrapper.BenchmarkConfig.HttpClientConfig;
+import com.v1ct04.benchstack.driver.ConnectionPoolStats;
+import com.v1ct04.benchstack.webserver.JsonSelection;
+import com.v1ct04.benchstack.webserver.RequestTemplate;
+import com.v1ct04.benchstack.webserver.RestfulHttpClient.Method;
+import com.v1ct04.benchstack.webserver.WebServerResponseException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class NioHttpClientTest {
+
+    private HttpServer mServer;
+    private URI mBaseUri;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", NioHttpClientTest::echo);
+        mServer.start();
+        mBaseUri = new URI("http://127.0.0.1:" + mServer.getAddress().getPort());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.stop(0);
+    }
+
+    /**
+     * Responds with the request, chunked if asked to in the query.
+     */
+    private static void echo(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        byte[] response = new JSONObject()
+                .put("method", exchange.getRequestMethod())
+                .put("path", exchange.getRequestURI().getRawPath())
+                .put("query", query == null ? JSONObject.NULL : query)
+                .put("body", new String(ByteStreams.toByteArray(exchange.getRequestBody()), StandardCharsets.UTF_8))
+                .toString()
+                .getBytes(StandardCharsets.UTF_8);
+        boolean chunked = query != null && query.contains("chunked");
+        exchange.sendResponseHeaders(200, chunked ? 0 : response.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            for (byte b : response) {
+                body.write(b);
+                if (chunked) body.flush();
+            }
+        }
+    }
+
+    @Test
+    public void testGetAndPost() throws Exception {
+        try (NioHttpClient client = new NioHttpClient(mBaseUri)) {
+            JSONObject get = client.doGet("/api/user/u 1").get(5, TimeUnit.SECONDS);
+            Assert.assertEquals("GET", get.getString("method"));
+            Assert.assertEquals("/api/user/u%201", get.getString("path"));
+
+            JSONObject post = client.send(JsonSelection.of("method", "body"),
+                    RequestTemplate.post("/api/pokestop/{id}/lure", "{\"userId\": \"{userId}\"}")
+                            .bind("id", "p1")
+                            .prepare("userId", "u\"1"))
+                    .get(5, TimeUnit.SECONDS);
+            Assert.assertEquals("POST", post.getString("method"));
+            Assert.assertEquals("u\"1", new JSONObject(post.getString("body")).getString("userId"));
+            Assert.assertFalse(post.has("path"));
+        }
+    }
+
+    @Test
+    public void testPipelinedChunkedResponses() throws Exception {
+        HttpClientConfig config = HttpClientConfig.newBuilder()
+                .setNioConnections(2)
+                .setPipelineDepth(4)
+                .build();
+        try (NioHttpClient client = new NioHttpClient(mBaseUri, config)) {
+            List<ListenableFuture<JSONObject>> responses = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                responses.add(client.doRequest(Method.GET, "/api/user/" + i + "?chunked", null));
+            }
+            List<JSONObject> results = Futures.allAsList(responses).get(10, TimeUnit.SECONDS);
+            for (int i = 0; i < results.size(); i++) {
+                Assert.assertEquals("/api/user/" + i, results.get(i).getString("path"));
+            }
+            ConnectionPoolStats pool = client.getConnectionPoolStats();
+            Assert.assertTrue(pool.opened <= 2);
+            Assert.assertEquals(0, pool.active + pool.pending);
+        }
+    }
+
+    @Test
+    public void testConnectionRefused() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        try (NioHttpClient client = new NioHttpClient(new URI("http://127.0.0.1:" + port))) {
+            client.doGet("/api/user/1").get(5, TimeUnit.SECONDS);
+            Assert.fail("Request should have failed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof ConnectException);
+        }
+    }
+
+    @Test
+    public void testRetriesRequestOnConnectionClosedByServer() throws Exception {
+        // answers the first request of each connection and closes it on the next one
+        try (RawServer server = new RawServer((input, output) -> {
+            readRequest(input);
+            output.write(response("200 OK", "{\"n\": 1}"));
+            readRequest(input);
+        })) {
+            HttpClientConfig config = HttpClientConfig.newBuilder().setNioConnections(1).build();
+            try (NioHttpClient client = new NioHttpClient(server.getBaseUri(), config)) {
+                for (int i = 0; i < 3; i++) {
+                    Assert.assertEquals(1, client.doGet("/api/user/" + i).get(5, TimeUnit.SECONDS).getInt("n"));
+                }
+                Assert.assertEquals(3, client.getConnectionPoolStats().opened);
+            }
+        }
+    }
+
+    @Test
+    public void testNoContentResponse() throws Exception {
+        try (RawServer server = new RawServer((input, output) -> {
+            readRequest(input);
+            output.write("HTTP/1.1 204 No Content\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            readRequest(input);
+            output.write(response("200 OK", "{\"n\": 2}"));
+            readRequest(input);
+        })) {
+            HttpClientConfig config = HttpClientConfig.newBuilder().setNioConnections(1).build();
+            try (NioHttpClient client = new NioHttpClient(server.getBaseUri(), config)) {
+                try {
+                    client.doGet("/api/user/1").get(5, TimeUnit.SECONDS);
+                    Assert.fail("Empty response should not be valid JSON");
+                } catch (ExecutionException e) {
+                    Assert.assertTrue(e.getCause() instanceof WebServerResponseException);
+                }
+                // read from the same connection, the empty body delimited correctly
+                Assert.assertEquals(2, client.doGet("/api/user/2").get(5, TimeUnit.SECONDS).getInt("n"));
+                Assert.assertEquals(1, client.getConnectionPoolStats().opened);
+            }
+        }
+    }
+
+    @Test
+    public void testCloseFromListener() throws Exception {
+        NioHttpClient client = new NioHttpClient(mBaseUri);
+        CountDownLatch closed = new CountDownLatch(1);
+        client.doGet("/api/user/1").addListener(() -> {
+            try {
+                client.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            closed.countDown();
+        }, MoreExecutors.directExecutor());
+        Assert.assertTrue(closed.await(5, TimeUnit.SECONDS));
+        try {
+            client.doGet("/api/user/2").get(5, TimeUnit.SECONDS);
+            Assert.fail("Request should have failed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        // closing again, now from another thread, waits for the I/O thread and is harmless
+        client.close();
+    }
+
+    @Test
+    public void testSubmitRacingClose() throws Exception {
+        List<ListenableFuture<JSONObject>> responses = new ArrayList<>();
+        NioHttpClient client = new NioHttpClient(mBaseUri);
+        Thread submitter = new Thread(() -> {
+            for (int i = 0; i < 2000; i++) {
+                responses.add(client.doGet("/api/user/" + i));
+            }
+        });
+        submitter.start();
+        client.close();
+        submitter.join();
+        // completed, either answered or failed as the client closed
+        Futures.successfulAsList(responses).get(5, TimeUnit.SECONDS);
+    }
+
+    private static byte[] response(String status, String body) {
+        return ("HTTP/1.1 " + status + "\r\nContent-Length: " + body.length() + "\r\n\r\n" + body)
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Reads the head of a request without a body, failing if the connection is closed.
+     */
+    private static void readRequest(BufferedReader input) throws IOException {
+        String line;
+        do {
+            line = input.readLine();
+            if (line == null) throw new IOException("Connection closed by the client");
+        } while (!line.isEmpty());
+    }
+
+    /**
+     * Serves each connection with a script writing raw responses, closing it once the
+     * script returns.
+     */
+    private static class RawServer implements Closeable {
+        interface Script {
+            void serve(BufferedReader input, OutputStream output) throws IOException;
+        }
+
+        private final ServerSocket mSocket = new ServerSocket(0);
+        private final Thread mAcceptor;
+
+        RawServer(Script script) throws IOException {
+            mAcceptor = new Thread(() -> {
+                while (!mSocket.isClosed()) {
+                    try {
+                        Socket socket = mSocket.accept();
+                        new Thread(() -> {
+                            try (Socket s = socket) {
+                                script.serve(new BufferedReader(new InputStreamReader(
+                                        s.getInputStream(), StandardCharsets.US_ASCII)), s.getOutputStream());
+                            } catch (IOException e) {
+                                // the client went away
+                            }
+                        }).start();
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            });
+            mAcceptor.start();
+        }
+
+        URI getBaseUri() throws Exception {
+            return new URI("http://127.0.0.1:" + mSocket.getLocalPort());
+        }
+
+        @Override
+        public void close() throws IOException {
+            mSocket.close();
+            Uninterruptibles.joinUninterruptibly(mAcceptor);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.v1ct04.benchstack.webserver.impl;
+
+import com.v1ct04.benchstack.driver.StandInServerConfigWrapper.StandInServerConfig;
+import com.v1ct04.benchstack.driver.StandInServerConfigWrapper.StandInServerConfig.ServiceTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QueueingModelTest {
+
+    private static StandInServerConfig.Station station(int servers, ServiceTime.Distribution distribution) {
+        return StandInServerConfig.Station.newBuilder()
+                .setServers(servers)
+                .setServiceTime(ServiceTime.newBuilder()
+                        .setDistribution(distribution)
+                        .setMeanMillis(10)
+                        .setCoefficientOfVariation(1))
+                .build();
+    }
+
+    @Test
+    public void testErlangC() throws Exception {
+        Assert.assertEquals(0.6, QueueingModel.erlangC(1, 0.6), 1e-12);
+        Assert.assertEquals(1 / 3.0, QueueingModel.erlangC(2, 1), 1e-12);
+        Assert.assertEquals(0, QueueingModel.erlangC(4, 0), 0);
+        Assert.assertEquals(1, QueueingModel.erlangC(4, 4), 0);
+    }
+
+    @Test
+    public void testMM1MaxCompliantLoad() throws Exception {
+        // the response time of an M/M/1 queue is exponential with rate mu - lambda
+        StandInServerConfig config = StandInServerConfig.newBuilder()
+                .addStation(station(1, ServiceTime.Distribution.EXPONENTIAL))
+                .build();
+        Assert.assertEquals(Math.exp(-(100 - 40) * 0.05),
+                QueueingModel.stationTail(config.getStation(0), 40, 0.05), 1e-12);
+        double expected = 100 + Math.log(0.05) / 0.05;
+        Assert.assertEquals(expected, QueueingModel.maxCompliantLoad(config, new double[]{1}, 0.05, 0.95), 1e-6);
+        // half of the requests served immediately, each with an allowed tail of 10%
+        Assert.assertEquals(2 * (100 + Math.log(0.1) / 0.05),
+                QueueingModel.maxCompliantLoad(config, new double[]{0.5}, 0.05, 0.95), 1e-6);
+    }
+
+    @Test
+    public void testServiceTimeDistributions() throws Exception {
+        StandInServerConfig.Station deterministic = station(4, ServiceTime.Distribution.DETERMINISTIC);
+        Assert.assertEquals(1, QueueingModel.stationTail(deterministic, 0, 0.009), 0);
+        Assert.assertEquals(0, QueueingModel.stationTail(deterministic, 0, 0.011), 0);
+
+        // a log-normal with a coefficient of variation of 1 has a tail close to the exponential
+        StandInServerConfig.Station logNormal = station(4, ServiceTime.Distribution.LOG_NORMAL);
+        StandInServerConfig.Station exponential = station(4, ServiceTime.Distribution.EXPONENTIAL);
+        for (double load : new double[]{0, 200, 350}) {
+            double tail = QueueingModel.stationTail(logNormal, load, 0.03);
+            Assert.assertTrue(tail > 0 && tail < 1);
+            Assert.assertEquals(QueueingModel.stationTail(exponential, load, 0.03), tail, 0.05);
+        }
+        Assert.assertEquals(1, QueueingModel.stationTail(logNormal, 400, 0.03), 0);
+    }
+}
@@ -0,0 +1,74 @@
+package com.v1ct04.benchstack.webserver.impl;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.v1ct04.benchstack.driver.OperationTag;
+import com.v1ct04.benchstack.driver.StandInServerConfigWrapper.StandInServerConfig;
+import com.v1ct04.benchstack.driver.StandInServerConfigWrapper.StandInServerConfig.ServiceTime;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class StandInPokeStackServerTest {
+
+    @Test
+    public void testStationQueuesRequests() throws Exception {
+        StandInServerConfig config = StandInServerConfig.newBuilder()
+                .addStation(StandInServerConfig.Station.newBuilder()
+                        .setName("user")
+                        .addRoute("/api/user/:id")
+                        .setServers(2)
+                        .setServiceTime(ServiceTime.newBuilder()
+                                .setDistribution(ServiceTime.Distribution.DETERMINISTIC)
+                                .setMeanMillis(50)))
+                .build();
+        try (StandInPokeStackServer server = new StandInPokeStackServer(config);
+             NioHttpClient client = new NioHttpClient(server.getBaseUri())) {
+            JSONObject user = client.doPost("/api/user/findOrCreate", new JSONObject().put("workerNum", 7))
+                    .get(5, TimeUnit.SECONDS);
+            String userId = user.getJSONObject("data").getString("id");
+
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            List<ListenableFuture<JSONObject>> responses = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                responses.add(client.doGet("/api/user/" + userId));
+            }
+            for (JSONObject response : Futures.allAsList(responses).get(5, TimeUnit.SECONDS)) {
+                Assert.assertEquals(userId, response.getJSONObject("data").getString("id"));
+            }
+            // two rounds of the two servers
+            Assert.assertTrue(stopwatch.elapsed(TimeUnit.MILLISECONDS) >= 100);
+            Assert.assertArrayEquals(new double[]{0.8}, server.getStationLoadFractions(), 1e-9);
+
+            JSONObject missing = client.doGet("/api/user/nobody").get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(0, missing.getInt("success"));
+        }
+    }
+
+    @Test
+    public void testPokeStackClient() throws Exception {
+        try (StandInPokeStackServer server = new StandInPokeStackServer(StandInServerConfig.getDefaultInstance());
+             NingHttpClient client = new NingHttpClient(server.getBaseUri())) {
+            PokeStackClient pokeStack = PokeStackClient.asyncCreate(client, 1).get(5, TimeUnit.SECONDS);
+            for (int i = 0; i < 10; i++) {
+                pokeStack.doReadLite(new OperationTag()).get(5, TimeUnit.SECONDS);
+                pokeStack.doReadMedium(new OperationTag()).get(5, TimeUnit.SECONDS);
+                pokeStack.doReadHeavy(new OperationTag()).get(5, TimeUnit.SECONDS);
+                pokeStack.doUpdateLite(new OperationTag()).get(5, TimeUnit.SECONDS);
+                pokeStack.doUpdateMedium(new OperationTag()).get(5, TimeUnit.SECONDS);
+                pokeStack.doUpdateHeavy(new OperationTag()).get(5, TimeUnit.SECONDS);
+                pokeStack.doInsertLite(new OperationTag()).get(5, TimeUnit.SECONDS);
+                pokeStack.doDeleteHeavy(new OperationTag()).get(5, TimeUnit.SECONDS);
+                pokeStack.doCPULite(new OperationTag()).get(5, TimeUnit.SECONDS);
+                pokeStack.doCPUHeavy(new OperationTag()).get(5, TimeUnit.SECONDS);
+            }
+            // no stations, everything served immediately
+            Assert.assertEquals(0, server.getStationLoadFractions().length);
+        }
+    }
+}